@@ -0,0 +1,77 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeCreatedEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeSubmittedEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.generators.EiffelEventGenerator;
+import com.ericsson.gerrit.plugins.eiffel.events.generators.EiffelSourceChangeCreatedEventGenerator;
+import com.ericsson.gerrit.plugins.eiffel.events.generators.EiffelSourceChangeSubmittedEventGenerator;
+import com.google.gerrit.server.events.ChangeMergedEvent;
+import com.google.gerrit.server.events.PatchSetCreatedEvent;
+
+/**
+ * Generation of Eiffel events from Gerrit events. The host name is set up front so that no
+ * lookup is measured.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EiffelEventGeneratorBenchmark {
+    private static final String PROJECT = "my-project";
+
+    private PatchSetCreatedEvent patchSetCreatedEvent;
+    private ChangeMergedEvent changeMergedEvent;
+    private EiffelPluginConfiguration pluginConfig;
+
+    @Setup
+    public void setUp() {
+        EiffelEventGenerator.setHostName("gerrit.example.com");
+        patchSetCreatedEvent = GerritEventFixtures.patchSetCreatedEvent(PROJECT, "master", 4711, 3);
+        changeMergedEvent = GerritEventFixtures.changeMergedEvent(PROJECT, "master", 4711, 3);
+        pluginConfig = GerritEventFixtures.pluginConfig(PROJECT, null);
+    }
+
+    @Benchmark
+    public EiffelSourceChangeCreatedEvent generateSourceChangeCreated() {
+        return EiffelSourceChangeCreatedEventGenerator.generate(patchSetCreatedEvent, pluginConfig);
+    }
+
+    @Benchmark
+    public EiffelSourceChangeSubmittedEvent generateSourceChangeSubmitted() {
+        return EiffelSourceChangeSubmittedEventGenerator.generate(changeMergedEvent, pluginConfig);
+    }
+}
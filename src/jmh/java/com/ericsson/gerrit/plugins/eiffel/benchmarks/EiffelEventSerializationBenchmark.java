@@ -0,0 +1,111 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeSubmittedEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.models.Link;
+import com.ericsson.gerrit.plugins.eiffel.messaging.EiffelEventSerializer;
+import com.ericsson.gerrit.plugins.eiffel.messaging.EiffelEventSerializer.JsonBuffer;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+/**
+ * Compares building the REMReM request body through a JsonObject tree and a String with writing
+ * it straight into a pooled buffer. Run with the benchmark profile, adding -prof gc shows the
+ * allocation per event.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EiffelEventSerializationBenchmark {
+    private final Gson gson = new Gson();
+    private EiffelSourceChangeSubmittedEvent eiffelEvent;
+    private JsonObject eiffelEventJson;
+
+    @Setup
+    public void setUp() {
+        eiffelEvent = new EiffelSourceChangeSubmittedEvent();
+        eiffelEvent.msgParams.meta.type = "EiffelSourceChangeSubmittedEvent";
+        eiffelEvent.msgParams.meta.source.name = "Eiffel Gerrit Plugin";
+        eiffelEvent.msgParams.meta.source.host = "gerrit.example.com";
+        eiffelEvent.msgParams.meta.source.uri = "https://gerrit.example.com";
+        eiffelEvent.eventParams.data.submitter.name = "User Usersson";
+        eiffelEvent.eventParams.data.submitter.email = "user@example.com";
+        eiffelEvent.eventParams.data.submitter.id = "user";
+        eiffelEvent.eventParams.data.gitIdentifier.commitId = "3c7d5d1f8d2b0f1a2e6c9b4a7d8e0f1a2b3c4d5e";
+        eiffelEvent.eventParams.data.gitIdentifier.branch = "master";
+        eiffelEvent.eventParams.data.gitIdentifier.repoName = "my-project";
+        eiffelEvent.eventParams.data.gitIdentifier.repoUri = "ssh://gerrit.example.com:29418/my-project";
+        for (String type : new String[] { "CHANGE", "PREVIOUS_VERSION" }) {
+            Link link = new Link();
+            link.type = type;
+            link.target = "7e0bc9ec-2fa1-4d3b-a6b4-2d5d3a3fd9d8";
+            eiffelEvent.eventParams.links.add(link);
+        }
+        eiffelEventJson = gson.toJsonTree(eiffelEvent).getAsJsonObject();
+    }
+
+    /**
+     * The request body as it was built before the serializer existed.
+     */
+    @Benchmark
+    public byte[] jsonTreeToString() {
+        return gson.toJsonTree(eiffelEvent).getAsJsonObject().toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void streamEventToBuffer(final Blackhole blackhole) {
+        try (JsonBuffer buffer = EiffelEventSerializer.write(eiffelEvent)) {
+            blackhole.consume(buffer.toEntity());
+        }
+    }
+
+    /**
+     * Events already held as a JsonObject, as by the retry and batching publishers.
+     */
+    @Benchmark
+    public byte[] jsonObjectToString() {
+        return eiffelEventJson.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void streamJsonObjectToBuffer(final Blackhole blackhole) {
+        try (JsonBuffer buffer = EiffelEventSerializer.write(eiffelEventJson)) {
+            blackhole.consume(buffer.toEntity());
+        }
+    }
+}
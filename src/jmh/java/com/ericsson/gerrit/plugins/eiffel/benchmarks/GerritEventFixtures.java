@@ -0,0 +1,128 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.benchmarks;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.google.common.base.Supplier;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.events.ChangeEvent;
+import com.google.gerrit.server.events.ChangeMergedEvent;
+import com.google.gerrit.server.events.PatchSetCreatedEvent;
+import com.google.gerrit.server.events.SupplierDeserializer;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Synthetic Gerrit events and project configurations for the benchmarks. Gerrit only creates
+ * events from a Change, so the fixtures are read from stream-events style JSON the same way
+ * spilled events are.
+ *
+ */
+final class GerritEventFixtures {
+    static final String PLUGIN_NAME = "Eiffel-Integration";
+    static final String URL = "https://gerrit.example.com";
+    static final String REMREM_PUBLISH_URL = "https://remrem.example.com/publish";
+
+    private static final Gson GSON = new GsonBuilder().registerTypeAdapter(Supplier.class, new SupplierDeserializer())
+                                                      .create();
+    private static final String CHANGE_JSON = "\"change\":{\"project\":\"%1$s\",\"branch\":\"%2$s\","
+            + "\"id\":\"%3$s\",\"number\":%4$d,\"subject\":\"Change %4$d\",\"url\":\"" + URL + "/%4$d\","
+            + "\"owner\":{\"name\":\"User Usersson\",\"email\":\"user@example.com\",\"username\":\"user\"}}";
+    private static final String PATCH_SET_JSON = "\"patchSet\":{\"number\":%1$d,\"revision\":\"%2$s\","
+            + "\"ref\":\"refs/changes/%3$02d/%4$d/%1$d\",\"sizeInsertions\":12,\"sizeDeletions\":3,"
+            + "\"author\":{\"name\":\"User Usersson\",\"email\":\"user@example.com\",\"username\":\"user\"}}";
+    private static final String ACCOUNT_JSON = "{\"name\":\"User Usersson\",\"email\":\"user@example.com\","
+            + "\"username\":\"user\"}";
+
+    private GerritEventFixtures() {
+    }
+
+    static PatchSetCreatedEvent patchSetCreatedEvent(final String project, final String branch,
+            final int changeNumber, final int patchSetNumber) {
+        final String json = String.format("{\"type\":\"patchset-created\",%s,%s,\"uploader\":%s}",
+                changeJson(project, branch, changeNumber), patchSetJson(changeNumber, patchSetNumber),
+                ACCOUNT_JSON);
+        final PatchSetCreatedEvent event = GSON.fromJson(json, PatchSetCreatedEvent.class);
+        setKeys(event, project, branch, changeNumber);
+        return event;
+    }
+
+    static ChangeMergedEvent changeMergedEvent(final String project, final String branch, final int changeNumber,
+            final int patchSetNumber) {
+        final String json = String.format("{\"type\":\"change-merged\",%s,%s,\"submitter\":%s,\"newRev\":\"%s\"}",
+                changeJson(project, branch, changeNumber), patchSetJson(changeNumber, patchSetNumber),
+                ACCOUNT_JSON, revision(changeNumber, patchSetNumber + 1));
+        final ChangeMergedEvent event = GSON.fromJson(json, ChangeMergedEvent.class);
+        setKeys(event, project, branch, changeNumber);
+        return event;
+    }
+
+    /**
+     * Project configuration with the plugin enabled, as read from refs/meta/config.
+     *
+     * @param project
+     * @param filter branch filter, null for none
+     * @return EiffelPluginConfiguration
+     */
+    static EiffelPluginConfiguration pluginConfig(final String project, final String filter) {
+        final PluginConfigFactory pluginConfigFactory = mock(PluginConfigFactory.class);
+        final PluginConfig pluginConfig = mock(PluginConfig.class);
+        try {
+            when(pluginConfigFactory.getFromProjectConfig(any(Project.NameKey.class), anyString())).thenReturn(
+                    pluginConfig);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        when(pluginConfig.getBoolean(EiffelPluginConfiguration.ENABLED, false)).thenReturn(true);
+        when(pluginConfig.getString(EiffelPluginConfiguration.FILTER)).thenReturn(filter);
+        when(pluginConfig.getString(EiffelPluginConfiguration.REMREM_PUBLISH_URL)).thenReturn(REMREM_PUBLISH_URL);
+        return new EiffelPluginConfiguration(PLUGIN_NAME, new Project.NameKey(project), pluginConfigFactory);
+    }
+
+    static String changeId(final int changeNumber) {
+        return String.format("I%040x", changeNumber);
+    }
+
+    static String revision(final int changeNumber, final int patchSetNumber) {
+        return String.format("%032x%08x", changeNumber, patchSetNumber);
+    }
+
+    private static String changeJson(final String project, final String branch, final int changeNumber) {
+        return String.format(CHANGE_JSON, project, branch, changeId(changeNumber), changeNumber);
+    }
+
+    private static String patchSetJson(final int changeNumber, final int patchSetNumber) {
+        return String.format(PATCH_SET_JSON, patchSetNumber, revision(changeNumber, patchSetNumber),
+                changeNumber % 100, changeNumber);
+    }
+
+    private static void setKeys(final ChangeEvent event, final String project, final String branch,
+            final int changeNumber) {
+        event.project = new Project.NameKey(project);
+        event.refName = "refs/heads/" + branch;
+        event.changeKey = new Change.Key(changeId(changeNumber));
+    }
+}
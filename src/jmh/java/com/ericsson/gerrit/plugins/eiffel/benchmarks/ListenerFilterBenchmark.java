@@ -0,0 +1,100 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.listeners.AbstractEventListener;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.PatchSetCreatedEvent;
+
+/**
+ * The checks every Gerrit event goes through before an Eiffel event is generated: whether the
+ * plugin is enabled for the project and whether the branch matches the configured filter.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerFilterBenchmark {
+    private static final String PROJECT = "my-project";
+
+    @Param({ "", "master", "master release/.* stable-[0-9]+" })
+    public String filter;
+
+    private FilteringListener listener;
+    private EiffelPluginConfiguration pluginConfig;
+    private PatchSetCreatedEvent matchingEvent;
+    private PatchSetCreatedEvent filteredEvent;
+
+    @Setup
+    public void setUp() {
+        listener = new FilteringListener();
+        pluginConfig = GerritEventFixtures.pluginConfig(PROJECT, filter);
+        matchingEvent = GerritEventFixtures.patchSetCreatedEvent(PROJECT, "master", 4711, 1);
+        filteredEvent = GerritEventFixtures.patchSetCreatedEvent(PROJECT, "feature/benchmark", 4712, 1);
+    }
+
+    @Benchmark
+    public boolean matchingBranch() {
+        return listener.isSendingEnabled(matchingEvent, pluginConfig);
+    }
+
+    @Benchmark
+    public boolean filteredBranch() {
+        return listener.isSendingEnabled(filteredEvent, pluginConfig);
+    }
+
+    private static final class FilteringListener extends AbstractEventListener {
+
+        FilteringListener() {
+            super(GerritEventFixtures.PLUGIN_NAME, null);
+        }
+
+        boolean isSendingEnabled(final Event gerritEvent, final EiffelPluginConfiguration pluginConfig) {
+            return isEiffelEventSendingEnabled(gerritEvent, pluginConfig);
+        }
+
+        @Override
+        protected boolean isExpectedGerritEvent(final Event gerritEvent) {
+            return gerritEvent instanceof PatchSetCreatedEvent;
+        }
+
+        @Override
+        protected void prepareAndSendEiffelEvent(final Event gerritEvent,
+                final EiffelPluginConfiguration pluginConfig) {
+            throw new UnsupportedOperationException("Only the filtering is benchmarked.");
+        }
+    }
+}
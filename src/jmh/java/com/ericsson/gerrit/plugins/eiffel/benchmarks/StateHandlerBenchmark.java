@@ -0,0 +1,132 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.benchmarks;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ericsson.gerrit.plugins.eiffel.handlers.NoSuchElementException;
+import com.ericsson.gerrit.plugins.eiffel.handlers.SqliteEventStateStore;
+import com.ericsson.gerrit.plugins.eiffel.handlers.StateHandler;
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+
+/**
+ * Reads and writes of the last sent Eiffel event ids through the StateHandler, backed by SQLite
+ * in a temporary plugin data directory. A cache size of 0 measures every lookup against SQLite.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateHandlerBenchmark {
+    private static final String PROJECT = "my-project";
+    private static final String BRANCH = "master";
+    private static final int CHANGES = 1000;
+
+    @Param({ "0", "10000" })
+    public long cacheSize;
+
+    private Path pluginDir;
+    private StateHandler stateHandler;
+    private final String[] changeIds = new String[CHANGES];
+    private final String[] eventIds = new String[CHANGES];
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException, NoSuchElementException {
+        pluginDir = Files.createTempDirectory("eiffel-benchmark");
+        final File pluginDirFile = pluginDir.toFile();
+        final PluginConfigFactory pluginConfigFactory = mock(PluginConfigFactory.class);
+        final PluginConfig pluginConfig = mock(PluginConfig.class);
+        when(pluginConfigFactory.getFromGerritConfig(GerritEventFixtures.PLUGIN_NAME, true)).thenReturn(pluginConfig);
+        when(pluginConfig.getLong(anyString(), anyLong())).thenReturn(cacheSize);
+        when(pluginConfig.getStringList(anyString())).thenReturn(new String[0]);
+
+        stateHandler = new StateHandler(pluginDirFile, new SqliteEventStateStore(pluginDirFile), pluginConfigFactory,
+                GerritEventFixtures.PLUGIN_NAME, EiffelMetrics.DISABLED);
+        for (int i = 0; i < CHANGES; i++) {
+            changeIds[i] = GerritEventFixtures.changeId(i);
+            eventIds[i] = UUID.randomUUID().toString();
+            stateHandler.setLastSourceChangeCreatedEiffelEvent(PROJECT, changeIds[i], eventIds[i]);
+        }
+        stateHandler.setLastSourceChangeSubmittedEiffelEvent(PROJECT, BRANCH, eventIds[0]);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        stateHandler.close();
+        try (Stream<Path> files = Files.walk(pluginDir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public String getLastSourceChangeCreated() throws NoSuchElementException {
+        return stateHandler.getLastSourceChangeCreatedEiffelEvent(PROJECT, changeIds[nextIndex()]);
+    }
+
+    @Benchmark
+    public void setLastSourceChangeCreated() throws NoSuchElementException {
+        final int index = nextIndex();
+        stateHandler.setLastSourceChangeCreatedEiffelEvent(PROJECT, changeIds[index], eventIds[index]);
+    }
+
+    @Benchmark
+    public String getLastSourceChangeSubmitted() throws NoSuchElementException {
+        return stateHandler.getLastSourceChangeSubmittedEiffelEvent(PROJECT, BRANCH);
+    }
+
+    @Benchmark
+    public void setLastSourceChangeSubmitted() throws NoSuchElementException {
+        stateHandler.setLastSourceChangeSubmittedEiffelEvent(PROJECT, BRANCH, eventIds[nextIndex()]);
+    }
+
+    private int nextIndex() {
+        next = (next + 1) % CHANGES;
+        return next;
+    }
+}
@@ -18,11 +18,25 @@
 package com.ericsson.gerrit.plugins.eiffel;
 
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.configuration.ProjectConfigurationCache;
+import com.ericsson.gerrit.plugins.eiffel.events.generators.HostNameResolver;
+import com.ericsson.gerrit.plugins.eiffel.handlers.ConnectionPoolLifecycle;
+import com.ericsson.gerrit.plugins.eiffel.handlers.DeduplicationIndex;
+import com.ericsson.gerrit.plugins.eiffel.handlers.EventStateStore;
+import com.ericsson.gerrit.plugins.eiffel.handlers.EventStateStoreProvider;
 import com.ericsson.gerrit.plugins.eiffel.handlers.MessageQueueHandler;
+import com.ericsson.gerrit.plugins.eiffel.handlers.SqliteTuning;
+import com.ericsson.gerrit.plugins.eiffel.handlers.SqliteTuningProvider;
+import com.ericsson.gerrit.plugins.eiffel.handlers.StateHandler;
 import com.ericsson.gerrit.plugins.eiffel.listeners.ChangeMergedEventListener;
 import com.ericsson.gerrit.plugins.eiffel.listeners.PatchsetCreatedEventListener;
+import com.ericsson.gerrit.plugins.eiffel.messaging.BatchingEiffelEventPublisher;
+import com.ericsson.gerrit.plugins.eiffel.messaging.EiffelEventOutbox;
+import com.ericsson.gerrit.plugins.eiffel.messaging.EiffelEventSender;
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics;
 import com.google.gerrit.common.EventListener;
 import com.google.gerrit.extensions.annotations.Exports;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
 import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.server.config.ProjectConfigEntry;
@@ -44,23 +58,67 @@ public class GerritModule extends AbstractModule {
     @Override
     @CoberturaIgnore
     protected void configure() {
+        bindMetrics();
+        bindStateHandler();
+        bindEiffelEventSender();
+        bindHostNameResolver();
+        // Gerrit stops lifecycle listeners in the reverse order they were bound, the message queue
+        // handler has to drain its queue before the handlers it sends through are stopped.
         bindMessageQueueHandler();
         bindGerritEventListeners();
         bindPluginConfiguration();
     }
 
+    private void bindMetrics() {
+        bind(EiffelMetrics.class).in(Scopes.SINGLETON);
+    }
+
     private void bindMessageQueueHandler() {
         bind(MessageQueueHandler.class).in(Scopes.SINGLETON);
         bind(LifecycleListener.class).annotatedWith(UniqueAnnotations.create())
                                      .to(MessageQueueHandler.class);
     }
 
+    private void bindStateHandler() {
+        bind(LifecycleListener.class).annotatedWith(UniqueAnnotations.create())
+                                     .to(ConnectionPoolLifecycle.class);
+        bind(SqliteTuning.class).toProvider(SqliteTuningProvider.class).in(Scopes.SINGLETON);
+        bind(EventStateStore.class).toProvider(EventStateStoreProvider.class).in(Scopes.SINGLETON);
+        bind(StateHandler.class).in(Scopes.SINGLETON);
+        bind(LifecycleListener.class).annotatedWith(UniqueAnnotations.create())
+                                     .to(StateHandler.class);
+        bind(DeduplicationIndex.class).in(Scopes.SINGLETON);
+        bind(LifecycleListener.class).annotatedWith(UniqueAnnotations.create())
+                                     .to(DeduplicationIndex.class);
+    }
+
+    private void bindEiffelEventSender() {
+        bind(EiffelEventSender.class).in(Scopes.SINGLETON);
+        bind(LifecycleListener.class).annotatedWith(UniqueAnnotations.create())
+                                     .to(EiffelEventSender.class);
+        bind(BatchingEiffelEventPublisher.class).in(Scopes.SINGLETON);
+        bind(LifecycleListener.class).annotatedWith(UniqueAnnotations.create())
+                                     .to(BatchingEiffelEventPublisher.class);
+        bind(EiffelEventOutbox.class).in(Scopes.SINGLETON);
+        bind(LifecycleListener.class).annotatedWith(UniqueAnnotations.create())
+                                     .to(EiffelEventOutbox.class);
+    }
+
+    private void bindHostNameResolver() {
+        bind(HostNameResolver.class).in(Scopes.SINGLETON);
+        bind(LifecycleListener.class).annotatedWith(UniqueAnnotations.create())
+                                     .to(HostNameResolver.class);
+    }
+
     private void bindGerritEventListeners() {
         DynamicSet.bind(binder(), EventListener.class).to(ChangeMergedEventListener.class);
         DynamicSet.bind(binder(), EventListener.class).to(PatchsetCreatedEventListener.class);
     }
 
     private void bindPluginConfiguration() {
+        bind(ProjectConfigurationCache.class).in(Scopes.SINGLETON);
+        DynamicSet.bind(binder(), GitReferenceUpdatedListener.class).to(ProjectConfigurationCache.class);
+
         bind(ProjectConfigEntry.class).annotatedWith(Exports.named(EiffelPluginConfiguration.ENABLED))
                 .toInstance(new ProjectConfigEntry("Enable Eiffel messaging", false));
         bind(ProjectConfigEntry.class).annotatedWith(Exports.named(EiffelPluginConfiguration.FILTER))
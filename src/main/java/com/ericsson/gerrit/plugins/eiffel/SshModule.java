@@ -0,0 +1,39 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel;
+
+import com.ericsson.gerrit.plugins.eiffel.commands.BackfillCommand;
+import com.ericsson.gerrit.plugins.eiffel.commands.MigrateStateCommand;
+import com.google.gerrit.sshd.PluginCommandModule;
+
+/**
+ * This class registers the plugin SSH commands in gerrit.
+ *
+ * The name and path to the class must match the Gerrit-SshModule setting for the plugin
+ * maven-jar-plugin.
+ *
+ */
+public class SshModule extends PluginCommandModule {
+
+    @Override
+    @CoberturaIgnore
+    protected void configureCommands() {
+        command(MigrateStateCommand.class);
+        command(BackfillCommand.class);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.commands;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+
+import com.ericsson.gerrit.plugins.eiffel.handlers.HistoryBackfiller;
+import com.ericsson.gerrit.plugins.eiffel.handlers.HistoryBackfiller.ProjectResult;
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.sshd.CommandMetaData;
+import com.google.gerrit.sshd.SshCommand;
+import com.google.inject.Inject;
+
+/**
+ * SSH command that generates the Eiffel events of changes merged or uploaded before the plugin
+ * was enabled. Projects completed by an earlier run are skipped unless --restart is given.
+ *
+ */
+@RequiresCapability(GlobalCapability.ADMINISTRATE_SERVER)
+@CommandMetaData(name = "backfill",
+        description = "Generate Eiffel events for the existing history of projects")
+public class BackfillCommand extends SshCommand {
+
+    @Option(name = "--all", usage = "backfill all projects")
+    private boolean all;
+
+    @Option(name = "--publish", usage = "publish the events and store their ids, otherwise the events are only counted")
+    private boolean publish;
+
+    @Option(name = "--threads", metaVar = "COUNT", usage = "number of projects backfilled in parallel")
+    private int threads = 4;
+
+    @Option(name = "--max-commits", metaVar = "COUNT", usage = "commits walked per branch, 0 for the whole history")
+    private int maxCommits = 1000;
+
+    @Option(name = "--events-per-second", metaVar = "RATE", usage = "events generated per second, 0 for no limit")
+    private int eventsPerSecond = 10;
+
+    @Option(name = "--restart", usage = "backfill projects completed by an earlier run again")
+    private boolean restart;
+
+    @Argument(metaVar = "PROJECT", usage = "projects to backfill")
+    private List<String> projectNames = new ArrayList<>();
+
+    private final HistoryBackfiller historyBackfiller;
+    private final ProjectCache projectCache;
+
+    @Inject
+    public BackfillCommand(final HistoryBackfiller historyBackfiller, final ProjectCache projectCache) {
+        this.historyBackfiller = historyBackfiller;
+        this.projectCache = projectCache;
+    }
+
+    @Override
+    protected void run() throws UnloggedFailure {
+        if (all == !projectNames.isEmpty()) {
+            throw die("Give either --all or the projects to backfill.");
+        }
+
+        final List<Project.NameKey> projects = new ArrayList<>();
+        if (all) {
+            projectCache.all().forEach(projects::add);
+        } else {
+            projectNames.forEach(projectName -> projects.add(new Project.NameKey(projectName)));
+        }
+        if (restart) {
+            historyBackfiller.resetCheckpoint();
+        }
+
+        try {
+            final List<ProjectResult> results = historyBackfiller.backfill(projects,
+                    new HistoryBackfiller.Options(publish, threads, maxCommits, eventsPerSecond), this::print);
+            int completedProjects = 0;
+            int events = 0;
+            for (ProjectResult result : results) {
+                completedProjects += result.isCompleted() ? 1 : 0;
+                events += result.getSubmittedEvents() + result.getCreatedEvents();
+            }
+            stdout.println(String.format("Backfilled %d of %d projects with %d events, %d completed by an earlier run.",
+                    completedProjects, results.size(), events, projects.size() - results.size()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw die("Backfill was interrupted, run the command again to continue.");
+        } catch (Exception e) {
+            throw die(e);
+        }
+    }
+
+    private synchronized void print(final ProjectResult result) {
+        stdout.println(result);
+        stdout.flush();
+    }
+}
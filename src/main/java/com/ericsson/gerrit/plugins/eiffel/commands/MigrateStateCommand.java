@@ -0,0 +1,53 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.commands;
+
+import com.ericsson.gerrit.plugins.eiffel.handlers.StateHandler;
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.sshd.CommandMetaData;
+import com.google.gerrit.sshd.SshCommand;
+import com.google.inject.Inject;
+
+/**
+ * SSH command that imports the per project state databases into the configured state store.
+ * Requires a state store other than the per project SQLite databases.
+ *
+ */
+@RequiresCapability(GlobalCapability.ADMINISTRATE_SERVER)
+@CommandMetaData(name = "migrate-state",
+        description = "Import per project state databases into the configured state store")
+public class MigrateStateCommand extends SshCommand {
+
+    private final StateHandler stateHandler;
+
+    @Inject
+    public MigrateStateCommand(final StateHandler stateHandler) {
+        this.stateHandler = stateHandler;
+    }
+
+    @Override
+    protected void run() throws UnloggedFailure {
+        try {
+            int migratedProjects = stateHandler.migratePerProjectState();
+            stdout.println(String.format("Migrated state of %d projects.", migratedProjects));
+        } catch (Exception e) {
+            throw die(e);
+        }
+    }
+}
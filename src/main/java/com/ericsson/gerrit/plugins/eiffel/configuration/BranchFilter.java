@@ -0,0 +1,98 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.configuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The compiled form of the branch filter of a project, a whitespace separated list of regular
+ * expressions of which a branch has to match one. Patterns without regular expression
+ * characters are kept in a set and looked up directly, the others are combined into a single
+ * alternation that is compiled once. Patterns that would change meaning inside the alternation,
+ * those with backreferences, named groups or quoting, are compiled on their own.
+ *
+ */
+public class BranchFilter {
+    private static final Pattern REGEX_CHARACTERS = Pattern.compile("[\\\\.\\[\\]{}()*+?^$|]");
+    private static final Pattern NOT_COMBINABLE = Pattern.compile("\\\\[1-9]|\\\\k<|\\(\\?<[a-zA-Z]|\\\\Q");
+
+    private final Set<String> literals;
+    private final Pattern pattern;
+    private final List<Pattern> separatePatterns;
+
+    private BranchFilter(final Set<String> literals, final Pattern pattern, final List<Pattern> separatePatterns) {
+        this.literals = literals;
+        this.pattern = pattern;
+        this.separatePatterns = separatePatterns;
+    }
+
+    /**
+     * Compiles the filter.
+     *
+     * @param filter
+     * @return BranchFilter
+     * @throws java.util.regex.PatternSyntaxException if a pattern is not a valid regular expression
+     */
+    public static BranchFilter compile(final String filter) {
+        final Set<String> literals = new HashSet<>();
+        final List<String> regExps = new ArrayList<>();
+        final List<Pattern> separatePatterns = new ArrayList<>();
+        for (String regExString : filter.trim().split("\\s+")) {
+            if (regExString.isEmpty()) {
+                continue;
+            }
+            if (!REGEX_CHARACTERS.matcher(regExString).find()) {
+                literals.add(regExString);
+                continue;
+            }
+            final Pattern regExp = Pattern.compile(regExString);
+            if (NOT_COMBINABLE.matcher(regExString).find()) {
+                separatePatterns.add(regExp);
+            } else {
+                regExps.add("(?:" + regExString + ")");
+            }
+        }
+
+        final Pattern pattern = regExps.isEmpty() ? null : Pattern.compile(String.join("|", regExps));
+        return new BranchFilter(literals, pattern,
+                separatePatterns.isEmpty() ? Collections.emptyList() : separatePatterns);
+    }
+
+    /**
+     * Whether the branch matches one of the patterns of the filter.
+     *
+     * @param branch
+     * @return boolean
+     */
+    public boolean matches(final String branch) {
+        if (literals.contains(branch) || (pattern != null && pattern.matcher(branch).matches())) {
+            return true;
+        }
+        for (Pattern separatePattern : separatePatterns) {
+            if (separatePattern.matcher(branch).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -44,6 +44,7 @@ public class EiffelPluginConfiguration {
     public static final String FLOW_CONTEXT = "flow-context";
 
     // Fields to keep actual configuration
+    private final String project;
     private final String remremPublishURL;
     private final String remremUsername;
     private final String remremPassword;
@@ -55,6 +56,7 @@ public class EiffelPluginConfiguration {
     public EiffelPluginConfiguration(final String pluginName, final NameKey project,
             final PluginConfigFactory pluginConfigFactory) {
 
+        this.project = project.get();
         PluginConfig pluginConfig;
 
         try {
@@ -93,6 +95,15 @@ public class EiffelPluginConfiguration {
         LOGGER.info("Loaded plugin configuration: {}", pluginConfig.toString());
     }
 
+    /**
+     * Name of the project this configuration was read for.
+     *
+     * @return String
+     */
+    public String getProject() {
+        return project;
+    }
+
     public String getRemremPublishURL() {
         return remremPublishURL;
     }
@@ -0,0 +1,125 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.configuration;
+
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Keeps the EiffelPluginConfiguration of each project so that it is only read and validated when
+ * it is first needed. The entry of a project is dropped when its refs/meta/config branch is
+ * updated and read again for the next event.
+ *
+ */
+@Singleton
+public class ProjectConfigurationCache implements GitReferenceUpdatedListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProjectConfigurationCache.class);
+    private static final String CACHE_SIZE = "projectConfigCacheSize";
+    public static final long DEFAULT_CACHE_SIZE = 1000;
+
+    private final String pluginName;
+    private final PluginConfigFactory pluginConfigFactory;
+    private final File pluginDir;
+    private final Cache<String, EiffelPluginConfiguration> configurations;
+
+    @Inject
+    public ProjectConfigurationCache(final PluginConfigFactory config, @PluginName final String pluginName,
+            @PluginData final File pluginDir) {
+        this(config, pluginName, pluginDir,
+                config.getFromGerritConfig(pluginName, true).getLong(CACHE_SIZE, DEFAULT_CACHE_SIZE));
+    }
+
+    /**
+     * Constructor for the ProjectConfigurationCache class.
+     *
+     * @param config
+     * @param pluginName
+     * @param pluginDir
+     * @param cacheSize maximum number of projects kept
+     */
+    public ProjectConfigurationCache(final PluginConfigFactory config, final String pluginName,
+            final File pluginDir, final long cacheSize) {
+        this.pluginName = pluginName;
+        this.pluginConfigFactory = config;
+        this.pluginDir = pluginDir;
+        this.configurations = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+    }
+
+    /**
+     * Returns the configuration of the project, reading it if it is not cached.
+     *
+     * @param project
+     * @return EiffelPluginConfiguration
+     * @throws ExceptionInInitializerError if the configuration can not be read or is incomplete
+     */
+    public EiffelPluginConfiguration get(final Project.NameKey project) {
+        try {
+            return configurations.get(project.get(), () -> load(project));
+        } catch (ExecutionError e) {
+            if (e.getCause() instanceof ExceptionInInitializerError) {
+                throw (ExceptionInInitializerError) e.getCause();
+            }
+            throw e;
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new ExceptionInInitializerError(String.format("Can't read %s plugin configuration for project %s: %s",
+                    pluginName, project.get(), e.getMessage()));
+        }
+    }
+
+    /**
+     * Drops the cached configuration of the project.
+     *
+     * @param project
+     */
+    public void invalidate(final String project) {
+        configurations.invalidate(project);
+    }
+
+    @Override
+    public void onGitReferenceUpdated(final Event event) {
+        if (RefNames.REFS_CONFIG.equals(event.getRefName())
+                && configurations.getIfPresent(event.getProjectName()) != null) {
+            LOGGER.debug("Project configuration of '{}' changed, it is read again for the next event.",
+                    event.getProjectName());
+            invalidate(event.getProjectName());
+        }
+    }
+
+    private EiffelPluginConfiguration load(final Project.NameKey project) {
+        final EiffelPluginConfiguration pluginConfig = new EiffelPluginConfiguration(pluginName, project,
+                pluginConfigFactory);
+        pluginConfig.setPluginDirectoryPath(pluginDir);
+        return pluginConfig;
+    }
+}
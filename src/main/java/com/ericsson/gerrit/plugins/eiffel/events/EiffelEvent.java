@@ -16,4 +16,14 @@
 */
 package com.ericsson.gerrit.plugins.eiffel.events;
 
-public interface EiffelEvent {}
+import com.ericsson.gerrit.plugins.eiffel.events.models.MsgParams;
+
+public interface EiffelEvent {
+
+    /**
+     * The message parameters of the event, holding its type among others.
+     *
+     * @return MsgParams
+     */
+    MsgParams getMsgParams();
+}
@@ -34,4 +34,9 @@ public class EiffelSourceChangeCreatedEvent implements EiffelEvent {
     @SerializedName("eventParams")
     @Expose
     public EiffelSourceChangeCreatedEventParams eventParams = new EiffelSourceChangeCreatedEventParams();
+
+    @Override
+    public MsgParams getMsgParams() {
+        return msgParams;
+    }
 }
@@ -34,4 +34,9 @@ public class EiffelSourceChangeSubmittedEvent implements EiffelEvent {
     @SerializedName("eventParams")
     @Expose
     public EiffelSourceChangeSubmittedEventParams eventParams = new EiffelSourceChangeSubmittedEventParams();
+
+    @Override
+    public MsgParams getMsgParams() {
+        return msgParams;
+    }
 }
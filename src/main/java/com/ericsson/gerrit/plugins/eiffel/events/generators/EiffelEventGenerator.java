@@ -29,6 +29,38 @@ public class EiffelEventGenerator {
     protected static final String META_SOURCE_NAME = "Eiffel Gerrit Plugin";
     private static final int DEFAULT_SSH_PORT = 29418;
 
+    private static volatile String hostName;
+    private static volatile boolean hostNameResolved;
+
+    /**
+     * Sets the host name put in the source of generated events, see {@link HostNameResolver}.
+     *
+     * @param resolvedHostName
+     */
+    public static void setHostName(final String resolvedHostName) {
+        hostName = resolvedHostName;
+        hostNameResolved = true;
+    }
+
+    /**
+     * The host name put in the source of generated events. It is resolved by the
+     * HostNameResolver when the plugin starts, it is only looked up here when the generators are
+     * used without the plugin running.
+     *
+     * @return host name, null if it could not be resolved
+     */
+    protected static String getHostName() {
+        if (!hostNameResolved) {
+            setHostName(determineHostName());
+        }
+        return hostName;
+    }
+
+    /**
+     * Looks up the name of the local host, this may be a reverse DNS lookup.
+     *
+     * @return host name, null if it could not be resolved
+     */
     protected static String determineHostName() {
         try {
             return InetAddress.getLocalHost().getHostName();
@@ -37,8 +37,22 @@ public final class EiffelSourceChangeCreatedEventGenerator extends EiffelEventGe
      */
     public static EiffelSourceChangeCreatedEvent generate(PatchSetCreatedEvent patchSetCreatedEvent,
             EiffelPluginConfiguration pluginConfig) {
-        final ChangeAttribute changeAttribute = patchSetCreatedEvent.change.get();
-        final PatchSetAttribute patchSetAttribute = patchSetCreatedEvent.patchSet.get();
+        return generate(patchSetCreatedEvent.change.get(), patchSetCreatedEvent.patchSet.get(),
+                patchSetCreatedEvent.changeKey.toString(), pluginConfig);
+    }
+
+    /**
+     * Generates an EiffelSourceChangeCreatedEvent from the attributes of a change and one of its
+     * patch sets, used for changes that are not reported by a Gerrit event.
+     *
+     * @param changeAttribute
+     * @param patchSetAttribute
+     * @param changeId
+     * @param pluginConfig
+     * @return EiffelSourceChangeCreatedEvent
+     */
+    public static EiffelSourceChangeCreatedEvent generate(ChangeAttribute changeAttribute,
+            PatchSetAttribute patchSetAttribute, String changeId, EiffelPluginConfiguration pluginConfig) {
         final String projectName = changeAttribute.project;
         final String branch = changeAttribute.branch;
         final String url = changeAttribute.url;
@@ -48,12 +62,11 @@ public final class EiffelSourceChangeCreatedEventGenerator extends EiffelEventGe
         final String email = patchSetAttribute.author.email;
         final int insertions = patchSetAttribute.sizeInsertions;
         final int deletions = patchSetAttribute.sizeDeletions;
-        final String changeId = patchSetCreatedEvent.changeKey.toString();
 
         EiffelSourceChangeCreatedEvent eiffelEvent = new EiffelSourceChangeCreatedEvent();
         eiffelEvent.msgParams.meta.type = TYPE;
         eiffelEvent.msgParams.meta.source.name = META_SOURCE_NAME;
-        eiffelEvent.msgParams.meta.source.host = determineHostName();
+        eiffelEvent.msgParams.meta.source.host = getHostName();
         eiffelEvent.msgParams.meta.source.uri = url;
 
         eiffelEvent.eventParams.data.author.name = name;
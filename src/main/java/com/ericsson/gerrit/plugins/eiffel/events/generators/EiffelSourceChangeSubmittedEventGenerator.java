@@ -35,9 +35,22 @@ public final class EiffelSourceChangeSubmittedEventGenerator extends EiffelEvent
      */
     public static EiffelSourceChangeSubmittedEvent generate(ChangeMergedEvent changeMergedEvent,
             EiffelPluginConfiguration pluginConfig) {
-        final ChangeAttribute changeAttribute = changeMergedEvent.change.get();
-        final PatchSetAttribute patchSetAttribute = changeMergedEvent.patchSet.get();
-        final String commitId = changeMergedEvent.newRev;
+        return generate(changeMergedEvent.change.get(), changeMergedEvent.patchSet.get(), changeMergedEvent.newRev,
+                pluginConfig);
+    }
+
+    /**
+     * Generates an EiffelSourceChangeSubmittedEvent from the attributes of a change and the
+     * commit it was merged as, used for changes that are not reported by a Gerrit event.
+     *
+     * @param changeAttribute
+     * @param patchSetAttribute
+     * @param commitId
+     * @param pluginConfig
+     * @return EiffelSourceChangeSubmittedEvent
+     */
+    public static EiffelSourceChangeSubmittedEvent generate(ChangeAttribute changeAttribute,
+            PatchSetAttribute patchSetAttribute, String commitId, EiffelPluginConfiguration pluginConfig) {
         final String projectName = changeAttribute.project;
         final String branch = changeAttribute.branch;
         final String url = changeAttribute.url;
@@ -48,7 +61,7 @@ public final class EiffelSourceChangeSubmittedEventGenerator extends EiffelEvent
         EiffelSourceChangeSubmittedEvent eiffelEvent = new EiffelSourceChangeSubmittedEvent();
         eiffelEvent.msgParams.meta.type = TYPE;
         eiffelEvent.msgParams.meta.source.name = META_SOURCE_NAME;
-        eiffelEvent.msgParams.meta.source.host = determineHostName();
+        eiffelEvent.msgParams.meta.source.host = getHostName();
         eiffelEvent.msgParams.meta.source.uri = url;
 
         eiffelEvent.eventParams.data.submitter.name = name;
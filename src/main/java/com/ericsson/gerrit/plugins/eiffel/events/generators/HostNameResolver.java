@@ -0,0 +1,117 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.events.generators;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Resolves the host name put in the source of generated Eiffel events when the plugin starts and
+ * refreshes it in the background, so that generating an event never waits for a DNS lookup. A
+ * configured host name is used as is and never looked up.
+ *
+ */
+@Singleton
+public class HostNameResolver implements LifecycleListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HostNameResolver.class);
+    private static final String HOST_NAME = "hostName";
+    private static final String REFRESH_INTERVAL = "hostNameRefreshIntervalMs";
+    public static final long DEFAULT_REFRESH_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+
+    private final WorkQueue workQueue;
+    private final String configuredHostName;
+    private final long refreshIntervalMs;
+    private final Supplier<String> lookup;
+    private ScheduledExecutorService executor;
+
+    @Inject
+    public HostNameResolver(final WorkQueue workQueue, final PluginConfigFactory config,
+            @PluginName final String pluginName) {
+        this(workQueue, config.getFromGerritConfig(pluginName, true));
+    }
+
+    private HostNameResolver(final WorkQueue workQueue, final PluginConfig pluginConfig) {
+        this(workQueue, pluginConfig.getString(HOST_NAME),
+                pluginConfig.getLong(REFRESH_INTERVAL, DEFAULT_REFRESH_INTERVAL_MS),
+                EiffelEventGenerator::determineHostName);
+    }
+
+    /**
+     * Constructor for the HostNameResolver class.
+     *
+     * @param workQueue
+     * @param configuredHostName used instead of looking up the host name if set
+     * @param refreshIntervalMs how often the host name is looked up again, 0 to never
+     * @param lookup looks up the host name, returns null if it fails
+     */
+    HostNameResolver(final WorkQueue workQueue, final String configuredHostName, final long refreshIntervalMs,
+            final Supplier<String> lookup) {
+        this.workQueue = workQueue;
+        this.configuredHostName = configuredHostName;
+        this.refreshIntervalMs = refreshIntervalMs;
+        this.lookup = lookup;
+    }
+
+    @Override
+    public void start() {
+        if (configuredHostName != null && !configuredHostName.isEmpty()) {
+            EiffelEventGenerator.setHostName(configuredHostName);
+            LOGGER.info("Using configured host name '{}' for Eiffel events.", configuredHostName);
+            return;
+        }
+
+        EiffelEventGenerator.setHostName(lookup.get());
+        if (refreshIntervalMs > 0) {
+            executor = workQueue.createQueue(1, "Eiffel Host Name Refresher");
+            executor.scheduleWithFixedDelay(this::refresh, refreshIntervalMs, refreshIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Looks up the host name again, a failed lookup keeps the previous host name.
+     */
+    void refresh() {
+        final String resolvedHostName = lookup.get();
+        if (resolvedHostName == null) {
+            LOGGER.warn("Failed to look up the host name, keeping '{}'.", EiffelEventGenerator.getHostName());
+            return;
+        }
+        EiffelEventGenerator.setHostName(resolvedHostName);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the projects a backfill has completed, one project name per line in a file in the
+ * plugin data directory. A backfill that was interrupted continues with the remaining projects
+ * when it is started again.
+ *
+ */
+public class BackfillCheckpoint {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BackfillCheckpoint.class);
+    private static final String CHECKPOINT_FILE_NAME = "backfill-checkpoint.txt";
+
+    private final Path checkpointFile;
+    private final Set<String> completedProjects = new HashSet<>();
+
+    public BackfillCheckpoint(final File pluginDir) {
+        this.checkpointFile = pluginDir.toPath().resolve(CHECKPOINT_FILE_NAME);
+        if (Files.exists(checkpointFile)) {
+            try {
+                completedProjects.addAll(Files.readAllLines(checkpointFile, StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                LOGGER.error("Failed to read the backfill checkpoint, all projects are backfilled: {}\n{}",
+                        e.getMessage(), e);
+            }
+        }
+    }
+
+    public synchronized boolean isCompleted(final String project) {
+        return completedProjects.contains(project);
+    }
+
+    /**
+     * Adds the project to the checkpoint file. A project that could not be added is backfilled
+     * again by the next run.
+     *
+     * @param project
+     */
+    public synchronized void markCompleted(final String project) {
+        try {
+            Files.write(checkpointFile, Collections.singletonList(project), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            completedProjects.add(project);
+        } catch (IOException e) {
+            LOGGER.error("Failed to add project '{}' to the backfill checkpoint: {}\n{}", project, e.getMessage(), e);
+        }
+    }
+
+    public synchronized int size() {
+        return completedProjects.size();
+    }
+
+    /**
+     * Forgets all completed projects, the next run backfills every project again.
+     */
+    public synchronized void clear() {
+        try {
+            Files.deleteIfExists(checkpointFile);
+        } catch (IOException e) {
+            LOGGER.error("Failed to delete the backfill checkpoint: {}\n{}", e.getMessage(), e);
+        }
+        completedProjects.clear();
+    }
+}
@@ -0,0 +1,243 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.net.ConnectException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small pool of long lived connections to one database file. There is one pool per database
+ * url, shared by every DataBaseHandler that works on that file. The SqliteTuning profile given
+ * when the pool is created is applied to every connection when it is opened.
+ *
+ * The pool counts its users: every {@link #forDatabase(String, SqliteTuning)} must be matched by one
+ * {@link #close()}, and the connections are only closed when the last user closed the pool.
+ *
+ */
+public class ConnectionPool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
+    private static final String DRIVER_CLASS = "org.sqlite.JDBC";
+    private static final int DEFAULT_MAX_CONNECTIONS = 4;
+    private static final Map<String, ConnectionPool> POOLS = new HashMap<>();
+    private static volatile boolean driverLoaded;
+
+    private final String databaseUrl;
+    private final SqliteTuning tuning;
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idleConnections = new ArrayDeque<>();
+    private int users;
+    private volatile boolean closed;
+
+    private ConnectionPool(final String databaseUrl, final SqliteTuning tuning, final int maxConnections) {
+        this.databaseUrl = databaseUrl;
+        this.tuning = tuning;
+        this.permits = new Semaphore(maxConnections, true);
+    }
+
+    /**
+     * Returns the shared pool for the database url, creating it with the default tuning on first
+     * use. The caller must close the pool when it no longer uses it.
+     *
+     * @param databaseUrl
+     * @return ConnectionPool
+     * @throws ConnectException
+     */
+    public static ConnectionPool forDatabase(final String databaseUrl) throws ConnectException {
+        return forDatabase(databaseUrl, SqliteTuning.DEFAULT);
+    }
+
+    /**
+     * Returns the shared pool for the database url, creating it on first use. The tuning is only
+     * used when the pool is created. The caller must close the pool when it no longer uses it.
+     *
+     * @param databaseUrl
+     * @param tuning applied to every connection the pool opens
+     * @return ConnectionPool
+     * @throws ConnectException
+     */
+    public static ConnectionPool forDatabase(final String databaseUrl, final SqliteTuning tuning)
+            throws ConnectException {
+        loadDriver();
+        synchronized (POOLS) {
+            final ConnectionPool pool = POOLS.computeIfAbsent(databaseUrl,
+                    url -> new ConnectionPool(url, tuning, DEFAULT_MAX_CONNECTIONS));
+            pool.users++;
+            return pool;
+        }
+    }
+
+    /**
+     * Closes every pool and removes them from the shared registry, whoever still uses them,
+     * called when the plugin stops so that no connection outlives the plugin.
+     */
+    public static void closeAll() {
+        final List<ConnectionPool> pools;
+        synchronized (POOLS) {
+            pools = new ArrayList<>(POOLS.values());
+            for (ConnectionPool pool : pools) {
+                pool.users = 0;
+                pool.markClosed();
+            }
+        }
+        for (ConnectionPool pool : pools) {
+            pool.closeIdleConnections();
+        }
+        if (!pools.isEmpty()) {
+            LOGGER.info("Closed {} database connection pools.", pools.size());
+        }
+    }
+
+    /**
+     * Borrows a connection, opening a new one if no idle connection exists. Blocks if all
+     * connections of the pool are in use.
+     *
+     * @return PooledConnection that is given back to the pool when closed
+     * @throws ConnectException
+     */
+    public PooledConnection borrow() throws ConnectException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectException("Interrupted while waiting for a database connection.");
+        }
+
+        final PooledConnection idleConnection = pollIdleConnection();
+        if (idleConnection != null) {
+            return idleConnection;
+        }
+
+        Connection connection = null;
+        try {
+            connection = DriverManager.getConnection(databaseUrl);
+            tuning.apply(connection);
+            return new PooledConnection(this, connection);
+        } catch (SQLException e) {
+            closeQuietly(connection);
+            permits.release();
+            throw new ConnectException(
+                    String.format("Failed to create a database connection. %s\n%s", e.getMessage(), e));
+        }
+    }
+
+    /**
+     * Gives back one use of the pool. When the last user closed it, all idle connections are
+     * closed and the pool is removed from the shared registry. Connections in use are closed when
+     * they are given back.
+     */
+    public void close() {
+        synchronized (POOLS) {
+            if (closed || --users > 0) {
+                return;
+            }
+            markClosed();
+        }
+        closeIdleConnections();
+    }
+
+    /**
+     * Number of users that did not close the pool yet.
+     *
+     * @return int
+     */
+    public int getUserCount() {
+        synchronized (POOLS) {
+            return users;
+        }
+    }
+
+    private void markClosed() {
+        closed = true;
+        POOLS.remove(databaseUrl, this);
+    }
+
+    private void closeIdleConnections() {
+        PooledConnection idleConnection;
+        while ((idleConnection = pollIdleConnection()) != null) {
+            idleConnection.closeConnection();
+        }
+        LOGGER.debug("Closed connection pool for {}", databaseUrl);
+    }
+
+    /**
+     * Number of connections currently kept open, idle ones only.
+     *
+     * @return int
+     */
+    public int getIdleConnectionCount() {
+        synchronized (idleConnections) {
+            return idleConnections.size();
+        }
+    }
+
+    void release(final PooledConnection pooledConnection) {
+        try {
+            if (closed || !pooledConnection.isUsable()) {
+                pooledConnection.closeConnection();
+                return;
+            }
+            synchronized (idleConnections) {
+                idleConnections.push(pooledConnection);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private PooledConnection pollIdleConnection() {
+        synchronized (idleConnections) {
+            return idleConnections.poll();
+        }
+    }
+
+    private static void closeQuietly(final Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOGGER.debug("Failed to close database connection: {}", e.getMessage());
+        }
+    }
+
+    private static void loadDriver() throws ConnectException {
+        if (driverLoaded) {
+            return;
+        }
+        try {
+            Class.forName(DRIVER_CLASS);
+            driverLoaded = true;
+        } catch (ClassNotFoundException e) {
+            throw new ConnectException(
+                    String.format("Failed to load the database driver. %s\n%s", e.getMessage(), e));
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.io.File;
+import java.net.ConnectException;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics;
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics.StateOperation;
+
+/**
+ * Database handler storing the state of all projects in a fixed number of shared database files.
+ * Every table has the project name as part of its primary key, and a project always maps to the
+ * same shard. This avoids keeping one database file per project on servers with many projects.
+ *
+ */
+public class ConsolidatedDataBaseHandler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConsolidatedDataBaseHandler.class);
+    private static final String EVENT_ID_KEY = "eventId";
+    private static final String PROJECT_KEY = "project";
+    private static final String SHARD_FILE_NAME = "eiffel-state-%d.sqlite";
+
+    private final ConnectionPool[] shards;
+    private final EiffelMetrics metrics;
+
+    /**
+     * Constructor that takes the plugin directory and the number of shards. The number of shards
+     * must not change once state has been stored, since it decides where a project is stored.
+     *
+     * @param pluginDir
+     * @param shardCount
+     * @throws ConnectException
+     */
+    public ConsolidatedDataBaseHandler(final File pluginDir, final int shardCount) throws ConnectException {
+        this(pluginDir, shardCount, SqliteTuning.DEFAULT, EiffelMetrics.DISABLED);
+    }
+
+    /**
+     * Constructor that also takes the tuning applied to new connections of the shards and the
+     * metrics that reads and writes of event ids are recorded in.
+     *
+     * @param pluginDir
+     * @param shardCount
+     * @param tuning
+     * @param metrics
+     * @throws ConnectException
+     */
+    public ConsolidatedDataBaseHandler(final File pluginDir, final int shardCount, final SqliteTuning tuning,
+            final EiffelMetrics metrics) throws ConnectException {
+        this.metrics = metrics;
+        this.shards = new ConnectionPool[Math.max(1, shardCount)];
+        for (int shard = 0; shard < shards.length; shard++) {
+            final String fileName = String.format(SHARD_FILE_NAME, shard);
+            final String databaseUrl = String.format("jdbc:sqlite:%s", Paths.get(pluginDir.toString(), fileName));
+            shards[shard] = ConnectionPool.forDatabase(databaseUrl, tuning);
+            createTables(shards[shard]);
+        }
+    }
+
+    /**
+     * This function returns an event id if exists for a specific project and table
+     * depending on the keyValue
+     *
+     * @param project
+     * @param table
+     * @param keyValue
+     * @return eventId
+     * @throws ConnectException
+     * @throws NoSuchElementException
+     */
+    public String getEventID(final String project, final Table table, final String keyValue)
+            throws ConnectException, NoSuchElementException {
+        final long startNanos = System.nanoTime();
+        String eventID = "";
+        String sqlSelectStatement = String.format("SELECT %s FROM %s WHERE %s=? AND %s=?", EVENT_ID_KEY, table,
+                PROJECT_KEY, table.keyName);
+        try (PooledConnection connection = shardFor(project).borrow()) {
+            PreparedStatement preparedStatement = connection.prepareStatement(sqlSelectStatement);
+            preparedStatement.setString(1, project);
+            preparedStatement.setString(2, keyValue);
+            try (ResultSet result = preparedStatement.executeQuery()) {
+                if (result.next()) {
+                    eventID = result.getString(EVENT_ID_KEY);
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.error("Error when trying to fetch values from database: {}\n{}", e.getMessage(), e);
+        }
+        metrics.recordStateAccess(table, StateOperation.READ, startNanos);
+
+        if (eventID == null || eventID.isEmpty()) {
+            throw new NoSuchElementException("Database did not return any value for this query");
+        }
+        return eventID;
+    }
+
+    /**
+     * This function returns all event ids stored for a project in a table, mapped
+     * by their keyValue.
+     *
+     * @param project
+     * @param table
+     * @return map of keyValue to eventId
+     * @throws ConnectException
+     */
+    public Map<String, String> getAllEventIDs(final String project, final Table table) throws ConnectException {
+        final Map<String, String> eventIds = new HashMap<>();
+        String sqlSelectStatement = String.format("SELECT %s, %s FROM %s WHERE %s=?", table.keyName, EVENT_ID_KEY,
+                table, PROJECT_KEY);
+        try (PooledConnection connection = shardFor(project).borrow()) {
+            PreparedStatement preparedStatement = connection.prepareStatement(sqlSelectStatement);
+            preparedStatement.setString(1, project);
+            try (ResultSet result = preparedStatement.executeQuery()) {
+                while (result.next()) {
+                    eventIds.put(result.getString(table.keyName), result.getString(EVENT_ID_KEY));
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.error("Error when trying to fetch values from database: {}\n{}", e.getMessage(), e);
+        }
+        return eventIds;
+    }
+
+    /**
+     * This function inserts values to the given table for a project.
+     *
+     * @param project
+     * @param table
+     * @param keyValue
+     * @param eiffelevent
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    public void insertInto(final String project, final Table table, final String keyValue, final String eiffelevent)
+            throws ConnectException, SQLException {
+        executeUpdate(table, insertStatement(table), project, keyValue, eiffelevent);
+    }
+
+    /**
+     * This function updates value to the given table for a project.
+     *
+     * @param project
+     * @param table
+     * @param keyValue
+     * @param eiffelevent
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    public void updateInto(final String project, final Table table, final String keyValue, final String eiffelevent)
+            throws ConnectException, SQLException {
+        executeUpdate(table, updateStatement(table), project, keyValue, eiffelevent);
+    }
+
+    /**
+     * This function inserts or replaces the value of the keyValue in the given
+     * table for a project in a single statement.
+     *
+     * @param project
+     * @param table
+     * @param keyValue
+     * @param eiffelevent
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    public void upsertInto(final String project, final Table table, final String keyValue, final String eiffelevent)
+            throws ConnectException, SQLException {
+        executeUpdate(table, upsertStatement(table), project, keyValue, eiffelevent);
+    }
+
+    /**
+     * This function stores a batch of event ids of a project, mapped by table and
+     * keyValue, in one transaction on the shard of the project.
+     *
+     * @param project
+     * @param eventIds
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    public void storeAll(final String project, final Map<Table, Map<String, String>> eventIds)
+            throws ConnectException, SQLException {
+        try (PooledConnection connection = shardFor(project).borrow()) {
+            final Connection sqlConnection = connection.getConnection();
+            sqlConnection.setAutoCommit(false);
+            try {
+                for (Map.Entry<Table, Map<String, String>> tableEntry : eventIds.entrySet()) {
+                    final Table table = tableEntry.getKey();
+                    PreparedStatement upsertStatement = connection.prepareStatement(upsertStatement(table));
+                    for (Map.Entry<String, String> entry : tableEntry.getValue().entrySet()) {
+                        bind(upsertStatement, project, entry.getKey(), entry.getValue());
+                        upsertStatement.addBatch();
+                    }
+                    upsertStatement.executeBatch();
+                }
+                sqlConnection.commit();
+            } catch (SQLException e) {
+                sqlConnection.rollback();
+                LOGGER.error("Error when trying to add values into database: {}\n{}", e.getMessage(), e);
+                throw e;
+            } finally {
+                sqlConnection.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Closes the connections kept open to the shard files.
+     */
+    public void close() {
+        for (ConnectionPool shard : shards) {
+            shard.close();
+        }
+    }
+
+    private ConnectionPool shardFor(final String project) {
+        return shards[Math.floorMod(project.hashCode(), shards.length)];
+    }
+
+    private void executeUpdate(final Table table, final String sqlStatement, final String project,
+            final String keyValue, final String eiffelevent) throws ConnectException, SQLException {
+        final long startNanos = System.nanoTime();
+        try (PooledConnection connection = shardFor(project).borrow()) {
+            PreparedStatement preparedStatement = connection.prepareStatement(sqlStatement);
+            bind(preparedStatement, project, keyValue, eiffelevent);
+            int updateCount = preparedStatement.executeUpdate();
+
+            if (updateCount == 0) {
+                throw new SQLException("No changes was saved in the database.");
+            }
+        } catch (SQLException e) {
+            LOGGER.error("Error when trying to add value into database: {}\n{}", e.getMessage(), e);
+            throw e;
+        } finally {
+            metrics.recordStateAccess(table, StateOperation.WRITE, startNanos);
+        }
+    }
+
+    private static void bind(final PreparedStatement preparedStatement, final String project,
+            final String keyValue, final String eiffelevent) throws SQLException {
+        preparedStatement.setString(1, eiffelevent);
+        preparedStatement.setString(2, project);
+        preparedStatement.setString(3, keyValue);
+    }
+
+    private static String updateStatement(final Table table) {
+        return String.format("UPDATE %s SET %s=? WHERE %s=? AND %s=?", table, EVENT_ID_KEY, PROJECT_KEY,
+                table.keyName);
+    }
+
+    private static String insertStatement(final Table table) {
+        return String.format("INSERT INTO %s(%s,%s,%s) VALUES(?,?,?)", table, EVENT_ID_KEY, PROJECT_KEY,
+                table.keyName);
+    }
+
+    private static String upsertStatement(final Table table) {
+        return String.format("INSERT INTO %s(%s,%s,%s) VALUES(?,?,?) ON CONFLICT(%s,%s) DO UPDATE SET %s=excluded.%s",
+                table, EVENT_ID_KEY, PROJECT_KEY, table.keyName, PROJECT_KEY, table.keyName, EVENT_ID_KEY,
+                EVENT_ID_KEY);
+    }
+
+    private void createTables(final ConnectionPool shard) throws ConnectException {
+        try (PooledConnection connection = shard.borrow(); Statement statement = connection.createStatement()) {
+            for (Table table : Table.values()) {
+                String sqlCreateStatement = String.format(
+                        "CREATE TABLE IF NOT EXISTS %s (%s text NOT NULL, %s text NOT NULL, %s text, "
+                                + "PRIMARY KEY (%s, %s))",
+                        table, PROJECT_KEY, table.keyName, EVENT_ID_KEY, PROJECT_KEY, table.keyName);
+                statement.execute(sqlCreateStatement);
+            }
+            LOGGER.debug("Created consolidated tables successfully");
+        } catch (SQLException e) {
+            LOGGER.error("Error while creating Tables in database: {}\n{}", e.getMessage(), e);
+        }
+    }
+}
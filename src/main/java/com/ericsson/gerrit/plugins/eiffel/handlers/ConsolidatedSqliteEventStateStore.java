@@ -0,0 +1,122 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.sql.SQLException;
+import java.util.Map;
+
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics;
+
+/**
+ * EventStateStore keeping the state of all projects in a fixed number of shared SQLite database
+ * files, see ConsolidatedDataBaseHandler. The database files are created on first use.
+ *
+ */
+public class ConsolidatedSqliteEventStateStore implements EventStateStore {
+
+    private final File pluginDir;
+    private final int shardCount;
+    private final SqliteTuning tuning;
+    private final EiffelMetrics metrics;
+    private volatile ConsolidatedDataBaseHandler dataBaseHandler;
+
+    public ConsolidatedSqliteEventStateStore(final File pluginDir, final int shardCount) {
+        this(pluginDir, shardCount, SqliteTuning.DEFAULT, EiffelMetrics.DISABLED);
+    }
+
+    public ConsolidatedSqliteEventStateStore(final File pluginDir, final int shardCount, final SqliteTuning tuning,
+            final EiffelMetrics metrics) {
+        this.pluginDir = pluginDir;
+        this.shardCount = shardCount;
+        this.tuning = tuning;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String get(final String project, final Table table, final String keyValue)
+            throws IOException, NoSuchElementException {
+        return getDataBaseHandler().getEventID(project, table, keyValue);
+    }
+
+    @Override
+    public Map<String, String> getAll(final String project, final Table table) throws IOException {
+        return getDataBaseHandler().getAllEventIDs(project, table);
+    }
+
+    @Override
+    public void put(final String project, final Table table, final String keyValue, final String eventId)
+            throws IOException {
+        try {
+            getDataBaseHandler().upsertInto(project, table, keyValue, eventId);
+        } catch (SQLException e) {
+            throw new IOException(String.format("Failed to store event id for project '%s'. %s", project,
+                    e.getMessage()), e);
+        }
+    }
+
+    @Override
+    public void putAll(final String project, final Map<Table, Map<String, String>> eventIds) throws IOException {
+        try {
+            getDataBaseHandler().storeAll(project, eventIds);
+        } catch (SQLException e) {
+            throw new IOException(String.format("Failed to store event ids for project '%s'. %s", project,
+                    e.getMessage()), e);
+        }
+    }
+
+    @Override
+    public boolean isDurable() {
+        return true;
+    }
+
+    @Override
+    public boolean isPerProjectLayout() {
+        return false;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (dataBaseHandler != null) {
+            dataBaseHandler.close();
+            dataBaseHandler = null;
+        }
+    }
+
+    /**
+     * Opens the database handler on first use. Only the first calls take the lock, afterwards the
+     * sender threads go straight to the sharded connection pools.
+     *
+     * @return ConsolidatedDataBaseHandler
+     * @throws ConnectException
+     */
+    private ConsolidatedDataBaseHandler getDataBaseHandler() throws ConnectException {
+        final ConsolidatedDataBaseHandler currentHandler = dataBaseHandler;
+        if (currentHandler != null) {
+            return currentHandler;
+        }
+        synchronized (this) {
+            if (dataBaseHandler == null) {
+                dataBaseHandler = new ConsolidatedDataBaseHandler(pluginDir, shardCount, tuning, metrics);
+            }
+            return dataBaseHandler;
+        }
+    }
+}
@@ -5,15 +5,20 @@ import java.net.ConnectException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics;
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics.StateOperation;
+
 /**
  * This is the database handler class. at initiation it checks if the name given
  * exist as a db file, if not it gets created together with required tables. At
@@ -21,11 +26,17 @@ import org.slf4j.LoggerFactory;
  * project depending how the classes that uses this handler implements this
  * function.
  *
+ * Connections are borrowed from a pool shared by all handlers working on the
+ * same database file, and prepared statements are cached per connection.
+ *
  */
 public class DataBaseHandler {
     private static final Logger LOGGER = LoggerFactory.getLogger(DataBaseHandler.class);
     private static final String EVENT_ID_KEY = "eventId";
     private final String databaseFile;
+    private final ConnectionPool connectionPool;
+    private final EiffelMetrics metrics;
+    private final AtomicBoolean closed = new AtomicBoolean();
 
     /**
      * Constructor that takes plugin directory path as String and plugin name as
@@ -36,8 +47,26 @@ public class DataBaseHandler {
      * @throws ConnectException
      */
     public DataBaseHandler(final String pluginDir, final String filename) throws ConnectException {
+        this(pluginDir, filename, SqliteTuning.DEFAULT, EiffelMetrics.DISABLED);
+    }
+
+    /**
+     * Constructor that takes plugin directory path as String, plugin name as
+     * String, the tuning applied to new connections of the database file and the
+     * metrics that reads and writes of event ids are recorded in.
+     *
+     * @param pluginDir
+     * @param filename
+     * @param tuning
+     * @param metrics
+     * @throws ConnectException
+     */
+    public DataBaseHandler(final String pluginDir, final String filename, final SqliteTuning tuning,
+            final EiffelMetrics metrics) throws ConnectException {
         final Path filePath = Paths.get(pluginDir, filename);
         this.databaseFile = String.format("jdbc:sqlite:%s", filePath);
+        this.connectionPool = ConnectionPool.forDatabase(databaseFile, tuning);
+        this.metrics = metrics;
         createNewDatabase();
         createTables();
     }
@@ -54,6 +83,22 @@ public class DataBaseHandler {
         this(pluginDir.toString(), filename);
     }
 
+    /**
+     * Constructor that takes plugin directory path as File, plugin name as String,
+     * the tuning applied to new connections of the database file and the metrics
+     * that reads and writes of event ids are recorded in.
+     *
+     * @param pluginDir
+     * @param filename
+     * @param tuning
+     * @param metrics
+     * @throws ConnectException
+     */
+    public DataBaseHandler(final File pluginDir, final String filename, final SqliteTuning tuning,
+            final EiffelMetrics metrics) throws ConnectException {
+        this(pluginDir.toString(), filename, tuning, metrics);
+    }
+
     /**
      * This function returns an event id if exists for a specific table depending on
      * the keyValue
@@ -65,18 +110,19 @@ public class DataBaseHandler {
      * @throws NoSuchElementException
      */
     public String getEventID(final Table table, final String keyValue) throws ConnectException, NoSuchElementException {
+        final long startNanos = System.nanoTime();
         String eventID = "";
 
         String sqlSelectStatement = String.format("SELECT * FROM %s WHERE %s=?", table, table.keyName);
-        try (Connection connection = connect();
-                PreparedStatement preparedStatement = connection.prepareStatement(sqlSelectStatement)) {
-
+        try (PooledConnection connection = connect()) {
+            PreparedStatement preparedStatement = connection.prepareStatement(sqlSelectStatement);
             preparedStatement.setString(1, keyValue);
             eventID = executeQuery(preparedStatement);
 
         } catch (SQLException e) {
             LOGGER.error("Error when trying to fetch values from database: {}\n{}", e.getMessage(), e);
         }
+        metrics.recordStateAccess(table, StateOperation.READ, startNanos);
 
         if (eventID.isEmpty()) {
             throw new NoSuchElementException("Database did not return any value for this query");
@@ -85,6 +131,30 @@ public class DataBaseHandler {
         return eventID;
     }
 
+    /**
+     * This function returns all event ids stored in a table, mapped by their
+     * keyValue.
+     *
+     * @param table
+     * @return map of keyValue to eventId
+     * @throws ConnectException
+     */
+    public Map<String, String> getAllEventIDs(final Table table) throws ConnectException {
+        final Map<String, String> eventIds = new HashMap<>();
+        String sqlSelectStatement = String.format("SELECT %s, %s FROM %s", table.keyName, EVENT_ID_KEY, table);
+        try (PooledConnection connection = connect()) {
+            PreparedStatement preparedStatement = connection.prepareStatement(sqlSelectStatement);
+            try (ResultSet result = preparedStatement.executeQuery()) {
+                while (result.next()) {
+                    eventIds.put(result.getString(table.keyName), result.getString(EVENT_ID_KEY));
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.error("Error when trying to fetch values from database: {}\n{}", e.getMessage(), e);
+        }
+        return eventIds;
+    }
+
     /**
      * This function updates value to the given table. The keyValue value is
      * different depending on Table (branch name for scs and change-id for scc)
@@ -97,8 +167,7 @@ public class DataBaseHandler {
      */
     public void updateInto(final Table table, final String keyValue, final String eiffelevent)
             throws ConnectException, SQLException {
-        String sqlUpdateStatement = String.format("UPDATE %s SET %s=? WHERE %s=?", table, EVENT_ID_KEY, table.keyName);
-        executeUpdate(sqlUpdateStatement, keyValue, eiffelevent);
+        executeUpdate(table, updateStatement(table), keyValue, eiffelevent);
     }
 
     /**
@@ -113,10 +182,69 @@ public class DataBaseHandler {
      */
     public void insertInto(final Table table, final String keyValue, final String eiffelevent)
             throws SQLException, ConnectException {
-        String sqlInsertStatement = String.format("INSERT INTO %s(%s,%s) VALUES(?,?)", table, EVENT_ID_KEY,
-                table.keyName);
-        executeUpdate(sqlInsertStatement, keyValue, eiffelevent);
+        executeUpdate(table, insertStatement(table), keyValue, eiffelevent);
+    }
 
+    /**
+     * This function inserts or replaces the value of the keyValue in the given
+     * table in a single statement, so concurrent writers of the same keyValue
+     * cannot both try to insert it.
+     *
+     * @param table
+     * @param keyValue
+     * @param eiffelevent
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    public void upsertInto(final Table table, final String keyValue, final String eiffelevent)
+            throws ConnectException, SQLException {
+        executeUpdate(table, upsertStatement(table), keyValue, eiffelevent);
+    }
+
+    /**
+     * This function stores a batch of event ids, mapped by table and keyValue, in
+     * one transaction. Existing rows are replaced and missing ones inserted, so the
+     * database file is only synced once for the whole batch.
+     *
+     * @param eventIds
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    public void storeAll(final Map<Table, Map<String, String>> eventIds) throws ConnectException, SQLException {
+        try (PooledConnection connection = connect()) {
+            final Connection sqlConnection = connection.getConnection();
+            sqlConnection.setAutoCommit(false);
+            try {
+                for (Map.Entry<Table, Map<String, String>> tableEntry : eventIds.entrySet()) {
+                    final Table table = tableEntry.getKey();
+                    PreparedStatement upsertStatement = connection.prepareStatement(upsertStatement(table));
+                    for (Map.Entry<String, String> entry : tableEntry.getValue().entrySet()) {
+                        upsertStatement.setString(1, entry.getValue());
+                        upsertStatement.setString(2, entry.getKey());
+                        upsertStatement.addBatch();
+                    }
+                    upsertStatement.executeBatch();
+                }
+                sqlConnection.commit();
+            } catch (SQLException e) {
+                sqlConnection.rollback();
+                LOGGER.error("Error when trying to add values into database: {}\n{}", e.getMessage(), e);
+                throw e;
+            } finally {
+                sqlConnection.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Gives back the handler's use of the shared connection pool, the connections
+     * are closed when no other handler uses the database file. The handler may
+     * still be used afterwards, but then opens and closes a connection per call.
+     */
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            connectionPool.close();
+        }
     }
 
     /**
@@ -126,11 +254,8 @@ public class DataBaseHandler {
      * @throws ConnectException
      */
     private void createNewDatabase() throws ConnectException {
-        try (Connection sqlConnection = connect()) {
-            if (sqlConnection != null) {
-                sqlConnection.getMetaData();
-                sqlConnection.close();
-            }
+        try (PooledConnection sqlConnection = connect()) {
+            sqlConnection.getConnection().getMetaData();
 
         } catch (SQLException e) {
             LOGGER.error("Error when trying to create new database: {}\n{}", e.getMessage(), e);
@@ -145,7 +270,7 @@ public class DataBaseHandler {
      * @throws ConnectException
      */
     private void createTables() throws ConnectException {
-        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+        try (PooledConnection connection = connect(); Statement statement = connection.createStatement()) {
             for (Table table : Table.values()) {
                 createTable(table, statement);
             }
@@ -156,19 +281,14 @@ public class DataBaseHandler {
     }
 
     /**
-     * This function connects to the database and returns a connection
+     * This function borrows a connection to the database from the pool, closing it
+     * hands it back to the pool.
      *
      * @return Connection to database
      * @throws ConnectException
      */
-    private Connection connect() throws ConnectException {
-        try {
-            Class.forName("org.sqlite.JDBC");
-            return DriverManager.getConnection(this.databaseFile);
-        } catch (SQLException | ClassNotFoundException e) {
-            throw new ConnectException(
-                    String.format("Failed to create a database connection. %s\n%s", e.getMessage(), e));
-        }
+    private PooledConnection connect() throws ConnectException {
+        return connectionPool.borrow();
     }
 
     /**
@@ -191,15 +311,18 @@ public class DataBaseHandler {
      * Creates a prepared statement and executes an update on the sqlStatement
      * given.
      *
+     * @param table
      * @param sqlStatement
      * @param keyValue
      * @param eiffelevent
      * @throws ConnectException
      * @throws SQLException
      */
-    private void executeUpdate(final String sqlStatement, final String keyValue, final String eiffelevent)
-            throws ConnectException, SQLException {
-        try (PreparedStatement preparedStatement = prepareStatmentForResourceBlock(sqlStatement)) {
+    private void executeUpdate(final Table table, final String sqlStatement, final String keyValue,
+            final String eiffelevent) throws ConnectException, SQLException {
+        final long startNanos = System.nanoTime();
+        try (PooledConnection connection = connect()) {
+            PreparedStatement preparedStatement = connection.prepareStatement(sqlStatement);
             preparedStatement.setString(1, eiffelevent);
             preparedStatement.setString(2, keyValue);
             int updateCount = preparedStatement.executeUpdate();
@@ -211,18 +334,27 @@ public class DataBaseHandler {
         } catch (SQLException e) {
             LOGGER.error("Error when trying to add value into database: {}\n{}", e.getMessage(), e);
             throw e;
+        } finally {
+            metrics.recordStateAccess(table, StateOperation.WRITE, startNanos);
         }
     }
 
+    private static String updateStatement(final Table table) {
+        return String.format("UPDATE %s SET %s=? WHERE %s=?", table, EVENT_ID_KEY, table.keyName);
+    }
+
+    private static String insertStatement(final Table table) {
+        return String.format("INSERT INTO %s(%s,%s) VALUES(?,?)", table, EVENT_ID_KEY, table.keyName);
+    }
+
+    private static String upsertStatement(final Table table) {
+        return String.format("INSERT INTO %s(%s,%s) VALUES(?,?) ON CONFLICT(%s) DO UPDATE SET %s=excluded.%s", table,
+                EVENT_ID_KEY, table.keyName, table.keyName, EVENT_ID_KEY, EVENT_ID_KEY);
+    }
+
     public void createTable(Table table, Statement statement) throws ConnectException, SQLException {
         String sqlCreateStatement = String.format("CREATE TABLE IF NOT EXISTS %s (%s text PRIMARY KEY, %s text)", table,
                 table.keyName, EVENT_ID_KEY);
         statement.execute(sqlCreateStatement);
     }
-
-    private PreparedStatement prepareStatmentForResourceBlock(final String sqlStatement)
-            throws ConnectException, SQLException {
-        Connection connection = connect();
-        return connection.prepareStatement(sqlStatement);
-    }
 }
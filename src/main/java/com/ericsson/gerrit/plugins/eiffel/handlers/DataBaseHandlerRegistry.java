@@ -0,0 +1,140 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.io.File;
+import java.net.ConnectException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+
+/**
+ * Keeps initialised DataBaseHandlers per project so that the database file and its tables are only
+ * set up the first time a project is used. The least recently used handlers are evicted when the
+ * registry is full, and handlers that have not been used for a while are closed.
+ *
+ */
+public class DataBaseHandlerRegistry {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DataBaseHandlerRegistry.class);
+    public static final long DEFAULT_MAXIMUM_SIZE = 500;
+    public static final long DEFAULT_IDLE_TIMEOUT_MINUTES = 10;
+    private static final String FILE_ENDING = "db";
+
+    private final File pluginDir;
+    private final SqliteTuning tuning;
+    private final EiffelMetrics metrics;
+    private final Cache<String, DataBaseHandler> handlers;
+
+    public DataBaseHandlerRegistry(final File pluginDir) {
+        this(pluginDir, SqliteTuning.DEFAULT, EiffelMetrics.DISABLED);
+    }
+
+    public DataBaseHandlerRegistry(final File pluginDir, final SqliteTuning tuning, final EiffelMetrics metrics) {
+        this(pluginDir, tuning, metrics, DEFAULT_MAXIMUM_SIZE, DEFAULT_IDLE_TIMEOUT_MINUTES);
+    }
+
+    public DataBaseHandlerRegistry(final File pluginDir, final long maximumSize, final long idleTimeoutMinutes) {
+        this(pluginDir, SqliteTuning.DEFAULT, EiffelMetrics.DISABLED, maximumSize, idleTimeoutMinutes);
+    }
+
+    public DataBaseHandlerRegistry(final File pluginDir, final SqliteTuning tuning, final EiffelMetrics metrics,
+            final long maximumSize, final long idleTimeoutMinutes) {
+        this.pluginDir = pluginDir;
+        this.tuning = tuning;
+        this.metrics = metrics;
+        final RemovalListener<String, DataBaseHandler> closeOnRemoval = notification -> {
+            LOGGER.debug("Closing database handler for project '{}', cause: {}", notification.getKey(),
+                    notification.getCause());
+            notification.getValue().close();
+        };
+        this.handlers = CacheBuilder.newBuilder()
+                                    .maximumSize(maximumSize)
+                                    .expireAfterAccess(idleTimeoutMinutes, TimeUnit.MINUTES)
+                                    .removalListener(closeOnRemoval)
+                                    .build();
+    }
+
+    /**
+     * Returns the DataBaseHandler for the project, creating the database file and tables the first
+     * time the project is used.
+     *
+     * @param project
+     * @return DataBaseHandler
+     * @throws ConnectException
+     */
+    public DataBaseHandler get(final String project) throws ConnectException {
+        try {
+            return handlers.get(project, () -> createDataBaseHandler(project));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ConnectException) {
+                throw (ConnectException) e.getCause();
+            }
+            throw new ConnectException(String.format("Failed to create a database handler for project %s. %s",
+                    project, e.getCause()));
+        }
+    }
+
+    /**
+     * Number of projects that currently have an initialised DataBaseHandler.
+     *
+     * @return long
+     */
+    public long size() {
+        return handlers.size();
+    }
+
+    /**
+     * Closes idle handlers now instead of waiting for the next access.
+     */
+    public void cleanUp() {
+        handlers.cleanUp();
+    }
+
+    /**
+     * Closes and forgets all handlers.
+     */
+    public void closeAll() {
+        handlers.invalidateAll();
+        handlers.cleanUp();
+    }
+
+    /**
+     * The database file used for the project, it may not exist yet.
+     *
+     * @param project
+     * @return File
+     */
+    public File getDatabaseFile(final String project) {
+        return new File(pluginDir, getFileName(project));
+    }
+
+    private DataBaseHandler createDataBaseHandler(final String project) throws ConnectException {
+        return new DataBaseHandler(pluginDir, getFileName(project), tuning, metrics);
+    }
+
+    private static String getFileName(final String project) {
+        return String.format("%s.%s", project, FILE_ENDING);
+    }
+}
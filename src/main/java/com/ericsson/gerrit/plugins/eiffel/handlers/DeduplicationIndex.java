@@ -0,0 +1,300 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.io.File;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Remembers which Gerrit events were processed so that events Gerrit delivers again, for example
+ * replayed stream events or events forwarded between Gerrit servers, are not sent twice. Event keys
+ * are stored with the time they were first seen in a database file in the plugin data directory
+ * and forgotten after the configured time to live.
+ *
+ * An in memory bloom filter of the stored keys sits in front of the database. New events, which
+ * the filter tells apart from stored ones, are recorded with a single insert. Only events the
+ * filter may have seen are looked up, so repeated events never take the database write lock.
+ * The insert itself only succeeds if the key is not stored yet, which keeps servers that share
+ * the plugin data directory from both processing an event.
+ *
+ */
+@Singleton
+public class DeduplicationIndex implements LifecycleListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeduplicationIndex.class);
+    private static final String ENABLED = "deduplicationEnabled";
+    private static final String TTL = "deduplicationTtlMs";
+    private static final String EXPECTED_EVENTS = "deduplicationExpectedEvents";
+    public static final long DEFAULT_TTL_MS = TimeUnit.DAYS.toMillis(1);
+    public static final int DEFAULT_EXPECTED_EVENTS = 100000;
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+    private static final long EVICTION_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+    private static final String DATABASE_FILE = "eiffel-delivered-events.sqlite";
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS delivered_events "
+            + "(eventKey text PRIMARY KEY, deliveredAt integer NOT NULL)";
+    private static final String SELECT_DELIVERED = "SELECT 1 FROM delivered_events WHERE eventKey=? AND deliveredAt>=?";
+    private static final String SELECT_KEYS = "SELECT eventKey FROM delivered_events";
+    private static final String RECORD_DELIVERED = "INSERT INTO delivered_events(eventKey,deliveredAt) VALUES(?,?) "
+            + "ON CONFLICT(eventKey) DO UPDATE SET deliveredAt=excluded.deliveredAt WHERE deliveredAt<?";
+    private static final String DELETE_KEY = "DELETE FROM delivered_events WHERE eventKey=?";
+    private static final String DELETE_EXPIRED = "DELETE FROM delivered_events WHERE deliveredAt<?";
+
+    public static final DeduplicationIndex DISABLED = new DeduplicationIndex(null, null, SqliteTuning.DEFAULT, false,
+            DEFAULT_TTL_MS, DEFAULT_EXPECTED_EVENTS, System::currentTimeMillis);
+
+    private final File pluginDir;
+    private final WorkQueue workQueue;
+    private final SqliteTuning tuning;
+    private final boolean enabled;
+    private final long ttlMs;
+    private final int expectedEvents;
+    private final LongSupplier clock;
+    private volatile ConnectionPool connectionPool;
+    private volatile BloomFilter<CharSequence> deliveredKeys;
+    private ScheduledExecutorService executor;
+
+    @Inject
+    public DeduplicationIndex(@PluginData final File pluginDir, final WorkQueue workQueue, final SqliteTuning tuning,
+            final PluginConfigFactory config, @PluginName final String pluginName) {
+        this(pluginDir, workQueue, tuning, config.getFromGerritConfig(pluginName, true));
+    }
+
+    private DeduplicationIndex(final File pluginDir, final WorkQueue workQueue, final SqliteTuning tuning,
+            final PluginConfig pluginConfig) {
+        this(pluginDir, workQueue, tuning, pluginConfig.getBoolean(ENABLED, false),
+                pluginConfig.getLong(TTL, DEFAULT_TTL_MS),
+                pluginConfig.getInt(EXPECTED_EVENTS, DEFAULT_EXPECTED_EVENTS), System::currentTimeMillis);
+    }
+
+    /**
+     * Constructor for the DeduplicationIndex class.
+     *
+     * @param pluginDir directory of the database file
+     * @param workQueue creates the thread evicting expired keys, null to only evict at start
+     * @param tuning applied to the connections of the database file
+     * @param enabled
+     * @param ttlMs time an event key is remembered
+     * @param expectedEvents number of event keys within the time to live, sizes the bloom filter
+     * @param clock current time in milliseconds
+     */
+    public DeduplicationIndex(final File pluginDir, final WorkQueue workQueue, final SqliteTuning tuning,
+            final boolean enabled, final long ttlMs, final int expectedEvents, final LongSupplier clock) {
+        this.pluginDir = pluginDir;
+        this.workQueue = workQueue;
+        this.tuning = tuning;
+        this.enabled = enabled;
+        this.ttlMs = ttlMs;
+        this.expectedEvents = Math.max(1, expectedEvents);
+        this.clock = clock;
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            connectionPool = ConnectionPool.forDatabase(
+                    String.format("jdbc:sqlite:%s", pluginDir.toPath().resolve(DATABASE_FILE)), tuning);
+            try (PooledConnection connection = connectionPool.borrow();
+                    Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_TABLE);
+            }
+        } catch (ConnectException | SQLException e) {
+            LOGGER.error("Failed to open the deduplication index, Gerrit events are not deduplicated: {}\n{}",
+                    e.getMessage(), e);
+            connectionPool = null;
+            return;
+        }
+
+        evictExpired();
+        if (workQueue != null) {
+            executor = workQueue.createQueue(1, "Eiffel Deduplication Index");
+            executor.scheduleWithFixedDelay(this::evictExpired, EVICTION_INTERVAL_MS, EVICTION_INTERVAL_MS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        final ConnectionPool currentPool = connectionPool;
+        connectionPool = null;
+        if (currentPool != null) {
+            currentPool.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records the event key unless it was recorded within the time to live. Events without a key,
+     * and all events while the index is disabled or unavailable, count as new.
+     *
+     * @param eventKey
+     * @return true if the event is new and should be processed, false if it is a duplicate
+     */
+    public boolean recordIfNew(final String eventKey) {
+        final ConnectionPool currentPool = connectionPool;
+        if (currentPool == null || eventKey == null) {
+            return true;
+        }
+
+        final long now = clock.getAsLong();
+        try (PooledConnection connection = currentPool.borrow()) {
+            if (mightContain(eventKey) && isRecorded(connection, eventKey, now)) {
+                return false;
+            }
+            final boolean recorded = record(connection, eventKey, now);
+            put(eventKey);
+            return recorded;
+        } catch (ConnectException | SQLException e) {
+            LOGGER.error("Failed to look up Gerrit event '{}' in the deduplication index, processing it: {}\n{}",
+                    eventKey, e.getMessage(), e);
+            return true;
+        }
+    }
+
+    /**
+     * Forgets an event key recorded by recordIfNew, so that the event counts as new when Gerrit
+     * delivers it again. Used when processing the event failed after it was recorded. The key stays
+     * in the bloom filter until the next eviction, which only costs a lookup.
+     *
+     * @param eventKey
+     */
+    public void forget(final String eventKey) {
+        final ConnectionPool currentPool = connectionPool;
+        if (currentPool == null || eventKey == null) {
+            return;
+        }
+
+        try (PooledConnection connection = currentPool.borrow()) {
+            final PreparedStatement deleteStatement = connection.prepareStatement(DELETE_KEY);
+            deleteStatement.setString(1, eventKey);
+            deleteStatement.executeUpdate();
+        } catch (ConnectException | SQLException e) {
+            LOGGER.error("Failed to remove Gerrit event '{}' from the deduplication index, it is not processed "
+                    + "again: {}\n{}", eventKey, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Deletes the event keys older than the time to live and builds a new bloom filter of the
+     * remaining ones, a bloom filter cannot forget single keys.
+     */
+    void evictExpired() {
+        final ConnectionPool currentPool = connectionPool;
+        if (currentPool == null) {
+            return;
+        }
+
+        try (PooledConnection connection = currentPool.borrow()) {
+            final PreparedStatement deleteStatement = connection.prepareStatement(DELETE_EXPIRED);
+            deleteStatement.setLong(1, clock.getAsLong() - ttlMs);
+            final int evictedCount = deleteStatement.executeUpdate();
+
+            final List<String> eventKeys = new ArrayList<>();
+            try (ResultSet result = connection.prepareStatement(SELECT_KEYS).executeQuery()) {
+                while (result.next()) {
+                    eventKeys.add(result.getString(1));
+                }
+            }
+            final BloomFilter<CharSequence> bloomFilter = BloomFilter.create(
+                    Funnels.stringFunnel(StandardCharsets.UTF_8), Math.max(expectedEvents, 2 * eventKeys.size()),
+                    FALSE_POSITIVE_PROBABILITY);
+            eventKeys.forEach(bloomFilter::put);
+            deliveredKeys = bloomFilter;
+            LOGGER.debug("Evicted {} expired keys from the deduplication index, {} keys remain.", evictedCount,
+                    eventKeys.size());
+        } catch (ConnectException | SQLException | RuntimeException e) {
+            LOGGER.error("Failed to evict expired keys from the deduplication index: {}\n{}", e.getMessage(), e);
+        }
+    }
+
+    private boolean mightContain(final String eventKey) {
+        final BloomFilter<CharSequence> bloomFilter = deliveredKeys;
+        if (bloomFilter == null) {
+            return true;
+        }
+        synchronized (bloomFilter) {
+            return bloomFilter.mightContain(eventKey);
+        }
+    }
+
+    private void put(final String eventKey) {
+        final BloomFilter<CharSequence> bloomFilter = deliveredKeys;
+        if (bloomFilter == null) {
+            return;
+        }
+        synchronized (bloomFilter) {
+            bloomFilter.put(eventKey);
+        }
+    }
+
+    private boolean isRecorded(final PooledConnection connection, final String eventKey, final long now)
+            throws SQLException {
+        final PreparedStatement selectStatement = connection.prepareStatement(SELECT_DELIVERED);
+        selectStatement.setString(1, eventKey);
+        selectStatement.setLong(2, now - ttlMs);
+        try (ResultSet result = selectStatement.executeQuery()) {
+            return result.next();
+        }
+    }
+
+    /**
+     * Stores the key, or renews an expired one, in one statement.
+     *
+     * @return false if the key is stored and not expired, another server may have stored it
+     */
+    private boolean record(final PooledConnection connection, final String eventKey, final long now)
+            throws SQLException {
+        final PreparedStatement recordStatement = connection.prepareStatement(RECORD_DELIVERED);
+        recordStatement.setString(1, eventKey);
+        recordStatement.setLong(2, now);
+        recordStatement.setLong(3, now - ttlMs);
+        return recordStatement.executeUpdate() > 0;
+    }
+}
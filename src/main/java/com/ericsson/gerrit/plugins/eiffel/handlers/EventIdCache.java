@@ -0,0 +1,77 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * In memory copy of the last Eiffel event ids stored by the StateHandler, keyed by project, table
+ * and table key. The least recently used entries are evicted when the cache is full.
+ *
+ */
+public class EventIdCache {
+    public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+    private final Cache<StateKey, String> cache;
+
+    public EventIdCache(final long maximumSize) {
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    /**
+     * Returns the cached event id or null if it is not cached.
+     *
+     * @param project
+     * @param table
+     * @param keyValue
+     * @return eventId or null
+     */
+    public String get(final String project, final Table table, final String keyValue) {
+        return cache.getIfPresent(new StateKey(project, table, keyValue));
+    }
+
+    public void put(final String project, final Table table, final String keyValue, final String eventId) {
+        cache.put(new StateKey(project, table, keyValue), eventId);
+    }
+
+    public void invalidate(final String project, final Table table, final String keyValue) {
+        cache.invalidate(new StateKey(project, table, keyValue));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+}
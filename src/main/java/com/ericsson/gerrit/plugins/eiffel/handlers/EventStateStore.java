@@ -0,0 +1,118 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Storage of the last sent Eiffel event ids, keyed by project, table and the key value of the
+ * table (branch or change id). Implementations must be safe to use from several threads.
+ *
+ */
+public interface EventStateStore {
+
+    /**
+     * Returns the event id stored for the key value of a project and table.
+     *
+     * @param project
+     * @param table
+     * @param keyValue
+     * @return eventId
+     * @throws IOException if the store could not be read
+     * @throws NoSuchElementException if no event id is stored
+     */
+    String get(String project, Table table, String keyValue) throws IOException, NoSuchElementException;
+
+    /**
+     * Returns all event ids stored for a project and table, mapped by their key value.
+     *
+     * @param project
+     * @param table
+     * @return map of keyValue to eventId
+     * @throws IOException
+     */
+    Map<String, String> getAll(String project, Table table) throws IOException;
+
+    /**
+     * Stores the event id for the key value of a project and table, replacing any previous value.
+     *
+     * @param project
+     * @param table
+     * @param keyValue
+     * @param eventId
+     * @throws IOException if the event id could not be stored
+     */
+    void put(String project, Table table, String keyValue, String eventId) throws IOException;
+
+    /**
+     * Stores a batch of event ids of a project, mapped by table and key value. Stores that can
+     * should write the whole batch at once, the default stores them one by one.
+     *
+     * @param project
+     * @param eventIds
+     * @throws IOException if the batch could not be stored
+     */
+    default void putAll(final String project, final Map<Table, Map<String, String>> eventIds) throws IOException {
+        for (Map.Entry<Table, Map<String, String>> tableEntry : eventIds.entrySet()) {
+            for (Map.Entry<String, String> entry : tableEntry.getValue().entrySet()) {
+                put(project, tableEntry.getKey(), entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Writes event ids the store holds back in memory to where they survive a restart. Stores that
+     * write every event id right away have nothing to flush.
+     *
+     * @throws IOException if any held back event id could not be written
+     */
+    default void flush() throws IOException {
+    }
+
+    /**
+     * Whether stored event ids survive a restart of the plugin.
+     *
+     * @return boolean
+     */
+    boolean isDurable();
+
+    /**
+     * Whether the store keeps one SQLite database file per project in the plugin data directory,
+     * the layout that the per project state is migrated from.
+     *
+     * @return boolean
+     */
+    boolean isPerProjectLayout();
+
+    /**
+     * Whether any event id may be stored for the project. Stores that cannot tell cheaply return
+     * true, the answer is only used to skip needless reads.
+     *
+     * @param project
+     * @return boolean
+     */
+    default boolean hasState(final String project) {
+        return true;
+    }
+
+    /**
+     * Releases files and connections held by the store.
+     */
+    void close();
+}
@@ -0,0 +1,98 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.io.File;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+/**
+ * Creates the EventStateStore selected in the plugin section of gerrit.config.
+ *
+ */
+public class EventStateStoreProvider implements Provider<EventStateStore> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventStateStoreProvider.class);
+    private static final String BACKEND = "stateStoreBackend";
+    private static final String STORAGE_MODE = "stateStorageMode";
+    private static final String SHARDS = "stateDatabaseShards";
+    private static final String LOG_SYNC = "stateLogSync";
+    private static final String WRITE_BEHIND = "stateWriteBehind";
+    private static final String FLUSH_BATCH_SIZE = "stateFlushBatchSize";
+    private static final String FLUSH_INTERVAL = "stateFlushIntervalMs";
+    private static final int DEFAULT_SHARDS = 1;
+
+    private final File pluginDir;
+    private final PluginConfig pluginConfig;
+    private final WorkQueue workQueue;
+    private final EiffelMetrics metrics;
+    private final SqliteTuning tuning;
+
+    @Inject
+    public EventStateStoreProvider(@PluginData final File pluginDir, final PluginConfigFactory config,
+            @PluginName final String pluginName, final WorkQueue workQueue, final EiffelMetrics metrics,
+            final SqliteTuning tuning) {
+        this.pluginDir = pluginDir;
+        this.pluginConfig = config.getFromGerritConfig(pluginName, true);
+        this.workQueue = workQueue;
+        this.metrics = metrics;
+        this.tuning = tuning;
+    }
+
+    @Override
+    public EventStateStore get() {
+        final EventStateStore stateStore = createBackend();
+        if (!pluginConfig.getBoolean(WRITE_BEHIND, false)) {
+            return stateStore;
+        }
+
+        final int batchSize = pluginConfig.getInt(FLUSH_BATCH_SIZE, WriteBehindEventStateStore.DEFAULT_BATCH_SIZE);
+        final long flushIntervalMs = pluginConfig.getLong(FLUSH_INTERVAL,
+                WriteBehindEventStateStore.DEFAULT_FLUSH_INTERVAL_MS);
+        LOGGER.info("Writing Eiffel event state in batches of {} every {} ms.", batchSize, flushIntervalMs);
+        return new WriteBehindEventStateStore(stateStore, batchSize, flushIntervalMs,
+                workQueue.createQueue(1, "Eiffel State Flusher"));
+    }
+
+    private EventStateStore createBackend() {
+        final StateStoreBackend backend = pluginConfig.getEnum(BACKEND, StateStoreBackend.SQLITE);
+        LOGGER.info("Using {} backend for the Eiffel event state.", backend);
+        switch (backend) {
+        case LOG:
+            return new LogEventStateStore(pluginDir, pluginConfig.getBoolean(LOG_SYNC, true));
+        case MEMORY:
+            return new InMemoryEventStateStore();
+        case SQLITE:
+        default:
+            if (pluginConfig.getEnum(STORAGE_MODE, StorageMode.PER_PROJECT) == StorageMode.CONSOLIDATED) {
+                return new ConsolidatedSqliteEventStateStore(pluginDir, pluginConfig.getInt(SHARDS, DEFAULT_SHARDS),
+                        tuning, metrics);
+            }
+            return new SqliteEventStateStore(pluginDir, tuning, metrics);
+        }
+    }
+}
@@ -0,0 +1,463 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang.StringUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.gerrit.plugins.eiffel.configuration.BranchFilter;
+import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.configuration.ProjectConfigurationCache;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.generators.EiffelSourceChangeCreatedEventGenerator;
+import com.ericsson.gerrit.plugins.eiffel.events.generators.EiffelSourceChangeSubmittedEventGenerator;
+import com.ericsson.gerrit.plugins.eiffel.messaging.EiffelEventSender;
+import com.ericsson.gerrit.plugins.eiffel.messaging.PublishResult;
+import com.ericsson.gerrit.plugins.eiffel.messaging.RemremEndpoint;
+import com.ericsson.gerrit.plugins.eiffel.messaging.RemremEndpoints;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.PatchSet;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.config.CanonicalWebUrl;
+import com.google.gerrit.server.data.AccountAttribute;
+import com.google.gerrit.server.data.ChangeAttribute;
+import com.google.gerrit.server.data.PatchSetAttribute;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.query.change.InternalChangeQuery;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+
+/**
+ * Generates the Eiffel events of changes that were merged or uploaded before the plugin was
+ * enabled for a project, so that the first events sent for the project link to its history.
+ *
+ * For every branch that matches the project's filter the first parent history is walked, oldest
+ * commit first, and every commit with a Change-Id gives a SourceChangeSubmitted event. Every open
+ * change gives a SourceChangeCreated event for its current patch set. The events are generated by
+ * the same generators as the events of the Gerrit listeners.
+ *
+ * When publishing, the ids REMReM returns are stored as the last sent events of the branches and
+ * changes, which rebuilds the state store. Without publishing the events are only generated and
+ * counted. Projects are backfilled in parallel, the generated events per second are limited over
+ * all projects and projects completed by a publishing run are kept in a {@link BackfillCheckpoint}.
+ * The events are sent through the circuit breaker and concurrency limit of their REMReM URL, see
+ * {@link RemremEndpoints}, a backfill waits for an endpoint that is failing or at its limit.
+ *
+ * Progress is kept per project only. A project that was not completed is backfilled from the
+ * start by the next run, so the events that were published before are published again.
+ *
+ */
+@Singleton
+public class HistoryBackfiller {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HistoryBackfiller.class);
+    private static final String CHANGE_ID_FOOTER = "Change-Id";
+    private static final long ENDPOINT_POLL_INTERVAL_MS = 100;
+
+    private final GitRepositoryManager repositoryManager;
+    private final Provider<InternalChangeQuery> queryProvider;
+    private final ProjectConfigurationCache projectConfigurationCache;
+    private final StateHandler stateHandler;
+    private final EiffelEventSender eiffelEventSender;
+    private final RemremEndpoints remremEndpoints;
+    private final WorkQueue workQueue;
+    private final String canonicalWebUrl;
+    private final BackfillCheckpoint checkpoint;
+
+    @Inject
+    public HistoryBackfiller(final GitRepositoryManager repositoryManager,
+            final Provider<InternalChangeQuery> queryProvider,
+            final ProjectConfigurationCache projectConfigurationCache, final StateHandler stateHandler,
+            final EiffelEventSender eiffelEventSender, final RemremEndpoints remremEndpoints,
+            final WorkQueue workQueue, @CanonicalWebUrl final String canonicalWebUrl,
+            @PluginData final File pluginDir) {
+        this.repositoryManager = repositoryManager;
+        this.queryProvider = queryProvider;
+        this.projectConfigurationCache = projectConfigurationCache;
+        this.stateHandler = stateHandler;
+        this.eiffelEventSender = eiffelEventSender;
+        this.remremEndpoints = remremEndpoints;
+        this.workQueue = workQueue;
+        this.canonicalWebUrl = canonicalWebUrl;
+        this.checkpoint = new BackfillCheckpoint(pluginDir);
+    }
+
+    /**
+     * Backfills the projects that are not in the checkpoint yet and waits until all are done. Only
+     * a publishing run adds the projects it completed to the checkpoint.
+     *
+     * @param projects
+     * @param options
+     * @param progress gets the result of each project as soon as it is done, from several threads
+     * @return results of the backfilled projects
+     * @throws InterruptedException if the backfill was interrupted, running projects are stopped
+     */
+    public List<ProjectResult> backfill(final List<Project.NameKey> projects, final Options options,
+            final Consumer<ProjectResult> progress) throws InterruptedException {
+        final RateLimiter rateLimiter = options.eventsPerSecond > 0 ? RateLimiter.create(options.eventsPerSecond)
+                : null;
+        final ScheduledThreadPoolExecutor executor = workQueue.createQueue(Math.max(1, options.threads),
+                "Eiffel Backfill");
+        try {
+            final List<Future<ProjectResult>> futures = new ArrayList<>();
+            for (Project.NameKey project : projects) {
+                if (checkpoint.isCompleted(project.get())) {
+                    LOGGER.debug("Project '{}' was backfilled by an earlier run.", project);
+                    continue;
+                }
+                futures.add(executor.submit(() -> {
+                    final ProjectResult result = backfillProject(project, options, rateLimiter);
+                    if (options.publish && result.isCompleted()) {
+                        checkpoint.markCompleted(project.get());
+                    }
+                    progress.accept(result);
+                    return result;
+                }));
+            }
+
+            final List<ProjectResult> results = new ArrayList<>(futures.size());
+            for (Future<ProjectResult> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Backfill failed: " + e.getMessage(), e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Forgets the projects completed by earlier runs.
+     */
+    public void resetCheckpoint() {
+        checkpoint.clear();
+    }
+
+    private ProjectResult backfillProject(final Project.NameKey project, final Options options,
+            final RateLimiter rateLimiter) {
+        final ProjectResult result = new ProjectResult(project.get());
+        final EiffelPluginConfiguration pluginConfig;
+        try {
+            pluginConfig = projectConfigurationCache.get(project);
+        } catch (RuntimeException | ExceptionInInitializerError e) {
+            result.error = "invalid plugin configuration: " + e.getMessage();
+            return result;
+        }
+        if (!pluginConfig.isEnabled()) {
+            result.skipReason = "plugin is disabled";
+            return result;
+        }
+
+        final Backfill backfill = new Backfill(project.get(), pluginConfig, options, rateLimiter, result);
+        try (Repository repository = repositoryManager.openRepository(project);
+                RevWalk revWalk = new RevWalk(repository)) {
+            for (Map.Entry<String, Ref> branch : repository.getRefDatabase().getRefs(Constants.R_HEADS).entrySet()) {
+                if (backfill.isBranchIncluded(branch.getKey())) {
+                    backfill.backfillBranch(revWalk, branch.getKey(), branch.getValue().getObjectId());
+                }
+            }
+            for (ChangeData changeData : queryProvider.get().byProjectOpen(project)) {
+                backfill.backfillOpenChange(revWalk, changeData);
+            }
+        } catch (IOException | OrmException e) {
+            LOGGER.error("Failed to backfill project '{}': {}\n{}", project, e.getMessage(), e);
+            result.error = e.getMessage();
+        }
+        return result;
+    }
+
+    /**
+     * Settings of one backfill run.
+     */
+    public static final class Options {
+        private final boolean publish;
+        private final int threads;
+        private final int maxCommits;
+        private final double eventsPerSecond;
+
+        /**
+         * Constructor for the Options class.
+         *
+         * @param publish whether the events are published and their ids stored
+         * @param threads number of projects backfilled in parallel
+         * @param maxCommits commits walked per branch, 0 for the whole history
+         * @param eventsPerSecond generated events per second over all projects, 0 for no limit
+         */
+        public Options(final boolean publish, final int threads, final int maxCommits,
+                final double eventsPerSecond) {
+            this.publish = publish;
+            this.threads = threads;
+            this.maxCommits = maxCommits;
+            this.eventsPerSecond = eventsPerSecond;
+        }
+    }
+
+    /**
+     * What was backfilled for one project.
+     */
+    public static final class ProjectResult {
+        private final String project;
+        private int submittedEvents;
+        private int createdEvents;
+        private int failedEvents;
+        private String skipReason;
+        private String error;
+
+        ProjectResult(final String project) {
+            this.project = project;
+        }
+
+        public String getProject() {
+            return project;
+        }
+
+        public int getSubmittedEvents() {
+            return submittedEvents;
+        }
+
+        public int getCreatedEvents() {
+            return createdEvents;
+        }
+
+        public int getFailedEvents() {
+            return failedEvents;
+        }
+
+        /**
+         * A completed project is not backfilled again by the next run. Skipped projects are not
+         * completed, they are backfilled once the plugin is enabled for them.
+         *
+         * @return boolean
+         */
+        public boolean isCompleted() {
+            return error == null && skipReason == null && failedEvents == 0;
+        }
+
+        @Override
+        public String toString() {
+            if (error != null) {
+                return String.format("%s: failed, %s", project, error);
+            }
+            if (skipReason != null) {
+                return String.format("%s: skipped, %s", project, skipReason);
+            }
+            return String.format("%s: %d submitted, %d created, %d failed", project, submittedEvents,
+                    createdEvents, failedEvents);
+        }
+    }
+
+    /**
+     * The backfill of one project, run by a single thread.
+     */
+    private final class Backfill {
+        private final String project;
+        private final EiffelPluginConfiguration pluginConfig;
+        private final BranchFilter branchFilter;
+        private final Options options;
+        private final RateLimiter rateLimiter;
+        private final ProjectResult result;
+
+        Backfill(final String project, final EiffelPluginConfiguration pluginConfig, final Options options,
+                final RateLimiter rateLimiter, final ProjectResult result) {
+            this.project = project;
+            this.pluginConfig = pluginConfig;
+            this.branchFilter = StringUtils.isEmpty(pluginConfig.getFilter()) ? null
+                    : BranchFilter.compile(pluginConfig.getFilter());
+            this.options = options;
+            this.rateLimiter = rateLimiter;
+            this.result = result;
+        }
+
+        boolean isBranchIncluded(final String branch) {
+            return branchFilter == null || branchFilter.matches(branch);
+        }
+
+        void backfillBranch(final RevWalk revWalk, final String branch, final ObjectId tip) throws IOException {
+            final List<RevCommit> commits = new ArrayList<>();
+            RevCommit commit = tip == null ? null : revWalk.parseCommit(tip);
+            while (commit != null && (options.maxCommits <= 0 || commits.size() < options.maxCommits)) {
+                commits.add(commit);
+                commit = commit.getParentCount() > 0 ? revWalk.parseCommit(commit.getParent(0)) : null;
+            }
+            Collections.reverse(commits);
+
+            for (RevCommit mergedCommit : commits) {
+                final String changeId = getChangeId(mergedCommit);
+                if (changeId == null) {
+                    continue;
+                }
+                final ChangeAttribute changeAttribute = createChangeAttribute(branch, changeId,
+                        canonicalWebUrl + "#/q/" + changeId);
+                final EiffelEvent eiffelEvent = EiffelSourceChangeSubmittedEventGenerator.generate(changeAttribute,
+                        createPatchSetAttribute(mergedCommit, 0), mergedCommit.name(), pluginConfig);
+                if (send(eiffelEvent,
+                        eventId -> stateHandler.setLastSourceChangeSubmittedEiffelEvent(project, branch, eventId))) {
+                    result.submittedEvents++;
+                }
+            }
+        }
+
+        void backfillOpenChange(final RevWalk revWalk, final ChangeData changeData) throws IOException, OrmException {
+            final Change change = changeData.change();
+            final String branch = change.getDest().getShortName();
+            if (!isBranchIncluded(branch)) {
+                return;
+            }
+
+            final PatchSet patchSet = changeData.currentPatchSet();
+            final RevCommit commit = revWalk.parseCommit(ObjectId.fromString(patchSet.getRevision().get()));
+            final String changeId = change.getKey().get();
+            final ChangeAttribute changeAttribute = createChangeAttribute(branch, changeId,
+                    canonicalWebUrl + change.getChangeId());
+            changeAttribute.number = change.getChangeId();
+            final EiffelEvent eiffelEvent = EiffelSourceChangeCreatedEventGenerator.generate(changeAttribute,
+                    createPatchSetAttribute(commit, patchSet.getPatchSetId()), changeId, pluginConfig);
+            if (send(eiffelEvent,
+                    eventId -> stateHandler.setLastSourceChangeCreatedEiffelEvent(project, changeId, eventId))) {
+                result.createdEvents++;
+            }
+        }
+
+        /**
+         * Publishes the Eiffel event and stores its id if the run publishes. Events that fail, or
+         * that are interrupted while waiting for their REMReM endpoint, count as failed instead of
+         * as backfilled.
+         *
+         * @param eiffelEvent
+         * @param eventIdStore stores the id of the published Eiffel event as the last sent event
+         * @return true if the event was published and its id stored, or generated by a run that
+         *         does not publish
+         */
+        private boolean send(final EiffelEvent eiffelEvent, final EventIdStore eventIdStore) {
+            if (rateLimiter != null) {
+                rateLimiter.acquire();
+            }
+            if (!options.publish) {
+                return true;
+            }
+
+            final RemremEndpoint endpoint = remremEndpoints.get(pluginConfig.getRemremPublishURL());
+            final long startTime;
+            try {
+                startTime = acquire(endpoint);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.failedEvents++;
+                return false;
+            }
+
+            final String eventId;
+            try {
+                eventId = eiffelEventSender.send(eiffelEvent, pluginConfig);
+            } catch (IOException | RuntimeException e) {
+                endpoint.release(startTime, new PublishResult(null, 0, e.getMessage()));
+                LOGGER.error("Failed to publish backfilled Eiffel event for project '{}': {}\n{}", project,
+                        e.getMessage(), e);
+                result.failedEvents++;
+                return false;
+            }
+            endpoint.release(startTime, new PublishResult(eventId, 200, null));
+            if (eventId == null) {
+                return true;
+            }
+            try {
+                eventIdStore.store(eventId);
+                return true;
+            } catch (NoSuchElementException e) {
+                LOGGER.error("Failed to store backfilled Eiffel event {} for project '{}': {}\n{}", eventId,
+                        project, e.getMessage(), e);
+                result.failedEvents++;
+                return false;
+            }
+        }
+
+        /**
+         * Waits until the endpoint accepts a request.
+         *
+         * @param endpoint
+         * @return start time to release the endpoint with
+         * @throws InterruptedException if the backfill was interrupted while waiting
+         */
+        private long acquire(final RemremEndpoint endpoint) throws InterruptedException {
+            long startTime;
+            while ((startTime = endpoint.tryAcquire()) < 0) {
+                Thread.sleep(Math.max(endpoint.getRetryDelayMs(), ENDPOINT_POLL_INTERVAL_MS));
+            }
+            return startTime;
+        }
+
+        private ChangeAttribute createChangeAttribute(final String branch, final String changeId, final String url) {
+            final ChangeAttribute changeAttribute = new ChangeAttribute();
+            changeAttribute.project = project;
+            changeAttribute.branch = branch;
+            changeAttribute.id = changeId;
+            changeAttribute.url = url;
+            return changeAttribute;
+        }
+    }
+
+    /**
+     * Stores the id of a published Eiffel event in the state store.
+     */
+    private interface EventIdStore {
+        void store(String eventId) throws NoSuchElementException;
+    }
+
+    private static PatchSetAttribute createPatchSetAttribute(final RevCommit commit, final int patchSetNumber) {
+        final PersonIdent authorIdent = commit.getAuthorIdent();
+        final AccountAttribute author = new AccountAttribute();
+        author.name = authorIdent.getName();
+        author.email = authorIdent.getEmailAddress();
+
+        final PatchSetAttribute patchSetAttribute = new PatchSetAttribute();
+        patchSetAttribute.number = patchSetNumber;
+        patchSetAttribute.revision = commit.name();
+        patchSetAttribute.author = author;
+        return patchSetAttribute;
+    }
+
+    private static String getChangeId(final RevCommit commit) {
+        final List<String> changeIds = commit.getFooterLines(CHANGE_ID_FOOTER);
+        return changeIds == null || changeIds.isEmpty() ? null : changeIds.get(changeIds.size() - 1);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * EventStateStore that only keeps the event ids in memory. Nothing survives a restart, so it is
+ * meant for tests and for servers where losing the links between events is acceptable.
+ *
+ */
+public class InMemoryEventStateStore implements EventStateStore {
+
+    private final Map<String, Map<String, String>> eventIds = new ConcurrentHashMap<>();
+
+    @Override
+    public String get(final String project, final Table table, final String keyValue)
+            throws NoSuchElementException {
+        final Map<String, String> tableEventIds = eventIds.get(indexKey(project, table));
+        final String eventId = tableEventIds == null ? null : tableEventIds.get(keyValue);
+        if (eventId == null) {
+            throw new NoSuchElementException("Store did not contain any value for this query");
+        }
+        return eventId;
+    }
+
+    @Override
+    public Map<String, String> getAll(final String project, final Table table) {
+        final Map<String, String> tableEventIds = eventIds.get(indexKey(project, table));
+        if (tableEventIds == null) {
+            return Collections.emptyMap();
+        }
+        return new HashMap<>(tableEventIds);
+    }
+
+    @Override
+    public void put(final String project, final Table table, final String keyValue, final String eventId) {
+        eventIds.computeIfAbsent(indexKey(project, table), key -> new ConcurrentHashMap<>())
+                .put(keyValue, eventId);
+    }
+
+    @Override
+    public boolean isDurable() {
+        return false;
+    }
+
+    @Override
+    public boolean isPerProjectLayout() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        eventIds.clear();
+    }
+
+    private static String indexKey(final String project, final Table table) {
+        return project + '\0' + table.name();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks with the same key one after the other, in the order they were given, and tasks with
+ * different keys in parallel on the underlying executor. Keys are spread over a fixed number of
+ * stripes, each with its own queue. At most one task per stripe is running or waiting in the
+ * underlying executor at any time, it runs the tasks of its stripe until the queue is empty.
+ *
+ * Keys that share a stripe are ordered with respect to each other as well, more stripes than
+ * threads keep that rare.
+ *
+ */
+public class KeyedExecutor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeyedExecutor.class);
+
+    private final Executor executor;
+    private final Stripe[] stripes;
+
+    public KeyedExecutor(final Executor executor, final int stripeCount) {
+        this.executor = executor;
+        this.stripes = new Stripe[Math.max(1, stripeCount)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Runs the task after all tasks given earlier for the same key.
+     *
+     * @param key
+     * @param task
+     */
+    public void execute(final Object key, final Runnable task) {
+        final Stripe stripe = stripes[Math.floorMod(spread(key.hashCode()), stripes.length)];
+        stripe.tasks.add(task);
+        stripe.schedule();
+    }
+
+    /**
+     * Number of tasks waiting in all stripes.
+     *
+     * @return int
+     */
+    public int getQueuedCount() {
+        int queuedCount = 0;
+        for (Stripe stripe : stripes) {
+            queuedCount += stripe.tasks.size();
+        }
+        return queuedCount;
+    }
+
+    /**
+     * Removes the tasks that did not start yet. Tasks of one key keep their order.
+     *
+     * @return list of tasks
+     */
+    public List<Runnable> drainQueued() {
+        final List<Runnable> queuedTasks = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            Runnable task;
+            while ((task = stripe.tasks.poll()) != null) {
+                queuedTasks.add(task);
+            }
+        }
+        return queuedTasks;
+    }
+
+    private static int spread(final int hashCode) {
+        return hashCode ^ (hashCode >>> 16);
+    }
+
+    private final class Stripe {
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void schedule() {
+            if (!scheduled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                LOGGER.error("Could not schedule {} queued tasks: {}\n{}", tasks.size(), e.getMessage(), e);
+            }
+        }
+
+        void drain() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Task failed: {}\n{}", e.getMessage(), e);
+                }
+            }
+            scheduled.set(false);
+            // A task added between the last poll and clearing the flag would otherwise wait for the
+            // next task of this stripe.
+            if (!tasks.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
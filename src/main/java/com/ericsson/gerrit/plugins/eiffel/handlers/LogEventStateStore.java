@@ -0,0 +1,365 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * EventStateStore writing every stored event id as a record at the end of a single log file in the
+ * plugin data directory. All live event ids are kept in an in memory index, so lookups never touch
+ * the disk and a store is one sequential append.
+ *
+ * A record is the payload length, a CRC32 of the payload and the payload itself. The log is read
+ * through memory mapped windows when the store is opened, and replay stops at the first torn or
+ * corrupt record, which is then cut off. When most records in the log are outdated the live
+ * entries are rewritten to a new log that atomically replaces the old one. If that fails the old
+ * log is kept.
+ *
+ */
+public class LogEventStateStore implements EventStateStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogEventStateStore.class);
+    private static final String LOG_FILE_NAME = "eiffel-state.log";
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final char SEPARATOR = '\0';
+    private static final long REPLAY_WINDOW_BYTES = 64L * 1024 * 1024;
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 10000;
+
+    private final Path logFile;
+    private final boolean syncOnWrite;
+    private final int compactionThreshold;
+    private final long replayWindowBytes;
+    private final Map<String, Map<String, String>> index = new ConcurrentHashMap<>();
+    private FileChannel channel;
+    private long records;
+    private long liveEntries;
+    private volatile boolean opened;
+
+    public LogEventStateStore(final File pluginDir, final boolean syncOnWrite) {
+        this(pluginDir, syncOnWrite, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Constructor for the LogEventStateStore class.
+     *
+     * @param pluginDir
+     * @param syncOnWrite if every store is forced to disk before it returns
+     * @param compactionThreshold minimum number of records in the log before it is compacted
+     */
+    public LogEventStateStore(final File pluginDir, final boolean syncOnWrite, final int compactionThreshold) {
+        this(pluginDir, syncOnWrite, compactionThreshold, REPLAY_WINDOW_BYTES);
+    }
+
+    LogEventStateStore(final File pluginDir, final boolean syncOnWrite, final int compactionThreshold,
+            final long replayWindowBytes) {
+        this.logFile = pluginDir.toPath().resolve(LOG_FILE_NAME);
+        this.syncOnWrite = syncOnWrite;
+        this.compactionThreshold = compactionThreshold;
+        this.replayWindowBytes = replayWindowBytes;
+    }
+
+    @Override
+    public String get(final String project, final Table table, final String keyValue)
+            throws IOException, NoSuchElementException {
+        open();
+        final Map<String, String> tableEventIds = index.get(indexKey(project, table));
+        final String eventId = tableEventIds == null ? null : tableEventIds.get(keyValue);
+        if (eventId == null) {
+            throw new NoSuchElementException("Store did not contain any value for this query");
+        }
+        return eventId;
+    }
+
+    @Override
+    public Map<String, String> getAll(final String project, final Table table) throws IOException {
+        open();
+        final Map<String, String> tableEventIds = index.get(indexKey(project, table));
+        if (tableEventIds == null) {
+            return Collections.emptyMap();
+        }
+        return new HashMap<>(tableEventIds);
+    }
+
+    @Override
+    public synchronized void put(final String project, final Table table, final String keyValue,
+            final String eventId) throws IOException {
+        putAll(project, Collections.singletonMap(table, Collections.singletonMap(keyValue, eventId)));
+    }
+
+    /**
+     * Appends all event ids of the batch and forces the log to disk once for the whole batch.
+     */
+    @Override
+    public synchronized void putAll(final String project, final Map<Table, Map<String, String>> eventIds)
+            throws IOException {
+        open();
+        final long batchStart = channel.position();
+        try {
+            for (Map.Entry<Table, Map<String, String>> tableEntry : eventIds.entrySet()) {
+                for (Map.Entry<String, String> entry : tableEntry.getValue().entrySet()) {
+                    writeRecord(channel, project, tableEntry.getKey().name(), entry.getKey(), entry.getValue());
+                }
+            }
+            if (syncOnWrite) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            channel.truncate(batchStart);
+            channel.position(batchStart);
+            throw e;
+        }
+
+        for (Map.Entry<Table, Map<String, String>> tableEntry : eventIds.entrySet()) {
+            final String indexKey = indexKey(project, tableEntry.getKey());
+            for (Map.Entry<String, String> entry : tableEntry.getValue().entrySet()) {
+                records++;
+                if (apply(indexKey, entry.getKey(), entry.getValue())) {
+                    liveEntries++;
+                }
+            }
+        }
+
+        if (records >= compactionThreshold && records > 2 * liveEntries) {
+            try {
+                compact();
+            } catch (IOException e) {
+                // The batch is already stored, only the compaction failed.
+                LOGGER.warn("Failed to compact state log {}: {}\n{}", logFile, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Number of records in the log file, including outdated ones.
+     *
+     * @return long
+     */
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    @Override
+    public boolean isDurable() {
+        return true;
+    }
+
+    @Override
+    public boolean isPerProjectLayout() {
+        return false;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.force(true);
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close state log {}: {}", logFile, e.getMessage());
+        }
+        channel = null;
+        opened = false;
+        index.clear();
+        records = 0;
+        liveEntries = 0;
+    }
+
+    private void open() throws IOException {
+        if (opened) {
+            return;
+        }
+        synchronized (this) {
+            if (opened) {
+                return;
+            }
+            Files.createDirectories(logFile.getParent());
+            channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            final long validLength = replay();
+            if (validLength < channel.size()) {
+                LOGGER.warn("Cutting off {} bytes of incomplete records at the end of state log {}.",
+                        channel.size() - validLength, logFile);
+                channel.truncate(validLength);
+            }
+            channel.position(validLength);
+            LOGGER.info("Loaded {} event ids from {} records in state log {}.", liveEntries, records, logFile);
+            opened = true;
+        }
+    }
+
+    /**
+     * Replays the log window by window, a window never splits a record.
+     *
+     * @return length of the log up to the first torn or corrupt record
+     * @throws IOException
+     */
+    private long replay() throws IOException {
+        final long size = channel.size();
+        final CRC32 crc = new CRC32();
+        long position = 0;
+        while (size - position >= HEADER_SIZE) {
+            final long remaining = size - position;
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(replayWindowBytes, remaining));
+            int replayedBytes = replayWindow(window, crc);
+            if (replayedBytes == 0) {
+                final long recordSize = HEADER_SIZE + (long) window.getInt(0);
+                if (recordSize < HEADER_SIZE || recordSize <= window.capacity() || recordSize > remaining) {
+                    break;
+                }
+                // A record larger than a window is mapped on its own.
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, recordSize);
+                replayedBytes = replayWindow(window, crc);
+                if (replayedBytes == 0) {
+                    break;
+                }
+            }
+            position += replayedBytes;
+        }
+        return position;
+    }
+
+    /**
+     * Replays the complete and valid records at the start of the window.
+     *
+     * @param window
+     * @param crc
+     * @return number of bytes replayed
+     */
+    private int replayWindow(final MappedByteBuffer window, final CRC32 crc) {
+        while (window.remaining() >= HEADER_SIZE) {
+            final int recordStart = window.position();
+            final int length = window.getInt();
+            final int checksum = window.getInt();
+            if (length < 0 || length > window.remaining()) {
+                window.position(recordStart);
+                break;
+            }
+
+            final byte[] payload = new byte[length];
+            window.get(payload);
+            crc.reset();
+            crc.update(payload);
+            final String[] fields = new String(payload, StandardCharsets.UTF_8).split(String.valueOf(SEPARATOR),
+                    4);
+            if ((int) crc.getValue() != checksum || fields.length != 4) {
+                window.position(recordStart);
+                break;
+            }
+
+            records++;
+            if (apply(fields[0] + SEPARATOR + fields[1], fields[2], fields[3])) {
+                liveEntries++;
+            }
+        }
+        return window.position();
+    }
+
+    private boolean apply(final String indexKey, final String keyValue, final String eventId) {
+        return index.computeIfAbsent(indexKey, key -> new ConcurrentHashMap<>()).put(keyValue, eventId) == null;
+    }
+
+    private void compact() throws IOException {
+        final Path compactedFile = logFile.resolveSibling(LOG_FILE_NAME + ".compact");
+        try (FileChannel compactedChannel = FileChannel.open(compactedFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<String, Map<String, String>> tableEntry : index.entrySet()) {
+                final String[] projectAndTable = tableEntry.getKey().split(String.valueOf(SEPARATOR), 2);
+                for (Map.Entry<String, String> entry : tableEntry.getValue().entrySet()) {
+                    writeRecord(compactedChannel, projectAndTable[0], projectAndTable[1], entry.getKey(),
+                            entry.getValue());
+                }
+            }
+            compactedChannel.force(true);
+        }
+
+        channel.close();
+        IOException moveFailure = null;
+        try {
+            Files.move(compactedFile, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            moveFailure = e;
+            Files.deleteIfExists(compactedFile);
+        }
+        reopenAfterCompaction();
+        if (moveFailure != null) {
+            throw moveFailure;
+        }
+        LOGGER.debug("Compacted state log {} from {} to {} records.", logFile, records, liveEntries);
+        records = liveEntries;
+    }
+
+    /**
+     * Opens the log again after compaction, either the compacted one or the old one if it was
+     * kept. If that fails the index is dropped, the next access opens and replays the log again.
+     *
+     * @throws IOException
+     */
+    private void reopenAfterCompaction() throws IOException {
+        try {
+            channel = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        } catch (IOException e) {
+            channel = null;
+            opened = false;
+            index.clear();
+            records = 0;
+            liveEntries = 0;
+            throw e;
+        }
+    }
+
+    private static void writeRecord(final FileChannel target, final String project, final String table,
+            final String keyValue, final String eventId) throws IOException {
+        final byte[] payload = (project + SEPARATOR + table + SEPARATOR + keyValue + SEPARATOR + eventId)
+                .getBytes(StandardCharsets.UTF_8);
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        final ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length);
+        record.putInt((int) crc.getValue());
+        record.put(payload);
+        record.flip();
+        while (record.hasRemaining()) {
+            target.write(record);
+        }
+    }
+
+    private static String indexKey(final String project, final Table table) {
+        return project + SEPARATOR + table.name();
+    }
+}
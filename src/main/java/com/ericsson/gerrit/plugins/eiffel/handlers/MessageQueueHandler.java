@@ -17,45 +17,512 @@
 
 package com.ericsson.gerrit.plugins.eiffel.handlers;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.gerrit.plugins.eiffel.messaging.BatchingEiffelEventPublisher;
+import com.ericsson.gerrit.plugins.eiffel.messaging.EiffelEventOutbox;
+import com.ericsson.gerrit.plugins.eiffel.messaging.RetryScheduler;
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics;
+import com.google.gerrit.extensions.annotations.PluginData;
 import com.google.gerrit.extensions.annotations.PluginName;
 import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.registration.RegistrationHandle;
+import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.server.config.PluginConfig;
 import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.events.ChangeEvent;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.PatchSetCreatedEvent;
+import com.google.gerrit.server.events.RefEvent;
 import com.google.gerrit.server.git.WorkQueue;
 import com.google.inject.Inject;
 
+/**
+ * Owns the "Eiffel Message Sender" pool and a bounded queue in front of it. Gerrit listeners only
+ * hand their events to this class, generating and sending the Eiffel events is done by the sender
+ * threads so that slow REMReM or database calls do not hold up Gerrit's event dispatching.
+ *
+ * Events of the same project and branch are processed one after the other in the order they were
+ * queued, since the Eiffel events of a branch link to each other. Events of different branches are
+ * processed in parallel by a {@link KeyedExecutor} on top of the pool. The order covers generating
+ * the Eiffel events, which is what their links depend on, not their arrival at REMReM: an event
+ * that has to be retried is published later while the next events of its branch go ahead.
+ *
+ * What happens when the queue is full is decided by the configured {@link OverflowPolicy}. Eiffel
+ * events left in the {@link EiffelEventOutbox} by the previous run are sent again when the handler
+ * starts.
+ *
+ * With a patch set coalescing window configured, new patch sets are held back by a
+ * {@link PatchSetCoalescer} so that a burst of patch sets of one change is processed only once.
+ *
+ * Stopping the handler drains it: Gerrit events reported from then on go to the spill file,
+ * queued events are processed and retries and batches are sent until the configured drain timeout
+ * has passed. Gerrit events left then are put in front of the spill file, to be processed first
+ * after the next start, Eiffel events still waiting for a retry are moved to the dead letters.
+ *
+ */
 public class MessageQueueHandler implements LifecycleListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageQueueHandler.class);
     private static final String THREADS = "senderThreadPoolSize";
+    private static final String QUEUE_CAPACITY = "senderQueueCapacity";
+    private static final String OVERFLOW_POLICY = "senderQueueOverflowPolicy";
+    private static final String DRAIN_TIMEOUT = "senderDrainTimeoutMs";
+    private static final String COALESCING_WINDOW = "patchSetCoalescingWindowMs";
     private static final int DEFAULT_POOLSIZE = 1;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    private static final int DEFAULT_DRAIN_TIMEOUT_MS = 10000;
+    private static final int STRIPES_PER_THREAD = 4;
+    private static final long DRAIN_POLL_INTERVAL_MS = 10;
 
     private final WorkQueue workQueue;
     private final int poolSize;
+    private final OverflowPolicy overflowPolicy;
+    private final long drainTimeoutMs;
+    private final BlockingQueue<Event> queue;
+    private final SpillFileHandler spillFileHandler;
+    private final EiffelEventOutbox eiffelEventOutbox;
+    private final RetryScheduler retryScheduler;
+    private final BatchingEiffelEventPublisher batchingPublisher;
+    private final EiffelMetrics metrics;
+    private final PatchSetCoalescer patchSetCoalescer;
+    private final Map<String, Consumer<Event>> processors = new ConcurrentHashMap<>();
+    private final Map<String, List<Event>> eventsWaitingForProcessor = new HashMap<>();
+    private final AtomicBoolean routing = new AtomicBoolean();
     private ScheduledThreadPoolExecutor pool;
+    private KeyedExecutor keyedExecutor;
+    private RegistrationHandle queueGauges;
+    private volatile boolean draining;
 
     @Inject
     public MessageQueueHandler(final WorkQueue workQueue, final PluginConfigFactory config,
-            @PluginName final String pluginName) {
+            @PluginName final String pluginName, @PluginData final File pluginDir,
+            final EiffelEventOutbox eiffelEventOutbox, final RetryScheduler retryScheduler,
+            final BatchingEiffelEventPublisher batchingPublisher, final EiffelMetrics metrics) {
         final PluginConfig pluginConfig = config.getFromGerritConfig(pluginName, true);
         this.poolSize = pluginConfig.getInt(THREADS, DEFAULT_POOLSIZE);
+        this.overflowPolicy = pluginConfig.getEnum(OVERFLOW_POLICY, OverflowPolicy.BLOCK);
+        this.drainTimeoutMs = Math.max(0, pluginConfig.getInt(DRAIN_TIMEOUT, DEFAULT_DRAIN_TIMEOUT_MS));
+        this.queue = new ArrayBlockingQueue<>(pluginConfig.getInt(QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY));
+        this.spillFileHandler = new SpillFileHandler(pluginDir);
         this.workQueue = workQueue;
+        this.eiffelEventOutbox = eiffelEventOutbox;
+        this.retryScheduler = retryScheduler;
+        this.batchingPublisher = batchingPublisher;
+        this.metrics = metrics;
+        final int coalescingWindowMs = pluginConfig.getInt(COALESCING_WINDOW, 0);
+        this.patchSetCoalescer = coalescingWindowMs > 0
+                ? new PatchSetCoalescer(coalescingWindowMs, this::getPool, this::requeue, metrics)
+                : null;
     }
 
     @Override
     public void start() {
+        draining = false;
+        routing.set(false);
         pool = workQueue.createQueue(poolSize, "Eiffel Message Sender");
+        keyedExecutor = new KeyedExecutor(pool, poolSize * STRIPES_PER_THREAD);
+        queueGauges = metrics.registerQueueGauges(queue::size, this::getOldestEventAgeMs);
+        if (!spillFileHandler.isEmpty()) {
+            LOGGER.info("Found {} Gerrit events spilled to disk, they will be sent when the queue has room.",
+                    spillFileHandler.size());
+            pool.execute(this::refillFromSpillFile);
+        }
+        final int replayedEvents = eiffelEventOutbox.replay();
+        if (replayedEvents > 0) {
+            LOGGER.info("Sending {} Eiffel events left in the outbox by the previous run.", replayedEvents);
+        }
     }
 
+    /**
+     * Stops taking Gerrit events from the listeners and processes the queued ones until the
+     * drain timeout has passed. Events that were not processed by then are kept in the spill file,
+     * the sender threads are shut down and the retries they did not get to are moved to the dead
+     * letters.
+     */
     @Override
     public void stop() {
-        if (pool != null) {
+        final ScheduledThreadPoolExecutor currentPool = pool;
+        if (currentPool != null) {
+            draining = true;
+            if (patchSetCoalescer != null) {
+                patchSetCoalescer.takeAll().forEach(this::requeue);
+            }
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMs);
+            awaitIdle(deadline);
+            carryOver(takeUnprocessedEvents());
+            shutDown(currentPool, deadline);
+            carryOverRetries();
             pool = null;
+            keyedExecutor = null;
+        }
+        if (queueGauges != null) {
+            queueGauges.remove();
+            queueGauges = null;
         }
     }
 
     public ScheduledThreadPoolExecutor getPool() {
         return this.pool;
     }
-}
 
+    /**
+     * Queues a Gerrit event to be processed by one of the sender threads. The processor is
+     * remembered per Gerrit event type so that events read back from the spill file can be
+     * processed as well.
+     *
+     * @param gerritEvent
+     * @param processor
+     */
+    public void dispatch(final Event gerritEvent, final Consumer<Event> processor) {
+        if (processors.putIfAbsent(gerritEvent.getType(), processor) == null) {
+            requeueEventsWaitingFor(gerritEvent.getType());
+        }
+        if (draining) {
+            spillFileHandler.append(gerritEvent);
+            return;
+        }
+        if (pool == null) {
+            LOGGER.warn("Eiffel message sender is not running, dropping Gerrit event: {}", gerritEvent);
+            return;
+        }
+        if (patchSetCoalescer != null && gerritEvent instanceof ChangeEvent) {
+            if (gerritEvent instanceof PatchSetCreatedEvent
+                    && patchSetCoalescer.hold((PatchSetCreatedEvent) gerritEvent)) {
+                return;
+            }
+            patchSetCoalescer.release((ChangeEvent) gerritEvent);
+        }
+
+        switch (overflowPolicy) {
+        case DROP_OLDEST:
+            enqueueDroppingOldest(gerritEvent);
+            break;
+        case SPILL_TO_DISK:
+            enqueueOrSpill(gerritEvent);
+            break;
+        case BLOCK:
+        default:
+            enqueueBlocking(gerritEvent);
+            break;
+        }
+    }
+
+    /**
+     * Number of Gerrit events waiting in memory for a sender thread.
+     *
+     * @return int
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Milliseconds since Gerrit created the oldest queued event, 0 if the queue is empty.
+     *
+     * @return long
+     */
+    public long getOldestEventAgeMs() {
+        final Event oldestEvent = queue.peek();
+        if (oldestEvent == null) {
+            return 0;
+        }
+        return Math.max(0, System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(oldestEvent.eventCreatedOn));
+    }
+
+    /**
+     * Number of Gerrit events currently waiting in the spill file.
+     *
+     * @return int
+     */
+    public int getSpilledSize() {
+        return spillFileHandler.size();
+    }
+
+    private void enqueueBlocking(final Event gerritEvent) {
+        try {
+            queue.put(gerritEvent);
+            scheduleProcessing();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Interrupted while waiting for room in the sender queue, dropping Gerrit event: {}",
+                    gerritEvent);
+        }
+    }
+
+    private void enqueueDroppingOldest(final Event gerritEvent) {
+        while (!queue.offer(gerritEvent)) {
+            final Event droppedEvent = queue.poll();
+            if (droppedEvent != null) {
+                LOGGER.warn("Sender queue is full, dropping oldest Gerrit event: {}", droppedEvent);
+            }
+        }
+        scheduleProcessing();
+    }
+
+    private void enqueueOrSpill(final Event gerritEvent) {
+        // Once something is spilled new events have to go behind it to keep the order.
+        if (spillFileHandler.isEmpty() && queue.offer(gerritEvent)) {
+            scheduleProcessing();
+            return;
+        }
+        spillFileHandler.append(gerritEvent);
+    }
+
+    private void scheduleProcessing() {
+        final ScheduledThreadPoolExecutor currentPool = pool;
+        if (currentPool != null) {
+            currentPool.execute(this::processNext);
+        }
+    }
+
+    private void processNext() {
+        routeQueuedEvents();
+        refillFromSpillFile();
+    }
+
+    /**
+     * Moves the queued events to the stripes of their project and branch. Taking an event and
+     * adding it to its stripe must not be interleaved with another sender thread doing the same,
+     * that could swap two events of one branch, so one sender thread at a time is the dispatcher.
+     * The others return right away instead of waiting for it, whatever they queued is routed by
+     * the dispatcher. The events themselves are processed by the stripes.
+     */
+    private void routeQueuedEvents() {
+        // An event queued between the last poll and clearing the flag would otherwise wait for
+        // the next event.
+        while (!queue.isEmpty() && routing.compareAndSet(false, true)) {
+            try {
+                final KeyedExecutor currentKeyedExecutor = keyedExecutor;
+                Event gerritEvent;
+                while ((gerritEvent = queue.poll()) != null) {
+                    if (currentKeyedExecutor == null) {
+                        process(gerritEvent);
+                    } else {
+                        currentKeyedExecutor.execute(getOrderingKey(gerritEvent), new EventTask(gerritEvent));
+                    }
+                }
+            } finally {
+                routing.set(false);
+            }
+        }
+    }
+
+    /**
+     * Events that belong to a branch are ordered per project and branch, other events per type.
+     *
+     * @param gerritEvent
+     * @return key
+     */
+    static String getOrderingKey(final Event gerritEvent) {
+        if (gerritEvent instanceof RefEvent) {
+            final RefEvent refEvent = (RefEvent) gerritEvent;
+            final Project.NameKey project = refEvent.getProjectNameKey();
+            if (project != null) {
+                return project.get() + ":" + refEvent.getRefName();
+            }
+        }
+        return gerritEvent.getType();
+    }
+
+    private void process(final Event gerritEvent) {
+        final Consumer<Event> processor = processors.get(gerritEvent.getType());
+        if (processor == null) {
+            waitForProcessor(gerritEvent);
+            return;
+        }
+
+        try {
+            processor.accept(gerritEvent);
+        } catch (RuntimeException | ExceptionInInitializerError e) {
+            LOGGER.error("Failed to process Gerrit event: {}\n{}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Events read back from the spill file after a restart may be processed before the listener
+     * for their type has seen its first event. They are kept aside until it has.
+     *
+     * @param gerritEvent
+     */
+    private void waitForProcessor(final Event gerritEvent) {
+        synchronized (eventsWaitingForProcessor) {
+            eventsWaitingForProcessor.computeIfAbsent(gerritEvent.getType(), type -> new ArrayList<>())
+                                     .add(gerritEvent);
+        }
+        if (processors.containsKey(gerritEvent.getType())) {
+            requeueEventsWaitingFor(gerritEvent.getType());
+        }
+    }
+
+    private void requeueEventsWaitingFor(final String eventType) {
+        final List<Event> waitingEvents;
+        synchronized (eventsWaitingForProcessor) {
+            waitingEvents = eventsWaitingForProcessor.remove(eventType);
+        }
+        if (waitingEvents == null) {
+            return;
+        }
+        for (Event waitingEvent : waitingEvents) {
+            requeue(waitingEvent);
+        }
+    }
+
+    /**
+     * Puts an event back in the queue without ever blocking, this is also called from the sender
+     * threads themselves.
+     *
+     * @param gerritEvent
+     */
+    private void requeue(final Event gerritEvent) {
+        if (queue.offer(gerritEvent)) {
+            scheduleProcessing();
+        } else {
+            spillFileHandler.append(gerritEvent);
+        }
+    }
+
+    private synchronized void refillFromSpillFile() {
+        // Spilled events are already safe on disk, a stopping handler leaves them there.
+        if (draining || spillFileHandler.isEmpty() || queue.remainingCapacity() == 0) {
+            return;
+        }
+
+        final List<Event> spilledEvents = spillFileHandler.poll(queue.remainingCapacity());
+        for (Event spilledEvent : spilledEvents) {
+            requeue(spilledEvent);
+        }
+    }
+
+    private void awaitIdle(final long deadline) {
+        while (!isIdle() && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(DRAIN_POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Idle once no Gerrit event is waiting and no Eiffel event is waiting for a retry or in a
+     * batch. Events kept in the outbox are not waited for, they are sent again after the next
+     * start anyway.
+     */
+    private boolean isIdle() {
+        final KeyedExecutor currentKeyedExecutor = keyedExecutor;
+        return queue.isEmpty() && (currentKeyedExecutor == null || currentKeyedExecutor.getQueuedCount() == 0)
+                && retryScheduler.getScheduledCount() == 0 && batchingPublisher.getPendingCount() == 0;
+    }
+
+    /**
+     * Takes all events that are not being processed, in the order they should be processed
+     * later: events waiting for their listener, events in the stripes and then the queued ones.
+     * Routing stays taken by the stopping thread until the next start, so that no event moves from
+     * the queue to a stripe after the stripes were emptied.
+     *
+     * @return list of Gerrit events
+     */
+    private List<Event> takeUnprocessedEvents() {
+        while (!routing.compareAndSet(false, true)) {
+            Thread.yield();
+        }
+        final List<Event> queuedEvents = new ArrayList<>();
+        queue.drainTo(queuedEvents);
+
+        final List<Event> unprocessedEvents = new ArrayList<>();
+        synchronized (eventsWaitingForProcessor) {
+            eventsWaitingForProcessor.values().forEach(unprocessedEvents::addAll);
+            eventsWaitingForProcessor.clear();
+        }
+        final KeyedExecutor currentKeyedExecutor = keyedExecutor;
+        if (currentKeyedExecutor != null) {
+            for (Runnable task : currentKeyedExecutor.drainQueued()) {
+                if (task instanceof EventTask) {
+                    unprocessedEvents.add(((EventTask) task).gerritEvent);
+                }
+            }
+        }
+        unprocessedEvents.addAll(queuedEvents);
+        return unprocessedEvents;
+    }
+
+    private void carryOver(final List<Event> unprocessedEvents) {
+        if (unprocessedEvents.isEmpty()) {
+            LOGGER.info("All queued Gerrit events were processed before the Eiffel message sender stopped.");
+        } else if (spillFileHandler.prepend(unprocessedEvents)) {
+            LOGGER.info("{} Gerrit events were not processed within {} ms, they are kept in the spill file "
+                    + "and processed first after the next start.", unprocessedEvents.size(), drainTimeoutMs);
+        } else {
+            LOGGER.error("{} Gerrit events were not processed before the Eiffel message sender stopped "
+                    + "and could not be kept, they are lost.", unprocessedEvents.size());
+        }
+        if (!spillFileHandler.isEmpty()) {
+            LOGGER.info("{} Gerrit events are waiting in the spill file for the next start.",
+                    spillFileHandler.size());
+        }
+    }
+
+    private void carryOverRetries() {
+        final int deadLetterCount = retryScheduler.moveScheduledToDeadLetters();
+        if (deadLetterCount > 0) {
+            LOGGER.warn("{} Eiffel events were still waiting for a retry when the Eiffel message sender stopped, "
+                    + "they were moved to the dead letters.", deadLetterCount);
+        }
+    }
+
+    /**
+     * Lets the events that are being processed finish until the deadline. Scheduled retries are
+     * not waited for, they are cancelled by the shutdown and moved to the dead letters afterwards.
+     *
+     * @param currentPool
+     * @param deadline
+     */
+    private void shutDown(final ScheduledThreadPoolExecutor currentPool, final long deadline) {
+        currentPool.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        currentPool.shutdown();
+        try {
+            final long remainingNanos = Math.max(0, deadline - System.nanoTime());
+            if (currentPool.awaitTermination(remainingNanos, TimeUnit.NANOSECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final List<Runnable> cancelledTasks = currentPool.shutdownNow();
+        LOGGER.warn("Eiffel message sender did not finish within {} ms, interrupted the events being processed "
+                + "and cancelled {} waiting tasks.", drainTimeoutMs,
+                cancelledTasks == null ? 0 : cancelledTasks.size());
+    }
+
+    /**
+     * Processes one Gerrit event, the event is known so that it can be kept if the handler stops
+     * before the task ran.
+     */
+    private final class EventTask implements Runnable {
+        private final Event gerritEvent;
+
+        EventTask(final Event gerritEvent) {
+            this.gerritEvent = gerritEvent;
+        }
+
+        @Override
+        public void run() {
+            process(gerritEvent);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+/**
+ * Decides what the MessageQueueHandler does with a Gerrit event when the sender queue is full.
+ *
+ */
+public enum OverflowPolicy {
+    /**
+     * The Gerrit event thread waits until there is room in the queue.
+     */
+    BLOCK,
+    /**
+     * The oldest queued event is discarded to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * The event is written to a file in the plugin data directory and queued again when there is
+     * room.
+     */
+    SPILL_TO_DISK
+}
@@ -0,0 +1,224 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics;
+import com.google.gerrit.server.data.ChangeAttribute;
+import com.google.gerrit.server.events.ChangeEvent;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.PatchSetCreatedEvent;
+
+/**
+ * Holds PatchSetCreatedEvents for a short window so that a burst of patch sets of one change is
+ * processed as its newest patch set only. The window starts with the first held patch set of a
+ * change and is not extended by later ones, a change that keeps getting new patch sets is still
+ * processed once per window.
+ *
+ * Superseded patch sets are never generated, stored or sent, so the Eiffel event of the newest
+ * patch set follows the last Eiffel event sent for the change and the PREVIOUS_VERSION chain has
+ * no gaps. Any other event of a change releases its held patch set first, which keeps the order
+ * of the events of a change.
+ *
+ */
+public class PatchSetCoalescer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PatchSetCoalescer.class);
+
+    private final long windowMs;
+    private final Supplier<ScheduledExecutorService> executorSupplier;
+    private final Consumer<Event> releasedEvents;
+    private final EiffelMetrics metrics;
+    private final Map<String, HeldPatchSet> heldEvents = new LinkedHashMap<>();
+
+    /**
+     * Constructor for the PatchSetCoalescer class.
+     *
+     * @param windowMs time a patch set is held
+     * @param executorSupplier executor releasing the held patch sets, null while it is not running
+     * @param releasedEvents gets the held patch sets when their window has passed, must not block
+     * @param metrics
+     */
+    public PatchSetCoalescer(final long windowMs, final Supplier<ScheduledExecutorService> executorSupplier,
+            final Consumer<Event> releasedEvents, final EiffelMetrics metrics) {
+        this.windowMs = windowMs;
+        this.executorSupplier = executorSupplier;
+        this.releasedEvents = releasedEvents;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Holds the patch set until the window of its change has passed. A patch set held for the same
+     * change already is replaced if this one is newer.
+     *
+     * @param patchSetCreatedEvent
+     * @return false if the patch set could not be held and has to be processed right away
+     */
+    public boolean hold(final PatchSetCreatedEvent patchSetCreatedEvent) {
+        final String changeKey = getChangeKey(patchSetCreatedEvent);
+        final ScheduledExecutorService executor = executorSupplier.get();
+        if (changeKey == null || executor == null) {
+            return false;
+        }
+
+        final HeldPatchSet window;
+        synchronized (heldEvents) {
+            final HeldPatchSet heldPatchSet = heldEvents.get(changeKey);
+            if (heldPatchSet != null) {
+                final PatchSetCreatedEvent heldEvent = heldPatchSet.event;
+                if (getPatchSetNumber(patchSetCreatedEvent) >= getPatchSetNumber(heldEvent)) {
+                    heldPatchSet.event = patchSetCreatedEvent;
+                }
+                metrics.incrementCoalescedPatchSets();
+                LOGGER.debug("Coalesced patch sets {} and {} of change {}.", getPatchSetNumber(heldEvent),
+                        getPatchSetNumber(patchSetCreatedEvent), changeKey);
+                return true;
+            }
+            window = new HeldPatchSet(patchSetCreatedEvent);
+            heldEvents.put(changeKey, window);
+        }
+
+        try {
+            final ScheduledFuture<?> scheduledRelease = executor.schedule(() -> release(changeKey, window),
+                    windowMs, TimeUnit.MILLISECONDS);
+            synchronized (heldEvents) {
+                if (heldEvents.get(changeKey) == window) {
+                    window.scheduledRelease = scheduledRelease;
+                } else {
+                    cancel(scheduledRelease);
+                }
+            }
+        } catch (RejectedExecutionException e) {
+            release(changeKey, window);
+        }
+        return true;
+    }
+
+    /**
+     * Releases the held patch set of the change of the Gerrit event, if there is one.
+     *
+     * @param changeEvent
+     */
+    public void release(final ChangeEvent changeEvent) {
+        final String changeKey = getChangeKey(changeEvent);
+        if (changeKey != null) {
+            release(changeKey);
+        }
+    }
+
+    /**
+     * Removes all held patch sets without releasing them, in the order they were first held.
+     *
+     * @return list of Gerrit events
+     */
+    public List<Event> takeAll() {
+        synchronized (heldEvents) {
+            final List<Event> events = new ArrayList<>(heldEvents.size());
+            for (final HeldPatchSet heldPatchSet : heldEvents.values()) {
+                cancel(heldPatchSet.scheduledRelease);
+                events.add(heldPatchSet.event);
+            }
+            heldEvents.clear();
+            return events;
+        }
+    }
+
+    /**
+     * Number of changes with a held patch set.
+     *
+     * @return int
+     */
+    public int getHeldCount() {
+        synchronized (heldEvents) {
+            return heldEvents.size();
+        }
+    }
+
+    /**
+     * Releases the held patch set ahead of its window. The scheduled release of the window is
+     * cancelled so that it cannot release a patch set held in a later window of the change.
+     *
+     * @param changeKey
+     */
+    private void release(final String changeKey) {
+        synchronized (heldEvents) {
+            final HeldPatchSet heldPatchSet = heldEvents.remove(changeKey);
+            if (heldPatchSet != null) {
+                cancel(heldPatchSet.scheduledRelease);
+                releasedEvents.accept(heldPatchSet.event);
+            }
+        }
+    }
+
+    /**
+     * Releases the held patch set when its window has passed, unless it was released already and
+     * the change has a patch set held in a later window. The released patch set is handed over
+     * under the lock, another event of the change that releases it at the same time must not get
+     * ahead of it.
+     *
+     * @param changeKey
+     * @param window
+     */
+    private void release(final String changeKey, final HeldPatchSet window) {
+        synchronized (heldEvents) {
+            if (heldEvents.get(changeKey) == window) {
+                heldEvents.remove(changeKey);
+                releasedEvents.accept(window.event);
+            }
+        }
+    }
+
+    private static void cancel(final ScheduledFuture<?> scheduledRelease) {
+        if (scheduledRelease != null) {
+            scheduledRelease.cancel(false);
+        }
+    }
+
+    private static String getChangeKey(final ChangeEvent changeEvent) {
+        final ChangeAttribute changeAttribute = changeEvent.change == null ? null : changeEvent.change.get();
+        if (changeAttribute == null) {
+            return null;
+        }
+        return changeAttribute.project + ":" + changeAttribute.number;
+    }
+
+    private static int getPatchSetNumber(final PatchSetCreatedEvent patchSetCreatedEvent) {
+        return patchSetCreatedEvent.patchSet == null ? 0 : patchSetCreatedEvent.patchSet.get().number;
+    }
+
+    private static final class HeldPatchSet {
+        private PatchSetCreatedEvent event;
+        private ScheduledFuture<?> scheduledRelease;
+
+        private HeldPatchSet(final PatchSetCreatedEvent event) {
+            this.event = event;
+        }
+    }
+}
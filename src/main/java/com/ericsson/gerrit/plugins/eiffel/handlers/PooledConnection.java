@@ -0,0 +1,116 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A database connection borrowed from a {@link ConnectionPool}. Prepared statements are cached
+ * per connection and stay open for as long as the connection does. Closing a pooled connection
+ * hands it back to the pool instead of closing it.
+ *
+ */
+public class PooledConnection implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PooledConnection.class);
+
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statementCache = new HashMap<>();
+
+    PooledConnection(final ConnectionPool pool, final Connection connection) {
+        this.pool = pool;
+        this.connection = connection;
+    }
+
+    /**
+     * Returns a cached prepared statement for the given sql, preparing it on first use. The
+     * statement must not be closed by the caller.
+     *
+     * @param sqlStatement
+     * @return PreparedStatement
+     * @throws SQLException
+     */
+    public PreparedStatement prepareStatement(final String sqlStatement) throws SQLException {
+        PreparedStatement preparedStatement = statementCache.get(sqlStatement);
+        if (preparedStatement == null || preparedStatement.isClosed()) {
+            preparedStatement = connection.prepareStatement(sqlStatement);
+            statementCache.put(sqlStatement, preparedStatement);
+        } else {
+            preparedStatement.clearParameters();
+        }
+        return preparedStatement;
+    }
+
+    /**
+     * Creates a plain statement, the caller is responsible for closing it.
+     *
+     * @return Statement
+     * @throws SQLException
+     */
+    public Statement createStatement() throws SQLException {
+        return connection.createStatement();
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Hands the connection back to the pool it was borrowed from.
+     */
+    @Override
+    public void close() {
+        pool.release(this);
+    }
+
+    boolean isUsable() {
+        try {
+            return !connection.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Closes the cached statements and the underlying connection.
+     */
+    void closeConnection() {
+        for (PreparedStatement preparedStatement : statementCache.values()) {
+            try {
+                preparedStatement.close();
+            } catch (SQLException e) {
+                LOGGER.debug("Failed to close prepared statement: {}", e.getMessage());
+            }
+        }
+        statementCache.clear();
+
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOGGER.warn("Failed to close database connection: {}\n{}", e.getMessage(), e);
+        }
+    }
+}
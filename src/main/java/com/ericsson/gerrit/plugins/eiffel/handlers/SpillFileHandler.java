@@ -0,0 +1,292 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Supplier;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.EventDeserializer;
+import com.google.gerrit.server.events.SupplierDeserializer;
+import com.google.gerrit.server.events.SupplierSerializer;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+/**
+ * Keeps Gerrit events that did not fit in the sender queue in a file in the plugin data
+ * directory, one JSON serialized event per line. Events are handed back in the same order as they
+ * were spilled.
+ *
+ * Events are only appended to the spill file. How far it has been read is kept in a small offset
+ * file next to it, so handing events back does not rewrite the spill file. The spill file is
+ * deleted once everything in it was handed back and compacted when most of it has been read.
+ *
+ */
+public class SpillFileHandler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpillFileHandler.class);
+    private static final String SPILL_FILE_NAME = "spilled-events.json";
+    private static final String OFFSET_FILE_NAME = "spilled-events.offset";
+    private static final long COMPACTION_THRESHOLD_BYTES = 4L * 1024 * 1024;
+
+    private final Gson gson = new GsonBuilder().registerTypeAdapter(Supplier.class, new SupplierSerializer())
+                                               .registerTypeAdapter(Event.class, new EventDeserializer())
+                                               .registerTypeAdapter(Supplier.class, new SupplierDeserializer())
+                                               .create();
+    private final Path spillFile;
+    private final Path offsetFile;
+    private long readOffset;
+    private int size;
+
+    public SpillFileHandler(final File pluginDir) {
+        this.spillFile = pluginDir.toPath().resolve(SPILL_FILE_NAME);
+        this.offsetFile = pluginDir.toPath().resolve(OFFSET_FILE_NAME);
+        this.readOffset = readOffsetFile();
+        final int[] lineCount = new int[1];
+        try {
+            readLines(readOffset, Integer.MAX_VALUE, line -> lineCount[0]++);
+        } catch (IOException e) {
+            LOGGER.error("Failed to read spilled Gerrit events: {}\n{}", e.getMessage(), e);
+        }
+        this.size = lineCount[0];
+    }
+
+    /**
+     * Appends a Gerrit event to the end of the spill file.
+     *
+     * @param gerritEvent
+     * @return true if the event was written to disk
+     */
+    public synchronized boolean append(final Event gerritEvent) {
+        try (BufferedWriter writer = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(gson.toJson(gerritEvent));
+            writer.write('\n');
+            size++;
+            return true;
+        } catch (IOException e) {
+            LOGGER.error("Failed to spill Gerrit event to disk, event is lost: {}\n{}", e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Puts Gerrit events in front of the spilled events, they are handed back first and in the
+     * given order. This rewrites the spill file, it is only done when the handler stops.
+     *
+     * @param gerritEvents
+     * @return true if the events were written to disk
+     */
+    public synchronized boolean prepend(final List<Event> gerritEvents) {
+        if (gerritEvents.isEmpty()) {
+            return true;
+        }
+        final List<String> lines = new ArrayList<>();
+        for (Event gerritEvent : gerritEvents) {
+            lines.add(gson.toJson(gerritEvent));
+        }
+        try {
+            readLines(readOffset, Integer.MAX_VALUE, lines::add);
+        } catch (IOException e) {
+            LOGGER.error("Failed to read spilled Gerrit events: {}\n{}", e.getMessage(), e);
+            return false;
+        }
+        return writeLines(lines);
+    }
+
+    /**
+     * Removes and returns up to maxEvents of the oldest spilled events.
+     *
+     * @param maxEvents
+     * @return list of Gerrit events, empty if nothing was spilled
+     */
+    public synchronized List<Event> poll(final int maxEvents) {
+        if (size == 0 || maxEvents <= 0) {
+            return Collections.emptyList();
+        }
+
+        final List<String> lines = new ArrayList<>();
+        final long nextOffset;
+        try {
+            nextOffset = readLines(readOffset, maxEvents, lines::add);
+        } catch (IOException e) {
+            LOGGER.error("Failed to read spilled Gerrit events: {}\n{}", e.getMessage(), e);
+            return Collections.emptyList();
+        }
+
+        final List<Event> events = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            try {
+                events.add(gson.fromJson(line, Event.class));
+            } catch (JsonParseException e) {
+                LOGGER.error("Skipping spilled Gerrit event that could not be read: {}\n{}", e.getMessage(), e);
+            }
+        }
+
+        advance(nextOffset, lines.size());
+        return events;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Moves the read offset past the handed back events. The spill file is removed when nothing
+     * is left in it and compacted when most of it has been read.
+     *
+     * @param nextOffset
+     * @param readLines
+     */
+    private void advance(final long nextOffset, final int readLines) {
+        size = Math.max(0, size - readLines);
+        if (size == 0) {
+            writeLines(Collections.emptyList());
+            return;
+        }
+
+        readOffset = nextOffset;
+        if (readOffset >= COMPACTION_THRESHOLD_BYTES && readOffset > spillFile.toFile().length() / 2) {
+            final List<String> remainingLines = new ArrayList<>(size);
+            try {
+                readLines(readOffset, Integer.MAX_VALUE, remainingLines::add);
+                writeLines(remainingLines);
+                return;
+            } catch (IOException e) {
+                LOGGER.warn("Failed to compact spilled Gerrit events: {}\n{}", e.getMessage(), e);
+            }
+        }
+        writeOffsetFile();
+    }
+
+    /**
+     * Reads complete lines of the spill file, a line that is still being written is left alone.
+     *
+     * @param fromOffset
+     * @param maxLines
+     * @param lineConsumer
+     * @return offset just after the last line that was read
+     * @throws IOException
+     */
+    private long readLines(final long fromOffset, final int maxLines, final Consumer<String> lineConsumer)
+            throws IOException {
+        if (!Files.exists(spillFile)) {
+            return fromOffset;
+        }
+        try (SeekableByteChannel channel = Files.newByteChannel(spillFile, StandardOpenOption.READ)) {
+            channel.position(fromOffset);
+            final InputStream input = new BufferedInputStream(Channels.newInputStream(channel));
+            final ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long offset = fromOffset;
+            long lineEndOffset = fromOffset;
+            int readLines = 0;
+            int nextByte;
+            while (readLines < maxLines && (nextByte = input.read()) != -1) {
+                offset++;
+                if (nextByte != '\n') {
+                    line.write(nextByte);
+                    continue;
+                }
+                lineConsumer.accept(new String(line.toByteArray(), StandardCharsets.UTF_8).trim());
+                line.reset();
+                lineEndOffset = offset;
+                readLines++;
+            }
+            return lineEndOffset;
+        }
+    }
+
+    /**
+     * Replaces the spill file with the given lines, read from the start. The offset file is
+     * removed first, a crash in between hands back some events twice instead of losing any.
+     *
+     * @param lines
+     * @return true if the spill file was written
+     */
+    private boolean writeLines(final List<String> lines) {
+        try {
+            Files.deleteIfExists(offsetFile);
+            readOffset = 0;
+            if (lines.isEmpty()) {
+                Files.deleteIfExists(spillFile);
+            } else {
+                final Path tmpFile = spillFile.resolveSibling(SPILL_FILE_NAME + ".tmp");
+                Files.write(tmpFile, lines, StandardCharsets.UTF_8);
+                Files.move(tmpFile, spillFile, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            size = lines.size();
+            return true;
+        } catch (IOException e) {
+            LOGGER.error("Failed to rewrite spilled Gerrit events: {}\n{}", e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private long readOffsetFile() {
+        if (!Files.exists(offsetFile)) {
+            return 0;
+        }
+        try {
+            final long offset = Long.parseLong(
+                    new String(Files.readAllBytes(offsetFile), StandardCharsets.UTF_8).trim());
+            if (offset >= 0 && offset <= spillFile.toFile().length()) {
+                return offset;
+            }
+            LOGGER.warn("Ignoring spill file offset {} outside of the spill file.", offset);
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.warn("Failed to read spill file offset, reading spilled events from the start: {}\n{}",
+                    e.getMessage(), e);
+        }
+        return 0;
+    }
+
+    private void writeOffsetFile() {
+        try {
+            final Path tmpFile = offsetFile.resolveSibling(OFFSET_FILE_NAME + ".tmp");
+            Files.write(tmpFile, Long.toString(readOffset).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmpFile, offsetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.error("Failed to store spill file offset, events may be handed back twice: {}\n{}",
+                    e.getMessage(), e);
+        }
+    }
+}
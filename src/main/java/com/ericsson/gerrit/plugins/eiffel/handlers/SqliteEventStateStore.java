@@ -0,0 +1,152 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.Map;
+
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics;
+
+/**
+ * EventStateStore keeping one SQLite database file per project in the plugin data directory.
+ * Nested projects get their database file in a sub directory named after the parent project.
+ *
+ */
+public class SqliteEventStateStore implements EventStateStore {
+
+    private final File pluginDir;
+    private final DataBaseHandlerRegistry dataBaseHandlers;
+
+    public SqliteEventStateStore(final File pluginDir) {
+        this(pluginDir, SqliteTuning.DEFAULT, EiffelMetrics.DISABLED);
+    }
+
+    public SqliteEventStateStore(final File pluginDir, final SqliteTuning tuning, final EiffelMetrics metrics) {
+        this.pluginDir = pluginDir;
+        this.dataBaseHandlers = new DataBaseHandlerRegistry(pluginDir, tuning, metrics);
+    }
+
+    /**
+     * Returns the stored event id, or an empty string for a nested project whose parent directory
+     * does not exist yet.
+     */
+    @Override
+    public String get(final String project, final Table table, final String keyValue)
+            throws IOException, NoSuchElementException {
+        File parentDir = new File(buildParentFilePath(project));
+        if (!parentDir.exists()) {
+            return "";
+        }
+        return dataBaseHandlers.get(project).getEventID(table, keyValue);
+    }
+
+    @Override
+    public Map<String, String> getAll(final String project, final Table table) throws IOException {
+        return dataBaseHandlers.get(project).getAllEventIDs(table);
+    }
+
+    @Override
+    public void put(final String project, final Table table, final String keyValue, final String eventId)
+            throws IOException {
+        createParentDirsIfNecessary(buildParentFilePath(project));
+
+        try {
+            dataBaseHandlers.get(project).upsertInto(table, keyValue, eventId);
+        } catch (SQLException e) {
+            throw new IOException(String.format("Failed to store event id for project '%s'. %s", project,
+                    e.getMessage()), e);
+        }
+    }
+
+    @Override
+    public void putAll(final String project, final Map<Table, Map<String, String>> eventIds) throws IOException {
+        createParentDirsIfNecessary(buildParentFilePath(project));
+        try {
+            dataBaseHandlers.get(project).storeAll(eventIds);
+        } catch (SQLException e) {
+            throw new IOException(String.format("Failed to store event ids for project '%s'. %s", project,
+                    e.getMessage()), e);
+        }
+    }
+
+    @Override
+    public boolean isDurable() {
+        return true;
+    }
+
+    @Override
+    public boolean isPerProjectLayout() {
+        return true;
+    }
+
+    /**
+     * Whether a database file exists for the project.
+     *
+     * @param project
+     * @return boolean
+     */
+    @Override
+    public boolean hasState(final String project) {
+        return dataBaseHandlers.getDatabaseFile(project).exists();
+    }
+
+    @Override
+    public void close() {
+        dataBaseHandlers.closeAll();
+    }
+
+    /**
+     * Builds the absolute file path to the parent of a project
+     *
+     * @param project
+     * @return
+     */
+    private String buildParentFilePath(String project) {
+        String relativeParentPath = generateRelativeParentPath(project);
+        Path absolutePath = Paths.get(pluginDir.getAbsolutePath(), relativeParentPath);
+        return absolutePath.toString();
+    }
+
+    /**
+     * Creates parent directories of a project if they don't exist and is included
+     * in the project name.
+     *
+     * @param path
+     */
+    private void createParentDirsIfNecessary(String path) {
+        File directory = new File(path);
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+    }
+
+    private String generateRelativeParentPath(String project) {
+        int lastIndexOfSlash = project.lastIndexOf("/");
+
+        String relativeParentPath = "";
+        boolean projectContainsParent = lastIndexOfSlash != -1;
+        if (projectContainsParent) {
+            relativeParentPath = project.substring(0, lastIndexOfSlash);
+        }
+        return relativeParentPath;
+    }
+}
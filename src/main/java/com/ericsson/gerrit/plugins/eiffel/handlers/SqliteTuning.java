@@ -0,0 +1,166 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gerrit.server.config.PluginConfig;
+
+/**
+ * SQLite settings applied to every new database connection as PRAGMA statements. Settings that are
+ * not configured are left at the SQLite defaults.
+ *
+ */
+public class SqliteTuning {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SqliteTuning.class);
+    private static final String JOURNAL_MODE = "sqliteJournalMode";
+    private static final String SYNCHRONOUS = "sqliteSynchronous";
+    private static final String MMAP_SIZE = "sqliteMmapSize";
+    private static final String CACHE_SIZE = "sqliteCacheSize";
+    private static final String BUSY_TIMEOUT = "sqliteBusyTimeoutMs";
+    private static final String TEMP_STORE = "sqliteTempStore";
+    public static final int DEFAULT_BUSY_TIMEOUT_MS = 5000;
+    public static final SqliteTuning DEFAULT = new SqliteTuning(null, null, null, null, DEFAULT_BUSY_TIMEOUT_MS,
+            null);
+
+    public enum JournalMode {
+        DELETE, TRUNCATE, PERSIST, MEMORY, WAL, OFF
+    }
+
+    public enum Synchronous {
+        OFF, NORMAL, FULL, EXTRA
+    }
+
+    public enum TempStore {
+        DEFAULT, FILE, MEMORY
+    }
+
+    private final List<String> pragmas;
+
+    /**
+     * Constructor for the SqliteTuning class, null values are left at the SQLite defaults.
+     *
+     * @param journalMode
+     * @param synchronous
+     * @param mmapSize bytes of the database file to memory map
+     * @param cacheSize page cache size, in pages if positive and in KiB if negative
+     * @param busyTimeoutMs time to wait for a lock held by another connection
+     * @param tempStore
+     */
+    public SqliteTuning(final JournalMode journalMode, final Synchronous synchronous, final Long mmapSize,
+            final Integer cacheSize, final int busyTimeoutMs, final TempStore tempStore) {
+        final List<String> configuredPragmas = new ArrayList<>();
+        configuredPragmas.add("PRAGMA busy_timeout=" + busyTimeoutMs);
+        if (journalMode != null) {
+            configuredPragmas.add("PRAGMA journal_mode=" + journalMode);
+        }
+        if (synchronous != null) {
+            configuredPragmas.add("PRAGMA synchronous=" + synchronous);
+        }
+        if (mmapSize != null) {
+            configuredPragmas.add("PRAGMA mmap_size=" + mmapSize);
+        }
+        if (cacheSize != null) {
+            configuredPragmas.add("PRAGMA cache_size=" + cacheSize);
+        }
+        if (tempStore != null) {
+            configuredPragmas.add("PRAGMA temp_store=" + tempStore);
+        }
+        this.pragmas = Collections.unmodifiableList(configuredPragmas);
+    }
+
+    /**
+     * Reads the tuning profile from the plugin section of gerrit.config.
+     *
+     * @param pluginConfig
+     * @return SqliteTuning
+     */
+    public static SqliteTuning fromConfig(final PluginConfig pluginConfig) {
+        final Long mmapSize = readLong(pluginConfig, MMAP_SIZE);
+        final Long cacheSize = readLong(pluginConfig, CACHE_SIZE);
+        final Long busyTimeoutMs = readLong(pluginConfig, BUSY_TIMEOUT);
+        return new SqliteTuning(readEnum(pluginConfig, JOURNAL_MODE, JournalMode.class),
+                readEnum(pluginConfig, SYNCHRONOUS, Synchronous.class), mmapSize,
+                cacheSize == null ? null : toInt(CACHE_SIZE, cacheSize, null),
+                busyTimeoutMs == null ? DEFAULT_BUSY_TIMEOUT_MS
+                        : toInt(BUSY_TIMEOUT, busyTimeoutMs, DEFAULT_BUSY_TIMEOUT_MS),
+                readEnum(pluginConfig, TEMP_STORE, TempStore.class));
+    }
+
+    /**
+     * Applies the profile to a newly opened connection.
+     *
+     * @param connection
+     * @throws SQLException
+     */
+    public void apply(final Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String pragma : pragmas) {
+                statement.execute(pragma);
+            }
+        }
+    }
+
+    public List<String> getPragmas() {
+        return pragmas;
+    }
+
+    private static Long readLong(final PluginConfig pluginConfig, final String name) {
+        final String value = pluginConfig.getString(name);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return pluginConfig.getLong(name, 0);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Ignoring invalid number '{}' of {}, using the default.", value, name);
+            return null;
+        }
+    }
+
+    private static Integer toInt(final String name, final long value, final Integer defaultValue) {
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            LOGGER.warn("Ignoring out of range number '{}' of {}, using the default.", value, name);
+            return defaultValue;
+        }
+        return (int) value;
+    }
+
+    private static <T extends Enum<T>> T readEnum(final PluginConfig pluginConfig, final String name,
+            final Class<T> enumType) {
+        final String value = pluginConfig.getString(name);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return Enum.valueOf(enumType, value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Ignoring unknown value '{}' of {}, using the SQLite default.", value, name);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+/**
+ * Reads the SqliteTuning from the plugin section of gerrit.config, so that every SQLite database
+ * of the plugin is opened with the same settings.
+ *
+ */
+public class SqliteTuningProvider implements Provider<SqliteTuning> {
+    private final PluginConfigFactory config;
+    private final String pluginName;
+
+    @Inject
+    public SqliteTuningProvider(final PluginConfigFactory config, @PluginName final String pluginName) {
+        this.config = config;
+        this.pluginName = pluginName;
+    }
+
+    @Override
+    public SqliteTuning get() {
+        return SqliteTuning.fromConfig(config.getFromGerritConfig(pluginName, true));
+    }
+}
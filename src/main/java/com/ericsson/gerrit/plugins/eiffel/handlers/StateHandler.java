@@ -1,17 +1,43 @@
 package com.ericsson.gerrit.plugins.eiffel.handlers;
 
 import java.io.File;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.net.ConnectException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class StateHandler {
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.registration.RegistrationHandle;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Inject;
+
+/**
+ * Stores the last sent Eiffel event ids per project in an EventStateStore. Lookups are served from
+ * an in memory EventIdCache when possible, stores are written through to both the state store and
+ * the cache. At plugin start the cache is warmed up with the state of the configured hot projects
+ * and its counters are registered as metrics.
+ *
+ */
+public class StateHandler implements LifecycleListener {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(StateHandler.class);
-    private static final String FILE_ENDING = "db";
+    private static final String CACHE_SIZE = "stateCacheSize";
+    private static final String WARMUP_PROJECT = "stateCacheWarmupProject";
+
     private final File pluginDir;
+    private final EventStateStore stateStore;
+    private final EventIdCache eventIdCache;
+    private final List<String> warmupProjects;
+    private final EiffelMetrics metrics;
+    private RegistrationHandle cacheGauges;
 
     /**
      * Constructor for the StateHandler class. in case the stateHandler is initiated
@@ -20,7 +46,127 @@ public class StateHandler {
      * @param pluginDir
      */
     public StateHandler(final File pluginDir) {
+        this(pluginDir, new SqliteEventStateStore(pluginDir));
+    }
+
+    /**
+     * Constructor for the StateHandler class using the given state store.
+     *
+     * @param pluginDir
+     * @param stateStore
+     */
+    public StateHandler(final File pluginDir, final EventStateStore stateStore) {
+        this(pluginDir, stateStore, EventIdCache.DEFAULT_MAXIMUM_SIZE, Collections.emptyList(),
+                EiffelMetrics.DISABLED);
+    }
+
+    /**
+     * Constructor used by Guice, reads the cache settings from the plugin section
+     * of gerrit.config.
+     *
+     * @param pluginDir
+     * @param stateStore
+     * @param config
+     * @param pluginName
+     * @param metrics
+     */
+    @Inject
+    public StateHandler(@PluginData final File pluginDir, final EventStateStore stateStore,
+            final PluginConfigFactory config, @PluginName final String pluginName, final EiffelMetrics metrics) {
+        this(pluginDir, stateStore, config.getFromGerritConfig(pluginName, true), metrics);
+    }
+
+    private StateHandler(final File pluginDir, final EventStateStore stateStore, final PluginConfig pluginConfig,
+            final EiffelMetrics metrics) {
+        this(pluginDir, stateStore, pluginConfig.getLong(CACHE_SIZE, EventIdCache.DEFAULT_MAXIMUM_SIZE),
+                Arrays.asList(pluginConfig.getStringList(WARMUP_PROJECT)), metrics);
+    }
+
+    private StateHandler(final File pluginDir, final EventStateStore stateStore, final long cacheSize,
+            final List<String> warmupProjects, final EiffelMetrics metrics) {
         this.pluginDir = pluginDir;
+        this.stateStore = stateStore;
+        this.eventIdCache = new EventIdCache(cacheSize);
+        this.warmupProjects = warmupProjects;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void start() {
+        cacheGauges = metrics.registerStateCacheGauges(eventIdCache::getHitCount, eventIdCache::getMissCount,
+                eventIdCache::size);
+        for (String project : warmupProjects) {
+            warmUp(project);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (cacheGauges != null) {
+            cacheGauges.remove();
+            cacheGauges = null;
+        }
+        LOGGER.info("Eiffel event id cache: {} entries, {} hits, {} misses.", eventIdCache.size(),
+                eventIdCache.getHitCount(), eventIdCache.getMissCount());
+        close();
+    }
+
+    /**
+     * Loads all stored event ids of a project into the cache.
+     *
+     * @param project
+     */
+    public void warmUp(final String project) {
+        if (!stateStore.hasState(project)) {
+            LOGGER.debug("No stored state to warm up for project '{}'.", project);
+            return;
+        }
+
+        try {
+            int loaded = 0;
+            for (Table table : Table.values()) {
+                Map<String, String> eventIds = stateStore.getAll(project, table);
+                eventIds.forEach((keyValue, eventId) -> eventIdCache.put(project, table, keyValue, eventId));
+                loaded += eventIds.size();
+            }
+            LOGGER.info("Warmed up Eiffel event id cache with {} entries for project '{}'.", loaded, project);
+        } catch (Exception e) {
+            LOGGER.error("Error while warming up eiffel event id cache for project '{}': {}\n{}", project,
+                    e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Imports the state stored in per project database files into the configured
+     * state store. Migrated files are renamed with a ".migrated" suffix so that a
+     * second run skips them. The configured store must survive a restart and must
+     * not be the per project store itself.
+     *
+     * @return number of migrated projects
+     * @throws ConnectException
+     */
+    public int migratePerProjectState() throws ConnectException {
+        if (stateStore.isPerProjectLayout()) {
+            throw new IllegalStateException(
+                    "State is already stored per project, configure another state store to migrate state.");
+        }
+        if (!stateStore.isDurable()) {
+            throw new IllegalStateException(
+                    "The configured state store does not survive a restart, migrated state would be lost.");
+        }
+        StateMigrator migrator = new StateMigrator(pluginDir, stateStore);
+        int migratedProjects = migrator.migrate();
+        eventIdCache.invalidateAll();
+        return migratedProjects;
+    }
+
+    /**
+     * Counters of the in memory event id cache, used to size it.
+     *
+     * @return EventIdCache
+     */
+    public EventIdCache getEventIdCache() {
+        return eventIdCache;
     }
 
     /**
@@ -77,47 +223,23 @@ public class StateHandler {
         return getLastCreatedEiffelEvent(project, changeId, Table.SCC_TABLE);
     }
 
-    /**
-     * Builds the absolute file path to the parent of a project
-     *
-     * @param project
-     * @return
-     */
-    private String buildParentFilePath(String project) {
-        String relativeParentPath = generateRelativeParentPath(project);
-        Path absolutePath = Paths.get(pluginDir.getAbsolutePath(), relativeParentPath);
-        return absolutePath.toString();
-    }
-
-    /**
-     * Creates parent directories of a project if they don't exist and is included
-     * in the project name.
-     *
-     * @param path
-     */
-    private void createParentDirsIfNecessary(String path) {
-        File directory = new File(path);
-        if (!directory.exists()) {
-            directory.mkdirs();
-        }
-    }
-
     private String getLastCreatedEiffelEvent(String project, String tableColumnName, Table tableName)
             throws NoSuchElementException {
-        File parentDir = new File(buildParentFilePath(project));
-        if (!(parentDir.exists())) {
-            return "";
+        String cachedEventId = eventIdCache.get(project, tableName, tableColumnName);
+        if (cachedEventId != null) {
+            return cachedEventId;
         }
 
         try {
-            String fileName = String.format("%s.%s", project, FILE_ENDING);
-            DataBaseHandler dBHandler = new DataBaseHandler(pluginDir, fileName);
-            String eventId = dBHandler.getEventID(tableName, tableColumnName);
+            String eventId = stateStore.get(project, tableName, tableColumnName);
+            if (!eventId.isEmpty()) {
+                eventIdCache.put(project, tableName, tableColumnName, eventId);
+            }
             LOGGER.info("Fetched old event with id '{}', for project '{}', and branch '{}'", eventId, project,
                     tableColumnName);
             return eventId;
         } catch (Exception e) {
-            LOGGER.error("Error while trying to get eiffel event id from database: {}\n{}", e.getMessage(), e);
+            LOGGER.error("Error while trying to get eiffel event id from state store: {}\n{}", e.getMessage(), e);
             // return "";
             throw new NoSuchElementException(
                     "Database did not return any value for this query\n" + "Exception Message:" + e.getMessage());
@@ -127,40 +249,25 @@ public class StateHandler {
 
     private void setLastSubmittedEiffelEvent(String project, String tableColumnName, String eiffelEvent,
             Table tableName) throws NoSuchElementException {
-        DataBaseHandler dBHandler;
         try {
-            String parentPath = buildParentFilePath(project);
-            createParentDirsIfNecessary(parentPath);
-
-            String fileName = String.format("%s.%s", project, FILE_ENDING);
-            dBHandler = new DataBaseHandler(pluginDir, fileName);
-            String oldEvent = dBHandler.getEventID(tableName, tableColumnName);
-            if (!oldEvent.isEmpty()) {
-                dBHandler.updateInto(Table.SCS_TABLE, tableColumnName, eiffelEvent);
-                LOGGER.info("Replaced old event id '{}' with new event if '{}', for project '{}', and branch '{}'.",
-                        oldEvent, eiffelEvent, project, tableColumnName);
-            } else {
-                dBHandler.insertInto(tableName, tableColumnName, eiffelEvent);
-                LOGGER.info("Saved eiffel event with id '{}', for project '{}', and branch '{}'.", eiffelEvent, project,
-                        tableColumnName);
-            }
+            stateStore.put(project, tableName, tableColumnName, eiffelEvent);
+            LOGGER.info("Saved eiffel event with id '{}', for project '{}', and branch '{}'.", eiffelEvent, project,
+                    tableColumnName);
+            eventIdCache.put(project, tableName, tableColumnName, eiffelEvent);
         } catch (Exception e) {
-            LOGGER.error("Error while trying to insert eiffel event id into database: {}\n{}", e.getMessage(), e);
+            eventIdCache.invalidate(project, tableName, tableColumnName);
+            LOGGER.error("Error while trying to insert eiffel event id into state store: {}\n{}", e.getMessage(), e);
             throw new NoSuchElementException(
                     "Database did not return any value for this query\n" + "Exception Message:" + e.getMessage());
         }
 
     }
 
-    private String generateRelativeParentPath(String project) {
-        int lastIndexOfSlash = project.lastIndexOf("/");
-
-        String relativeParentPath = "";
-        boolean projectContainsParent = lastIndexOfSlash != -1;
-        if (projectContainsParent) {
-            relativeParentPath = project.substring(0, lastIndexOfSlash);
-            }
-        return relativeParentPath;
+    /**
+     * Closes the state store.
+     */
+    public void close() {
+        stateStore.close();
     }
 
 }
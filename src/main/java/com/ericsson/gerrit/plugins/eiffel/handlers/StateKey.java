@@ -0,0 +1,53 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.util.Objects;
+
+/**
+ * Identifies one stored event id by project, table and table key.
+ *
+ */
+final class StateKey {
+    final String project;
+    final Table table;
+    final String keyValue;
+
+    StateKey(final String project, final Table table, final String keyValue) {
+        this.project = project;
+        this.table = table;
+        this.keyValue = keyValue;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof StateKey)) {
+            return false;
+        }
+        final StateKey that = (StateKey) other;
+        return table == that.table && project.equals(that.project) && keyValue.equals(that.keyValue);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(project, table, keyValue);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteConfig;
+
+/**
+ * Imports the state stored in per project database files into another EventStateStore.
+ *
+ * Only database files that have the tables of the per project handler are migrated, other
+ * database files of the plugin are left alone. Each file is read through its own read only
+ * connection, the shared connection pools of the running handlers are not touched. A database
+ * file is only renamed once its state was flushed to the target store.
+ *
+ */
+public class StateMigrator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StateMigrator.class);
+    private static final String FILE_ENDING = ".db";
+    private static final String MIGRATED_SUFFIX = ".migrated";
+    private static final String EVENT_ID_KEY = "eventId";
+
+    private final File pluginDir;
+    private final EventStateStore target;
+
+    public StateMigrator(final File pluginDir, final EventStateStore target) {
+        this.pluginDir = pluginDir;
+        this.target = target;
+    }
+
+    /**
+     * Migrates every per project database file found in the plugin directory, including those of
+     * nested projects.
+     *
+     * @return number of migrated projects
+     * @throws ConnectException
+     */
+    public int migrate() throws ConnectException {
+        int migratedProjects = 0;
+        for (Path databaseFile : findPerProjectDatabaseFiles()) {
+            final String fileName = pluginDir.toPath().relativize(databaseFile).toString();
+            final String project = fileName.substring(0, fileName.length() - FILE_ENDING.length())
+                                           .replace(File.separatorChar, '/');
+            if (migrateProject(project, databaseFile)) {
+                markAsMigrated(databaseFile);
+                migratedProjects++;
+            }
+        }
+        LOGGER.info("Migrated state of {} projects to the configured state store.", migratedProjects);
+        return migratedProjects;
+    }
+
+    private boolean migrateProject(final String project, final Path databaseFile) {
+        try (Connection connection = openReadOnly(databaseFile)) {
+            if (!hasPerProjectTables(connection)) {
+                LOGGER.debug("Skipping {}, it is not a per project state database.", databaseFile);
+                return false;
+            }
+            for (Table table : Table.values()) {
+                for (Map.Entry<String, String> entry : readEventIds(connection, table).entrySet()) {
+                    target.put(project, table, entry.getKey(), entry.getValue());
+                }
+            }
+            target.flush();
+            return true;
+        } catch (SQLException | IOException e) {
+            LOGGER.error("Failed to migrate state of project '{}': {}\n{}", project, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private static Connection openReadOnly(final Path databaseFile) throws SQLException {
+        final SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        return config.createConnection(String.format("jdbc:sqlite:%s", databaseFile));
+    }
+
+    private static boolean hasPerProjectTables(final Connection connection) throws SQLException {
+        final DatabaseMetaData metaData = connection.getMetaData();
+        for (Table table : Table.values()) {
+            try (ResultSet tables = metaData.getTables(null, null, table.toString(), null)) {
+                if (!tables.next()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static Map<String, String> readEventIds(final Connection connection, final Table table)
+            throws SQLException {
+        final Map<String, String> eventIds = new HashMap<>();
+        final String sqlSelectStatement = String.format("SELECT %s, %s FROM %s", table.keyName, EVENT_ID_KEY,
+                table);
+        try (PreparedStatement statement = connection.prepareStatement(sqlSelectStatement);
+                ResultSet result = statement.executeQuery()) {
+            while (result.next()) {
+                eventIds.put(result.getString(table.keyName), result.getString(EVENT_ID_KEY));
+            }
+        }
+        return eventIds;
+    }
+
+    private List<Path> findPerProjectDatabaseFiles() throws ConnectException {
+        try (Stream<Path> files = Files.walk(pluginDir.toPath())) {
+            return files.filter(Files::isRegularFile)
+                        .filter(file -> file.getFileName().toString().endsWith(FILE_ENDING))
+                        .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new ConnectException(
+                    String.format("Failed to list database files in %s. %s", pluginDir, e.getMessage()));
+        }
+    }
+
+    private void markAsMigrated(final Path databaseFile) {
+        try {
+            Files.move(databaseFile, databaseFile.resolveSibling(databaseFile.getFileName() + MIGRATED_SUFFIX));
+        } catch (IOException e) {
+            LOGGER.warn("Migrated database file {} could not be renamed: {}", databaseFile, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+/**
+ * The EventStateStore implementation used by the StateHandler.
+ *
+ */
+public enum StateStoreBackend {
+    /**
+     * SQLite databases, laid out according to the StorageMode.
+     */
+    SQLITE,
+    /**
+     * Append only log file in the plugin data directory with an in memory index.
+     */
+    LOG,
+    /**
+     * Kept in memory only, state is lost on restart.
+     */
+    MEMORY
+}
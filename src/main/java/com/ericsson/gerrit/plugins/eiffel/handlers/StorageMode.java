@@ -0,0 +1,33 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+/**
+ * How the SQLite state store lays out its databases in the plugin data directory.
+ *
+ */
+public enum StorageMode {
+    /**
+     * One database file per project, named after the project.
+     */
+    PER_PROJECT,
+    /**
+     * A small fixed set of shared database files where the project name is part of the key.
+     */
+    CONSOLIDATED
+}
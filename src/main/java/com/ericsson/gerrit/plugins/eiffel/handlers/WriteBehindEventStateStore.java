@@ -0,0 +1,204 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * EventStateStore that collects stored event ids in memory and writes them to the wrapped store in
+ * batches, one putAll per project, either every flush interval or as soon as a batch is full.
+ * Lookups see pending event ids before they are flushed. If the pending event ids grow far beyond
+ * the batch size because the wrapped store is slow, the storing thread flushes itself. A failed
+ * flush does not fail the put, the event id is stored and stays pending until a flush succeeds.
+ *
+ * Event ids that are still pending when the server crashes are lost, a clean stop flushes them.
+ *
+ */
+public class WriteBehindEventStateStore implements EventStateStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindEventStateStore.class);
+    private static final int MAX_PENDING_BATCHES = 4;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 200;
+
+    private final EventStateStore delegate;
+    private final int batchSize;
+    private final ScheduledExecutorService flushExecutor;
+    private final Map<StateKey, String> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final Object flushLock = new Object();
+
+    /**
+     * Constructor for the WriteBehindEventStateStore class.
+     *
+     * @param delegate store the batches are written to
+     * @param batchSize number of pending event ids that triggers a flush
+     * @param flushIntervalMs time between flushes, 0 to only flush on full batches
+     * @param flushExecutor executor running the flushes, null to flush in the storing thread. It
+     *        is shut down when the store is closed.
+     */
+    public WriteBehindEventStateStore(final EventStateStore delegate, final int batchSize,
+            final long flushIntervalMs, final ScheduledExecutorService flushExecutor) {
+        this.delegate = delegate;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushExecutor = flushExecutor;
+        if (flushExecutor != null && flushIntervalMs > 0) {
+            flushExecutor.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public String get(final String project, final Table table, final String keyValue)
+            throws IOException, NoSuchElementException {
+        final String pendingEventId = pending.get(new StateKey(project, table, keyValue));
+        if (pendingEventId != null) {
+            return pendingEventId;
+        }
+        return delegate.get(project, table, keyValue);
+    }
+
+    @Override
+    public Map<String, String> getAll(final String project, final Table table) throws IOException {
+        final Map<String, String> eventIds = new HashMap<>(delegate.getAll(project, table));
+        pending.forEach((key, eventId) -> {
+            if (key.table == table && key.project.equals(project)) {
+                eventIds.put(key.keyValue, eventId);
+            }
+        });
+        return eventIds;
+    }
+
+    @Override
+    public void put(final String project, final Table table, final String keyValue, final String eventId)
+            throws IOException {
+        pending.put(new StateKey(project, table, keyValue), eventId);
+
+        final int pendingCount = pending.size();
+        if (flushExecutor == null || pendingCount >= MAX_PENDING_BATCHES * batchSize) {
+            if (pendingCount >= batchSize) {
+                flushQuietly();
+            }
+        } else if (pendingCount >= batchSize && flushRequested.compareAndSet(false, true)) {
+            flushExecutor.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Writes all pending event ids to the wrapped store. Event ids of projects that could not be
+     * written stay pending and are retried on the next flush.
+     *
+     * @throws IOException if any project could not be written
+     */
+    @Override
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            flushRequested.set(false);
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            final Map<StateKey, String> batch = new HashMap<>(pending);
+            final Map<String, Map<Table, Map<String, String>>> batchPerProject = new HashMap<>();
+            batch.forEach((key, eventId) -> batchPerProject.computeIfAbsent(key.project, project -> new HashMap<>())
+                                                           .computeIfAbsent(key.table, table -> new HashMap<>())
+                                                           .put(key.keyValue, eventId));
+
+            IOException failure = null;
+            for (Map.Entry<String, Map<Table, Map<String, String>>> projectBatch : batchPerProject.entrySet()) {
+                try {
+                    delegate.putAll(projectBatch.getKey(), projectBatch.getValue());
+                    removeFlushed(projectBatch.getKey(), projectBatch.getValue());
+                } catch (IOException e) {
+                    LOGGER.error("Failed to flush event ids of project '{}', retrying on next flush: {}\n{}",
+                            projectBatch.getKey(), e.getMessage(), e);
+                    failure = e;
+                }
+            }
+            LOGGER.debug("Flushed {} event ids of {} projects.", batch.size(), batchPerProject.size());
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    @Override
+    public boolean isDurable() {
+        return delegate.isDurable();
+    }
+
+    @Override
+    public boolean isPerProjectLayout() {
+        return delegate.isPerProjectLayout();
+    }
+
+    @Override
+    public boolean hasState(final String project) {
+        return delegate.hasState(project)
+                || pending.keySet().stream().anyMatch(key -> key.project.equals(project));
+    }
+
+    /**
+     * Number of stored event ids not yet written to the wrapped store.
+     *
+     * @return int
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Stops the scheduled flushes, flushes what is pending and closes the wrapped store.
+     */
+    @Override
+    public void close() {
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            LOGGER.error("{} event ids could not be flushed and are lost: {}\n{}", pending.size(), e.getMessage(),
+                    e);
+        }
+        delegate.close();
+    }
+
+    private void removeFlushed(final String project, final Map<Table, Map<String, String>> flushed) {
+        flushed.forEach((table, eventIds) -> eventIds.forEach(
+                (keyValue, eventId) -> pending.remove(new StateKey(project, table, keyValue), eventId)));
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            // Already logged per project, pending event ids are retried on the next flush.
+        } catch (RuntimeException e) {
+            LOGGER.error("Unexpected error while flushing event ids: {}\n{}", e.getMessage(), e);
+        }
+    }
+}
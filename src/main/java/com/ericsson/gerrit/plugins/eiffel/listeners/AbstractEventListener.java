@@ -22,7 +22,19 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ericsson.gerrit.plugins.eiffel.configuration.BranchFilter;
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.configuration.ProjectConfigurationCache;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
+import com.ericsson.gerrit.plugins.eiffel.handlers.DeduplicationIndex;
+import com.ericsson.gerrit.plugins.eiffel.handlers.MessageQueueHandler;
+import com.ericsson.gerrit.plugins.eiffel.messaging.BatchingEiffelEventPublisher;
+import com.ericsson.gerrit.plugins.eiffel.messaging.EiffelEventOutbox;
+import com.ericsson.gerrit.plugins.eiffel.messaging.RetryScheduler;
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics;
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics.Stage;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.gerrit.common.EventListener;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.server.config.CanonicalWebUrl;
@@ -35,18 +47,41 @@ import com.google.inject.Inject;
  * contains some helper methods to determine if Eiffel event sending is activated for the project
  * the Gerrit event was sent by.
  *
+ * The Gerrit event thread only checks the event type and hands the event over to the
+ * MessageQueueHandler, everything else is done by the Eiffel message sender threads.
+ *
  */
 public abstract class AbstractEventListener implements EventListener {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractEventListener.class);
-
-    @Inject
-    private com.google.gerrit.server.config.PluginConfigFactory pluginConfigFactory;
+    private static final int BRANCH_FILTER_CACHE_SIZE = 1000;
 
     @Inject
     @CanonicalWebUrl
     private String gerritUrl;
 
+    @Inject
+    private MessageQueueHandler messageQueueHandler;
+
+    @Inject
+    private RetryScheduler retryScheduler;
+
+    @Inject
+    private BatchingEiffelEventPublisher batchingPublisher;
+
+    @Inject
+    private EiffelEventOutbox eiffelEventOutbox;
+
+    @Inject
+    private ProjectConfigurationCache projectConfigurationCache;
+
+    private DeduplicationIndex deduplicationIndex = DeduplicationIndex.DISABLED;
+    private EiffelMetrics metrics = EiffelMetrics.DISABLED;
+
+    private final Cache<String, BranchFilter> branchFilters = CacheBuilder.newBuilder()
+                                                                          .maximumSize(BRANCH_FILTER_CACHE_SIZE)
+                                                                          .build();
+
     protected final String pluginName;
     protected final File pluginDirectoryPath;
 
@@ -55,23 +90,68 @@ public abstract class AbstractEventListener implements EventListener {
         this.pluginDirectoryPath = pluginDirectoryPath;
     }
 
+    /**
+     * Injected by Guice, listeners created without it skip the deduplication.
+     *
+     * @param deduplicationIndex
+     */
+    @Inject
+    void setDeduplicationIndex(final DeduplicationIndex deduplicationIndex) {
+        this.deduplicationIndex = deduplicationIndex;
+    }
+
+    /**
+     * Injected by Guice, listeners created without it do not record metrics.
+     *
+     * @param metrics
+     */
+    @Inject
+    void setMetrics(final EiffelMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     @Override
     public void onEvent(final Event gerritEvent) {
         if (!isExpectedGerritEvent(gerritEvent)) {
             return;
         }
 
+        dispatchGerritEvent(gerritEvent);
+    }
+
+    /**
+     * Creates the project configuration for the Gerrit event and, if Eiffel event sending is
+     * enabled and the event was not delivered before, prepares and sends the Eiffel event. Called
+     * from the Eiffel message sender threads. An event that fails before its Eiffel event is handed
+     * over is removed from the deduplication index again, so that a later delivery is processed.
+     *
+     * @param gerritEvent
+     */
+    public void processGerritEvent(final Event gerritEvent) {
+        long startNanos = System.nanoTime();
         final EiffelPluginConfiguration pluginConfig = createPluginConfig(gerritEvent);
-        if (!isEiffelEventSendingEnabled(gerritEvent, pluginConfig)) {
+        recordStage(Stage.CONFIGURATION, startNanos);
+
+        startNanos = System.nanoTime();
+        final boolean isSendingEnabled = isEiffelEventSendingEnabled(gerritEvent, pluginConfig)
+                && isFirstDelivery(gerritEvent);
+        recordStage(Stage.FILTER, startNanos);
+        if (!isSendingEnabled) {
             return;
         }
 
-        prepareAndSendEiffelEvent(gerritEvent, pluginConfig);
+        try {
+            prepareAndSendEiffelEvent(gerritEvent, pluginConfig);
+        } catch (RuntimeException e) {
+            forgetDelivery(gerritEvent);
+            throw e;
+        }
     }
 
     /**
-     * Based on project name from the gerrit event, creates a project specific
-     * EiffelPluginConfiguration.
+     * Based on project name from the gerrit event, returns the project specific
+     * EiffelPluginConfiguration. The configuration is cached until the project's
+     * refs/meta/config is updated.
      *
      * @param gerritEvent
      * @return EiffelPluginConfiguration
@@ -79,10 +159,7 @@ public abstract class AbstractEventListener implements EventListener {
     public EiffelPluginConfiguration createPluginConfig(final Event gerritEvent) {
         ChangeEvent changeEvent = (ChangeEvent) gerritEvent;
         final Project.NameKey projectNameKey = changeEvent.getProjectNameKey();
-        final EiffelPluginConfiguration pluginConfig = new EiffelPluginConfiguration(pluginName,
-                projectNameKey, pluginConfigFactory);
-        pluginConfig.setPluginDirectoryPath(pluginDirectoryPath);
-        return pluginConfig;
+        return projectConfigurationCache.get(projectNameKey);
     }
 
     /**
@@ -111,11 +188,93 @@ public abstract class AbstractEventListener implements EventListener {
         return isEiffelEventSendingEnabled;
     }
 
+    /**
+     * Hands the Gerrit event over to the sender queue.
+     *
+     * @param gerritEvent
+     */
+    protected void dispatchGerritEvent(final Event gerritEvent) {
+        messageQueueHandler.dispatch(gerritEvent, this::processGerritEvent);
+    }
+
+    /**
+     * Publishes the Eiffel event. With the outbox enabled the event is written to it and published
+     * by the outbox drainer thread. Otherwise it is published in a batch if batch publishing is
+     * enabled and through the RetryScheduler if not. Events that keep failing end up in the dead
+     * letter store, the Gerrit event is not processed again.
+     *
+     * @param eiffelEvent
+     * @param pluginConfig
+     */
+    protected void sendEiffelEvent(final EiffelEvent eiffelEvent, final EiffelPluginConfiguration pluginConfig) {
+        final long startNanos = System.nanoTime();
+        try {
+            handOver(eiffelEvent, pluginConfig);
+        } finally {
+            recordStage(Stage.SEND, startNanos);
+        }
+    }
+
+    /**
+     * Records the time of a stage of processing a Gerrit event.
+     *
+     * @param stage
+     * @param startNanos value of System.nanoTime() when the stage started
+     */
+    protected void recordStage(final Stage stage, final long startNanos) {
+        metrics.recordStage(stage, startNanos);
+    }
+
+    /**
+     * Key that identifies the Gerrit event when Gerrit delivers it again, null to never treat the
+     * event as a duplicate.
+     *
+     * @param gerritEvent
+     * @return key
+     */
+    protected String getDeduplicationKey(final Event gerritEvent) {
+        return null;
+    }
+
     protected abstract boolean isExpectedGerritEvent(Event gerritEvent);
 
     protected abstract void prepareAndSendEiffelEvent(Event gerritEvent,
             EiffelPluginConfiguration pluginConfig);
 
+    private void handOver(final EiffelEvent eiffelEvent, final EiffelPluginConfiguration pluginConfig) {
+        if (eiffelEventOutbox.isEnabled()) {
+            eiffelEventOutbox.add(eiffelEvent, pluginConfig);
+            return;
+        }
+        if (batchingPublisher.isEnabled()) {
+            batchingPublisher.publish(eiffelEvent, pluginConfig);
+            return;
+        }
+
+        retryScheduler.publish(eiffelEvent, pluginConfig);
+    }
+
+    private boolean isFirstDelivery(final Event gerritEvent) {
+        if (!deduplicationIndex.isEnabled()) {
+            return true;
+        }
+
+        final String deduplicationKey = getDeduplicationKey(gerritEvent);
+        if (deduplicationIndex.recordIfNew(deduplicationKey)) {
+            return true;
+        }
+
+        metrics.incrementDuplicateEvents();
+        LOGGER.info("Skipping Gerrit event '{}', it was delivered before.", deduplicationKey);
+        return false;
+    }
+
+    private void forgetDelivery(final Event gerritEvent) {
+        if (deduplicationIndex.isEnabled()) {
+            deduplicationIndex.forget(getDeduplicationKey(gerritEvent));
+        }
+    }
+
     private boolean isPluginEnabled(final EiffelPluginConfiguration pluginConfig,
             final String project) {
         if (!pluginConfig.isEnabled()) {
@@ -128,15 +287,30 @@ public abstract class AbstractEventListener implements EventListener {
         return true;
     }
 
+    /**
+     * Compiled branch filters by filter string, a changed filter in the project configuration
+     * simply gets compiled into a new entry. An invalid filter is not cached and fails every event.
+     *
+     * @param filter
+     * @return BranchFilter
+     */
+    private BranchFilter getBranchFilter(final String filter) {
+        BranchFilter branchFilter = branchFilters.getIfPresent(filter);
+        if (branchFilter == null) {
+            branchFilter = BranchFilter.compile(filter);
+            branchFilters.put(filter, branchFilter);
+        }
+        return branchFilter;
+    }
+
     private boolean isBranchNameInConfiguredFilter(final String branch, final String filter,
             final String project) {
-        final String[] filterList = filter.split("\\s+");
-        for (final String regExString : filterList) {
-            if (branch.matches(regExString)) {
-                return true;
-            }
+        final BranchFilter branchFilter = getBranchFilter(filter);
+        if (branchFilter.matches(branch)) {
+            return true;
         }
 
+        metrics.incrementFilteredEvents();
         LOGGER.debug(
                 "Branch '{}' does not match any configured filter for project '{}'.\nFilter: {}",
                 branch, project, filter);
@@ -25,7 +25,7 @@ import org.slf4j.LoggerFactory;
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
 import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeSubmittedEvent;
 import com.ericsson.gerrit.plugins.eiffel.events.generators.EiffelSourceChangeSubmittedEventGenerator;
-import com.ericsson.gerrit.plugins.eiffel.messaging.EiffelEventSender;
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics.Stage;
 import com.google.gerrit.extensions.annotations.PluginData;
 import com.google.gerrit.extensions.annotations.PluginName;
 import com.google.gerrit.server.events.ChangeMergedEvent;
@@ -52,6 +52,16 @@ public class ChangeMergedEventListener extends AbstractEventListener {
         return gerritEvent instanceof ChangeMergedEvent;
     }
 
+    /**
+     * A submit is identified by project and the commit it created on the branch.
+     */
+    @Override
+    protected String getDeduplicationKey(final Event gerritEvent) {
+        final ChangeMergedEvent changeMergedEvent = (ChangeMergedEvent) gerritEvent;
+        return String.format("%s:%s:%s", gerritEvent.getType(), changeMergedEvent.change.get().project,
+                changeMergedEvent.newRev);
+    }
+
     @Override
     protected void prepareAndSendEiffelEvent(Event gerritEvent,
             EiffelPluginConfiguration pluginConfig) {
@@ -59,9 +69,10 @@ public class ChangeMergedEventListener extends AbstractEventListener {
         LOGGER.info("ChangeMergedEvent recieved from Gerrit, "
                 + "preparing to send a SourceChangeSubmitted eiffel event.\n{}",
                 changeMergedEvent);
+        final long startNanos = System.nanoTime();
         EiffelSourceChangeSubmittedEvent eiffelEvent = EiffelSourceChangeSubmittedEventGenerator.generate(
                 changeMergedEvent, pluginConfig);
-        EiffelEventSender eiffelEventSender = new EiffelEventSender(pluginConfig);
-        eiffelEventSender.send(eiffelEvent);
+        recordStage(Stage.GENERATE, startNanos);
+        sendEiffelEvent(eiffelEvent, pluginConfig);
     }
 }
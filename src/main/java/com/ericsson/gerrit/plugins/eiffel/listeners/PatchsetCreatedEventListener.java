@@ -25,9 +25,10 @@ import org.slf4j.LoggerFactory;
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
 import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeCreatedEvent;
 import com.ericsson.gerrit.plugins.eiffel.events.generators.EiffelSourceChangeCreatedEventGenerator;
-import com.ericsson.gerrit.plugins.eiffel.messaging.EiffelEventSender;
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics.Stage;
 import com.google.gerrit.extensions.annotations.PluginData;
 import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.data.ChangeAttribute;
 import com.google.gerrit.server.events.Event;
 import com.google.gerrit.server.events.PatchSetCreatedEvent;
 import com.google.inject.Inject;
@@ -53,6 +54,17 @@ public class PatchsetCreatedEventListener extends AbstractEventListener {
         return gerritEvent instanceof PatchSetCreatedEvent;
     }
 
+    /**
+     * A patch set is identified by project, change number and patch set number.
+     */
+    @Override
+    protected String getDeduplicationKey(final Event gerritEvent) {
+        final PatchSetCreatedEvent patchSetCreatedEvent = (PatchSetCreatedEvent) gerritEvent;
+        final ChangeAttribute changeAttribute = patchSetCreatedEvent.change.get();
+        return String.format("%s:%s:%d:%d", gerritEvent.getType(), changeAttribute.project,
+                changeAttribute.number, patchSetCreatedEvent.patchSet.get().number);
+    }
+
     @Override
     protected void prepareAndSendEiffelEvent(Event gerritEvent,
             EiffelPluginConfiguration pluginConfig) {
@@ -61,10 +73,11 @@ public class PatchsetCreatedEventListener extends AbstractEventListener {
                 + "preparing to send a SourceChangeCreated eiffel event.\n{}",
                 patchSetCreatedEvent);
 
+        final long startNanos = System.nanoTime();
         EiffelSourceChangeCreatedEvent eiffelEvent = EiffelSourceChangeCreatedEventGenerator.generate(
                 patchSetCreatedEvent, pluginConfig);
-        EiffelEventSender eiffelEventSender = new EiffelEventSender(pluginConfig);
-        eiffelEventSender.send(eiffelEvent);
+        recordStage(Stage.GENERATE, startNanos);
+        sendEiffelEvent(eiffelEvent, pluginConfig);
 
     }
 
@@ -0,0 +1,78 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+/**
+ * Limits the number of concurrent requests to one REMReM endpoint with additive increase and
+ * multiplicative decrease. Every successful request raises the limit by 1/limit, so by about one
+ * per round of requests, every overloaded request multiplies it by the backoff ratio.
+ *
+ */
+public class AimdConcurrencyLimiter {
+    private static final double BACKOFF_RATIO = 0.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private int inFlight;
+
+    /**
+     * Constructor for the AimdConcurrencyLimiter class, the limit starts at its maximum.
+     *
+     * @param minLimit
+     * @param maxLimit
+     */
+    public AimdConcurrencyLimiter(final int minLimit, final int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = this.maxLimit;
+    }
+
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Ends a request without changing the limit.
+     */
+    public synchronized void release() {
+        inFlight--;
+    }
+
+    public synchronized void onSuccess() {
+        inFlight--;
+        limit = Math.min(maxLimit, limit + 1 / limit);
+    }
+
+    public synchronized void onOverload() {
+        inFlight--;
+        limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
@@ -0,0 +1,454 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Collects Eiffel events and publishes them to REMReM in batches, one request per REMReM URL,
+ * credentials and Eiffel event type. A batch is sent when it holds the maximum number of events or
+ * bytes, or when its oldest event has waited the maximum delay. Events that REMReM reports as
+ * failed with a retryable status are put back into a later batch, the rest of the batch is not
+ * sent again. Retried events wait the jittered backoff of the {@link RetryScheduler} before they
+ * join the next batch of their destination, events that still fail after the maximum number of
+ * attempts are moved to the {@link DeadLetterStore} under the project they were generated for. A
+ * batch for a REMReM endpoint that is failing or at its concurrency limit, see
+ * {@link RemremEndpoints}, is held back and sent after the maximum delay again.
+ *
+ */
+@Singleton
+public class BatchingEiffelEventPublisher implements LifecycleListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchingEiffelEventPublisher.class);
+    private static final String ENABLED = "remremBatchPublish";
+    private static final String MAX_EVENTS = "remremBatchMaxEvents";
+    private static final String MAX_BYTES = "remremBatchMaxBytes";
+    private static final String MAX_DELAY = "remremBatchMaxDelayMs";
+    private static final String MAX_ATTEMPTS = "remremBatchMaxAttempts";
+    public static final int DEFAULT_MAX_EVENTS = 50;
+    public static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+    public static final long DEFAULT_MAX_DELAY_MS = 100;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    private final EiffelEventSender eiffelEventSender;
+    private final DeadLetterStore deadLetterStore;
+    private final RemremEndpoints remremEndpoints;
+    private final RetryScheduler retryScheduler;
+    private final WorkQueue workQueue;
+    private final boolean enabled;
+    private final int maxEvents;
+    private final int maxBytes;
+    private final long maxDelayMs;
+    private final int maxAttempts;
+    private final Map<Destination, Batch> batches = new HashMap<>();
+    private final List<DelayedRetry> delayedRetries = new ArrayList<>();
+    private ScheduledExecutorService executor;
+
+    @Inject
+    public BatchingEiffelEventPublisher(final EiffelEventSender eiffelEventSender,
+            final DeadLetterStore deadLetterStore, final RemremEndpoints remremEndpoints,
+            final RetryScheduler retryScheduler, final WorkQueue workQueue, final PluginConfigFactory config,
+            @PluginName final String pluginName) {
+        this(eiffelEventSender, deadLetterStore, remremEndpoints, retryScheduler, workQueue,
+                config.getFromGerritConfig(pluginName, true));
+    }
+
+    private BatchingEiffelEventPublisher(final EiffelEventSender eiffelEventSender,
+            final DeadLetterStore deadLetterStore, final RemremEndpoints remremEndpoints,
+            final RetryScheduler retryScheduler, final WorkQueue workQueue, final PluginConfig pluginConfig) {
+        this(eiffelEventSender, deadLetterStore, remremEndpoints, retryScheduler, workQueue,
+                pluginConfig.getBoolean(ENABLED, false),
+                pluginConfig.getInt(MAX_EVENTS, DEFAULT_MAX_EVENTS), pluginConfig.getInt(MAX_BYTES, DEFAULT_MAX_BYTES),
+                pluginConfig.getLong(MAX_DELAY, DEFAULT_MAX_DELAY_MS),
+                pluginConfig.getInt(MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS));
+    }
+
+    /**
+     * Constructor for the BatchingEiffelEventPublisher class.
+     *
+     * @param eiffelEventSender
+     * @param deadLetterStore
+     * @param remremEndpoints
+     * @param retryScheduler gives the delay before a failed event is sent again
+     * @param workQueue used to create the thread that sends batches after the maximum delay
+     * @param enabled
+     * @param maxEvents
+     * @param maxBytes
+     * @param maxDelayMs
+     * @param maxAttempts number of times an event is sent before it is moved to the dead letters
+     */
+    public BatchingEiffelEventPublisher(final EiffelEventSender eiffelEventSender,
+            final DeadLetterStore deadLetterStore, final RemremEndpoints remremEndpoints,
+            final RetryScheduler retryScheduler, final WorkQueue workQueue, final boolean enabled,
+            final int maxEvents, final int maxBytes, final long maxDelayMs, final int maxAttempts) {
+        this.eiffelEventSender = eiffelEventSender;
+        this.deadLetterStore = deadLetterStore;
+        this.remremEndpoints = remremEndpoints;
+        this.retryScheduler = retryScheduler;
+        this.workQueue = workQueue;
+        this.enabled = enabled;
+        this.maxEvents = Math.max(1, maxEvents);
+        this.maxBytes = maxBytes;
+        this.maxDelayMs = maxDelayMs;
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    @Override
+    public void start() {
+        if (enabled) {
+            executor = workQueue.createQueue(1, "Eiffel Batch Publisher");
+        }
+    }
+
+    /**
+     * Sends all collected events before the plugin stops, including the ones waiting for a retry,
+     * then shuts down the thread so that no delayed send runs after the plugin stopped. Events that
+     * could still not be sent are moved to the dead letters.
+     */
+    @Override
+    public void stop() {
+        final ScheduledExecutorService currentExecutor = executor;
+        executor = null;
+        takeDelayedRetries().forEach(delayedRetry -> add(delayedRetry.destination, delayedRetry.pendingEvent, false));
+        flushAll();
+        if (currentExecutor != null) {
+            currentExecutor.shutdownNow();
+        }
+        final int deadLetterCount = moveBatchesToDeadLetters();
+        if (deadLetterCount > 0) {
+            LOGGER.warn("{} Eiffel events could not be published before the plugin stopped, they were moved to "
+                    + "the dead letters.", deadLetterCount);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Adds the Eiffel event to the batch of its destination. A full batch is sent by the calling
+     * thread.
+     *
+     * @param eiffelEvent
+     * @param pluginConfig
+     */
+    public void publish(final EiffelEvent eiffelEvent, final EiffelPluginConfiguration pluginConfig) {
+        publish(SerializedEiffelEvent.of(eiffelEvent), pluginConfig, result -> {
+        });
+    }
+
+    /**
+     * Adds the serialized Eiffel event to the batch of its destination. The callback gets the
+     * final result, once the event is published or dropped.
+     *
+     * @param eiffelEvent
+     * @param pluginConfig
+     * @param onCompletion
+     */
+    public void publish(final SerializedEiffelEvent eiffelEvent, final EiffelPluginConfiguration pluginConfig,
+            final Consumer<PublishResult> onCompletion) {
+        final Destination destination = new Destination(pluginConfig, eiffelEvent.getMsgType());
+        add(destination, new PendingEvent(eiffelEvent, pluginConfig.getProject(), 1, onCompletion), true);
+    }
+
+    /**
+     * Sends all collected events now, retryable failures are collected again.
+     */
+    public void flushAll() {
+        final List<Destination> destinations;
+        synchronized (batches) {
+            destinations = new ArrayList<>(batches.keySet());
+        }
+        destinations.forEach(this::flush);
+    }
+
+    /**
+     * Number of events waiting to be sent, including the ones waiting for a retry.
+     *
+     * @return int
+     */
+    public int getPendingCount() {
+        synchronized (batches) {
+            return batches.values().stream().mapToInt(batch -> batch.events.size()).sum() + delayedRetries.size();
+        }
+    }
+
+    private void add(final Destination destination, final PendingEvent pendingEvent, final boolean flushWhenFull) {
+        boolean isFull;
+        synchronized (batches) {
+            Batch batch = batches.get(destination);
+            if (batch == null) {
+                batch = new Batch();
+                batches.put(destination, batch);
+                batch.scheduledFlush = scheduleFlush(destination);
+            }
+            batch.events.add(pendingEvent);
+            batch.bytes += pendingEvent.bytes;
+            isFull = batch.events.size() >= maxEvents || batch.bytes >= maxBytes;
+        }
+
+        if (isFull && flushWhenFull) {
+            flush(destination);
+        }
+    }
+
+    private ScheduledFuture<?> scheduleFlush(final Destination destination) {
+        final ScheduledExecutorService currentExecutor = executor;
+        if (currentExecutor == null || maxDelayMs <= 0) {
+            return null;
+        }
+        return currentExecutor.schedule(() -> flush(destination), maxDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush(final Destination destination) {
+        final Batch batch;
+        synchronized (batches) {
+            batch = batches.remove(destination);
+        }
+        if (batch == null || batch.events.isEmpty()) {
+            return;
+        }
+        if (batch.scheduledFlush != null) {
+            batch.scheduledFlush.cancel(false);
+        }
+
+        final RemremEndpoint endpoint = remremEndpoints.get(destination.url);
+        final long startTime = endpoint.tryAcquire();
+        if (startTime < 0) {
+            LOGGER.debug("Holding back batch of {} {} events for {}", batch.events.size(), destination.msgType,
+                    destination.url);
+            batch.events.forEach(pendingEvent -> add(destination, pendingEvent, false));
+            return;
+        }
+
+        final List<SerializedEiffelEvent> eiffelEvents = new ArrayList<>(batch.events.size());
+        batch.events.forEach(pendingEvent -> eiffelEvents.add(pendingEvent.eiffelEvent));
+        List<PublishResult> results;
+        try {
+            results = eiffelEventSender.sendAll(destination.msgType, eiffelEvents, destination.pluginConfig);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to publish batch of {} {} events: {}\n{}", batch.events.size(),
+                    destination.msgType, e.getMessage(), e);
+            results = Collections.nCopies(batch.events.size(), new PublishResult(null, 0, e.getMessage()));
+        }
+
+        // The endpoint is only considered failing if no event of the batch got through.
+        final boolean batchFailed = results.stream().allMatch(PublishResult::isRetryable);
+        endpoint.release(startTime, batchFailed ? results.get(0) : new PublishResult(null, 200, null));
+
+        int published = 0;
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i).isPublished()) {
+                published++;
+                complete(batch.events.get(i), results.get(i));
+            } else {
+                retryOrDrop(destination, batch.events.get(i), results.get(i));
+            }
+        }
+        LOGGER.info("Published {} of {} {} events through {}", published, results.size(), destination.msgType,
+                destination.url);
+    }
+
+    private void retryOrDrop(final Destination destination, final PendingEvent pendingEvent,
+            final PublishResult result) {
+        if (!result.isRetryable()) {
+            LOGGER.error("REMReM rejected {} event: {}\n{}", destination.msgType, result, pendingEvent.eiffelEvent);
+            complete(pendingEvent, result);
+            return;
+        }
+        if (pendingEvent.attempt < maxAttempts) {
+            retryLater(destination, pendingEvent.nextAttempt(), retryScheduler.getBackoffDelayMs(pendingEvent.attempt));
+            return;
+        }
+        LOGGER.error("Moving {} event to the dead letters after {} attempts, REMReM responded: {}",
+                destination.msgType, pendingEvent.attempt, result);
+        deadLetterStore.add(pendingEvent.project, pendingEvent.eiffelEvent, result);
+        complete(pendingEvent, result);
+    }
+
+    /**
+     * Adds the event to a batch of its destination once the delay has passed. Without the thread,
+     * while the plugin stops, it is added right away.
+     */
+    private void retryLater(final Destination destination, final PendingEvent pendingEvent, final long delayMs) {
+        final ScheduledExecutorService currentExecutor = executor;
+        if (currentExecutor == null) {
+            add(destination, pendingEvent, false);
+            return;
+        }
+
+        final DelayedRetry delayedRetry = new DelayedRetry(destination, pendingEvent);
+        synchronized (batches) {
+            delayedRetries.add(delayedRetry);
+        }
+        try {
+            currentExecutor.schedule(() -> {
+                if (removeDelayedRetry(delayedRetry)) {
+                    add(destination, pendingEvent, true);
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            if (removeDelayedRetry(delayedRetry)) {
+                add(destination, pendingEvent, false);
+            }
+        }
+    }
+
+    private boolean removeDelayedRetry(final DelayedRetry delayedRetry) {
+        synchronized (batches) {
+            return delayedRetries.remove(delayedRetry);
+        }
+    }
+
+    private List<DelayedRetry> takeDelayedRetries() {
+        synchronized (batches) {
+            final List<DelayedRetry> taken = new ArrayList<>(delayedRetries);
+            delayedRetries.clear();
+            return taken;
+        }
+    }
+
+    private int moveBatchesToDeadLetters() {
+        final Map<Destination, Batch> takenBatches;
+        synchronized (batches) {
+            takenBatches = new HashMap<>(batches);
+            batches.clear();
+        }
+        final PublishResult lastResult = new PublishResult(null, 0, "The plugin stopped before the event was sent");
+        int deadLetterCount = 0;
+        for (Batch batch : takenBatches.values()) {
+            for (PendingEvent pendingEvent : batch.events) {
+                deadLetterStore.add(pendingEvent.project, pendingEvent.eiffelEvent, lastResult);
+                complete(pendingEvent, lastResult);
+                deadLetterCount++;
+            }
+        }
+        return deadLetterCount;
+    }
+
+    private static void complete(final PendingEvent pendingEvent, final PublishResult result) {
+        try {
+            pendingEvent.onCompletion.accept(result);
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to handle the result of publishing an Eiffel event: {}\n{}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * An event of a batch. Events of several projects can share a destination, the project is kept
+     * per event so that the dead letters are filed under the right one.
+     */
+    private static final class PendingEvent {
+        private final SerializedEiffelEvent eiffelEvent;
+        private final String project;
+        private final int bytes;
+        private final int attempt;
+        private final Consumer<PublishResult> onCompletion;
+
+        PendingEvent(final SerializedEiffelEvent eiffelEvent, final String project, final int attempt,
+                final Consumer<PublishResult> onCompletion) {
+            this.eiffelEvent = eiffelEvent;
+            this.project = project;
+            this.bytes = eiffelEvent.size();
+            this.attempt = attempt;
+            this.onCompletion = onCompletion;
+        }
+
+        PendingEvent nextAttempt() {
+            return new PendingEvent(eiffelEvent, project, attempt + 1, onCompletion);
+        }
+    }
+
+    private static final class DelayedRetry {
+        private final Destination destination;
+        private final PendingEvent pendingEvent;
+
+        DelayedRetry(final Destination destination, final PendingEvent pendingEvent) {
+            this.destination = destination;
+            this.pendingEvent = pendingEvent;
+        }
+    }
+
+    private static final class Batch {
+        private final List<PendingEvent> events = new ArrayList<>();
+        private int bytes;
+        private ScheduledFuture<?> scheduledFlush;
+    }
+
+    /**
+     * Events can share a request when they go to the same REMReM URL with the same credentials
+     * and have the same Eiffel event type.
+     */
+    private static final class Destination {
+        private final EiffelPluginConfiguration pluginConfig;
+        private final String url;
+        private final String username;
+        private final String password;
+        private final String msgType;
+
+        Destination(final EiffelPluginConfiguration pluginConfig, final String msgType) {
+            this.pluginConfig = pluginConfig;
+            this.url = pluginConfig.getRemremPublishURL();
+            this.username = pluginConfig.getRemremUsername();
+            this.password = pluginConfig.getRemremPassword();
+            this.msgType = msgType;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Destination)) {
+                return false;
+            }
+            final Destination that = (Destination) other;
+            return Objects.equals(url, that.url) && Objects.equals(username, that.username)
+                    && Objects.equals(password, that.password) && Objects.equals(msgType, that.msgType);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(url, username, password, msgType);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker for one REMReM endpoint. After a number of consecutive failures the circuit
+ * opens and no requests are let through for a while. After that a single trial request is let
+ * through, the circuit closes again if it succeeds and opens again if it fails.
+ *
+ */
+public class CircuitBreaker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openDurationMs;
+    private final LongSupplier clock;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    /**
+     * Constructor for the CircuitBreaker class.
+     *
+     * @param name used in log messages
+     * @param failureThreshold number of consecutive failures that open the circuit
+     * @param openDurationMs time the circuit stays open before a trial request is let through
+     * @param clock current time in milliseconds
+     */
+    public CircuitBreaker(final String name, final int failureThreshold, final long openDurationMs,
+            final LongSupplier clock) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDurationMs = openDurationMs;
+        this.clock = clock;
+    }
+
+    /**
+     * Whether a request may be sent now. In the half open state only one request is let through
+     * until its outcome is known.
+     *
+     * @return boolean
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN) {
+            if (getRemainingOpenMs() > 0) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) {
+                return false;
+            }
+            trialInFlight = true;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            LOGGER.info("REMReM endpoint {} is available again.", name);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                LOGGER.warn("REMReM endpoint {} failed {} times in a row, holding back events for {} ms.", name,
+                        consecutiveFailures, openDurationMs);
+            }
+            state = State.OPEN;
+            openedAt = clock.getAsLong();
+            trialInFlight = false;
+        }
+    }
+
+    /**
+     * Time left until a trial request is let through, 0 if the circuit is not open.
+     *
+     * @return milliseconds
+     */
+    public synchronized long getRemainingOpenMs() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openedAt + openDurationMs - clock.getAsLong());
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Keeps Eiffel events that could not be published within the maximum number of attempts in a
+ * file in the plugin data directory, one JSON object per line with the project, the last REMReM
+ * response and the event itself. The file is only appended to, it is up to an administrator to
+ * send the events again or remove them.
+ *
+ */
+@Singleton
+public class DeadLetterStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeadLetterStore.class);
+    private static final String DEAD_LETTER_FILE_NAME = "dead-letters.json";
+
+    private final Path deadLetterFile;
+
+    @Inject
+    public DeadLetterStore(@PluginData final File pluginDir) {
+        this.deadLetterFile = pluginDir.toPath().resolve(DEAD_LETTER_FILE_NAME);
+    }
+
+    /**
+     * Appends an Eiffel event to the dead letter file.
+     *
+     * @param project
+     * @param eiffelEvent
+     * @param lastResult the result of the last attempt to publish the event
+     */
+    public synchronized void add(final String project, final SerializedEiffelEvent eiffelEvent,
+            final PublishResult lastResult) {
+        try (BufferedWriter writer = Files.newBufferedWriter(deadLetterFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            final JsonWriter deadLetter = new JsonWriter(writer);
+            deadLetter.beginObject();
+            deadLetter.name("time").value(Instant.now().toString());
+            deadLetter.name("project").value(project);
+            deadLetter.name("statusCode").value(lastResult.getStatusCode());
+            deadLetter.name("message").value(lastResult.getMessage());
+            deadLetter.name("event").jsonValue(eiffelEvent.toString());
+            deadLetter.endObject();
+            deadLetter.flush();
+            writer.newLine();
+        } catch (IOException e) {
+            LOGGER.error("Failed to write dead letter, Eiffel event is lost: {}\n{}\n{}", e.getMessage(),
+                    eiffelEvent, e);
+        }
+    }
+
+    /**
+     * Reads back all dead letters.
+     *
+     * @return list of dead letters, oldest first
+     */
+    public synchronized List<JsonObject> readAll() {
+        final List<JsonObject> deadLetters = new ArrayList<>();
+        if (!Files.exists(deadLetterFile)) {
+            return deadLetters;
+        }
+        try {
+            for (String line : Files.readAllLines(deadLetterFile, StandardCharsets.UTF_8)) {
+                deadLetters.add(new JsonParser().parse(line).getAsJsonObject());
+            }
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            LOGGER.error("Failed to read dead letters: {}\n{}", e.getMessage(), e);
+        }
+        return deadLetters;
+    }
+
+    /**
+     * Counts the dead letters by their lines without parsing them.
+     *
+     * @return number of dead letters
+     */
+    public synchronized long size() {
+        if (!Files.exists(deadLetterFile)) {
+            return 0;
+        }
+        try (Stream<String> lines = Files.lines(deadLetterFile, StandardCharsets.UTF_8)) {
+            return lines.filter(line -> !line.isEmpty()).count();
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.error("Failed to count dead letters: {}\n{}", e.getMessage(), e);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Keeps generated Eiffel events in an {@link OutboxLog} in the plugin data directory until REMReM
+ * is done with them. The sender thread only appends the event to the memory mapped log, the
+ * "Eiffel Outbox Drainer" threads publish it and acknowledge it in the log once it is published,
+ * rejected or moved to the dead letters. There are as many drainer threads as sender threads, so
+ * appending to the log is the only step all events pass one at a time and a slow REMReM endpoint
+ * does not hold up the events of the others. Events that were not done with when Gerrit stopped or
+ * crashed stay in the log and are sent again when the
+ * {@link com.ericsson.gerrit.plugins.eiffel.handlers.MessageQueueHandler} starts, so every event
+ * is published at least once.
+ *
+ */
+@Singleton
+public class EiffelEventOutbox implements LifecycleListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EiffelEventOutbox.class);
+    private static final String ENABLED = "outboxEnabled";
+    private static final String SEGMENT_SIZE = "outboxSegmentSize";
+    private static final String SYNC_INTERVAL = "outboxSyncIntervalMs";
+    private static final String THREADS = "senderThreadPoolSize";
+    private static final String OUTBOX_DIRECTORY = "outbox";
+    private static final String PROJECT = "project";
+    private static final String EVENT = "event";
+    private static final long NOT_IN_OUTBOX = 0;
+    private static final long DRAIN_TIMEOUT_MS = 10000;
+    private static final int DEFAULT_DRAINER_THREADS = 1;
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final long DEFAULT_SYNC_INTERVAL_MS = 1000;
+
+    private final File outboxDirectory;
+    private final String pluginName;
+    private final PluginConfigFactory pluginConfigFactory;
+    private final RetryScheduler retryScheduler;
+    private final BatchingEiffelEventPublisher batchingPublisher;
+    private final WorkQueue workQueue;
+    private final boolean enabled;
+    private final int segmentSize;
+    private final long syncIntervalMs;
+    private final int drainerThreads;
+    private OutboxLog outboxLog;
+    private volatile ScheduledExecutorService executor;
+    private ScheduledFuture<?> scheduledSync;
+
+    @Inject
+    public EiffelEventOutbox(@PluginData final File pluginDir, @PluginName final String pluginName,
+            final PluginConfigFactory config, final RetryScheduler retryScheduler,
+            final BatchingEiffelEventPublisher batchingPublisher, final WorkQueue workQueue) {
+        this(pluginDir, pluginName, config, retryScheduler, batchingPublisher, workQueue,
+                config.getFromGerritConfig(pluginName, true));
+    }
+
+    private EiffelEventOutbox(final File pluginDir, final String pluginName, final PluginConfigFactory config,
+            final RetryScheduler retryScheduler, final BatchingEiffelEventPublisher batchingPublisher,
+            final WorkQueue workQueue, final PluginConfig pluginConfig) {
+        this(pluginDir, pluginName, config, retryScheduler, batchingPublisher, workQueue,
+                pluginConfig.getBoolean(ENABLED, false), pluginConfig.getInt(SEGMENT_SIZE, DEFAULT_SEGMENT_SIZE),
+                pluginConfig.getLong(SYNC_INTERVAL, DEFAULT_SYNC_INTERVAL_MS),
+                pluginConfig.getInt(THREADS, DEFAULT_DRAINER_THREADS));
+    }
+
+    /**
+     * Constructor for the EiffelEventOutbox class.
+     *
+     * @param pluginDir
+     * @param pluginName
+     * @param config used to read the project configuration of replayed events
+     * @param retryScheduler
+     * @param batchingPublisher
+     * @param workQueue
+     * @param enabled
+     * @param segmentSize size of an outbox segment file in bytes
+     * @param syncIntervalMs how often the outbox is forced to disk, 0 leaves it to the OS
+     * @param drainerThreads number of threads publishing the events of the outbox
+     */
+    public EiffelEventOutbox(final File pluginDir, final String pluginName, final PluginConfigFactory config,
+            final RetryScheduler retryScheduler, final BatchingEiffelEventPublisher batchingPublisher,
+            final WorkQueue workQueue, final boolean enabled, final int segmentSize, final long syncIntervalMs,
+            final int drainerThreads) {
+        this.outboxDirectory = new File(pluginDir, OUTBOX_DIRECTORY);
+        this.pluginName = pluginName;
+        this.pluginConfigFactory = config;
+        this.retryScheduler = retryScheduler;
+        this.batchingPublisher = batchingPublisher;
+        this.workQueue = workQueue;
+        this.enabled = enabled;
+        this.segmentSize = segmentSize;
+        this.syncIntervalMs = syncIntervalMs;
+        this.drainerThreads = Math.max(1, drainerThreads);
+    }
+
+    /**
+     * Opens the outbox log and starts the drainer threads. Called by whichever of this class and
+     * the MessageQueueHandler is started first.
+     */
+    @Override
+    public synchronized void start() {
+        if (!enabled || executor != null) {
+            return;
+        }
+        try {
+            outboxLog = new OutboxLog(outboxDirectory, segmentSize);
+        } catch (IOException e) {
+            LOGGER.error("Failed to open the Eiffel event outbox, events are sent without it: {}\n{}",
+                    e.getMessage(), e);
+            return;
+        }
+
+        executor = workQueue.createQueue(drainerThreads, "Eiffel Outbox Drainer");
+        if (syncIntervalMs > 0) {
+            scheduledSync = executor.scheduleWithFixedDelay(this::sync, syncIntervalMs, syncIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Lets the drainer threads hand over the events it holds and sends the collected batches, then
+     * forces the outbox to disk. Events that are not sent yet are sent on the next start,
+     * acknowledgements that arrive after the outbox closed are ignored.
+     */
+    @Override
+    public synchronized void stop() {
+        if (scheduledSync != null) {
+            scheduledSync.cancel(false);
+            scheduledSync = null;
+        }
+        final ScheduledExecutorService currentExecutor = executor;
+        executor = null;
+        if (currentExecutor != null) {
+            shutDown(currentExecutor);
+            batchingPublisher.flushAll();
+        }
+        if (outboxLog == null) {
+            return;
+        }
+        final long pendingCount = outboxLog.getPendingCount();
+        if (pendingCount > 0) {
+            LOGGER.info("{} Eiffel events are kept in the outbox until the next start.", pendingCount);
+        }
+        try {
+            outboxLog.close();
+        } catch (IOException e) {
+            LOGGER.error("Failed to close the Eiffel event outbox: {}\n{}", e.getMessage(), e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled && executor != null;
+    }
+
+    /**
+     * Writes the Eiffel event to the outbox and hands it to the drainer threads for publishing. If
+     * the outbox stopped in the meantime the event is published by the calling thread without it.
+     *
+     * @param eiffelEvent
+     * @param pluginConfig
+     */
+    public void add(final EiffelEvent eiffelEvent, final EiffelPluginConfiguration pluginConfig) {
+        final SerializedEiffelEvent serializedEvent = SerializedEiffelEvent.of(eiffelEvent);
+        synchronized (this) {
+            if (executor != null) {
+                drain(append(toRecord(pluginConfig.getProject(), serializedEvent)), serializedEvent, pluginConfig);
+                return;
+            }
+        }
+        LOGGER.warn("Eiffel outbox is not running, the event is sent without it.");
+        publish(outboxLog, NOT_IN_OUTBOX, serializedEvent, pluginConfig);
+    }
+
+    /**
+     * Sends the events that were left in the outbox when the plugin last stopped.
+     *
+     * @return number of events handed to the drainer threads
+     */
+    public int replay() {
+        start();
+        if (!isEnabled()) {
+            return 0;
+        }
+
+        final List<OutboxRecord> records = outboxLog.takeUnacknowledgedRecords();
+        records.forEach(this::replay);
+        return records.size();
+    }
+
+    /**
+     * Forces appended events and the acknowledged position to disk.
+     */
+    public void sync() {
+        try {
+            outboxLog.sync();
+        } catch (IOException e) {
+            LOGGER.error("Failed to sync the Eiffel event outbox: {}\n{}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Number of events in the outbox that REMReM has not accepted yet.
+     *
+     * @return long
+     */
+    public long getPendingCount() {
+        return outboxLog == null ? 0 : outboxLog.getPendingCount();
+    }
+
+    private void replay(final OutboxRecord record) {
+        try {
+            final JsonObject json = new JsonParser().parse(new String(record.getPayload(), StandardCharsets.UTF_8))
+                                                    .getAsJsonObject();
+            final Project.NameKey project = new Project.NameKey(json.get(PROJECT).getAsString());
+            final EiffelPluginConfiguration pluginConfig = new EiffelPluginConfiguration(pluginName, project,
+                    pluginConfigFactory);
+            drain(record.getSequence(), SerializedEiffelEvent.of(json.getAsJsonObject(EVENT)), pluginConfig);
+        } catch (RuntimeException | ExceptionInInitializerError e) {
+            LOGGER.error("Dropping Eiffel event from the outbox that can not be sent anymore: {}\n{}",
+                    e.getMessage(), e);
+            outboxLog.acknowledge(record.getSequence());
+        }
+    }
+
+    /**
+     * The outbox record, {"project":...,"event":...}, written around the serialized event bytes.
+     */
+    private static byte[] toRecord(final String project, final SerializedEiffelEvent eiffelEvent) {
+        final byte[] prefix = String.format("{\"%s\":%s,\"%s\":", PROJECT, new JsonPrimitive(project), EVENT)
+                                    .getBytes(StandardCharsets.UTF_8);
+        final byte[] eventBytes = eiffelEvent.getBytes();
+        final byte[] record = new byte[prefix.length + eventBytes.length + 1];
+        System.arraycopy(prefix, 0, record, 0, prefix.length);
+        System.arraycopy(eventBytes, 0, record, prefix.length, eventBytes.length);
+        record[record.length - 1] = '}';
+        return record;
+    }
+
+    private long append(final byte[] payload) {
+        try {
+            return outboxLog.append(payload);
+        } catch (IOException e) {
+            LOGGER.error("Failed to write Eiffel event to the outbox, it is sent without it: {}\n{}",
+                    e.getMessage(), e);
+            return NOT_IN_OUTBOX;
+        }
+    }
+
+    private void drain(final long sequence, final SerializedEiffelEvent eiffelEvent,
+            final EiffelPluginConfiguration pluginConfig) {
+        final ScheduledExecutorService currentExecutor = executor;
+        if (currentExecutor == null) {
+            LOGGER.warn("Eiffel outbox is not running, the event is sent on the next start.");
+            return;
+        }
+        final OutboxLog currentLog = outboxLog;
+        currentExecutor.execute(() -> publish(currentLog, sequence, eiffelEvent, pluginConfig));
+    }
+
+    /**
+     * Publishes the event, the sequence number is acknowledged in the log the event was written to
+     * and not in the log of a later start.
+     */
+    private void publish(final OutboxLog log, final long sequence, final SerializedEiffelEvent eiffelEvent,
+            final EiffelPluginConfiguration pluginConfig) {
+        if (batchingPublisher.isEnabled()) {
+            batchingPublisher.publish(eiffelEvent, pluginConfig, result -> acknowledge(log, sequence));
+        } else {
+            retryScheduler.publish(eiffelEvent, pluginConfig, result -> acknowledge(log, sequence));
+        }
+    }
+
+    private static void acknowledge(final OutboxLog log, final long sequence) {
+        if (log != null && sequence != NOT_IN_OUTBOX) {
+            log.acknowledge(sequence);
+        }
+    }
+
+    /**
+     * Lets the drainer threads finish the events it holds, events it did not get to stay in the log
+     * and are sent on the next start.
+     *
+     * @param currentExecutor
+     */
+    private static void shutDown(final ScheduledExecutorService currentExecutor) {
+        currentExecutor.shutdown();
+        try {
+            if (currentExecutor.awaitTermination(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final List<Runnable> cancelledTasks = currentExecutor.shutdownNow();
+        LOGGER.warn("Eiffel outbox drainer did not finish within {} ms, {} events are sent after the next start.",
+                DRAIN_TIMEOUT_MS, cancelledTasks == null ? 0 : cancelledTasks.size());
+    }
+}
@@ -1,25 +1,322 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
 package com.ericsson.gerrit.plugins.eiffel.messaging;
 
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
 import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
-import com.google.gson.Gson;
+import com.ericsson.gerrit.plugins.eiffel.messaging.EiffelEventSerializer.JsonBuffer;
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics;
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics.PublishOutcome;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
 
-public class EiffelEventSender {
+/**
+ * Publishes Eiffel events through the REMReM generate and publish endpoint. One sender is shared
+ * by all listeners, its HTTP client keeps connections to the REMReM hosts alive in a bounded pool
+ * so that consecutive events reuse the same connection and TLS session.
+ *
+ */
+@Singleton
+public class EiffelEventSender implements LifecycleListener {
 
-    private final Gson gson = new Gson();
-    private final EiffelPluginConfiguration pluginConfig;
+    private static final Logger LOGGER = LoggerFactory.getLogger(EiffelEventSender.class);
+    private static final String GENERATE_AND_PUBLISH = "generateAndPublish";
+    private static final String MESSAGE_PROTOCOL = "eiffelsemantics";
+    private static final String CONNECT_TIMEOUT = "remremConnectTimeoutMs";
+    private static final String READ_TIMEOUT = "remremReadTimeoutMs";
+    private static final String MAX_CONNECTIONS = "remremMaxConnections";
+    private static final String MAX_CONNECTIONS_PER_HOST = "remremMaxConnectionsPerHost";
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 5000;
+    private static final int DEFAULT_READ_TIMEOUT_MS = 30000;
+    private static final int DEFAULT_MAX_CONNECTIONS = 20;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 5;
+
+    private final EiffelMetrics metrics;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+
+    @Inject
+    public EiffelEventSender(final PluginConfigFactory config, @PluginName final String pluginName,
+            final EiffelMetrics metrics) {
+        this(config.getFromGerritConfig(pluginName, true), metrics);
+    }
+
+    private EiffelEventSender(final PluginConfig pluginConfig, final EiffelMetrics metrics) {
+        this(pluginConfig.getInt(CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT_MS),
+                pluginConfig.getInt(READ_TIMEOUT, DEFAULT_READ_TIMEOUT_MS),
+                pluginConfig.getInt(MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS),
+                pluginConfig.getInt(MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_CONNECTIONS_PER_HOST), metrics);
+    }
 
-    public EiffelEventSender(EiffelPluginConfiguration pluginConfig) {
-        this.pluginConfig = pluginConfig;
+    /**
+     * Constructor for the EiffelEventSender class.
+     *
+     * @param connectTimeoutMs
+     * @param readTimeoutMs
+     * @param maxConnections total number of connections kept to all REMReM hosts
+     * @param maxConnectionsPerHost number of connections kept to one REMReM host
+     */
+    public EiffelEventSender(final int connectTimeoutMs, final int readTimeoutMs, final int maxConnections,
+            final int maxConnectionsPerHost) {
+        this(connectTimeoutMs, readTimeoutMs, maxConnections, maxConnectionsPerHost, EiffelMetrics.DISABLED);
     }
 
-    public void send(EiffelEvent eiffelEvent) {
-        JsonObject eiffelEventJson = gson.toJsonTree(eiffelEvent).getAsJsonObject();
-        System.out.println("Event to send::: " + eiffelEventJson.toString());
-        System.out.println("REMReM URL ::: " + pluginConfig.getRemremPublishURL());
-        // TODO Implement event sending using REMReM details from pluginconfig.
+    /**
+     * Constructor for the EiffelEventSender class recording requests in the given metrics.
+     *
+     * @param connectTimeoutMs
+     * @param readTimeoutMs
+     * @param maxConnections total number of connections kept to all REMReM hosts
+     * @param maxConnectionsPerHost number of connections kept to one REMReM host
+     * @param metrics
+     */
+    public EiffelEventSender(final int connectTimeoutMs, final int readTimeoutMs, final int maxConnections,
+            final int maxConnectionsPerHost, final EiffelMetrics metrics) {
+        this.metrics = metrics;
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        this.connectionManager.setMaxTotal(maxConnections);
+        this.connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+        final RequestConfig requestConfig = RequestConfig.custom()
+                                                         .setConnectTimeout(connectTimeoutMs)
+                                                         .setConnectionRequestTimeout(connectTimeoutMs)
+                                                         .setSocketTimeout(readTimeoutMs)
+                                                         .build();
+        this.httpClient = HttpClients.custom()
+                                     .setConnectionManager(connectionManager)
+                                     .setDefaultRequestConfig(requestConfig)
+                                     .disableCookieManagement()
+                                     .build();
     }
 
+    @Override
+    public void start() {
+        // The HTTP client is ready from construction, connections are opened on first use.
+    }
+
+    @Override
+    public void stop() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close REMReM HTTP client: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Sends the Eiffel event to the REMReM publish service configured for the project.
+     *
+     * @param eiffelEvent
+     * @param pluginConfig
+     * @return the id of the published Eiffel event, or null if REMReM did not return one
+     * @throws IOException if the event could not be published
+     */
+    public String send(final EiffelEvent eiffelEvent, final EiffelPluginConfiguration pluginConfig)
+            throws IOException {
+        final String msgType = eiffelEvent.getMsgParams().meta.type;
+        final PublishResult result;
+        try (JsonBuffer body = EiffelEventSerializer.write(eiffelEvent)) {
+            result = toPublishResult(msgType, post(msgType, body.toEntity(), pluginConfig), pluginConfig);
+        }
+        if (!result.isPublished()) {
+            throw new IOException(String.format("REMReM responded %d to %s: %s", result.getStatusCode(),
+                    msgType, result.getMessage()));
+        }
+        return result.getEventId();
+    }
+
+    /**
+     * Sends a serialized Eiffel event to the REMReM publish service configured for the project.
+     *
+     * @param eiffelEvent
+     * @param pluginConfig
+     * @return the result of publishing, with the response body as message if REMReM refused it
+     * @throws IOException if REMReM could not be reached
+     */
+    public PublishResult publish(final SerializedEiffelEvent eiffelEvent,
+            final EiffelPluginConfiguration pluginConfig) throws IOException {
+        final String msgType = eiffelEvent.getMsgType();
+        return toPublishResult(msgType, post(msgType, eiffelEvent.toEntity(), pluginConfig), pluginConfig);
+    }
+
+    /**
+     * Sends several Eiffel events of the same type to REMReM in one request, as a JSON array.
+     *
+     * @param msgType type of all the Eiffel events
+     * @param eiffelEvents
+     * @param pluginConfig
+     * @return one result per Eiffel event, in the order they were given
+     * @throws IOException if REMReM could not be reached or did not report a result per event
+     */
+    public List<PublishResult> sendAll(final String msgType, final List<SerializedEiffelEvent> eiffelEvents,
+            final EiffelPluginConfiguration pluginConfig) throws IOException {
+        final Response response;
+        try (JsonBuffer body = EiffelEventSerializer.writeArray(eiffelEvents)) {
+            response = post(msgType, body.toEntity(), pluginConfig);
+        }
+
+        final List<PublishResult> results = parseResults(response.body);
+        if (results.size() != eiffelEvents.size()) {
+            throw new IOException(String.format("REMReM responded %d with %d results to %d %s events: %s",
+                    response.statusCode, results.size(), eiffelEvents.size(), msgType, response.body));
+        }
+        return results;
+    }
 
+    /**
+     * Number of connections to REMReM kept open and currently unused.
+     *
+     * @return int
+     */
+    public int getIdleConnectionCount() {
+        return connectionManager.getTotalStats().getAvailable();
+    }
+
+    private URI buildPublishUri(final String publishUrl, final String msgType) throws IOException {
+        String baseUrl = publishUrl.trim();
+        while (baseUrl.endsWith("/")) {
+            baseUrl = baseUrl.substring(0, baseUrl.length() - 1);
+        }
+        if (!baseUrl.endsWith(GENERATE_AND_PUBLISH)) {
+            baseUrl = baseUrl + "/" + GENERATE_AND_PUBLISH;
+        }
+
+        try {
+            return new URIBuilder(baseUrl).setParameter("mp", MESSAGE_PROTOCOL)
+                                          .setParameter("msgType", msgType)
+                                          .build();
+        } catch (URISyntaxException e) {
+            throw new IOException(String.format("Invalid REMReM publish URL '%s': %s", publishUrl,
+                    e.getMessage()), e);
+        }
+    }
+
+    private static void addBasicAuth(final HttpPost request, final String username, final String password) {
+        if (username == null || username.isEmpty()) {
+            return;
+        }
+        final String credentials = username + ":" + (password == null ? "" : password);
+        request.setHeader(HttpHeaders.AUTHORIZATION,
+                "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private Response post(final String msgType, final HttpEntity body, final EiffelPluginConfiguration pluginConfig)
+            throws IOException {
+        final HttpPost request = new HttpPost(buildPublishUri(pluginConfig.getRemremPublishURL(), msgType));
+        request.setEntity(body);
+        addBasicAuth(request, pluginConfig.getRemremUsername(), pluginConfig.getRemremPassword());
+
+        final long startNanos = System.nanoTime();
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            final String responseBody = response.getEntity() == null ? ""
+                    : EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+            final int statusCode = response.getStatusLine().getStatusCode();
+            metrics.recordPublish(pluginConfig.getRemremPublishURL(), PublishOutcome.of(statusCode), startNanos);
+            return new Response(statusCode, responseBody);
+        } catch (IOException e) {
+            metrics.recordPublish(pluginConfig.getRemremPublishURL(), PublishOutcome.UNREACHABLE, startNanos);
+            throw e;
+        }
+    }
+
+    private static PublishResult toPublishResult(final String msgType, final Response response,
+            final EiffelPluginConfiguration pluginConfig) {
+        if (!response.isSuccess()) {
+            return new PublishResult(null, response.statusCode, response.body);
+        }
+
+        final List<PublishResult> results = parseResults(response.body);
+        final String eventId = results.isEmpty() ? null : results.get(0).getEventId();
+        LOGGER.info("Published {} with id '{}' through {}", msgType, eventId, pluginConfig.getRemremPublishURL());
+        return new PublishResult(eventId, response.statusCode, null);
+    }
+
+    /**
+     * Reads the per event results REMReM returns, either as an "events" array in an object or as
+     * a plain array.
+     */
+    private static List<PublishResult> parseResults(final String responseBody) {
+        final List<PublishResult> results = new ArrayList<>();
+        try {
+            JsonElement response = new JsonParser().parse(responseBody);
+            if (response.isJsonObject() && response.getAsJsonObject().has("events")) {
+                response = response.getAsJsonObject().get("events");
+            }
+            if (!response.isJsonArray()) {
+                return results;
+            }
+            for (JsonElement element : response.getAsJsonArray()) {
+                final JsonObject result = element.getAsJsonObject();
+                results.add(new PublishResult(getString(result, "id"),
+                        result.has("status_code") ? result.get("status_code").getAsInt() : 0,
+                        getString(result, "message")));
+            }
+        } catch (JsonSyntaxException | IllegalStateException | UnsupportedOperationException e) {
+            LOGGER.debug("Could not read results from REMReM response: {}", e.getMessage());
+            results.clear();
+        }
+        return results;
+    }
+
+    private static String getString(final JsonObject jsonObject, final String memberName) {
+        final JsonElement member = jsonObject.get(memberName);
+        return member == null || member.isJsonNull() ? null : member.getAsString();
+    }
+
+    private static final class Response {
+        private final int statusCode;
+        private final String body;
+
+        Response(final int statusCode, final String body) {
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+
+        boolean isSuccess() {
+            return statusCode >= 200 && statusCode < 300;
+        }
+    }
 }
@@ -0,0 +1,208 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes Eiffel events as UTF-8 JSON straight into reusable byte buffers, without building a
+ * JsonObject tree or an intermediate String. Buffers are taken from a small pool and must be
+ * closed to give them back once the request using them has been sent.
+ *
+ */
+public final class EiffelEventSerializer {
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final int MAX_POOLED_BUFFERS = 16;
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+    private static final Deque<JsonBuffer> POOL = new ArrayDeque<>();
+
+    /**
+     * Same output as JsonElement.toString() of the serialized tree, which is what REMReM used to
+     * receive.
+     */
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+    private EiffelEventSerializer() {
+    }
+
+    /**
+     * Writes an Eiffel event model.
+     *
+     * @param eiffelEvent
+     * @return JsonBuffer holding the serialized event, to be closed after use
+     */
+    public static JsonBuffer write(final EiffelEvent eiffelEvent) {
+        final JsonBuffer buffer = borrow();
+        try {
+            final JsonWriter jsonWriter = buffer.newJsonWriter();
+            GSON.toJson(eiffelEvent, eiffelEvent.getClass(), jsonWriter);
+            buffer.flushWriter();
+            return buffer;
+        } catch (RuntimeException e) {
+            buffer.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes an Eiffel event that is already serialized to a JSON tree.
+     *
+     * @param eiffelEventJson
+     * @return JsonBuffer holding the serialized event, to be closed after use
+     */
+    public static JsonBuffer write(final JsonElement eiffelEventJson) {
+        final JsonBuffer buffer = borrow();
+        try {
+            final JsonWriter jsonWriter = buffer.newJsonWriter();
+            GSON.toJson(eiffelEventJson, jsonWriter);
+            buffer.flushWriter();
+            return buffer;
+        } catch (RuntimeException e) {
+            buffer.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes several serialized Eiffel events as one JSON array, copying their bytes as they are.
+     *
+     * @param eiffelEvents
+     * @return JsonBuffer holding the JSON array, to be closed after use
+     */
+    public static JsonBuffer writeArray(final List<SerializedEiffelEvent> eiffelEvents) {
+        final JsonBuffer buffer = borrow();
+        buffer.write('[');
+        for (int i = 0; i < eiffelEvents.size(); i++) {
+            if (i > 0) {
+                buffer.write(',');
+            }
+            final byte[] eiffelEvent = eiffelEvents.get(i).getBytes();
+            buffer.write(eiffelEvent, 0, eiffelEvent.length);
+        }
+        buffer.write(']');
+        return buffer;
+    }
+
+    /**
+     * Number of buffers currently kept for reuse.
+     *
+     * @return int
+     */
+    static int getPooledBufferCount() {
+        synchronized (POOL) {
+            return POOL.size();
+        }
+    }
+
+    private static JsonBuffer borrow() {
+        JsonBuffer buffer;
+        synchronized (POOL) {
+            buffer = POOL.poll();
+        }
+        if (buffer == null) {
+            buffer = new JsonBuffer();
+        }
+        buffer.inUse = true;
+        return buffer;
+    }
+
+    private static void release(final JsonBuffer buffer) {
+        if (buffer.capacity() > MAX_POOLED_BUFFER_SIZE) {
+            return;
+        }
+        buffer.reset();
+        synchronized (POOL) {
+            if (POOL.size() < MAX_POOLED_BUFFERS) {
+                POOL.push(buffer);
+            }
+        }
+    }
+
+    /**
+     * A growable byte buffer with the UTF-8 writer that fills it. The bytes can be handed to the
+     * HTTP client without copying.
+     *
+     */
+    public static final class JsonBuffer extends ByteArrayOutputStream implements AutoCloseable {
+        private final Writer writer = new OutputStreamWriter(this, StandardCharsets.UTF_8);
+        private boolean inUse;
+
+        private JsonBuffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        /**
+         * Request body backed by the buffer, valid until the buffer is closed.
+         *
+         * @return HttpEntity
+         */
+        public HttpEntity toEntity() {
+            return new ByteArrayEntity(buf, 0, count, ContentType.APPLICATION_JSON);
+        }
+
+        /**
+         * Gives the buffer back to the pool, it must not be used afterwards.
+         */
+        @Override
+        public void close() {
+            if (inUse) {
+                inUse = false;
+                release(this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return new String(buf, 0, count, StandardCharsets.UTF_8);
+        }
+
+        private JsonWriter newJsonWriter() {
+            return new JsonWriter(writer);
+        }
+
+        private void flushWriter() {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                throw new JsonIOException(e);
+            }
+        }
+
+        private int capacity() {
+            return buf.length;
+        }
+    }
+}
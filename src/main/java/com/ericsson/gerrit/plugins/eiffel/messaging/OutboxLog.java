@@ -0,0 +1,323 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append only log of outgoing Eiffel events, split in memory mapped segment files. Every record
+ * gets a sequence number and is written as [length][crc32][sequence][payload], the length is
+ * written last so that a record is only seen once it is complete. Appending only writes to the
+ * mapped segment, it is forced to disk by {@link #sync()}.
+ *
+ * Sent records are acknowledged by sequence number. The highest sequence number up to which all
+ * records are acknowledged is kept in a checkpoint file, segments that only hold acknowledged
+ * records are deleted. When the log is opened the records after the checkpoint are read back,
+ * records acknowledged out of order may therefore be read back once more.
+ *
+ */
+public class OutboxLog implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutboxLog.class);
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "acknowledged";
+    private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+    private final SortedSet<Long> acknowledgedAhead = new TreeSet<>();
+    private final List<OutboxRecord> unacknowledgedRecords = new ArrayList<>();
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segment;
+    private long nextSequence;
+    private long acknowledged;
+    private boolean checkpointDirty;
+    private boolean closed;
+
+    /**
+     * Opens the log in the given directory, reading back the records that were not acknowledged.
+     *
+     * @param directory
+     * @param segmentSize size of a segment file in bytes
+     * @throws IOException
+     */
+    public OutboxLog(final File directory, final int segmentSize) throws IOException {
+        this.directory = directory.toPath();
+        this.segmentSize = segmentSize;
+        Files.createDirectories(this.directory);
+        this.acknowledged = readCheckpoint();
+        this.nextSequence = acknowledged + 1;
+        recover();
+    }
+
+    /**
+     * Appends a record to the log.
+     *
+     * @param payload
+     * @return sequence number of the record
+     * @throws IOException
+     */
+    public synchronized long append(final byte[] payload) throws IOException {
+        if (closed) {
+            throw new IOException("Outbox log is closed.");
+        }
+        final int recordSize = HEADER_SIZE + payload.length;
+        if (segment == null || segment.remaining() < recordSize) {
+            openSegment(nextSequence, Math.max(segmentSize, recordSize));
+        }
+
+        final long sequence = nextSequence++;
+        final int position = segment.position();
+        segment.position(position + Integer.BYTES);
+        segment.putInt(checksum(sequence, payload));
+        segment.putLong(sequence);
+        segment.put(payload);
+        segment.putInt(position, payload.length);
+        return sequence;
+    }
+
+    /**
+     * Marks the record as sent. The checkpoint is written by the next {@link #sync()}. Records
+     * acknowledged after the log was closed are ignored, since the log of the next start may
+     * already own the directory, and are sent once more.
+     *
+     * @param sequence
+     */
+    public synchronized void acknowledge(final long sequence) {
+        if (closed || sequence <= acknowledged) {
+            return;
+        }
+        acknowledgedAhead.add(sequence);
+        while (acknowledgedAhead.remove(acknowledged + 1)) {
+            acknowledged++;
+            checkpointDirty = true;
+        }
+    }
+
+    /**
+     * Forces the current segment to disk, writes the checkpoint and deletes segments that only
+     * hold acknowledged records.
+     *
+     * @throws IOException
+     */
+    public synchronized void sync() throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+        if (!checkpointDirty) {
+            return;
+        }
+        writeCheckpoint();
+        deleteAcknowledgedSegments();
+    }
+
+    /**
+     * Hands out the records that were not acknowledged when the log was opened, only once.
+     *
+     * @return records in the order they were appended
+     */
+    public synchronized List<OutboxRecord> takeUnacknowledgedRecords() {
+        final List<OutboxRecord> records = new ArrayList<>(unacknowledgedRecords);
+        unacknowledgedRecords.clear();
+        return records;
+    }
+
+    /**
+     * Number of records appended and not yet acknowledged.
+     *
+     * @return long
+     */
+    public synchronized long getPendingCount() {
+        return nextSequence - 1 - acknowledged - acknowledgedAhead.size();
+    }
+
+    /**
+     * Number of segment files on disk.
+     *
+     * @return int
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            sync();
+        } finally {
+            closed = true;
+            closeSegment();
+        }
+    }
+
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> segmentFiles = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path segmentFile : segmentFiles) {
+                final String fileName = segmentFile.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(),
+                            fileName.length() - SEGMENT_SUFFIX.length())), segmentFile);
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("Ignoring unknown file in outbox: {}", segmentFile);
+                }
+            }
+        }
+
+        for (Map.Entry<Long, Path> entry : segments.entrySet()) {
+            final boolean isLastSegment = entry.getKey().equals(segments.lastKey());
+            readSegment(entry.getValue(), isLastSegment);
+        }
+        if (!unacknowledgedRecords.isEmpty()) {
+            LOGGER.info("Found {} unsent Eiffel events in the outbox.", unacknowledgedRecords.size());
+        }
+    }
+
+    /**
+     * Reads the records of a segment up to the first incomplete or corrupt one. The last segment
+     * is kept open for appending, anything after its last complete record is cleared.
+     */
+    private void readSegment(final Path segmentFile, final boolean isLastSegment) throws IOException {
+        final FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        final MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, channel.size());
+        while (buffer.remaining() >= HEADER_SIZE) {
+            final int position = buffer.position();
+            final int length = buffer.getInt();
+            final int checksum = buffer.getInt();
+            final long sequence = buffer.getLong();
+            if (length <= 0 || length > buffer.remaining()) {
+                buffer.position(position);
+                break;
+            }
+            final byte[] payload = new byte[length];
+            buffer.get(payload);
+            if (checksum != checksum(sequence, payload)) {
+                LOGGER.warn("Outbox segment {} has a corrupt record at offset {}, ignoring the rest of it.",
+                        segmentFile, position);
+                buffer.position(position);
+                break;
+            }
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            if (sequence > acknowledged) {
+                unacknowledgedRecords.add(new OutboxRecord(sequence, payload));
+            }
+        }
+
+        if (!isLastSegment) {
+            channel.close();
+            return;
+        }
+        final int end = buffer.position();
+        if (buffer.remaining() >= Integer.BYTES && buffer.getInt(end) != 0) {
+            final byte[] zeros = new byte[Math.min(buffer.remaining(), 64 * 1024)];
+            while (buffer.hasRemaining()) {
+                buffer.put(zeros, 0, Math.min(zeros.length, buffer.remaining()));
+            }
+            buffer.position(end);
+        }
+        segmentChannel = channel;
+        segment = buffer;
+    }
+
+    private void openSegment(final long firstSequence, final int size) throws IOException {
+        closeSegment();
+        final Path segmentFile = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence,
+                SEGMENT_SUFFIX));
+        segmentChannel = FileChannel.open(segmentFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        segment = segmentChannel.map(MapMode.READ_WRITE, 0, size);
+        segments.put(firstSequence, segmentFile);
+    }
+
+    private void closeSegment() throws IOException {
+        if (segment != null) {
+            segment.force();
+            segment = null;
+        }
+        if (segmentChannel != null) {
+            segmentChannel.close();
+            segmentChannel = null;
+        }
+    }
+
+    /**
+     * A segment can go when the next one starts right after the acknowledged sequence number or
+     * earlier. The segment that is written to is always kept.
+     */
+    private void deleteAcknowledgedSegments() throws IOException {
+        while (segments.size() > 1) {
+            final Map.Entry<Long, Path> oldestSegment = segments.firstEntry();
+            if (segments.higherKey(oldestSegment.getKey()) - 1 > acknowledged) {
+                return;
+            }
+            Files.deleteIfExists(oldestSegment.getValue());
+            segments.remove(oldestSegment.getKey());
+            LOGGER.debug("Deleted sent outbox segment {}", oldestSegment.getValue());
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        final Path checkpointFile = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(checkpointFile)) {
+            return 0;
+        }
+        final byte[] content = Files.readAllBytes(checkpointFile);
+        return content.length == Long.BYTES ? ByteBuffer.wrap(content).getLong() : 0;
+    }
+
+    private void writeCheckpoint() throws IOException {
+        final Path checkpointFile = directory.resolve(CHECKPOINT_FILE);
+        final Path tmpFile = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.write(tmpFile, ByteBuffer.allocate(Long.BYTES).putLong(acknowledged).array());
+        Files.move(tmpFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        checkpointDirty = false;
+    }
+
+    private static int checksum(final long sequence, final byte[] payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(Long.BYTES).putLong(sequence).array());
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
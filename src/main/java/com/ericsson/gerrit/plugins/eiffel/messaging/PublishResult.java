@@ -0,0 +1,70 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+/**
+ * Outcome of publishing one Eiffel event, as reported by REMReM.
+ *
+ */
+public class PublishResult {
+    private final String eventId;
+    private final int statusCode;
+    private final String message;
+
+    public PublishResult(final String eventId, final int statusCode, final String message) {
+        this.eventId = eventId;
+        this.statusCode = statusCode;
+        this.message = message;
+    }
+
+    /**
+     * Id of the published Eiffel event, null if REMReM did not return one.
+     *
+     * @return String
+     */
+    public String getEventId() {
+        return eventId;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isPublished() {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    /**
+     * Whether publishing the event again may succeed. Server errors, throttling and unknown
+     * outcomes are retryable, a rejected event is not.
+     *
+     * @return boolean
+     */
+    public boolean isRetryable() {
+        return !isPublished() && (statusCode >= 500 || statusCode == 429 || statusCode == 0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d %s", statusCode, message);
+    }
+}
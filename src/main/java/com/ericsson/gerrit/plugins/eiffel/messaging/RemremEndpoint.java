@@ -0,0 +1,96 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Health of one REMReM publish URL, a {@link CircuitBreaker} in front of an
+ * {@link AimdConcurrencyLimiter}. Failed and slow requests lower the number of concurrent
+ * requests, repeated failures stop requests for a while.
+ *
+ */
+public class RemremEndpoint {
+    private final CircuitBreaker circuitBreaker;
+    private final AimdConcurrencyLimiter concurrencyLimiter;
+    private final long slowCallMs;
+    private final LongSupplier clock;
+
+    public RemremEndpoint(final CircuitBreaker circuitBreaker, final AimdConcurrencyLimiter concurrencyLimiter,
+            final long slowCallMs, final LongSupplier clock) {
+        this.circuitBreaker = circuitBreaker;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.slowCallMs = slowCallMs;
+        this.clock = clock;
+    }
+
+    /**
+     * Reserves room for a request.
+     *
+     * @return the time the request started, or -1 if the request may not be sent now
+     */
+    public long tryAcquire() {
+        if (!concurrencyLimiter.tryAcquire()) {
+            return -1;
+        }
+        if (!circuitBreaker.allowRequest()) {
+            concurrencyLimiter.release();
+            return -1;
+        }
+        return clock.getAsLong();
+    }
+
+    /**
+     * Records the outcome of a request started by {@link #tryAcquire()}. Rejected events say
+     * nothing bad about the endpoint and count as a success.
+     *
+     * @param startTime
+     * @param result
+     */
+    public void release(final long startTime, final PublishResult result) {
+        if (result.isRetryable()) {
+            circuitBreaker.onFailure();
+            concurrencyLimiter.onOverload();
+            return;
+        }
+
+        circuitBreaker.onSuccess();
+        if (clock.getAsLong() - startTime > slowCallMs) {
+            concurrencyLimiter.onOverload();
+        } else {
+            concurrencyLimiter.onSuccess();
+        }
+    }
+
+    /**
+     * Time after which it makes sense to try again, 0 if only the concurrency limit was reached.
+     *
+     * @return milliseconds
+     */
+    public long getRetryDelayMs() {
+        return circuitBreaker.getRemainingOpenMs();
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public AimdConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Keeps a {@link RemremEndpoint} per REMReM publish URL, so that a slow or failing REMReM
+ * instance only holds back the events of the projects that publish to it.
+ *
+ */
+@Singleton
+public class RemremEndpoints {
+    private static final String FAILURE_THRESHOLD = "remremCircuitFailureThreshold";
+    private static final String OPEN_DURATION = "remremCircuitOpenMs";
+    private static final String MIN_IN_FLIGHT = "remremMinInFlightPerDestination";
+    private static final String MAX_IN_FLIGHT = "remremMaxInFlightPerDestination";
+    private static final String SLOW_CALL = "remremSlowCallMs";
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_DURATION_MS = 30000;
+    public static final int DEFAULT_MIN_IN_FLIGHT = 1;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    public static final long DEFAULT_SLOW_CALL_MS = 5000;
+
+    private final int failureThreshold;
+    private final long openDurationMs;
+    private final int minInFlight;
+    private final int maxInFlight;
+    private final long slowCallMs;
+    private final LongSupplier clock;
+    private final Map<String, RemremEndpoint> endpoints = new ConcurrentHashMap<>();
+
+    @Inject
+    public RemremEndpoints(final PluginConfigFactory config, @PluginName final String pluginName) {
+        this(config.getFromGerritConfig(pluginName, true));
+    }
+
+    private RemremEndpoints(final PluginConfig pluginConfig) {
+        this(pluginConfig.getInt(FAILURE_THRESHOLD, DEFAULT_FAILURE_THRESHOLD),
+                pluginConfig.getLong(OPEN_DURATION, DEFAULT_OPEN_DURATION_MS),
+                pluginConfig.getInt(MIN_IN_FLIGHT, DEFAULT_MIN_IN_FLIGHT),
+                pluginConfig.getInt(MAX_IN_FLIGHT, DEFAULT_MAX_IN_FLIGHT),
+                pluginConfig.getLong(SLOW_CALL, DEFAULT_SLOW_CALL_MS), System::currentTimeMillis);
+    }
+
+    /**
+     * Constructor for the RemremEndpoints class.
+     *
+     * @param failureThreshold consecutive failures that stop requests to an endpoint
+     * @param openDurationMs time requests to a failing endpoint are stopped
+     * @param minInFlight lowest concurrency limit of an endpoint
+     * @param maxInFlight highest concurrency limit of an endpoint
+     * @param slowCallMs requests taking longer lower the concurrency limit
+     * @param clock current time in milliseconds
+     */
+    public RemremEndpoints(final int failureThreshold, final long openDurationMs, final int minInFlight,
+            final int maxInFlight, final long slowCallMs, final LongSupplier clock) {
+        this.failureThreshold = failureThreshold;
+        this.openDurationMs = openDurationMs;
+        this.minInFlight = minInFlight;
+        this.maxInFlight = maxInFlight;
+        this.slowCallMs = slowCallMs;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the endpoint for the REMReM publish URL, creating it on first use.
+     *
+     * @param url
+     * @return RemremEndpoint
+     */
+    public RemremEndpoint get(final String url) {
+        return endpoints.computeIfAbsent(url, key -> new RemremEndpoint(
+                new CircuitBreaker(key, failureThreshold, openDurationMs, clock),
+                new AimdConcurrencyLimiter(minInFlight, maxInFlight), slowCallMs, clock));
+    }
+}
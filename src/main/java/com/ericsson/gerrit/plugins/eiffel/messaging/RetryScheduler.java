@@ -0,0 +1,302 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
+import com.ericsson.gerrit.plugins.eiffel.handlers.MessageQueueHandler;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+
+/**
+ * Publishes single Eiffel events and retries the ones REMReM failed with a retryable status. The
+ * first attempt is made by the calling thread, retries are scheduled on the "Eiffel Message
+ * Sender" pool of the {@link MessageQueueHandler} after a random delay between 0 and an
+ * exponentially growing ceiling ("full jitter"), so that a REMReM outage does not hold up the
+ * sender threads and retries of many events are spread out. A retried event is not ordered with
+ * the events published after it, REMReM may receive the later events of a branch first.
+ *
+ * Every REMReM URL has its own circuit breaker and concurrency limit, see {@link RemremEndpoints}.
+ * Events for an endpoint that is failing or at its limit wait on the pool without using up an
+ * attempt, so that the sender threads stay free for healthy endpoints. Events that still fail
+ * after the maximum number of attempts are moved to the {@link DeadLetterStore}, so are the events
+ * still waiting for a retry when the plugin stops.
+ *
+ */
+@Singleton
+public class RetryScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RetryScheduler.class);
+    private static final String MAX_ATTEMPTS = "remremRetryMaxAttempts";
+    private static final String INITIAL_DELAY = "remremRetryInitialDelayMs";
+    private static final String MAX_DELAY = "remremRetryMaxDelayMs";
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final long DEFAULT_INITIAL_DELAY_MS = 1000;
+    public static final long DEFAULT_MAX_DELAY_MS = 60000;
+    private static final int MAX_BACKOFF_SHIFT = 30;
+
+    private final Supplier<ScheduledExecutorService> executorSupplier;
+    private final EiffelEventSender eiffelEventSender;
+    private final DeadLetterStore deadLetterStore;
+    private final RemremEndpoints remremEndpoints;
+    private final int maxAttempts;
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+    private final Set<ScheduledRetry> scheduledRetries = ConcurrentHashMap.newKeySet();
+
+    @Inject
+    public RetryScheduler(final Provider<MessageQueueHandler> messageQueueHandler,
+            final EiffelEventSender eiffelEventSender, final DeadLetterStore deadLetterStore,
+            final RemremEndpoints remremEndpoints, final PluginConfigFactory config,
+            @PluginName final String pluginName) {
+        this(() -> messageQueueHandler.get().getPool(), eiffelEventSender, deadLetterStore, remremEndpoints,
+                config.getFromGerritConfig(pluginName, true));
+    }
+
+    private RetryScheduler(final Supplier<ScheduledExecutorService> executorSupplier,
+            final EiffelEventSender eiffelEventSender, final DeadLetterStore deadLetterStore,
+            final RemremEndpoints remremEndpoints, final PluginConfig pluginConfig) {
+        this(executorSupplier, eiffelEventSender, deadLetterStore, remremEndpoints,
+                pluginConfig.getInt(MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS),
+                pluginConfig.getLong(INITIAL_DELAY, DEFAULT_INITIAL_DELAY_MS),
+                pluginConfig.getLong(MAX_DELAY, DEFAULT_MAX_DELAY_MS));
+    }
+
+    /**
+     * Constructor for the RetryScheduler class.
+     *
+     * @param executorSupplier gives the executor retries are scheduled on, null once it is stopped
+     * @param eiffelEventSender
+     * @param deadLetterStore
+     * @param remremEndpoints
+     * @param maxAttempts number of times an event is sent before it is moved to the dead letters
+     * @param initialDelayMs ceiling of the delay before the first retry
+     * @param maxDelayMs highest ceiling of the delay before a retry
+     */
+    public RetryScheduler(final Supplier<ScheduledExecutorService> executorSupplier,
+            final EiffelEventSender eiffelEventSender, final DeadLetterStore deadLetterStore,
+            final RemremEndpoints remremEndpoints, final int maxAttempts, final long initialDelayMs,
+            final long maxDelayMs) {
+        this.executorSupplier = executorSupplier;
+        this.eiffelEventSender = eiffelEventSender;
+        this.deadLetterStore = deadLetterStore;
+        this.remremEndpoints = remremEndpoints;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialDelayMs = Math.max(1, initialDelayMs);
+        this.maxDelayMs = Math.max(this.initialDelayMs, maxDelayMs);
+    }
+
+    /**
+     * Publishes the Eiffel event, retrying it if needed.
+     *
+     * @param eiffelEvent
+     * @param pluginConfig
+     */
+    public void publish(final EiffelEvent eiffelEvent, final EiffelPluginConfiguration pluginConfig) {
+        publish(SerializedEiffelEvent.of(eiffelEvent), pluginConfig, result -> {
+        });
+    }
+
+    /**
+     * Publishes the serialized Eiffel event, retrying it if needed. The callback gets the final
+     * result once the event is published, rejected or moved to the dead letters.
+     *
+     * @param eiffelEvent
+     * @param pluginConfig
+     * @param onCompletion
+     */
+    public void publish(final SerializedEiffelEvent eiffelEvent, final EiffelPluginConfiguration pluginConfig,
+            final Consumer<PublishResult> onCompletion) {
+        attempt(new PendingPublish(eiffelEvent, pluginConfig, onCompletion, 1));
+    }
+
+    /**
+     * Number of events waiting for a retry.
+     *
+     * @return int
+     */
+    public int getScheduledCount() {
+        return scheduledRetries.size();
+    }
+
+    /**
+     * Moves the events waiting for a retry to the dead letters, called once the pool the retries
+     * are scheduled on is shut down so that their tasks do not run anymore.
+     *
+     * @return number of events moved to the dead letters
+     */
+    public int moveScheduledToDeadLetters() {
+        final List<ScheduledRetry> takenRetries = new ArrayList<>();
+        for (ScheduledRetry scheduledRetry : scheduledRetries) {
+            if (scheduledRetries.remove(scheduledRetry)) {
+                takenRetries.add(scheduledRetry);
+            }
+        }
+        takenRetries.forEach(scheduledRetry -> moveToDeadLetters(scheduledRetry.pendingPublish,
+                scheduledRetry.lastResult, "because the plugin stopped before its retry"));
+        return takenRetries.size();
+    }
+
+    /**
+     * Delay before the retry following the given attempt, a random value up to
+     * min(maxDelay, initialDelay * 2^(attempt - 1)).
+     *
+     * @param attempt
+     * @return delay in milliseconds
+     */
+    long getBackoffDelayMs(final int attempt) {
+        final int shift = Math.min(Math.max(attempt - 1, 0), MAX_BACKOFF_SHIFT);
+        final long ceiling = Math.min(maxDelayMs, initialDelayMs << shift);
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private void attempt(final PendingPublish pendingPublish) {
+        final RemremEndpoint endpoint = remremEndpoints.get(pendingPublish.pluginConfig.getRemremPublishURL());
+        final long startTime = endpoint.tryAcquire();
+        if (startTime < 0) {
+            // Waiting for the endpoint does not count as an attempt.
+            schedule(pendingPublish, endpoint.getRetryDelayMs() + getBackoffDelayMs(1),
+                    new PublishResult(null, 0, "REMReM endpoint is unavailable or at its concurrency limit"));
+            return;
+        }
+
+        PublishResult result;
+        try {
+            result = eiffelEventSender.publish(pendingPublish.eiffelEvent, pendingPublish.pluginConfig);
+        } catch (IOException | RuntimeException e) {
+            result = new PublishResult(null, 0, e.getMessage());
+        }
+        endpoint.release(startTime, result);
+
+        if (!result.isRetryable()) {
+            if (!result.isPublished()) {
+                LOGGER.error("REMReM rejected {} event: {}\n{}", pendingPublish.getMsgType(), result,
+                        pendingPublish.eiffelEvent);
+            }
+            complete(pendingPublish, result);
+            return;
+        }
+        if (pendingPublish.attempt >= maxAttempts) {
+            moveToDeadLetters(pendingPublish, result,
+                    String.format("after %d attempts", pendingPublish.attempt));
+            return;
+        }
+
+        final long delayMs = getBackoffDelayMs(pendingPublish.attempt);
+        LOGGER.warn("Publishing {} event failed on attempt {} of {}, retrying in {} ms: {}",
+                pendingPublish.getMsgType(), pendingPublish.attempt, maxAttempts, delayMs, result);
+        schedule(pendingPublish.nextAttempt(), delayMs, result);
+    }
+
+    private void schedule(final PendingPublish pendingPublish, final long delayMs, final PublishResult lastResult) {
+        final ScheduledExecutorService executor = executorSupplier.get();
+        if (executor == null) {
+            moveToDeadLetters(pendingPublish, lastResult, "because the plugin is stopping");
+            return;
+        }
+
+        final ScheduledRetry scheduledRetry = new ScheduledRetry(pendingPublish, lastResult);
+        scheduledRetries.add(scheduledRetry);
+        try {
+            executor.schedule(scheduledRetry, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            if (scheduledRetries.remove(scheduledRetry)) {
+                moveToDeadLetters(pendingPublish, lastResult, "because the plugin is stopping");
+            }
+        }
+    }
+
+    private void moveToDeadLetters(final PendingPublish pendingPublish, final PublishResult lastResult,
+            final String reason) {
+        LOGGER.error("Moving {} event to the dead letters {}, REMReM responded: {}", pendingPublish.getMsgType(),
+                reason, lastResult);
+        deadLetterStore.add(pendingPublish.pluginConfig.getProject(), pendingPublish.eiffelEvent, lastResult);
+        complete(pendingPublish, lastResult);
+    }
+
+    private static void complete(final PendingPublish pendingPublish, final PublishResult result) {
+        try {
+            pendingPublish.onCompletion.accept(result);
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to handle the result of publishing an Eiffel event: {}\n{}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * A retry waiting on the pool. It is kept until it runs so that it can be moved to the dead
+     * letters instead if the pool stops first, whichever takes it from the set handles it.
+     */
+    private final class ScheduledRetry implements Runnable {
+        private final PendingPublish pendingPublish;
+        private final PublishResult lastResult;
+
+        ScheduledRetry(final PendingPublish pendingPublish, final PublishResult lastResult) {
+            this.pendingPublish = pendingPublish;
+            this.lastResult = lastResult;
+        }
+
+        @Override
+        public void run() {
+            if (scheduledRetries.remove(this)) {
+                attempt(pendingPublish);
+            }
+        }
+    }
+
+    private static final class PendingPublish {
+        private final SerializedEiffelEvent eiffelEvent;
+        private final EiffelPluginConfiguration pluginConfig;
+        private final Consumer<PublishResult> onCompletion;
+        private final int attempt;
+
+        PendingPublish(final SerializedEiffelEvent eiffelEvent, final EiffelPluginConfiguration pluginConfig,
+                final Consumer<PublishResult> onCompletion, final int attempt) {
+            this.eiffelEvent = eiffelEvent;
+            this.pluginConfig = pluginConfig;
+            this.onCompletion = onCompletion;
+            this.attempt = attempt;
+        }
+
+        PendingPublish nextAttempt() {
+            return new PendingPublish(eiffelEvent, pluginConfig, onCompletion, attempt + 1);
+        }
+
+        String getMsgType() {
+            return eiffelEvent.getMsgType();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
+import com.ericsson.gerrit.plugins.eiffel.messaging.EiffelEventSerializer.JsonBuffer;
+import com.google.gson.JsonObject;
+
+/**
+ * An Eiffel event serialized once to UTF-8 JSON, together with its Eiffel event type. The same
+ * bytes are written to the outbox, batched into REMReM requests, retried and kept as dead letter
+ * without building a JsonObject tree or serializing the event again.
+ *
+ */
+public final class SerializedEiffelEvent {
+    private final String msgType;
+    private final byte[] json;
+
+    private SerializedEiffelEvent(final String msgType, final byte[] json) {
+        this.msgType = msgType;
+        this.json = json;
+    }
+
+    /**
+     * Serializes an Eiffel event model.
+     *
+     * @param eiffelEvent
+     * @return SerializedEiffelEvent
+     */
+    public static SerializedEiffelEvent of(final EiffelEvent eiffelEvent) {
+        try (JsonBuffer buffer = EiffelEventSerializer.write(eiffelEvent)) {
+            return new SerializedEiffelEvent(eiffelEvent.getMsgParams().meta.type, buffer.toByteArray());
+        }
+    }
+
+    /**
+     * Serializes an Eiffel event that was read back as a JSON tree, for example from the outbox.
+     *
+     * @param eiffelEventJson
+     * @return SerializedEiffelEvent
+     */
+    public static SerializedEiffelEvent of(final JsonObject eiffelEventJson) {
+        final String msgType = eiffelEventJson.getAsJsonObject("msgParams")
+                                              .getAsJsonObject("meta")
+                                              .get("type")
+                                              .getAsString();
+        try (JsonBuffer buffer = EiffelEventSerializer.write(eiffelEventJson)) {
+            return new SerializedEiffelEvent(msgType, buffer.toByteArray());
+        }
+    }
+
+    /**
+     * The Eiffel event type, used as msgType towards REMReM.
+     *
+     * @return String
+     */
+    public String getMsgType() {
+        return msgType;
+    }
+
+    /**
+     * Number of UTF-8 bytes of the serialized event.
+     *
+     * @return int
+     */
+    public int size() {
+        return json.length;
+    }
+
+    /**
+     * Request body holding the event.
+     *
+     * @return HttpEntity
+     */
+    public HttpEntity toEntity() {
+        return new ByteArrayEntity(json, ContentType.APPLICATION_JSON);
+    }
+
+    /**
+     * The serialized event itself, not copied, it must not be modified.
+     *
+     * @return byte[]
+     */
+    byte[] getBytes() {
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return new String(json, StandardCharsets.UTF_8);
+    }
+}
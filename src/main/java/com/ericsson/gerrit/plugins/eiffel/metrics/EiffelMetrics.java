@@ -0,0 +1,203 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import com.ericsson.gerrit.plugins.eiffel.handlers.Table;
+import com.google.common.base.Supplier;
+import com.google.gerrit.extensions.registration.RegistrationHandle;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Counter2;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.metrics.Timer2;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Metrics of the event pipeline, registered with Gerrit's MetricMaker under the plugin name.
+ * Classes that are not created by Guice use {@link #DISABLED} until they are handed the metrics
+ * of the running plugin.
+ *
+ */
+@Singleton
+public class EiffelMetrics {
+    public static final EiffelMetrics DISABLED = new EiffelMetrics(new DisabledMetricMaker());
+
+    /**
+     * Stages a Gerrit event goes through in the listeners.
+     */
+    public enum Stage {
+        CONFIGURATION, FILTER, GENERATE, SEND
+    }
+
+    public enum StateOperation {
+        READ, WRITE
+    }
+
+    public enum PublishOutcome {
+        PUBLISHED, REJECTED, FAILED, UNREACHABLE;
+
+        /**
+         * Outcome of a REMReM request that got a response.
+         *
+         * @param statusCode
+         * @return PublishOutcome
+         */
+        public static PublishOutcome of(final int statusCode) {
+            if (statusCode >= 200 && statusCode < 300) {
+                return PUBLISHED;
+            }
+            if (statusCode >= 400 && statusCode < 500) {
+                return REJECTED;
+            }
+            return FAILED;
+        }
+    }
+
+    private final MetricMaker metricMaker;
+    private final Timer1<Stage> stageLatency;
+    private final Counter0 filteredEvents;
+    private final Counter0 coalescedPatchSets;
+    private final Counter0 duplicateEvents;
+    private final Timer2<Table, StateOperation> stateLatency;
+    private final Timer1<String> publishLatency;
+    private final Counter2<String, PublishOutcome> publishCount;
+
+    @Inject
+    public EiffelMetrics(final MetricMaker metricMaker) {
+        this.metricMaker = metricMaker;
+        final Field<String> urlField = Field.ofString("url", "REMReM publish URL");
+        this.stageLatency = metricMaker.newTimer("listener/stage_latency",
+                latency("Time spent on each stage of processing a Gerrit event"), Field.ofEnum(Stage.class, "stage"));
+        this.filteredEvents = metricMaker.newCounter("listener/filtered_events",
+                new Description("Gerrit events not sent because their branch does not match the filter").setRate());
+        this.coalescedPatchSets = metricMaker.newCounter("listener/coalesced_patch_sets",
+                new Description("Patch sets not sent because a newer patch set of the change followed").setRate());
+        this.duplicateEvents = metricMaker.newCounter("listener/duplicate_events",
+                new Description("Gerrit events not sent because they were delivered before").setRate());
+        this.stateLatency = metricMaker.newTimer("state/latency",
+                latency("Time to read or write a last sent Eiffel event id in SQLite"),
+                Field.ofEnum(Table.class, "table"), Field.ofEnum(StateOperation.class, "operation"));
+        this.publishLatency = metricMaker.newTimer("publish/latency",
+                latency("Time of a REMReM generate and publish request"), urlField);
+        this.publishCount = metricMaker.newCounter("publish/count",
+                new Description("REMReM generate and publish requests by outcome").setRate(), urlField,
+                Field.ofEnum(PublishOutcome.class, "outcome"));
+    }
+
+    /**
+     * Records the time of a listener stage that started at startNanos.
+     *
+     * @param stage
+     * @param startNanos value of System.nanoTime() when the stage started
+     */
+    public void recordStage(final Stage stage, final long startNanos) {
+        stageLatency.record(stage, System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void incrementFilteredEvents() {
+        filteredEvents.increment();
+    }
+
+    public void incrementCoalescedPatchSets() {
+        coalescedPatchSets.increment();
+    }
+
+    public void incrementDuplicateEvents() {
+        duplicateEvents.increment();
+    }
+
+    /**
+     * Records the time of a state database access that started at startNanos.
+     *
+     * @param table
+     * @param operation
+     * @param startNanos value of System.nanoTime() when the access started
+     */
+    public void recordStateAccess(final Table table, final StateOperation operation, final long startNanos) {
+        stateLatency.record(table, operation, System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records a REMReM request that started at startNanos.
+     *
+     * @param publishUrl
+     * @param outcome
+     * @param startNanos value of System.nanoTime() when the request started
+     */
+    public void recordPublish(final String publishUrl, final PublishOutcome outcome, final long startNanos) {
+        publishLatency.record(publishUrl, System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        publishCount.increment(publishUrl, outcome);
+    }
+
+    /**
+     * Registers the gauges of the sender queue, they are read when the metrics are collected.
+     *
+     * @param queueDepth number of queued Gerrit events
+     * @param oldestEventAgeMs age of the oldest queued Gerrit event, 0 if the queue is empty
+     * @return handle that removes both gauges
+     */
+    public RegistrationHandle registerQueueGauges(final Supplier<Integer> queueDepth,
+            final Supplier<Long> oldestEventAgeMs) {
+        final RegistrationHandle depthGauge = metricMaker.newCallbackMetric("queue/depth", Integer.class,
+                new Description("Gerrit events waiting in the sender queue").setGauge(), queueDepth);
+        final RegistrationHandle ageGauge = metricMaker.newCallbackMetric("queue/oldest_event_age", Long.class,
+                new Description("Age of the oldest Gerrit event in the sender queue").setGauge()
+                        .setUnit(Units.MILLISECONDS),
+                oldestEventAgeMs);
+        return () -> {
+            depthGauge.remove();
+            ageGauge.remove();
+        };
+    }
+
+    /**
+     * Registers the gauges of the in memory event id cache of the StateHandler.
+     *
+     * @param hitCount lookups answered by the cache since the plugin started
+     * @param missCount lookups that went to the state store since the plugin started
+     * @param size number of cached event ids
+     * @return handle that removes all three gauges
+     */
+    public RegistrationHandle registerStateCacheGauges(final Supplier<Long> hitCount,
+            final Supplier<Long> missCount, final Supplier<Long> size) {
+        final RegistrationHandle hitGauge = metricMaker.newCallbackMetric("state/cache_hits", Long.class,
+                new Description("Last sent Eiffel event id lookups answered by the cache").setCumulative(),
+                hitCount);
+        final RegistrationHandle missGauge = metricMaker.newCallbackMetric("state/cache_misses", Long.class,
+                new Description("Last sent Eiffel event id lookups that went to the state store").setCumulative(),
+                missCount);
+        final RegistrationHandle sizeGauge = metricMaker.newCallbackMetric("state/cache_size", Long.class,
+                new Description("Last sent Eiffel event ids in the cache").setGauge(), size);
+        return () -> {
+            hitGauge.remove();
+            missGauge.remove();
+            sizeGauge.remove();
+        };
+    }
+
+    private static Description latency(final String description) {
+        return new Description(description).setCumulative().setUnit(Units.MILLISECONDS);
+    }
+}
@@ -0,0 +1,56 @@
+package com.ericsson.gerrit.plugins.eiffel.configuration;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+public class BranchFilterTest {
+
+    @Test
+    public void testLiteralBranchesMatchExactly() {
+        BranchFilter branchFilter = BranchFilter.compile("master  stable/v2\tfeature-x");
+
+        assertTrue(branchFilter.matches("master"));
+        assertTrue(branchFilter.matches("stable/v2"));
+        assertTrue(branchFilter.matches("feature-x"));
+        assertFalse(branchFilter.matches("master2"));
+        assertFalse(branchFilter.matches("stable"));
+    }
+
+    @Test
+    public void testRegularExpressionsMatchWholeBranch() {
+        BranchFilter branchFilter = BranchFilter.compile("nope release/.* (my-).*");
+
+        assertTrue(branchFilter.matches("release/1.0"));
+        assertTrue(branchFilter.matches("my-branch"));
+        assertFalse(branchFilter.matches("old-release/1.0"));
+        assertFalse(branchFilter.matches("nope-not"));
+    }
+
+    @Test
+    public void testDotIsAnyCharacterAsBefore() {
+        BranchFilter branchFilter = BranchFilter.compile("stable-2.14");
+
+        assertTrue(branchFilter.matches("stable-2.14"));
+        assertTrue(branchFilter.matches("stable-2x14"));
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void testInvalidPatternFails() {
+        BranchFilter.compile("master release/[");
+    }
+
+    @Test
+    public void testBackreferencesKeepTheirGroup() {
+        BranchFilter branchFilter = BranchFilter.compile("(a)b (x)y\\1 (?<v>[0-9])-\\k<v>");
+
+        assertTrue(branchFilter.matches("xyx"));
+        assertFalse(branchFilter.matches("xya"));
+        assertTrue(branchFilter.matches("1-1"));
+        assertFalse(branchFilter.matches("1-2"));
+        assertTrue(branchFilter.matches("ab"));
+    }
+}
@@ -0,0 +1,81 @@
+package com.ericsson.gerrit.plugins.eiffel.configuration;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+
+public class ProjectConfigurationCacheTest {
+    private static final String PLUGIN_NAME = "plugin";
+    private static final String PROJECT = "my-project";
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private Project.NameKey nameKey;
+    private PluginConfigFactory pluginConfigFactory;
+    private ProjectConfigurationCache cache;
+
+    @Before
+    public void init() throws Exception {
+        nameKey = new Project.NameKey(PROJECT);
+        pluginConfigFactory = mock(PluginConfigFactory.class);
+        PluginConfig pluginConfig = mock(PluginConfig.class);
+        when(pluginConfigFactory.getFromProjectConfig(nameKey, PLUGIN_NAME)).thenReturn(pluginConfig);
+        when(pluginConfig.getBoolean(EiffelPluginConfiguration.ENABLED, false)).thenReturn(true);
+        when(pluginConfig.getString(EiffelPluginConfiguration.REMREM_PUBLISH_URL)).thenReturn(
+                "https://localhost:8080/publish");
+        File pluginDir = testFolder.newFolder();
+        cache = new ProjectConfigurationCache(pluginConfigFactory, PLUGIN_NAME, pluginDir, 10);
+    }
+
+    @Test
+    public void testConfigurationIsReadOnce() throws Exception {
+        EiffelPluginConfiguration first = cache.get(nameKey);
+        EiffelPluginConfiguration second = cache.get(nameKey);
+
+        assertSame(first, second);
+        verify(pluginConfigFactory, times(1)).getFromProjectConfig(nameKey, PLUGIN_NAME);
+    }
+
+    @Test
+    public void testUpdateOfMetaConfigInvalidatesProject() throws Exception {
+        EiffelPluginConfiguration first = cache.get(nameKey);
+
+        cache.onGitReferenceUpdated(createEvent("refs/heads/master"));
+        assertSame(first, cache.get(nameKey));
+
+        cache.onGitReferenceUpdated(createEvent("refs/meta/config"));
+        assertNotSame(first, cache.get(nameKey));
+        verify(pluginConfigFactory, times(2)).getFromProjectConfig(nameKey, PLUGIN_NAME);
+    }
+
+    @Test(expected = ExceptionInInitializerError.class)
+    public void testIncompleteConfigurationIsNotCached() throws Exception {
+        PluginConfig incompleteConfig = mock(PluginConfig.class);
+        when(incompleteConfig.getBoolean(EiffelPluginConfiguration.ENABLED, false)).thenReturn(true);
+        when(pluginConfigFactory.getFromProjectConfig(nameKey, PLUGIN_NAME)).thenReturn(incompleteConfig);
+        cache.get(nameKey);
+    }
+
+    private GitReferenceUpdatedListener.Event createEvent(final String refName) {
+        GitReferenceUpdatedListener.Event event = mock(GitReferenceUpdatedListener.Event.class);
+        when(event.getProjectName()).thenReturn(PROJECT);
+        when(event.getRefName()).thenReturn(refName);
+        return event;
+    }
+}
@@ -0,0 +1,58 @@
+package com.ericsson.gerrit.plugins.eiffel.events.generators;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.gerrit.server.git.WorkQueue;
+
+public class HostNameResolverTest {
+    private final WorkQueue workQueue = mock(WorkQueue.class);
+
+    @After
+    public void tearDown() {
+        EiffelEventGenerator.setHostName(null);
+    }
+
+    @Test
+    public void testConfiguredHostNameIsNotLookedUp() {
+        HostNameResolver resolver = new HostNameResolver(workQueue, "gerrit.example.com", 1000, () -> {
+            throw new AssertionError("Host name should not be looked up");
+        });
+
+        resolver.start();
+
+        assertEquals("gerrit.example.com", EiffelEventGenerator.getHostName());
+        verifyZeroInteractions(workQueue);
+    }
+
+    @Test
+    public void testHostNameIsResolvedOnceAtStart() {
+        Deque<String> lookups = new ArrayDeque<>(Arrays.asList("first-host", "second-host"));
+        HostNameResolver resolver = new HostNameResolver(workQueue, null, 0, lookups::poll);
+
+        resolver.start();
+        EiffelEventGenerator.getHostName();
+
+        assertEquals("first-host", EiffelEventGenerator.getHostName());
+        assertEquals("Expected a single lookup", 1, lookups.size());
+    }
+
+    @Test
+    public void testFailedRefreshKeepsHostName() {
+        Deque<String> lookups = new ArrayDeque<>(Arrays.asList("first-host"));
+        HostNameResolver resolver = new HostNameResolver(workQueue, null, 0, lookups::poll);
+        resolver.start();
+
+        resolver.refresh();
+
+        assertEquals("first-host", EiffelEventGenerator.getHostName());
+    }
+}
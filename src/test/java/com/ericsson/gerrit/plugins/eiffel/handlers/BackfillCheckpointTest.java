@@ -0,0 +1,49 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BackfillCheckpointTest {
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private File pluginDir;
+
+    @Before
+    public void init() throws Exception {
+        pluginDir = testFolder.newFolder();
+    }
+
+    @Test
+    public void testCompletedProjectsSurviveARestart() {
+        BackfillCheckpoint checkpoint = new BackfillCheckpoint(pluginDir);
+        checkpoint.markCompleted("my-project");
+        checkpoint.markCompleted("group/other-project");
+
+        BackfillCheckpoint restartedCheckpoint = new BackfillCheckpoint(pluginDir);
+        assertTrue(restartedCheckpoint.isCompleted("my-project"));
+        assertTrue(restartedCheckpoint.isCompleted("group/other-project"));
+        assertFalse(restartedCheckpoint.isCompleted("third-project"));
+        assertEquals(2, restartedCheckpoint.size());
+    }
+
+    @Test
+    public void testClearForgetsCompletedProjects() {
+        BackfillCheckpoint checkpoint = new BackfillCheckpoint(pluginDir);
+        checkpoint.markCompleted("my-project");
+
+        checkpoint.clear();
+
+        assertFalse(checkpoint.isCompleted("my-project"));
+        assertEquals(0, new BackfillCheckpoint(pluginDir).size());
+    }
+}
@@ -0,0 +1,109 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ConsolidatedDataBaseHandlerTest {
+    private static final String PROJECT = "project_test";
+    private static final String NESTED_PROJECT = "parent/child";
+    private static final String BRANCH = "branch_test";
+    private static final String CHANGE_ID = "I13400c37d648c2eedd9eaa24c136bc6d98e9a791";
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private File tmpFolderPath;
+
+    @Before
+    public void init() throws Exception {
+        tmpFolderPath = testFolder.newFolder();
+    }
+
+    @Test
+    public void testSameKeyIsKeptApartPerProject() throws Exception {
+        ConsolidatedDataBaseHandler dbHandler = new ConsolidatedDataBaseHandler(tmpFolderPath, 4);
+
+        dbHandler.insertInto(PROJECT, Table.SCS_TABLE, BRANCH, "first-event");
+        dbHandler.insertInto(NESTED_PROJECT, Table.SCS_TABLE, BRANCH, "second-event");
+        dbHandler.updateInto(PROJECT, Table.SCS_TABLE, BRANCH, "third-event");
+
+        assertEquals("third-event", dbHandler.getEventID(PROJECT, Table.SCS_TABLE, BRANCH));
+        assertEquals("second-event", dbHandler.getEventID(NESTED_PROJECT, Table.SCS_TABLE, BRANCH));
+        assertEquals("Expected no files per project", 4, tmpFolderPath.list().length);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testGetNoneExistingEventIdThrows() throws Exception {
+        new ConsolidatedDataBaseHandler(tmpFolderPath, 1).getEventID(PROJECT, Table.SCC_TABLE, CHANGE_ID);
+    }
+
+    @Test
+    public void testMigratePerProjectFiles() throws Exception {
+        new File(tmpFolderPath, "parent").mkdirs();
+        new DataBaseHandler(tmpFolderPath, PROJECT + ".db").insertInto(Table.SCS_TABLE, BRANCH, "scs-event");
+        new DataBaseHandler(tmpFolderPath, NESTED_PROJECT + ".db").insertInto(Table.SCC_TABLE, CHANGE_ID,
+                "scc-event");
+
+        StateHandler stateHandler = new StateHandler(tmpFolderPath,
+                new ConsolidatedSqliteEventStateStore(tmpFolderPath, 2));
+        assertEquals("Expected both projects to be migrated", 2, stateHandler.migratePerProjectState());
+        assertEquals("Expected already migrated files to be skipped", 0, stateHandler.migratePerProjectState());
+
+        assertEquals("scs-event", stateHandler.getLastSourceChangeSubmittedEiffelEvent(PROJECT, BRANCH));
+        assertEquals("scc-event", stateHandler.getLastSourceChangeCreatedEiffelEvent(NESTED_PROJECT, CHANGE_ID));
+        assertFalse(new File(tmpFolderPath, PROJECT + ".db").exists());
+        assertTrue(new File(tmpFolderPath, PROJECT + ".db.migrated").exists());
+    }
+
+    @Test
+    public void testMigrationFlushesWriteBehindStoreBeforeRenaming() throws Exception {
+        new DataBaseHandler(tmpFolderPath, PROJECT + ".db").insertInto(Table.SCS_TABLE, BRANCH, "scs-event");
+        ConsolidatedSqliteEventStateStore consolidatedStore = new ConsolidatedSqliteEventStateStore(tmpFolderPath, 1);
+        WriteBehindEventStateStore writeBehindStore = new WriteBehindEventStateStore(consolidatedStore, 100, 0, null);
+
+        assertEquals(1, new StateHandler(tmpFolderPath, writeBehindStore).migratePerProjectState());
+
+        assertEquals("Expected nothing to be left pending", 0, writeBehindStore.getPendingCount());
+        assertEquals("scs-event", consolidatedStore.get(PROJECT, Table.SCS_TABLE, BRANCH));
+        assertTrue(new File(tmpFolderPath, PROJECT + ".db.migrated").exists());
+    }
+
+    @Test
+    public void testMigrationSkipsOtherDatabaseFiles() throws Exception {
+        DeduplicationIndex deduplicationIndex = new DeduplicationIndex(tmpFolderPath, null, SqliteTuning.DEFAULT, true,
+                60000, 100, System::currentTimeMillis);
+        deduplicationIndex.start();
+        try {
+            StateHandler stateHandler = new StateHandler(tmpFolderPath,
+                    new ConsolidatedSqliteEventStateStore(tmpFolderPath, 1));
+            assertEquals("Expected nothing to be migrated", 0, stateHandler.migratePerProjectState());
+        } finally {
+            deduplicationIndex.stop();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMigrationIntoMemoryIsRefused() throws Exception {
+        new DataBaseHandler(tmpFolderPath, PROJECT + ".db").insertInto(Table.SCS_TABLE, BRANCH, "scs-event");
+        EventStateStore writeBehindMemory = new WriteBehindEventStateStore(new InMemoryEventStateStore(), 1, 0,
+                null);
+
+        new StateHandler(tmpFolderPath, writeBehindMemory).migratePerProjectState();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMigrationIntoWrappedPerProjectStoreIsRefused() throws Exception {
+        EventStateStore writeBehindSqlite = new WriteBehindEventStateStore(new SqliteEventStateStore(tmpFolderPath),
+                1, 0, null);
+
+        new StateHandler(tmpFolderPath, writeBehindSqlite).migratePerProjectState();
+    }
+}
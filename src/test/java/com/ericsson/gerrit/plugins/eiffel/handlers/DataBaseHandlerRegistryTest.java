@@ -0,0 +1,55 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DataBaseHandlerRegistryTest {
+    private static final String PROJECT = "project_test";
+    private static final String OTHER_PROJECT = "other_project_test";
+    private static final String BRANCH = "branch_test";
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private File tmpFolderPath;
+
+    @Before
+    public void init() throws Exception {
+        tmpFolderPath = testFolder.newFolder();
+    }
+
+    @Test
+    public void testHandlerIsCreatedOncePerProject() throws Exception {
+        DataBaseHandlerRegistry registry = new DataBaseHandlerRegistry(tmpFolderPath);
+
+        DataBaseHandler first = registry.get(PROJECT);
+        DataBaseHandler second = registry.get(PROJECT);
+
+        assertSame("Expected the same handler for the same project", first, second);
+        assertEquals("Expected one registered project", 1, registry.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedHandlerIsEvicted() throws Exception {
+        DataBaseHandlerRegistry registry = new DataBaseHandlerRegistry(tmpFolderPath, 1, 10);
+
+        DataBaseHandler first = registry.get(PROJECT);
+        first.insertInto(Table.SCS_TABLE, BRANCH, "event-id");
+        registry.get(OTHER_PROJECT);
+        registry.cleanUp();
+
+        assertEquals("Expected the registry to stay within its maximum size", 1, registry.size());
+        DataBaseHandler recreated = registry.get(PROJECT);
+        assertNotSame("Expected an evicted handler to be recreated", first, recreated);
+        assertEquals("Expected stored state to survive eviction", "event-id",
+                recreated.getEventID(Table.SCS_TABLE, BRANCH));
+    }
+}
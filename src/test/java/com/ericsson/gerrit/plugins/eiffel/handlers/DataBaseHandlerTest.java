@@ -2,6 +2,7 @@ package com.ericsson.gerrit.plugins.eiffel.handlers;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.powermock.api.mockito.PowerMockito.mock;
 
 import java.io.File;
@@ -12,6 +13,9 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
 
 import org.junit.Before;
@@ -26,6 +30,10 @@ import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics;
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics.StateOperation;
+import com.google.gerrit.server.config.PluginConfig;
+
 @RunWith(PowerMockRunner.class)
 @PrepareForTest(fullyQualifiedNames = "com.ericsson.gerrit.plugins.eiffel.*")
 public class DataBaseHandlerTest {
@@ -41,9 +49,11 @@ public class DataBaseHandlerTest {
     @Rule
     public TemporaryFolder testFolder = new TemporaryFolder();
 
+    private File tmpFolderPath;
+
     @Before
     public void init() throws Exception {
-        File tmpFolderPath = testFolder.newFolder();
+        tmpFolderPath = testFolder.newFolder();
         dbHandler = new DataBaseHandler(tmpFolderPath, "test_file_name.db");
     }
 
@@ -109,6 +119,155 @@ public class DataBaseHandlerTest {
 
     }
 
+    /**
+     * Repeated calls should reuse the pooled connection rather than opening a new
+     * one per call, and no connection should be left borrowed.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testConnectionsAreReused() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            String key = branch + i;
+            dbHandler.insertInto(Table.SCS_TABLE, key, generateEiffelEventId());
+            dbHandler.updateInto(Table.SCS_TABLE, key, generateEiffelEventId());
+            dbHandler.getEventID(Table.SCS_TABLE, key);
+        }
+
+        String databaseUrl = String.format("jdbc:sqlite:%s", new File(tmpFolderPath, "test_file_name.db"));
+        assertEquals("Expected a single idle connection to be kept open", 1,
+                ConnectionPool.forDatabase(databaseUrl).getIdleConnectionCount());
+    }
+
+    /**
+     * Closing one handler should not close the pool another handler of the same
+     * file still uses.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testClosingOneHandlerKeepsSharedPoolOpen() throws Exception {
+        DataBaseHandler otherHandler = new DataBaseHandler(tmpFolderPath, "test_file_name.db");
+        otherHandler.close();
+        otherHandler.close();
+
+        dbHandler.getAllEventIDs(Table.SCS_TABLE);
+        String databaseUrl = String.format("jdbc:sqlite:%s", new File(tmpFolderPath, "test_file_name.db"));
+        ConnectionPool pool = ConnectionPool.forDatabase(databaseUrl);
+        assertEquals("Expected the idle connection to be kept open", 1, pool.getIdleConnectionCount());
+        assertEquals("Expected the remaining handler and this test to use the pool", 2, pool.getUserCount());
+        pool.close();
+    }
+
+    /**
+     * Closing all pools should close their connections and forget them.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCloseAllForgetsPools() throws Exception {
+        dbHandler.getAllEventIDs(Table.SCS_TABLE);
+        String databaseUrl = String.format("jdbc:sqlite:%s", new File(tmpFolderPath, "test_file_name.db"));
+        ConnectionPool pool = ConnectionPool.forDatabase(databaseUrl);
+
+        ConnectionPool.closeAll();
+
+        assertEquals("Expected idle connections to be closed", 0, pool.getIdleConnectionCount());
+        assertNotSame("Expected a new pool after closing all", pool, ConnectionPool.forDatabase(databaseUrl));
+    }
+
+    /**
+     * Upsert should insert a missing row and replace an existing one.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testUpsertInsertsAndReplaces() throws Exception {
+        dbHandler.upsertInto(Table.SCS_TABLE, branch, "first-event");
+        assertEquals("first-event", dbHandler.getEventID(Table.SCS_TABLE, branch));
+
+        dbHandler.upsertInto(Table.SCS_TABLE, branch, "second-event");
+        assertEquals("second-event", dbHandler.getEventID(Table.SCS_TABLE, branch));
+        assertEquals("Expected a single row", 1, dbHandler.getAllEventIDs(Table.SCS_TABLE).size());
+    }
+
+    /**
+     * The tuning profile should be applied to new connections.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTuningIsAppliedToNewConnections() throws Exception {
+        SqliteTuning tuning = new SqliteTuning(SqliteTuning.JournalMode.WAL, SqliteTuning.Synchronous.NORMAL, null,
+                -4000, 1000, SqliteTuning.TempStore.MEMORY);
+        new DataBaseHandler(tmpFolderPath, "tuned_file_name.db", tuning, EiffelMetrics.DISABLED);
+        String databaseUrl = String.format("jdbc:sqlite:%s", new File(tmpFolderPath, "tuned_file_name.db"));
+        try (PooledConnection connection = ConnectionPool.forDatabase(databaseUrl).borrow();
+                Statement statement = connection.createStatement()) {
+            assertEquals("wal", queryPragma(statement, "journal_mode"));
+            assertEquals("1", queryPragma(statement, "synchronous"));
+            assertEquals("-4000", queryPragma(statement, "cache_size"));
+            assertEquals("1000", queryPragma(statement, "busy_timeout"));
+        }
+    }
+
+    /**
+     * Reads and writes should be recorded in the metrics the handler was created with.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testStateAccessIsRecordedInGivenMetrics() throws Exception {
+        EiffelMetrics metrics = mock(EiffelMetrics.class);
+        DataBaseHandler measuredHandler = new DataBaseHandler(tmpFolderPath, "measured_file_name.db",
+                SqliteTuning.DEFAULT, metrics);
+        measuredHandler.insertInto(Table.SCS_TABLE, branch, generateEiffelEventId());
+        measuredHandler.getEventID(Table.SCS_TABLE, branch);
+
+        Mockito.verify(metrics).recordStateAccess(Mockito.eq(Table.SCS_TABLE), Mockito.eq(StateOperation.WRITE),
+                Mockito.anyLong());
+        Mockito.verify(metrics).recordStateAccess(Mockito.eq(Table.SCS_TABLE), Mockito.eq(StateOperation.READ),
+                Mockito.anyLong());
+    }
+
+    /**
+     * Numbers that cannot be parsed should be left at their defaults instead of failing.
+     */
+    @Test
+    public void testInvalidTuningNumbersAreIgnored() {
+        PluginConfig pluginConfig = mock(PluginConfig.class);
+        Mockito.when(pluginConfig.getString("sqliteMmapSize")).thenReturn("lots");
+        Mockito.when(pluginConfig.getLong("sqliteMmapSize", 0)).thenThrow(new IllegalArgumentException("lots"));
+        Mockito.when(pluginConfig.getString("sqliteBusyTimeoutMs")).thenReturn("soon");
+        Mockito.when(pluginConfig.getLong("sqliteBusyTimeoutMs", 0)).thenThrow(new IllegalArgumentException("soon"));
+        Mockito.when(pluginConfig.getString("sqliteCacheSize")).thenReturn("-2000");
+        Mockito.when(pluginConfig.getLong("sqliteCacheSize", 0)).thenReturn(-2000L);
+
+        assertEquals(Arrays.asList("PRAGMA busy_timeout=" + SqliteTuning.DEFAULT_BUSY_TIMEOUT_MS,
+                "PRAGMA cache_size=-2000"), SqliteTuning.fromConfig(pluginConfig).getPragmas());
+    }
+
+    /**
+     * A batch should update existing rows and insert new ones in the given tables.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testStoreAllUpdatesAndInserts() throws Exception {
+        String changeId = "I13400c37d648c2eedd9eaa24c136bc6d98e9a791";
+        dbHandler.insertInto(Table.SCS_TABLE, branch, generateEiffelEventId());
+
+        Map<Table, Map<String, String>> batch = new HashMap<>();
+        batch.computeIfAbsent(Table.SCS_TABLE, table -> new HashMap<>()).put(branch, "updated-event");
+        batch.computeIfAbsent(Table.SCS_TABLE, table -> new HashMap<>()).put("other_branch", "inserted-event");
+        batch.computeIfAbsent(Table.SCC_TABLE, table -> new HashMap<>()).put(changeId, "scc-event");
+        dbHandler.storeAll(batch);
+
+        assertEquals("updated-event", dbHandler.getEventID(Table.SCS_TABLE, branch));
+        assertEquals("inserted-event", dbHandler.getEventID(Table.SCS_TABLE, "other_branch"));
+        assertEquals("scc-event", dbHandler.getEventID(Table.SCC_TABLE, changeId));
+    }
+
     /**
      * Empty db should return empty string
      *
@@ -212,4 +371,10 @@ public class DataBaseHandlerTest {
         return UUID.randomUUID().toString();
     }
 
+    private String queryPragma(final Statement statement, final String pragma) throws SQLException {
+        try (ResultSet result = statement.executeQuery("PRAGMA " + pragma)) {
+            result.next();
+            return result.getString(1);
+        }
+    }
 }
@@ -0,0 +1,95 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DeduplicationIndexTest {
+    private static final long TTL_MS = 1000;
+    private static final String EVENT_KEY = "patchset-created:my-project:1:1";
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private File pluginDir;
+    private final AtomicLong clock = new AtomicLong(100000);
+    private DeduplicationIndex deduplicationIndex;
+
+    @Before
+    public void init() throws Exception {
+        pluginDir = testFolder.newFolder();
+        deduplicationIndex = createStartedIndex();
+    }
+
+    @After
+    public void tearDown() {
+        deduplicationIndex.stop();
+    }
+
+    @Test
+    public void testRepeatedEventIsDuplicate() {
+        assertTrue("First delivery should be new", deduplicationIndex.recordIfNew(EVENT_KEY));
+        assertFalse("Second delivery should be a duplicate", deduplicationIndex.recordIfNew(EVENT_KEY));
+        assertTrue("Other event should be new", deduplicationIndex.recordIfNew("patchset-created:my-project:1:2"));
+    }
+
+    @Test
+    public void testEventIsForgottenAfterTtl() {
+        deduplicationIndex.recordIfNew(EVENT_KEY);
+
+        clock.addAndGet(TTL_MS + 1);
+        assertTrue("Expired event should be new again", deduplicationIndex.recordIfNew(EVENT_KEY));
+        assertFalse("Renewed event should be a duplicate", deduplicationIndex.recordIfNew(EVENT_KEY));
+
+        clock.addAndGet(TTL_MS + 1);
+        deduplicationIndex.evictExpired();
+        assertTrue("Evicted event should be new again", deduplicationIndex.recordIfNew(EVENT_KEY));
+    }
+
+    @Test
+    public void testIndexSurvivesRestart() {
+        deduplicationIndex.recordIfNew(EVENT_KEY);
+        deduplicationIndex.stop();
+
+        deduplicationIndex = createStartedIndex();
+        assertFalse("Event should still be a duplicate after a restart", deduplicationIndex.recordIfNew(EVENT_KEY));
+    }
+
+    @Test
+    public void testForgottenEventIsNewAgain() {
+        assertTrue(deduplicationIndex.recordIfNew(EVENT_KEY));
+
+        deduplicationIndex.forget(EVENT_KEY);
+
+        assertTrue("Forgotten event should be new again", deduplicationIndex.recordIfNew(EVENT_KEY));
+        assertFalse(deduplicationIndex.recordIfNew(EVENT_KEY));
+    }
+
+    @Test
+    public void testDisabledIndexTreatsEventsAsNew() throws Exception {
+        File otherPluginDir = testFolder.newFolder();
+        DeduplicationIndex disabledIndex = new DeduplicationIndex(otherPluginDir, null, SqliteTuning.DEFAULT, false,
+                TTL_MS, 100, clock::get);
+        disabledIndex.start();
+
+        assertTrue(disabledIndex.recordIfNew(EVENT_KEY));
+        assertTrue(disabledIndex.recordIfNew(EVENT_KEY));
+        assertFalse("Disabled index should not create its database",
+                new File(otherPluginDir, "eiffel-delivered-events.sqlite").exists());
+    }
+
+    private DeduplicationIndex createStartedIndex() {
+        DeduplicationIndex index = new DeduplicationIndex(pluginDir, null, SqliteTuning.DEFAULT, true, TTL_MS, 100,
+                clock::get);
+        index.start();
+        return index;
+    }
+}
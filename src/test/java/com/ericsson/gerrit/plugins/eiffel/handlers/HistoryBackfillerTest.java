@@ -0,0 +1,271 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mock;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.configuration.ProjectConfigurationCache;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
+import com.ericsson.gerrit.plugins.eiffel.handlers.HistoryBackfiller.Options;
+import com.ericsson.gerrit.plugins.eiffel.handlers.HistoryBackfiller.ProjectResult;
+import com.ericsson.gerrit.plugins.eiffel.messaging.CircuitBreaker;
+import com.ericsson.gerrit.plugins.eiffel.messaging.EiffelEventSender;
+import com.ericsson.gerrit.plugins.eiffel.messaging.PublishResult;
+import com.ericsson.gerrit.plugins.eiffel.messaging.RemremEndpoint;
+import com.ericsson.gerrit.plugins.eiffel.messaging.RemremEndpoints;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.query.change.InternalChangeQuery;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(value = { RevCommit.class, AnyObjectId.class },
+        fullyQualifiedNames = "com.ericsson.gerrit.plugins.eiffel.*")
+public class HistoryBackfillerTest {
+    private static final Project.NameKey PROJECT = new Project.NameKey("my-project");
+    private static final Options PUBLISH = new Options(true, 1, 0, 0);
+    private static final Options DRY_RUN = new Options(false, 1, 0, 0);
+    private static final String REMREM_URL = "https://localhost:8080/publish";
+    private static final long OPEN_DURATION_MS = 50;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private EiffelPluginConfiguration pluginConfig;
+    private StateHandler stateHandler;
+    private EiffelEventSender eiffelEventSender;
+    private RemremEndpoints remremEndpoints;
+    private final Map<String, Ref> branches = new LinkedHashMap<>();
+    private HistoryBackfiller historyBackfiller;
+
+    @Before
+    public void init() throws Exception {
+        pluginConfig = mock(EiffelPluginConfiguration.class);
+        when(pluginConfig.isEnabled()).thenReturn(true);
+        when(pluginConfig.getRemremPublishURL()).thenReturn(REMREM_URL);
+        ProjectConfigurationCache projectConfigurationCache = mock(ProjectConfigurationCache.class);
+        when(projectConfigurationCache.get(PROJECT)).thenReturn(pluginConfig);
+
+        RefDatabase refDatabase = mock(RefDatabase.class);
+        when(refDatabase.getRefs(Constants.R_HEADS)).thenReturn(branches);
+        Repository repository = mock(Repository.class);
+        when(repository.getRefDatabase()).thenReturn(refDatabase);
+        GitRepositoryManager repositoryManager = mock(GitRepositoryManager.class);
+        when(repositoryManager.openRepository(PROJECT)).thenReturn(repository);
+        RevWalk revWalk = mock(RevWalk.class);
+        when(revWalk.parseCommit(any(AnyObjectId.class))).then(invocation -> invocation.getArgument(0));
+        PowerMockito.whenNew(RevWalk.class).withArguments(repository).thenReturn(revWalk);
+
+        InternalChangeQuery changeQuery = mock(InternalChangeQuery.class);
+        when(changeQuery.byProjectOpen(PROJECT)).thenReturn(Collections.emptyList());
+
+        WorkQueue workQueue = mock(WorkQueue.class);
+        WorkQueue.Executor executor = mock(WorkQueue.Executor.class);
+        when(workQueue.createQueue(anyInt(), anyString())).thenReturn(executor);
+        when(executor.submit(any(Callable.class))).then(
+                invocation -> CompletableFuture.completedFuture(invocation.getArgument(0, Callable.class).call()));
+
+        stateHandler = mock(StateHandler.class);
+        eiffelEventSender = mock(EiffelEventSender.class);
+        remremEndpoints = new RemremEndpoints(1, OPEN_DURATION_MS, 1, 4, 5000, System::currentTimeMillis);
+        File pluginDir = testFolder.newFolder();
+        historyBackfiller = new HistoryBackfiller(repositoryManager, () -> changeQuery, projectConfigurationCache,
+                stateHandler, eiffelEventSender, remremEndpoints, workQueue, "http://gerrit/", pluginDir);
+    }
+
+    @Test
+    public void testBranchIsWalkedOldestCommitFirst() throws Exception {
+        RevCommit withoutChangeId = createCommit(null, null);
+        RevCommit secondCommit = createCommit("I2", withoutChangeId);
+        RevCommit thirdCommit = createCommit("I3", secondCommit);
+        branches.put("master", createRef(thirdCommit));
+        when(eiffelEventSender.send(any(EiffelEvent.class), eq(pluginConfig))).thenReturn("scs-2", "scs-3");
+
+        List<ProjectResult> results = historyBackfiller.backfill(Collections.singletonList(PROJECT), PUBLISH,
+                result -> {
+                });
+
+        assertEquals(1, results.size());
+        assertEquals("Only commits with a Change-Id should give events", 2, results.get(0).getSubmittedEvents());
+        InOrder inOrder = inOrder(stateHandler);
+        inOrder.verify(stateHandler).setLastSourceChangeSubmittedEiffelEvent("my-project", "master", "scs-2");
+        inOrder.verify(stateHandler).setLastSourceChangeSubmittedEiffelEvent("my-project", "master", "scs-3");
+    }
+
+    @Test
+    public void testMaxCommitsLimitsWalk() throws Exception {
+        branches.put("master", createRef(createCommit("I3", createCommit("I2", createCommit("I1", null)))));
+
+        List<ProjectResult> results = historyBackfiller.backfill(Collections.singletonList(PROJECT),
+                new Options(false, 1, 2, 0), result -> {
+                });
+
+        assertEquals(2, results.get(0).getSubmittedEvents());
+    }
+
+    @Test
+    public void testBranchesOutsideFilterAreSkipped() throws Exception {
+        when(pluginConfig.getFilter()).thenReturn("master");
+        branches.put("master", createRef(createCommit("I1", null)));
+        branches.put("feature", createRef(createCommit("I2", null)));
+        when(eiffelEventSender.send(any(EiffelEvent.class), eq(pluginConfig))).thenReturn("scs-1");
+
+        List<ProjectResult> results = historyBackfiller.backfill(Collections.singletonList(PROJECT), PUBLISH,
+                result -> {
+                });
+
+        assertEquals(1, results.get(0).getSubmittedEvents());
+        verify(eiffelEventSender, times(1)).send(any(EiffelEvent.class), eq(pluginConfig));
+        verify(stateHandler).setLastSourceChangeSubmittedEiffelEvent("my-project", "master", "scs-1");
+        verify(stateHandler, never()).setLastSourceChangeSubmittedEiffelEvent(eq("my-project"), eq("feature"),
+                anyString());
+    }
+
+    @Test
+    public void testDryRunDoesNotCheckpoint() throws Exception {
+        branches.put("master", createRef(createCommit("I1", null)));
+        when(eiffelEventSender.send(any(EiffelEvent.class), eq(pluginConfig))).thenReturn("scs-1");
+
+        List<ProjectResult> results = historyBackfiller.backfill(Collections.singletonList(PROJECT), DRY_RUN,
+                result -> {
+                });
+        assertEquals(1, results.get(0).getSubmittedEvents());
+        verify(eiffelEventSender, never()).send(any(EiffelEvent.class), eq(pluginConfig));
+
+        results = historyBackfiller.backfill(Collections.singletonList(PROJECT), PUBLISH, result -> {
+        });
+        assertEquals("Project should be backfilled after a dry run", 1, results.size());
+        assertTrue(results.get(0).isCompleted());
+
+        results = historyBackfiller.backfill(Collections.singletonList(PROJECT), PUBLISH, result -> {
+        });
+        assertEquals("Project should be skipped after a publishing run", 0, results.size());
+    }
+
+    @Test
+    public void testFailedEventsAreNotCountedOrCheckpointed() throws Exception {
+        branches.put("master", createRef(createCommit("I2", createCommit("I1", null))));
+        when(eiffelEventSender.send(any(EiffelEvent.class), eq(pluginConfig))).thenThrow(new IOException("down"))
+                                                                              .thenReturn("scs-2", "scs-1", "scs-2");
+
+        List<ProjectResult> results = historyBackfiller.backfill(Collections.singletonList(PROJECT), PUBLISH,
+                result -> {
+                });
+        assertEquals(1, results.get(0).getSubmittedEvents());
+        assertEquals(1, results.get(0).getFailedEvents());
+        assertFalse(results.get(0).isCompleted());
+
+        results = historyBackfiller.backfill(Collections.singletonList(PROJECT), PUBLISH, result -> {
+        });
+        assertEquals("Project with failed events should be backfilled again", 1, results.size());
+        assertEquals(2, results.get(0).getSubmittedEvents());
+    }
+
+    @Test
+    public void testDisabledProjectIsNotCheckpointed() throws Exception {
+        branches.put("master", createRef(createCommit("I1", null)));
+        when(pluginConfig.isEnabled()).thenReturn(false);
+
+        List<ProjectResult> results = historyBackfiller.backfill(Collections.singletonList(PROJECT), PUBLISH,
+                result -> {
+                });
+        assertFalse(results.get(0).isCompleted());
+
+        when(pluginConfig.isEnabled()).thenReturn(true);
+        when(eiffelEventSender.send(any(EiffelEvent.class), eq(pluginConfig))).thenReturn("scs-1");
+        results = historyBackfiller.backfill(Collections.singletonList(PROJECT), PUBLISH, result -> {
+        });
+        assertEquals("Project should be backfilled once the plugin is enabled", 1, results.size());
+        assertEquals(1, results.get(0).getSubmittedEvents());
+    }
+
+    @Test
+    public void testFailedEventOpensTheCircuitOfItsEndpoint() throws Exception {
+        branches.put("master", createRef(createCommit("I1", null)));
+        when(eiffelEventSender.send(any(EiffelEvent.class), eq(pluginConfig))).thenThrow(new IOException("down"));
+
+        historyBackfiller.backfill(Collections.singletonList(PROJECT), PUBLISH, result -> {
+        });
+
+        RemremEndpoint endpoint = remremEndpoints.get(REMREM_URL);
+        assertEquals(CircuitBreaker.State.OPEN, endpoint.getCircuitBreaker().getState());
+        assertEquals("Expected the endpoint to be released", 0, endpoint.getConcurrencyLimiter().getInFlight());
+    }
+
+    @Test
+    public void testEventWaitsForOpenCircuit() throws Exception {
+        branches.put("master", createRef(createCommit("I1", null)));
+        when(eiffelEventSender.send(any(EiffelEvent.class), eq(pluginConfig))).thenReturn("scs-1");
+        RemremEndpoint endpoint = remremEndpoints.get(REMREM_URL);
+        endpoint.release(endpoint.tryAcquire(), new PublishResult(null, 503, "Service Unavailable"));
+        long startTime = System.currentTimeMillis();
+
+        List<ProjectResult> results = historyBackfiller.backfill(Collections.singletonList(PROJECT), PUBLISH,
+                result -> {
+                });
+
+        assertEquals(1, results.get(0).getSubmittedEvents());
+        assertTrue("Expected the event to wait for the circuit",
+                System.currentTimeMillis() - startTime >= OPEN_DURATION_MS);
+        assertEquals(CircuitBreaker.State.CLOSED, endpoint.getCircuitBreaker().getState());
+    }
+
+    private static RevCommit createCommit(final String changeId, final RevCommit parent) {
+        PersonIdent author = mock(PersonIdent.class);
+        when(author.getName()).thenReturn("Jane Doe");
+        when(author.getEmailAddress()).thenReturn("jane@example.com");
+
+        RevCommit commit = mock(RevCommit.class);
+        when(commit.getFooterLines("Change-Id")).thenReturn(
+                changeId == null ? Collections.emptyList() : Collections.singletonList(changeId));
+        when(commit.getParentCount()).thenReturn(parent == null ? 0 : 1);
+        when(commit.getParent(0)).thenReturn(parent);
+        when(commit.name()).thenReturn("commit-" + changeId);
+        when(commit.getAuthorIdent()).thenReturn(author);
+        return commit;
+    }
+
+    private static Ref createRef(final RevCommit tip) {
+        Ref ref = mock(Ref.class);
+        when(ref.getObjectId()).thenReturn(tip);
+        return ref;
+    }
+}
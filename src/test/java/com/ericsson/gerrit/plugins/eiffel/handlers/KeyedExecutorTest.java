@@ -0,0 +1,96 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KeyedExecutorTest {
+    private ExecutorService pool;
+
+    @Before
+    public void init() {
+        pool = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testTasksOfOneKeyRunInOrder() throws InterruptedException {
+        KeyedExecutor keyedExecutor = new KeyedExecutor(pool, 16);
+        Map<String, List<Integer>> executionOrder = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(4 * 500);
+
+        for (int i = 0; i < 500; i++) {
+            for (String branch : new String[] { "master", "release", "feature", "stable" }) {
+                final int sequence = i;
+                keyedExecutor.execute("project:" + branch, () -> {
+                    executionOrder.computeIfAbsent(branch, key -> Collections.synchronizedList(new ArrayList<>()))
+                                  .add(sequence);
+                    done.countDown();
+                });
+            }
+        }
+
+        assertTrue("Expected all tasks to run", done.await(10, TimeUnit.SECONDS));
+        for (List<Integer> sequences : executionOrder.values()) {
+            for (int i = 0; i < sequences.size(); i++) {
+                assertEquals("Expected tasks of a key in order", i, (int) sequences.get(i));
+            }
+        }
+        assertEquals("Nothing should be queued", 0, keyedExecutor.getQueuedCount());
+    }
+
+    @Test
+    public void testDifferentKeysRunInParallel() throws InterruptedException {
+        KeyedExecutor keyedExecutor = new KeyedExecutor(pool, 16);
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        CountDownLatch done = new CountDownLatch(2);
+        String firstKey = "project:master";
+        String secondKey = findKeyOnOtherStripe(firstKey, 16);
+
+        for (String key : new String[] { firstKey, secondKey }) {
+            keyedExecutor.execute(key, () -> {
+                bothRunning.countDown();
+                try {
+                    if (bothRunning.await(5, TimeUnit.SECONDS)) {
+                        done.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        assertTrue("Expected the keys to run at the same time", done.await(10, TimeUnit.SECONDS));
+    }
+
+    private static String findKeyOnOtherStripe(final String key, final int stripes) {
+        for (int i = 0;; i++) {
+            String candidate = "project:branch-" + i;
+            if (stripeOf(candidate, stripes) != stripeOf(key, stripes)) {
+                return candidate;
+            }
+        }
+    }
+
+    private static int stripeOf(final String key, final int stripes) {
+        int hashCode = key.hashCode();
+        return Math.floorMod(hashCode ^ (hashCode >>> 16), stripes);
+    }
+}
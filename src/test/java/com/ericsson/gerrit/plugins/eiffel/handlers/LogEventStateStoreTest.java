@@ -0,0 +1,105 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LogEventStateStoreTest {
+    private static final String PROJECT = "project_test";
+    private static final String NESTED_PROJECT = "parent/child";
+    private static final String BRANCH = "branch_test";
+    private static final String CHANGE_ID = "I13400c37d648c2eedd9eaa24c136bc6d98e9a791";
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private File tmpFolderPath;
+
+    @Before
+    public void init() throws Exception {
+        tmpFolderPath = testFolder.newFolder();
+    }
+
+    @Test
+    public void testStoredEventIdsSurviveReopen() throws Exception {
+        LogEventStateStore store = new LogEventStateStore(tmpFolderPath, true);
+        store.put(PROJECT, Table.SCS_TABLE, BRANCH, "first-event");
+        store.put(PROJECT, Table.SCS_TABLE, BRANCH, "second-event");
+        store.put(NESTED_PROJECT, Table.SCC_TABLE, CHANGE_ID, "scc-event");
+        store.close();
+
+        LogEventStateStore reopenedStore = new LogEventStateStore(tmpFolderPath, true);
+        assertEquals("second-event", reopenedStore.get(PROJECT, Table.SCS_TABLE, BRANCH));
+        assertEquals("scc-event", reopenedStore.get(NESTED_PROJECT, Table.SCC_TABLE, CHANGE_ID));
+        assertEquals("Expected no value in other table", 0, reopenedStore.getAll(PROJECT, Table.SCC_TABLE).size());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testGetNoneExistingEventIdThrows() throws Exception {
+        new LogEventStateStore(tmpFolderPath, false).get(PROJECT, Table.SCS_TABLE, BRANCH);
+    }
+
+    @Test
+    public void testTornRecordAtEndIsCutOff() throws Exception {
+        LogEventStateStore store = new LogEventStateStore(tmpFolderPath, true);
+        store.put(PROJECT, Table.SCS_TABLE, BRANCH, "first-event");
+        store.put(PROJECT, Table.SCS_TABLE, "other_branch", "second-event");
+        store.close();
+
+        File logFile = new File(tmpFolderPath, "eiffel-state.log");
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        LogEventStateStore reopenedStore = new LogEventStateStore(tmpFolderPath, true);
+        assertEquals("first-event", reopenedStore.get(PROJECT, Table.SCS_TABLE, BRANCH));
+        assertEquals("Expected torn record to be dropped", 1, reopenedStore.getRecordCount());
+
+        reopenedStore.put(PROJECT, Table.SCS_TABLE, "other_branch", "third-event");
+        reopenedStore.close();
+        assertEquals("third-event",
+                new LogEventStateStore(tmpFolderPath, true).get(PROJECT, Table.SCS_TABLE, "other_branch"));
+    }
+
+    @Test
+    public void testLogIsReplayedInWindows() throws Exception {
+        LogEventStateStore store = new LogEventStateStore(tmpFolderPath, false);
+        for (int i = 0; i < 20; i++) {
+            store.put(PROJECT, Table.SCS_TABLE, BRANCH + i, "event-" + i);
+        }
+        store.close();
+
+        LogEventStateStore reopenedStore = new LogEventStateStore(tmpFolderPath, false,
+                LogEventStateStore.DEFAULT_COMPACTION_THRESHOLD, 100);
+        assertEquals("event-19", reopenedStore.get(PROJECT, Table.SCS_TABLE, BRANCH + 19));
+        assertEquals("Expected records across windows to be replayed", 20, reopenedStore.getRecordCount());
+
+        LogEventStateStore tinyWindowStore = new LogEventStateStore(tmpFolderPath, false,
+                LogEventStateStore.DEFAULT_COMPACTION_THRESHOLD, 10);
+        assertEquals("Expected records larger than a window to be replayed", 20,
+                tinyWindowStore.getAll(PROJECT, Table.SCS_TABLE).size());
+    }
+
+    @Test
+    public void testOutdatedRecordsAreCompacted() throws Exception {
+        LogEventStateStore store = new LogEventStateStore(tmpFolderPath, false, 10);
+        for (int i = 0; i < 25; i++) {
+            store.put(PROJECT, Table.SCS_TABLE, BRANCH, "event-" + i);
+        }
+        store.put(PROJECT, Table.SCC_TABLE, CHANGE_ID, "scc-event");
+
+        assertTrue("Expected log to be compacted", store.getRecordCount() < 10);
+        store.close();
+
+        LogEventStateStore reopenedStore = new LogEventStateStore(tmpFolderPath, false, 10);
+        assertEquals("event-24", reopenedStore.get(PROJECT, Table.SCS_TABLE, BRANCH));
+        assertEquals("scc-event", reopenedStore.get(PROJECT, Table.SCC_TABLE, CHANGE_ID));
+    }
+}
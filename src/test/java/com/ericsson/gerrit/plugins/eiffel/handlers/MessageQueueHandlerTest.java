@@ -0,0 +1,266 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.InOrder;
+
+import com.ericsson.gerrit.plugins.eiffel.messaging.BatchingEiffelEventPublisher;
+import com.ericsson.gerrit.plugins.eiffel.messaging.EiffelEventOutbox;
+import com.ericsson.gerrit.plugins.eiffel.messaging.RetryScheduler;
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.EventTypes;
+import com.google.gerrit.server.events.RefEvent;
+import com.google.gerrit.server.git.WorkQueue;
+
+public class MessageQueueHandlerTest {
+    private static final String PLUGIN_NAME = "Eiffel-Integration";
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private File pluginDir;
+    private WorkQueue workQueue;
+    private WorkQueue.Executor pool;
+    private PluginConfigFactory configFactory;
+    private PluginConfig pluginConfig;
+    private EiffelEventOutbox eiffelEventOutbox;
+    private RetryScheduler retryScheduler;
+    private BatchingEiffelEventPublisher batchingPublisher;
+    private final List<Event> processedEvents = new ArrayList<>();
+
+    @Before
+    public void init() throws Exception {
+        EventTypes.register(QueueTestEvent.TYPE, QueueTestEvent.class);
+        pluginDir = testFolder.newFolder();
+        workQueue = mock(WorkQueue.class);
+        pool = mock(WorkQueue.Executor.class);
+        configFactory = mock(PluginConfigFactory.class);
+        pluginConfig = mock(PluginConfig.class);
+        eiffelEventOutbox = mock(EiffelEventOutbox.class);
+        retryScheduler = mock(RetryScheduler.class);
+        batchingPublisher = mock(BatchingEiffelEventPublisher.class);
+
+        when(workQueue.createQueue(anyInt(), anyString())).thenReturn(pool);
+        when(configFactory.getFromGerritConfig(PLUGIN_NAME, true)).thenReturn(pluginConfig);
+        when(pluginConfig.getInt(anyString(), anyInt())).then(invocation -> invocation.getArgument(1));
+        when(pluginConfig.getInt(eq("senderQueueCapacity"), anyInt())).thenReturn(2);
+    }
+
+    @Test
+    public void testDropOldestKeepsNewestEvents() {
+        when(pluginConfig.getEnum(anyString(), any())).thenReturn(OverflowPolicy.DROP_OLDEST);
+        MessageQueueHandler handler = createStartedHandler();
+
+        for (int i = 0; i < 3; i++) {
+            handler.dispatch(new QueueTestEvent(), processedEvents::add);
+        }
+
+        assertEquals("Queue should be capped at its capacity", 2, handler.getQueueSize());
+        assertEquals("Nothing should be spilled", 0, handler.getSpilledSize());
+    }
+
+    @Test
+    public void testSpillToDiskKeepsOverflowForNextStart() {
+        when(pluginConfig.getEnum(anyString(), any())).thenReturn(OverflowPolicy.SPILL_TO_DISK);
+        MessageQueueHandler handler = createStartedHandler();
+
+        for (int i = 0; i < 5; i++) {
+            handler.dispatch(new QueueTestEvent(), processedEvents::add);
+        }
+
+        assertEquals("Queue should be capped at its capacity", 2, handler.getQueueSize());
+        assertEquals("Overflow should be spilled to disk", 3, handler.getSpilledSize());
+
+        MessageQueueHandler restartedHandler = createHandler();
+        assertEquals("Spilled events should survive a restart", 3, restartedHandler.getSpilledSize());
+    }
+
+    @Test
+    public void testSpilledEventsAreProcessedAfterRestart() {
+        when(pluginConfig.getEnum(anyString(), any())).thenReturn(OverflowPolicy.SPILL_TO_DISK);
+        MessageQueueHandler handler = createStartedHandler();
+        for (int i = 0; i < 5; i++) {
+            handler.dispatch(new QueueTestEvent(), processedEvents::add);
+        }
+
+        runSubmittedTasksInline();
+        MessageQueueHandler restartedHandler = createStartedHandler();
+        assertEquals("Spilled events should wait for their listener", 0, processedEvents.size());
+
+        restartedHandler.dispatch(new QueueTestEvent(), processedEvents::add);
+        assertEquals("Spilled events and the new event should be processed", 4, processedEvents.size());
+        assertEquals("Queue should be empty", 0, restartedHandler.getQueueSize());
+        assertEquals("Spill file should be empty", 0, restartedHandler.getSpilledSize());
+    }
+
+    @Test
+    public void testBlockingPolicyProcessesEveryEvent() {
+        when(pluginConfig.getEnum(anyString(), any())).thenReturn(OverflowPolicy.BLOCK);
+        MessageQueueHandler handler = createStartedHandler();
+        runSubmittedTasksInline();
+
+        for (int i = 0; i < 4; i++) {
+            handler.dispatch(new QueueTestEvent(), processedEvents::add);
+        }
+
+        assertEquals("All events should be processed", 4, processedEvents.size());
+    }
+
+    @Test
+    public void testEventsAreOrderedPerProjectAndBranch() {
+        QueueTestRefEvent masterEvent = new QueueTestRefEvent("my-project", "refs/heads/master");
+        QueueTestRefEvent otherMasterEvent = new QueueTestRefEvent("my-project", "refs/heads/master");
+        QueueTestRefEvent releaseEvent = new QueueTestRefEvent("my-project", "refs/heads/release");
+
+        assertEquals(MessageQueueHandler.getOrderingKey(masterEvent),
+                MessageQueueHandler.getOrderingKey(otherMasterEvent));
+        assertNotEquals(MessageQueueHandler.getOrderingKey(masterEvent),
+                MessageQueueHandler.getOrderingKey(releaseEvent));
+        assertEquals(QueueTestEvent.TYPE, MessageQueueHandler.getOrderingKey(new QueueTestEvent()));
+    }
+
+    @Test
+    public void testOneSenderThreadRoutesAllQueuedEvents() {
+        when(pluginConfig.getEnum(anyString(), any())).thenReturn(OverflowPolicy.BLOCK);
+        MessageQueueHandler handler = createStartedHandler();
+        List<Runnable> submittedTasks = new ArrayList<>();
+        doAnswer(invocation -> submittedTasks.add(invocation.getArgument(0))).when(pool).execute(any());
+        handler.dispatch(createEvent(0), processedEvents::add);
+        handler.dispatch(createEvent(1), processedEvents::add);
+
+        submittedTasks.remove(0).run();
+        assertEquals("The first sender thread should route both events", 0, handler.getQueueSize());
+        while (!submittedTasks.isEmpty()) {
+            submittedTasks.remove(0).run();
+        }
+
+        assertEquals("Both events should be processed", 2, processedEvents.size());
+        assertEquals(0, processedEvents.get(0).eventCreatedOn);
+        assertEquals(1, processedEvents.get(1).eventCreatedOn);
+    }
+
+    @Test
+    public void testStopKeepsUnprocessedEventsForNextStart() {
+        when(pluginConfig.getEnum(anyString(), any())).thenReturn(OverflowPolicy.BLOCK);
+        when(pluginConfig.getInt(eq("senderDrainTimeoutMs"), anyInt())).thenReturn(0);
+        MessageQueueHandler handler = createStartedHandler();
+        for (int i = 0; i < 2; i++) {
+            handler.dispatch(new QueueTestEvent(), processedEvents::add);
+        }
+
+        handler.stop();
+
+        assertEquals("Queue should be empty", 0, handler.getQueueSize());
+        assertEquals("Unprocessed events should be spilled", 2, handler.getSpilledSize());
+        verify(pool).shutdown();
+        handler.dispatch(new QueueTestEvent(), processedEvents::add);
+        assertEquals("Events after stop should be spilled", 3, handler.getSpilledSize());
+    }
+
+    @Test
+    public void testStopMovesRetriesLeftToDeadLetters() {
+        when(pluginConfig.getEnum(anyString(), any())).thenReturn(OverflowPolicy.BLOCK);
+        when(pluginConfig.getInt(eq("senderDrainTimeoutMs"), anyInt())).thenReturn(0);
+        when(retryScheduler.getScheduledCount()).thenReturn(1);
+        MessageQueueHandler handler = createStartedHandler();
+
+        handler.stop();
+
+        InOrder inOrder = inOrder(pool, retryScheduler);
+        inOrder.verify(pool).setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        inOrder.verify(pool).shutdown();
+        inOrder.verify(retryScheduler).moveScheduledToDeadLetters();
+    }
+
+    @Test
+    public void testEventsCarriedOverByStopKeepTheirOrder() {
+        when(pluginConfig.getEnum(anyString(), any())).thenReturn(OverflowPolicy.SPILL_TO_DISK);
+        when(pluginConfig.getInt(eq("senderDrainTimeoutMs"), anyInt())).thenReturn(0);
+        MessageQueueHandler handler = createStartedHandler();
+        for (int i = 0; i < 5; i++) {
+            handler.dispatch(createEvent(i), processedEvents::add);
+        }
+        handler.stop();
+        assertEquals("All events should be spilled", 5, handler.getSpilledSize());
+
+        List<Event> spilledEvents = new SpillFileHandler(pluginDir).poll(5);
+        for (int i = 0; i < spilledEvents.size(); i++) {
+            assertEquals("Events should be spilled in dispatch order", i, spilledEvents.get(i).eventCreatedOn);
+        }
+    }
+
+    private static Event createEvent(final long eventCreatedOn) {
+        Event event = new QueueTestEvent();
+        event.eventCreatedOn = eventCreatedOn;
+        return event;
+    }
+
+    private MessageQueueHandler createStartedHandler() {
+        MessageQueueHandler handler = createHandler();
+        handler.start();
+        return handler;
+    }
+
+    private MessageQueueHandler createHandler() {
+        return new MessageQueueHandler(workQueue, configFactory, PLUGIN_NAME, pluginDir, eiffelEventOutbox,
+                retryScheduler, batchingPublisher, EiffelMetrics.DISABLED);
+    }
+
+    private void runSubmittedTasksInline() {
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(pool).execute(any());
+    }
+
+    static class QueueTestRefEvent extends RefEvent {
+        private final String project;
+        private final String refName;
+
+        QueueTestRefEvent(final String project, final String refName) {
+            super(QueueTestEvent.TYPE);
+            this.project = project;
+            this.refName = refName;
+        }
+
+        @Override
+        public Project.NameKey getProjectNameKey() {
+            return new Project.NameKey(project);
+        }
+
+        @Override
+        public String getRefName() {
+            return refName;
+        }
+    }
+
+    static class QueueTestEvent extends Event {
+        static final String TYPE = "eiffel-queue-test";
+
+        QueueTestEvent() {
+            super(TYPE);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics;
+import com.google.common.base.Suppliers;
+import com.google.gerrit.server.data.ChangeAttribute;
+import com.google.gerrit.server.data.PatchSetAttribute;
+import com.google.gerrit.server.events.ChangeMergedEvent;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.PatchSetCreatedEvent;
+
+public class PatchSetCoalescerTest {
+    private static final long WINDOW_MS = 500;
+
+    private ScheduledExecutorService executor;
+    private final List<Runnable> scheduledReleases = new ArrayList<>();
+    private final List<ScheduledFuture<?>> scheduledFutures = new ArrayList<>();
+    private final List<Event> releasedEvents = new ArrayList<>();
+    private PatchSetCoalescer coalescer;
+
+    @Before
+    public void init() {
+        executor = mock(ScheduledExecutorService.class);
+        when(executor.schedule(any(Runnable.class), eq(WINDOW_MS), eq(TimeUnit.MILLISECONDS))).then(invocation -> {
+            scheduledReleases.add(invocation.getArgument(0));
+            ScheduledFuture<?> scheduledFuture = mock(ScheduledFuture.class);
+            scheduledFutures.add(scheduledFuture);
+            return scheduledFuture;
+        });
+        coalescer = new PatchSetCoalescer(WINDOW_MS, () -> executor, releasedEvents::add, EiffelMetrics.DISABLED);
+    }
+
+    @Test
+    public void testNewestPatchSetIsReleasedAfterWindow() {
+        PatchSetCreatedEvent firstPatchSet = createPatchSetCreatedEvent(1, 1);
+        PatchSetCreatedEvent secondPatchSet = createPatchSetCreatedEvent(1, 2);
+        PatchSetCreatedEvent otherChange = createPatchSetCreatedEvent(2, 1);
+
+        assertTrue(coalescer.hold(firstPatchSet));
+        assertTrue(coalescer.hold(secondPatchSet));
+        assertTrue(coalescer.hold(otherChange));
+        assertEquals("One release should be scheduled per change", 2, scheduledReleases.size());
+        assertEquals("Nothing should be released before the window passed", 0, releasedEvents.size());
+
+        scheduledReleases.forEach(Runnable::run);
+
+        assertEquals("One patch set per change should be released", 2, releasedEvents.size());
+        assertSame("Newest patch set should replace the superseded one", secondPatchSet, releasedEvents.get(0));
+        assertSame(otherChange, releasedEvents.get(1));
+        assertEquals("No patch sets should be held", 0, coalescer.getHeldCount());
+    }
+
+    @Test
+    public void testOlderPatchSetDoesNotReplaceNewerOne() {
+        PatchSetCreatedEvent secondPatchSet = createPatchSetCreatedEvent(1, 2);
+
+        coalescer.hold(secondPatchSet);
+        coalescer.hold(createPatchSetCreatedEvent(1, 1));
+        scheduledReleases.forEach(Runnable::run);
+
+        assertEquals(1, releasedEvents.size());
+        assertSame(secondPatchSet, releasedEvents.get(0));
+    }
+
+    @Test
+    public void testOtherEventOfChangeReleasesHeldPatchSet() {
+        PatchSetCreatedEvent patchSet = createPatchSetCreatedEvent(1, 1);
+        coalescer.hold(patchSet);
+        coalescer.hold(createPatchSetCreatedEvent(2, 1));
+
+        coalescer.release(createChangeMergedEvent(1));
+
+        assertEquals("Only the patch set of the merged change should be released", 1, releasedEvents.size());
+        assertSame(patchSet, releasedEvents.get(0));
+        assertEquals(1, coalescer.getHeldCount());
+    }
+
+    @Test
+    public void testStaleReleaseDoesNotEndLaterWindow() {
+        PatchSetCreatedEvent firstPatchSet = createPatchSetCreatedEvent(1, 1);
+        PatchSetCreatedEvent secondPatchSet = createPatchSetCreatedEvent(1, 2);
+        coalescer.hold(firstPatchSet);
+        coalescer.release(createChangeMergedEvent(1));
+        coalescer.hold(secondPatchSet);
+
+        verify(scheduledFutures.get(0)).cancel(false);
+        scheduledReleases.get(0).run();
+        assertEquals("Release of the first window should not release the second one", 1, releasedEvents.size());
+        assertEquals(1, coalescer.getHeldCount());
+
+        scheduledReleases.get(1).run();
+        assertEquals(2, releasedEvents.size());
+        assertSame(secondPatchSet, releasedEvents.get(1));
+    }
+
+    @Test
+    public void testPatchSetIsNotHeldWithoutExecutor() {
+        PatchSetCoalescer stoppedCoalescer = new PatchSetCoalescer(WINDOW_MS, () -> null, releasedEvents::add,
+                EiffelMetrics.DISABLED);
+
+        assertFalse(stoppedCoalescer.hold(createPatchSetCreatedEvent(1, 1)));
+        assertEquals(0, stoppedCoalescer.getHeldCount());
+    }
+
+    private static PatchSetCreatedEvent createPatchSetCreatedEvent(final int changeNumber, final int patchSetNumber) {
+        PatchSetCreatedEvent patchSetCreatedEvent = mock(PatchSetCreatedEvent.class);
+        patchSetCreatedEvent.change = Suppliers.ofInstance(createChangeAttribute(changeNumber));
+        PatchSetAttribute patchSetAttribute = new PatchSetAttribute();
+        patchSetAttribute.number = patchSetNumber;
+        patchSetCreatedEvent.patchSet = Suppliers.ofInstance(patchSetAttribute);
+        return patchSetCreatedEvent;
+    }
+
+    private static ChangeMergedEvent createChangeMergedEvent(final int changeNumber) {
+        ChangeMergedEvent changeMergedEvent = mock(ChangeMergedEvent.class);
+        changeMergedEvent.change = Suppliers.ofInstance(createChangeAttribute(changeNumber));
+        return changeMergedEvent;
+    }
+
+    private static ChangeAttribute createChangeAttribute(final int changeNumber) {
+        ChangeAttribute changeAttribute = new ChangeAttribute();
+        changeAttribute.project = "my-project";
+        changeAttribute.number = changeNumber;
+        return changeAttribute;
+    }
+}
@@ -0,0 +1,91 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.EventTypes;
+
+public class SpillFileHandlerTest {
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private File pluginDir;
+
+    @Before
+    public void init() throws Exception {
+        EventTypes.register(SpillTestEvent.TYPE, SpillTestEvent.class);
+        pluginDir = testFolder.newFolder();
+    }
+
+    @Test
+    public void testPolledEventsAreNotHandedBackAfterRestart() {
+        SpillFileHandler spillFileHandler = new SpillFileHandler(pluginDir);
+        for (int i = 0; i < 5; i++) {
+            spillFileHandler.append(createEvent(i));
+        }
+
+        assertEquals(0, spillFileHandler.poll(2).get(0).eventCreatedOn);
+        assertEquals(3, spillFileHandler.size());
+
+        SpillFileHandler restartedSpillFileHandler = new SpillFileHandler(pluginDir);
+        assertEquals("Only unread events should be left", 3, restartedSpillFileHandler.size());
+        assertEquals(2, restartedSpillFileHandler.poll(1).get(0).eventCreatedOn);
+    }
+
+    @Test
+    public void testSpillFileIsRemovedWhenEverythingWasRead() {
+        SpillFileHandler spillFileHandler = new SpillFileHandler(pluginDir);
+        spillFileHandler.append(createEvent(0));
+        spillFileHandler.append(createEvent(1));
+
+        assertEquals(2, spillFileHandler.poll(5).size());
+
+        assertTrue(spillFileHandler.isEmpty());
+        assertFalse(new File(pluginDir, "spilled-events.json").exists());
+        assertFalse(new File(pluginDir, "spilled-events.offset").exists());
+    }
+
+    @Test
+    public void testPrependedEventsComeBeforeUnreadEvents() {
+        SpillFileHandler spillFileHandler = new SpillFileHandler(pluginDir);
+        for (int i = 2; i < 5; i++) {
+            spillFileHandler.append(createEvent(i));
+        }
+        spillFileHandler.poll(1);
+
+        spillFileHandler.prepend(Arrays.asList(createEvent(0), createEvent(1)));
+
+        List<Event> events = new SpillFileHandler(pluginDir).poll(10);
+        assertEquals(4, events.size());
+        assertEquals(0, events.get(0).eventCreatedOn);
+        assertEquals(1, events.get(1).eventCreatedOn);
+        assertEquals(3, events.get(2).eventCreatedOn);
+        assertEquals(4, events.get(3).eventCreatedOn);
+    }
+
+    private static Event createEvent(final long eventCreatedOn) {
+        Event event = new SpillTestEvent();
+        event.eventCreatedOn = eventCreatedOn;
+        return event;
+    }
+
+    static class SpillTestEvent extends Event {
+        static final String TYPE = "eiffel-spill-test";
+
+        SpillTestEvent() {
+            super(TYPE);
+        }
+    }
+}
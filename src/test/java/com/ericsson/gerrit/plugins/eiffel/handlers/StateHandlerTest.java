@@ -18,6 +18,8 @@ import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics;
+
 @RunWith(PowerMockRunner.class)
 @PrepareForTest(fullyQualifiedNames = "com.ericsson.gerrit.plugins.eiffel.*")
 public class StateHandlerTest {
@@ -40,8 +42,8 @@ public class StateHandlerTest {
         tmpFolderPath = testFolder.newFolder();
         dbHandler = mock(DataBaseHandler.class);
         String fileName = String.format("%s.%s", PROJECT, FILE_ENDING);
-        PowerMockito.whenNew(DataBaseHandler.class).withArguments(tmpFolderPath, fileName)
-                .thenReturn(dbHandler);
+        PowerMockito.whenNew(DataBaseHandler.class).withArguments(tmpFolderPath, fileName, SqliteTuning.DEFAULT,
+                EiffelMetrics.DISABLED).thenReturn(dbHandler);
         stateHandler = new StateHandler(tmpFolderPath);
     }
 
@@ -58,6 +60,13 @@ public class StateHandlerTest {
         assertTrue(parentDirectory.exists());
     }
 
+    @Test
+    public void testMissingParentOfNestedProjectGivesEmptyEventId() throws Exception {
+        String eventId = stateHandler.getLastSourceChangeSubmittedEiffelEvent("missing_parent/child", BRANCH);
+
+        assertEquals("Expected no event id for a project without state", "", eventId);
+    }
+
     @Test
     public void testgetLastSentEvent() throws Exception {
         Mockito.when(dbHandler.getEventID(Mockito.any(), Mockito.any())).thenReturn("eventID");
@@ -73,39 +82,48 @@ public class StateHandlerTest {
     }
 
     @Test
-    public void testUpdateLastEventCalled() throws Exception {
-        Mockito.when(dbHandler.getEventID(Table.SCS_TABLE, BRANCH)).thenReturn("old-event-id");
+    public void testRepeatedLookupsAreServedFromCache() throws Exception {
+        Mockito.when(dbHandler.getEventID(Table.SCS_TABLE, BRANCH)).thenReturn("eventID");
 
-        String eventId = "event-id";
-        stateHandler.setLastSourceChangeSubmittedEiffelEvent(PROJECT, BRANCH, eventId);
-        Mockito.verify(dbHandler).updateInto(Table.SCS_TABLE, BRANCH, eventId);
-        Mockito.verify(dbHandler, Mockito.never()).insertInto(Mockito.any(), Mockito.any(), Mockito.any());
+        stateHandler.getLastSourceChangeSubmittedEiffelEvent(PROJECT, BRANCH);
+        String eventId = stateHandler.getLastSourceChangeSubmittedEiffelEvent(PROJECT, BRANCH);
 
+        assertEquals("Cached event id should be returned", "eventID", eventId);
+        Mockito.verify(dbHandler, Mockito.times(1)).getEventID(Table.SCS_TABLE, BRANCH);
+        assertEquals("Second lookup should be a cache hit", 1, stateHandler.getEventIdCache().getHitCount());
     }
 
     @Test
-    public void testInsertLastEventCalled() throws Exception {
-        Mockito.when(dbHandler.getEventID(Table.SCS_TABLE, BRANCH)).thenReturn("");
+    public void testStoredEventIsWrittenThroughToCache() throws Exception {
+        stateHandler.setLastSourceChangeCreatedEiffelEvent(PROJECT, BRANCH, "event-id");
+        String eventId = stateHandler.getLastSourceChangeCreatedEiffelEvent(PROJECT, BRANCH);
 
+        assertEquals("Stored event id should be returned", "event-id", eventId);
+        Mockito.verify(dbHandler, Mockito.never()).getEventID(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void testStoreUsesSingleUpsert() throws Exception {
         String eventId = "event-id";
         stateHandler.setLastSourceChangeSubmittedEiffelEvent(PROJECT, BRANCH, eventId);
-        Mockito.verify(dbHandler, Mockito.never()).updateInto(Mockito.any(), Mockito.any(), Mockito.any());
-        Mockito.verify(dbHandler).insertInto(Table.SCS_TABLE, BRANCH, eventId);
+        stateHandler.setLastSourceChangeCreatedEiffelEvent(PROJECT, BRANCH, eventId);
 
+        Mockito.verify(dbHandler).upsertInto(Table.SCS_TABLE, BRANCH, eventId);
+        Mockito.verify(dbHandler).upsertInto(Table.SCC_TABLE, BRANCH, eventId);
+        Mockito.verify(dbHandler, Mockito.never()).getEventID(Mockito.any(), Mockito.any());
+        Mockito.verify(dbHandler, Mockito.never()).updateInto(Mockito.any(), Mockito.any(), Mockito.any());
+        Mockito.verify(dbHandler, Mockito.never()).insertInto(Mockito.any(), Mockito.any(), Mockito.any());
     }
 
     @Test
     public void testConnectionErrorsHandled() throws Exception {
-        Mockito.when(dbHandler.getEventID(Table.SCS_TABLE, PROJECT)).thenThrow(new ConnectException("Test Exception"));
-
         String eventId = "event-id";
+        Mockito.doThrow(new ConnectException("Test Exception")).when(dbHandler).upsertInto(Table.SCS_TABLE, BRANCH,
+                eventId);
 
         exception.expect(NoSuchElementException.class);
         stateHandler.setLastSourceChangeSubmittedEiffelEvent(PROJECT, BRANCH, eventId);
 
-        Mockito.verify(dbHandler, Mockito.never()).updateInto(Mockito.any(), Mockito.any(), Mockito.any());
-        Mockito.verify(dbHandler, Mockito.never()).insertInto(Mockito.any(), Mockito.any(), Mockito.any());
-
         assertEquals("Error occured return empty string.", "",
                 stateHandler.getLastSourceChangeSubmittedEiffelEvent("", ""));
 
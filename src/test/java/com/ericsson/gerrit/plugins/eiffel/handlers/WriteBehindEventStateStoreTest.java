@@ -0,0 +1,99 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteBehindEventStateStoreTest {
+    private static final String PROJECT = "project_test";
+    private static final String OTHER_PROJECT = "parent/child";
+    private static final String BRANCH = "branch_test";
+
+    private EventStateStore delegate;
+
+    @Before
+    public void init() {
+        delegate = spy(new InMemoryEventStateStore());
+    }
+
+    @Test
+    public void testPendingEventIdsAreReadBeforeFlush() throws Exception {
+        WriteBehindEventStateStore store = new WriteBehindEventStateStore(delegate, 10, 0, null);
+
+        store.put(PROJECT, Table.SCS_TABLE, BRANCH, "event-id");
+
+        assertEquals("Pending event id should be returned", "event-id", store.get(PROJECT, Table.SCS_TABLE, BRANCH));
+        assertEquals("Pending event id should be listed", "event-id",
+                store.getAll(PROJECT, Table.SCS_TABLE).get(BRANCH));
+        verify(delegate, never()).putAll(anyString(), any());
+    }
+
+    @Test
+    public void testFullBatchIsWrittenOncePerProject() throws Exception {
+        WriteBehindEventStateStore store = new WriteBehindEventStateStore(delegate, 5, 0, null);
+
+        store.put(PROJECT, Table.SCS_TABLE, BRANCH, "first-event");
+        store.put(PROJECT, Table.SCS_TABLE, BRANCH, "second-event");
+        store.put(PROJECT, Table.SCC_TABLE, "change", "scc-event");
+        store.put(OTHER_PROJECT, Table.SCS_TABLE, BRANCH, "other-event");
+        store.put(PROJECT, Table.SCS_TABLE, "other_branch", "third-event");
+        store.put(OTHER_PROJECT, Table.SCS_TABLE, "other_branch", "fourth-event");
+
+        verify(delegate, times(1)).putAll(eq(PROJECT), any());
+        verify(delegate, times(1)).putAll(eq(OTHER_PROJECT), any());
+        assertEquals("Nothing should be pending", 0, store.getPendingCount());
+        assertEquals("second-event", delegate.get(PROJECT, Table.SCS_TABLE, BRANCH));
+        assertEquals("fourth-event", delegate.get(OTHER_PROJECT, Table.SCS_TABLE, "other_branch"));
+    }
+
+    @Test
+    public void testFailedFlushKeepsEventIdsPending() throws Exception {
+        WriteBehindEventStateStore store = new WriteBehindEventStateStore(delegate, 10, 0, null);
+        doThrow(new IOException("Exception thrown by test")).when(delegate).putAll(eq(PROJECT), any());
+
+        store.put(PROJECT, Table.SCS_TABLE, BRANCH, "event-id");
+        store.put(OTHER_PROJECT, Table.SCS_TABLE, BRANCH, "other-event");
+        try {
+            store.flush();
+        } catch (IOException e) {
+            // Expected, the other project should still be flushed.
+        }
+
+        assertEquals("Failed project should stay pending", 1, store.getPendingCount());
+        assertEquals("event-id", store.get(PROJECT, Table.SCS_TABLE, BRANCH));
+        assertEquals("other-event", delegate.get(OTHER_PROJECT, Table.SCS_TABLE, BRANCH));
+    }
+
+    @Test
+    public void testFailedFlushOfFullBacklogDoesNotFailPut() throws Exception {
+        WriteBehindEventStateStore store = new WriteBehindEventStateStore(delegate, 1, 0, null);
+        doThrow(new IOException("Exception thrown by test")).when(delegate).putAll(eq(PROJECT), any());
+
+        store.put(PROJECT, Table.SCS_TABLE, BRANCH, "event-id");
+
+        assertEquals("Event id should stay pending", 1, store.getPendingCount());
+        assertEquals("event-id", store.get(PROJECT, Table.SCS_TABLE, BRANCH));
+    }
+
+    @Test
+    public void testCloseFlushesPendingEventIds() throws Exception {
+        WriteBehindEventStateStore store = new WriteBehindEventStateStore(delegate, 10, 0, null);
+
+        store.put(PROJECT, Table.SCS_TABLE, BRANCH, "event-id");
+        store.close();
+
+        verify(delegate).putAll(eq(PROJECT), any());
+        verify(delegate).close();
+    }
+}
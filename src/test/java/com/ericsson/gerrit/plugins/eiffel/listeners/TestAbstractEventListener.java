@@ -2,15 +2,20 @@ package com.ericsson.gerrit.plugins.eiffel.listeners;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.when;
 
 import java.io.File;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.handlers.DeduplicationIndex;
+import com.ericsson.gerrit.plugins.eiffel.handlers.SqliteTuning;
 import com.google.common.base.Supplier;
 import com.google.gerrit.server.data.AccountAttribute;
 import com.google.gerrit.server.data.ChangeAttribute;
@@ -20,6 +25,9 @@ import com.google.gerrit.server.events.Event;
 
 public class TestAbstractEventListener {
 
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
     private ListenerTestMock listenerTestMock;
     private EiffelPluginConfiguration pluginConfig;
     private ChangeMergedEvent changeMergedEvent;
@@ -163,6 +171,41 @@ public class TestAbstractEventListener {
                 methodWasCalled);
     }
 
+    @Test
+    public void testFailedEventIsProcessedWhenDeliveredAgain() throws Throwable {
+        DeduplicationIndex deduplicationIndex = new DeduplicationIndex(testFolder.newFolder(), null,
+                SqliteTuning.DEFAULT, true, 60000, 100, System::currentTimeMillis);
+        deduplicationIndex.start();
+        listenerTestMock.setDeduplicationIndex(deduplicationIndex);
+        when(pluginConfig.isEnabled()).thenReturn(true);
+        listenerTestMock.setPluginConfig(pluginConfig);
+        listenerTestMock.setDeduplicationKey("change-merged:my-project:1");
+
+        try {
+            listenerTestMock.setPrepareFailure(new IllegalStateException("Generation failed"));
+            listenerTestMock.setIsExpectedGerritEvent(true);
+            try {
+                listenerTestMock.onEvent(changeMergedEvent);
+                fail("Expected the failure to be thrown");
+            } catch (IllegalStateException e) {
+                listenerTestMock.isPrepareAndSendEiffelEventMethodCalled();
+            }
+
+            listenerTestMock.setPrepareFailure(null);
+            listenerTestMock.setIsExpectedGerritEvent(true);
+            listenerTestMock.onEvent(changeMergedEvent);
+            assertTrue("Event that failed should be processed when delivered again",
+                    listenerTestMock.isPrepareAndSendEiffelEventMethodCalled());
+
+            listenerTestMock.setIsExpectedGerritEvent(true);
+            listenerTestMock.onEvent(changeMergedEvent);
+            assertFalse("Event that was sent should be skipped when delivered again",
+                    listenerTestMock.isPrepareAndSendEiffelEventMethodCalled());
+        } finally {
+            deduplicationIndex.stop();
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private void setUpMocks() {
         pluginConfig = mock(EiffelPluginConfiguration.class);
@@ -199,6 +242,8 @@ class ListenerTestMock extends AbstractEventListener {
     private boolean isPrepareAndSendEiffelEventMethodCalled = false;
     private boolean isExpectedGerritEvent = false;
     private EiffelPluginConfiguration pluginConfig;
+    private String deduplicationKey;
+    private RuntimeException prepareFailure;
 
     public ListenerTestMock(String pluginName, File pluginDir) {
         super(pluginName, pluginDir);
@@ -208,6 +253,14 @@ class ListenerTestMock extends AbstractEventListener {
         this.pluginConfig = pluginConfig;
     }
 
+    public void setDeduplicationKey(String deduplicationKey) {
+        this.deduplicationKey = deduplicationKey;
+    }
+
+    public void setPrepareFailure(RuntimeException prepareFailure) {
+        this.prepareFailure = prepareFailure;
+    }
+
     public void setIsExpectedGerritEvent(boolean isExpectedGerritEvent) {
         this.isExpectedGerritEvent = isExpectedGerritEvent;
     }
@@ -244,6 +297,19 @@ class ListenerTestMock extends AbstractEventListener {
         return isEiffelEventSendingEnabled(gerritEvent, pluginConfig);
     }
 
+    @Override
+    protected String getDeduplicationKey(Event gerritEvent) {
+        return deduplicationKey;
+    }
+
+    /**
+     * Process the Gerrit event directly instead of going through the sender queue.
+     */
+    @Override
+    protected void dispatchGerritEvent(Event gerritEvent) {
+        processGerritEvent(gerritEvent);
+    }
+
     /**
      * This method is enforced by the AbstractEventListener and not used in test.
      */
@@ -263,6 +329,9 @@ class ListenerTestMock extends AbstractEventListener {
     protected void prepareAndSendEiffelEvent(Event gerritEvent,
             EiffelPluginConfiguration pluginConfig) {
         isPrepareAndSendEiffelEventMethodCalled = true;
+        if (prepareFailure != null) {
+            throw prepareFailure;
+        }
     }
 
 }
\ No newline at end of file
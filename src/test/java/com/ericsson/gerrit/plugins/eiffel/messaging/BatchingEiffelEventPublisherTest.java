@@ -0,0 +1,233 @@
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.longThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeCreatedEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeSubmittedEvent;
+import com.google.gerrit.server.git.WorkQueue;
+
+public class BatchingEiffelEventPublisherTest {
+    private static final String SCS_TYPE = "EiffelSourceChangeSubmittedEvent";
+    private static final String SCC_TYPE = "EiffelSourceChangeCreatedEvent";
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private EiffelEventSender sender;
+    private DeadLetterStore deadLetterStore;
+    private EiffelPluginConfiguration pluginConfig;
+    private final List<List<SerializedEiffelEvent>> sentBatches = new ArrayList<>();
+
+    @Before
+    public void init() throws IOException {
+        sender = mock(EiffelEventSender.class);
+        deadLetterStore = mock(DeadLetterStore.class);
+        pluginConfig = mock(EiffelPluginConfiguration.class);
+        when(pluginConfig.getRemremPublishURL()).thenReturn("https://localhost:8080/publish");
+        when(sender.sendAll(anyString(), anyList(), any())).then(invocation -> {
+            List<SerializedEiffelEvent> events = new ArrayList<>(invocation.getArgument(1));
+            sentBatches.add(events);
+            List<PublishResult> results = new ArrayList<>();
+            events.forEach(event -> results.add(new PublishResult("id", 200, "OK")));
+            return results;
+        });
+    }
+
+    @Test
+    public void testFullBatchIsSentInOneRequest() throws IOException {
+        BatchingEiffelEventPublisher publisher = createPublisher(3, 1024 * 1024);
+
+        for (int i = 0; i < 3; i++) {
+            publisher.publish(createSubmittedEvent(), pluginConfig);
+        }
+
+        assertEquals("Expected a single request", 1, sentBatches.size());
+        assertEquals("Expected all events in the request", 3, sentBatches.get(0).size());
+        assertEquals("Nothing should be pending", 0, publisher.getPendingCount());
+    }
+
+    @Test
+    public void testEventTypesAreBatchedSeparately() throws IOException {
+        BatchingEiffelEventPublisher publisher = createPublisher(10, 1024 * 1024);
+
+        publisher.publish(createSubmittedEvent(), pluginConfig);
+        publisher.publish(createCreatedEvent(), pluginConfig);
+        publisher.publish(createSubmittedEvent(), pluginConfig);
+        verify(sender, never()).sendAll(anyString(), anyList(), any());
+
+        publisher.flushAll();
+        verify(sender).sendAll(eq(SCS_TYPE), anyList(), any());
+        verify(sender).sendAll(eq(SCC_TYPE), anyList(), any());
+    }
+
+    @Test
+    public void testBatchIsSentWhenByteLimitIsReached() throws IOException {
+        BatchingEiffelEventPublisher publisher = createPublisher(10, 1);
+
+        publisher.publish(createSubmittedEvent(), pluginConfig);
+
+        assertEquals("Expected the event to be sent right away", 1, sentBatches.size());
+    }
+
+    @Test
+    public void testOnlyFailedEventsAreRetried() throws IOException {
+        when(sender.sendAll(anyString(), anyList(), any())).thenReturn(
+                Arrays.asList(new PublishResult("id", 200, "OK"), new PublishResult(null, 503, "Unavailable"),
+                        new PublishResult(null, 400, "Bad Request")),
+                Arrays.asList(new PublishResult("id", 200, "OK")));
+        BatchingEiffelEventPublisher publisher = createPublisher(3, 1024 * 1024);
+
+        for (int i = 0; i < 3; i++) {
+            publisher.publish(createSubmittedEvent(), pluginConfig);
+        }
+        assertEquals("Expected only the retryable event to be kept", 1, publisher.getPendingCount());
+
+        publisher.flushAll();
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<SerializedEiffelEvent>> batches = ArgumentCaptor.forClass(List.class);
+        verify(sender, times(2)).sendAll(anyString(), batches.capture(), any());
+        assertEquals("Expected a single event in the retry", 1, batches.getAllValues().get(1).size());
+        assertEquals("Nothing should be pending", 0, publisher.getPendingCount());
+    }
+
+    @Test
+    public void testEventIsMovedToDeadLettersAfterMaxAttempts() throws IOException {
+        when(sender.sendAll(anyString(), anyList(), any())).thenThrow(new IOException("Exception thrown by test"));
+        BatchingEiffelEventPublisher publisher = createPublisher(1, 1024 * 1024);
+
+        publisher.publish(createSubmittedEvent(), pluginConfig);
+        publisher.flushAll();
+
+        verify(sender, times(2)).sendAll(anyString(), anyList(), any());
+        assertEquals("Expected the event to be dropped", 0, publisher.getPendingCount());
+        verify(deadLetterStore, times(1)).add(any(), any(), any());
+    }
+
+    @Test
+    public void testDeadLettersKeepTheProjectOfTheirEvent() throws IOException {
+        when(sender.sendAll(anyString(), anyList(), any())).thenThrow(new IOException("Exception thrown by test"));
+        EiffelPluginConfiguration otherPluginConfig = mock(EiffelPluginConfiguration.class);
+        when(otherPluginConfig.getRemremPublishURL()).thenReturn("https://localhost:8080/publish");
+        when(otherPluginConfig.getProject()).thenReturn("other-project");
+        when(pluginConfig.getProject()).thenReturn("my-project");
+        BatchingEiffelEventPublisher publisher = createPublisher(10, 1024 * 1024);
+
+        publisher.publish(createSubmittedEvent(), pluginConfig);
+        publisher.publish(createSubmittedEvent(), otherPluginConfig);
+        publisher.flushAll();
+        publisher.flushAll();
+
+        verify(deadLetterStore, times(1)).add(eq("my-project"), any(), any());
+        verify(deadLetterStore, times(1)).add(eq("other-project"), any(), any());
+    }
+
+    @Test
+    public void testFailedEventWaitsForBackoffBeforeRetry() throws IOException {
+        WorkQueue workQueue = mock(WorkQueue.class);
+        WorkQueue.Executor executor = mock(WorkQueue.Executor.class);
+        when(workQueue.createQueue(anyInt(), anyString())).thenReturn(executor);
+        List<Runnable> delayedRetries = new ArrayList<>();
+        when(executor.schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS))).then(invocation -> {
+            delayedRetries.add(invocation.getArgument(0));
+            return null;
+        });
+        when(sender.sendAll(anyString(), anyList(), any())).thenReturn(
+                Arrays.asList(new PublishResult(null, 503, "Unavailable")),
+                Arrays.asList(new PublishResult("id", 200, "OK")));
+        RemremEndpoints remremEndpoints = new RemremEndpoints(5, 30000, 1, 4, 5000, System::currentTimeMillis);
+        BatchingEiffelEventPublisher publisher = new BatchingEiffelEventPublisher(sender, deadLetterStore,
+                remremEndpoints, createRetryScheduler(remremEndpoints), workQueue, true, 1, 1024 * 1024, 0, 2);
+        publisher.start();
+
+        publisher.publish(createSubmittedEvent(), pluginConfig);
+        publisher.flushAll();
+        verify(sender, times(1)).sendAll(anyString(), anyList(), any());
+        verify(executor).schedule(any(Runnable.class), longThat(delay -> delay <= RETRY_DELAY_MS),
+                eq(TimeUnit.MILLISECONDS));
+        assertEquals("Expected the event to wait for its retry", 1, publisher.getPendingCount());
+
+        delayedRetries.forEach(Runnable::run);
+        verify(sender, times(2)).sendAll(anyString(), anyList(), any());
+        assertEquals("Nothing should be pending", 0, publisher.getPendingCount());
+    }
+
+    @Test
+    public void testStopSendsCollectedEventsAndShutsDownTheQueue() throws IOException {
+        WorkQueue workQueue = mock(WorkQueue.class);
+        WorkQueue.Executor executor = mock(WorkQueue.Executor.class);
+        when(workQueue.createQueue(anyInt(), anyString())).thenReturn(executor);
+        RemremEndpoints remremEndpoints = new RemremEndpoints(5, 30000, 1, 4, 5000, System::currentTimeMillis);
+        BatchingEiffelEventPublisher publisher = new BatchingEiffelEventPublisher(sender, deadLetterStore,
+                remremEndpoints, createRetryScheduler(remremEndpoints), workQueue, true, 10, 1024 * 1024, 100, 2);
+        publisher.start();
+
+        publisher.publish(createSubmittedEvent(), pluginConfig);
+        publisher.stop();
+
+        assertEquals("Expected the collected event to be sent", 1, sentBatches.size());
+        verify(executor).shutdownNow();
+    }
+
+    @Test
+    public void testEventsLeftAtStopAreMovedToDeadLetters() throws IOException {
+        WorkQueue workQueue = mock(WorkQueue.class);
+        when(workQueue.createQueue(anyInt(), anyString())).thenReturn(mock(WorkQueue.Executor.class));
+        when(sender.sendAll(anyString(), anyList(), any())).thenReturn(
+                Arrays.asList(new PublishResult(null, 503, "Unavailable")));
+        RemremEndpoints remremEndpoints = new RemremEndpoints(5, 30000, 1, 4, 5000, System::currentTimeMillis);
+        BatchingEiffelEventPublisher publisher = new BatchingEiffelEventPublisher(sender, deadLetterStore,
+                remremEndpoints, createRetryScheduler(remremEndpoints), workQueue, true, 10, 1024 * 1024, 100, 3);
+        publisher.start();
+
+        publisher.publish(createSubmittedEvent(), pluginConfig);
+        publisher.stop();
+
+        verify(sender, times(1)).sendAll(anyString(), anyList(), any());
+        verify(deadLetterStore, times(1)).add(any(), any(), any());
+        assertEquals("Nothing should be pending", 0, publisher.getPendingCount());
+    }
+
+    private BatchingEiffelEventPublisher createPublisher(final int maxEvents, final int maxBytes) {
+        RemremEndpoints remremEndpoints = new RemremEndpoints(5, 30000, 1, 4, 5000, System::currentTimeMillis);
+        return new BatchingEiffelEventPublisher(sender, deadLetterStore, remremEndpoints,
+                createRetryScheduler(remremEndpoints), null, true, maxEvents, maxBytes, 0, 2);
+    }
+
+    private RetryScheduler createRetryScheduler(final RemremEndpoints remremEndpoints) {
+        return new RetryScheduler(() -> null, sender, deadLetterStore, remremEndpoints, 1, RETRY_DELAY_MS,
+                RETRY_DELAY_MS);
+    }
+
+    private static EiffelSourceChangeSubmittedEvent createSubmittedEvent() {
+        EiffelSourceChangeSubmittedEvent eiffelEvent = new EiffelSourceChangeSubmittedEvent();
+        eiffelEvent.msgParams.meta.type = SCS_TYPE;
+        return eiffelEvent;
+    }
+
+    private static EiffelSourceChangeCreatedEvent createCreatedEvent() {
+        EiffelSourceChangeCreatedEvent eiffelEvent = new EiffelSourceChangeCreatedEvent();
+        eiffelEvent.msgParams.meta.type = SCC_TYPE;
+        return eiffelEvent;
+    }
+}
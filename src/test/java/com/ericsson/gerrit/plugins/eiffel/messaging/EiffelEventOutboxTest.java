@@ -0,0 +1,193 @@
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeSubmittedEvent;
+import com.google.gerrit.reviewdb.client.Project.NameKey;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+
+public class EiffelEventOutboxTest {
+    private static final String PLUGIN_NAME = "Eiffel-Integration";
+    private static final String PROJECT = "my-project";
+    private static final String REMREM_URL = "https://localhost:8080/publish";
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private File pluginDir;
+    private EiffelEventSender sender;
+    private WorkQueue.Executor executor;
+    private BatchingEiffelEventPublisher batchingPublisher;
+    private DeadLetterStore deadLetterStore;
+    private WorkQueue workQueue;
+    private PluginConfigFactory configFactory;
+    private EiffelPluginConfiguration pluginConfig;
+
+    @Before
+    public void init() throws Exception {
+        pluginDir = testFolder.newFolder();
+        deadLetterStore = new DeadLetterStore(pluginDir);
+        sender = mock(EiffelEventSender.class);
+        batchingPublisher = mock(BatchingEiffelEventPublisher.class);
+        workQueue = mock(WorkQueue.class);
+        executor = mock(WorkQueue.Executor.class);
+        when(workQueue.createQueue(anyInt(), anyString())).thenReturn(executor);
+        when(executor.awaitTermination(anyLong(), any())).thenReturn(true);
+
+        PluginConfig projectConfig = mock(PluginConfig.class);
+        when(projectConfig.getBoolean(eq(EiffelPluginConfiguration.ENABLED), any(Boolean.class))).thenReturn(true);
+        when(projectConfig.getString(EiffelPluginConfiguration.REMREM_PUBLISH_URL)).thenReturn(REMREM_URL);
+        configFactory = mock(PluginConfigFactory.class);
+        when(configFactory.getFromProjectConfig(new NameKey(PROJECT), PLUGIN_NAME)).thenReturn(projectConfig);
+        pluginConfig = new EiffelPluginConfiguration(PLUGIN_NAME, new NameKey(PROJECT), configFactory);
+    }
+
+    @Test
+    public void testPublishedEventsAreNotReplayed() throws IOException {
+        when(sender.publish(any(), any())).thenReturn(new PublishResult("id", 200, null));
+        runDrainerTasksInline();
+        EiffelEventOutbox outbox = createStartedOutbox();
+
+        outbox.add(createSubmittedEvent(), pluginConfig);
+        outbox.add(createSubmittedEvent(), pluginConfig);
+        outbox.stop();
+
+        assertEquals("Expected nothing pending", 0, outbox.getPendingCount());
+        assertEquals("Expected nothing to replay", 0, createStartedOutbox().replay());
+    }
+
+    @Test
+    public void testOutboxIsDrainedByAsManyThreadsAsSenders() {
+        createStartedOutbox();
+
+        verify(workQueue).createQueue(2, "Eiffel Outbox Drainer");
+    }
+
+    @Test
+    public void testUnpublishedEventsAreReplayedOnStart() throws IOException {
+        EiffelEventOutbox outbox = createStartedOutbox();
+        outbox.add(createSubmittedEvent(), pluginConfig);
+        outbox.stop();
+        assertEquals("Expected the event to be kept", 1, outbox.getPendingCount());
+
+        when(sender.publish(any(), any())).thenReturn(new PublishResult("id", 200, null));
+        runDrainerTasksInline();
+        EiffelEventOutbox restartedOutbox = createStartedOutbox();
+        assertEquals("Expected the event to be replayed", 1, restartedOutbox.replay());
+
+        verify(sender, times(1)).publish(any(), any());
+        assertEquals("Expected nothing pending", 0, restartedOutbox.getPendingCount());
+    }
+
+    @Test
+    public void testEventsThatKeepFailingAreRemoved() throws IOException {
+        when(sender.publish(any(), any())).thenReturn(new PublishResult(null, 503, "Service Unavailable"));
+        runDrainerTasksInline();
+        EiffelEventOutbox outbox = createStartedOutbox();
+
+        outbox.add(createSubmittedEvent(), pluginConfig);
+
+        assertEquals("Expected the event to be removed", 0, outbox.getPendingCount());
+        assertEquals("Expected the event in the dead letters", 1, deadLetterStore.size());
+        assertEquals("Expected the event to be kept as it was sent", "EiffelSourceChangeSubmittedEvent",
+                deadLetterStore.readAll().get(0).getAsJsonObject("event").getAsJsonObject("msgParams")
+                               .getAsJsonObject("meta").get("type").getAsString());
+    }
+
+    @Test
+    public void testRejectedEventsAreRemoved() throws IOException {
+        when(sender.publish(any(), any())).thenReturn(new PublishResult(null, 400, "Bad Request"));
+        runDrainerTasksInline();
+        EiffelEventOutbox outbox = createStartedOutbox();
+
+        outbox.add(createSubmittedEvent(), pluginConfig);
+
+        assertEquals("Expected the rejected event to be removed", 0, outbox.getPendingCount());
+        assertEquals("Expected no dead letters", 0, deadLetterStore.size());
+    }
+
+    @Test
+    public void testStopShutsDownTheDrainer() throws Exception {
+        EiffelEventOutbox outbox = createStartedOutbox();
+
+        outbox.stop();
+
+        verify(executor).shutdown();
+        verify(executor).awaitTermination(anyLong(), any());
+        verify(batchingPublisher).flushAll();
+    }
+
+    @Test
+    public void testEventAddedAfterStopIsSentWithoutOutbox() throws IOException {
+        when(sender.publish(any(), any())).thenReturn(new PublishResult("id", 200, null));
+        EiffelEventOutbox outbox = createStartedOutbox();
+        outbox.stop();
+
+        outbox.add(createSubmittedEvent(), pluginConfig);
+
+        verify(sender, times(1)).publish(any(), any());
+        assertEquals("Expected nothing written to the closed outbox", 0, outbox.getPendingCount());
+    }
+
+    @Test
+    public void testAcknowledgementAfterStopIsIgnored() throws IOException {
+        when(batchingPublisher.isEnabled()).thenReturn(true);
+        runDrainerTasksInline();
+        EiffelEventOutbox outbox = createStartedOutbox();
+        outbox.add(createSubmittedEvent(), pluginConfig);
+        outbox.stop();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Consumer<PublishResult>> onCompletion = ArgumentCaptor.forClass(Consumer.class);
+        verify(batchingPublisher).publish(any(SerializedEiffelEvent.class), any(), onCompletion.capture());
+        onCompletion.getValue().accept(new PublishResult("id", 200, null));
+
+        assertEquals("Expected the event to be replayed", 1, createStartedOutbox().replay());
+    }
+
+    private EiffelEventOutbox createStartedOutbox() {
+        RemremEndpoints remremEndpoints = new RemremEndpoints(5, 30000, 1, 4, 5000, System::currentTimeMillis);
+        RetryScheduler retryScheduler = new RetryScheduler(() -> null, sender, deadLetterStore, remremEndpoints, 1,
+                1, 1);
+        EiffelEventOutbox outbox = new EiffelEventOutbox(pluginDir, PLUGIN_NAME, configFactory, retryScheduler,
+                batchingPublisher, workQueue, true, 4096, 0, 2);
+        outbox.start();
+        return outbox;
+    }
+
+    private void runDrainerTasksInline() {
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(executor).execute(any());
+    }
+
+    private static EiffelSourceChangeSubmittedEvent createSubmittedEvent() {
+        EiffelSourceChangeSubmittedEvent eiffelEvent = new EiffelSourceChangeSubmittedEvent();
+        eiffelEvent.msgParams.meta.type = "EiffelSourceChangeSubmittedEvent";
+        return eiffelEvent;
+    }
+}
@@ -0,0 +1,118 @@
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeSubmittedEvent;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class EiffelEventSenderTest {
+    private static final String MSG_TYPE = "EiffelSourceChangeSubmittedEvent";
+    private static final String USERNAME = "dummyUser";
+    private static final String PASSWORD = "dummypassword";
+
+    private HttpServer server;
+    private EiffelEventSender sender;
+    private EiffelPluginConfiguration pluginConfig;
+    private final List<String> requestUris = new ArrayList<>();
+    private final List<String> authorizationHeaders = new ArrayList<>();
+    private int responseStatus = 200;
+    private String responseBody = "{\"events\":[{\"id\":\"published-id\",\"status_code\":200,"
+            + "\"result\":\"SUCCESS\"}]}";
+
+    @Before
+    public void init() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/publish", this::handle);
+        server.start();
+
+        sender = new EiffelEventSender(1000, 1000, 4, 2);
+        pluginConfig = mock(EiffelPluginConfiguration.class);
+        when(pluginConfig.getRemremPublishURL())
+                .thenReturn(String.format("http://localhost:%d/publish/", server.getAddress().getPort()));
+        when(pluginConfig.getRemremUsername()).thenReturn(USERNAME);
+        when(pluginConfig.getRemremPassword()).thenReturn(PASSWORD);
+    }
+
+    @After
+    public void tearDown() {
+        sender.stop();
+        server.stop(0);
+    }
+
+    @Test
+    public void testEventIsPublishedWithBasicAuth() throws IOException {
+        String eventId = sender.send(createEiffelEvent(), pluginConfig);
+
+        assertEquals("Expected id returned by REMReM", "published-id", eventId);
+        assertEquals("/publish/generateAndPublish?mp=eiffelsemantics&msgType=" + MSG_TYPE, requestUris.get(0));
+        String expectedCredentials = Base64.getEncoder()
+                                           .encodeToString((USERNAME + ":" + PASSWORD).getBytes(
+                                                   StandardCharsets.UTF_8));
+        assertEquals("Basic " + expectedCredentials, authorizationHeaders.get(0));
+    }
+
+    @Test
+    public void testConnectionIsKeptAliveBetweenEvents() throws IOException {
+        sender.send(createEiffelEvent(), pluginConfig);
+        sender.send(createEiffelEvent(), pluginConfig);
+
+        assertEquals("Expected two published events", 2, requestUris.size());
+        assertEquals("Expected the connection to be kept for reuse", 1, sender.getIdleConnectionCount());
+    }
+
+    @Test
+    public void testBatchReturnsResultPerEvent() throws IOException {
+        responseBody = "[{\"id\":\"first-id\",\"status_code\":200,\"result\":\"SUCCESS\"},"
+                + "{\"status_code\":503,\"result\":\"SERVICE_UNAVAILABLE\",\"message\":\"Try again\"}]";
+        responseStatus = 207;
+        List<SerializedEiffelEvent> eiffelEvents = Arrays.asList(SerializedEiffelEvent.of(createEiffelEvent()),
+                SerializedEiffelEvent.of(createEiffelEvent()));
+
+        List<PublishResult> results = sender.sendAll(MSG_TYPE, eiffelEvents, pluginConfig);
+
+        assertEquals("first-id", results.get(0).getEventId());
+        assertTrue("Expected first event to be published", results.get(0).isPublished());
+        assertTrue("Expected second event to be retryable", results.get(1).isRetryable());
+    }
+
+    @Test(expected = IOException.class)
+    public void testErrorResponseThrows() throws IOException {
+        responseStatus = 500;
+        sender.send(createEiffelEvent(), pluginConfig);
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        requestUris.add(exchange.getRequestURI().toString());
+        authorizationHeaders.add(exchange.getRequestHeaders().getFirst("Authorization"));
+        byte[] response = responseBody.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(responseStatus, response.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(response);
+        }
+    }
+
+    private static EiffelSourceChangeSubmittedEvent createEiffelEvent() {
+        EiffelSourceChangeSubmittedEvent eiffelEvent = new EiffelSourceChangeSubmittedEvent();
+        eiffelEvent.msgParams.meta.type = MSG_TYPE;
+        return eiffelEvent;
+    }
+}
@@ -0,0 +1,69 @@
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeCreatedEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.models.Link;
+import com.ericsson.gerrit.plugins.eiffel.messaging.EiffelEventSerializer.JsonBuffer;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+public class EiffelEventSerializerTest {
+    private final Gson gson = new Gson();
+
+    @Test
+    public void testEventIsWrittenLikeTheJsonTree() {
+        EiffelSourceChangeCreatedEvent eiffelEvent = createEiffelEvent();
+        String expected = gson.toJsonTree(eiffelEvent).toString();
+
+        try (JsonBuffer buffer = EiffelEventSerializer.write(eiffelEvent)) {
+            assertEquals(expected, buffer.toString());
+            assertEquals(expected.getBytes(StandardCharsets.UTF_8).length, buffer.size());
+        }
+        try (JsonBuffer buffer = EiffelEventSerializer.write(gson.toJsonTree(eiffelEvent))) {
+            assertEquals(expected, buffer.toString());
+        }
+    }
+
+    @Test
+    public void testEventsAreWrittenAsArray() {
+        JsonObject eiffelEventJson = gson.toJsonTree(createEiffelEvent()).getAsJsonObject();
+        JsonArray expected = new JsonArray();
+        expected.add(eiffelEventJson);
+        expected.add(eiffelEventJson);
+
+        SerializedEiffelEvent eiffelEvent = SerializedEiffelEvent.of(createEiffelEvent());
+
+        try (JsonBuffer buffer = EiffelEventSerializer.writeArray(Arrays.asList(eiffelEvent, eiffelEvent))) {
+            assertEquals(expected.toString(), buffer.toString());
+        }
+    }
+
+    @Test
+    public void testBufferIsReused() {
+        JsonBuffer first = EiffelEventSerializer.write(createEiffelEvent());
+        first.close();
+        JsonBuffer second = EiffelEventSerializer.write(createEiffelEvent());
+        second.close();
+
+        assertSame("Expected the closed buffer to be reused", first, second);
+    }
+
+    private static EiffelSourceChangeCreatedEvent createEiffelEvent() {
+        EiffelSourceChangeCreatedEvent eiffelEvent = new EiffelSourceChangeCreatedEvent();
+        eiffelEvent.msgParams.meta.type = "EiffelSourceChangeCreatedEvent";
+        eiffelEvent.eventParams.data.author.name = "\u00c5sa <bot> & \"co\"";
+        Link link = new Link();
+        link.type = "PREVIOUS_VERSION";
+        link.target = "7e0bc9ec-2fa1-4d3b-a6b4-2d5d3a3fd9d8";
+        eiffelEvent.eventParams.links.add(link);
+        return eiffelEvent;
+    }
+}
@@ -0,0 +1,104 @@
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OutboxLogTest {
+    private static final int SEGMENT_SIZE = 256;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private File outboxDir;
+
+    @Before
+    public void init() throws IOException {
+        outboxDir = testFolder.newFolder();
+    }
+
+    @Test
+    public void testUnacknowledgedRecordsAreReadBack() throws IOException {
+        OutboxLog outboxLog = new OutboxLog(outboxDir, SEGMENT_SIZE);
+        long first = outboxLog.append(payload("first"));
+        outboxLog.append(payload("second"));
+        outboxLog.append(payload("third"));
+        outboxLog.acknowledge(first);
+        outboxLog.close();
+
+        OutboxLog reopenedLog = new OutboxLog(outboxDir, SEGMENT_SIZE);
+        List<OutboxRecord> records = reopenedLog.takeUnacknowledgedRecords();
+        assertEquals("Expected the unacknowledged records", 2, records.size());
+        assertEquals("second", text(records.get(0)));
+        assertEquals("third", text(records.get(1)));
+        assertEquals("Records are handed out once", 0, reopenedLog.takeUnacknowledgedRecords().size());
+
+        long next = reopenedLog.append(payload("fourth"));
+        assertEquals("Sequence numbers should continue", records.get(1).getSequence() + 1, next);
+        reopenedLog.close();
+    }
+
+    @Test
+    public void testTornRecordIsIgnored() throws IOException {
+        OutboxLog outboxLog = new OutboxLog(outboxDir, SEGMENT_SIZE);
+        outboxLog.append(payload("complete"));
+        outboxLog.append(payload("torn"));
+        outboxLog.close();
+
+        File segmentFile = outboxDir.listFiles((dir, name) -> name.startsWith("segment-"))[0];
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile, "rw")) {
+            int secondRecord = 16 + "complete".length();
+            file.seek(secondRecord + 16);
+            file.write('X');
+        }
+
+        OutboxLog reopenedLog = new OutboxLog(outboxDir, SEGMENT_SIZE);
+        List<OutboxRecord> records = reopenedLog.takeUnacknowledgedRecords();
+        assertEquals("Expected only the complete record", 1, records.size());
+        assertEquals("complete", text(records.get(0)));
+
+        reopenedLog.append(payload("after"));
+        reopenedLog.close();
+        assertEquals("Expected the new record after the complete one", 2,
+                new OutboxLog(outboxDir, SEGMENT_SIZE).takeUnacknowledgedRecords().size());
+    }
+
+    @Test
+    public void testAcknowledgedSegmentsAreDeleted() throws IOException {
+        OutboxLog outboxLog = new OutboxLog(outboxDir, SEGMENT_SIZE);
+        long last = 0;
+        for (int i = 0; i < 20; i++) {
+            last = outboxLog.append(payload("event number " + i));
+        }
+        int segmentCount = outboxLog.getSegmentCount();
+        assertEquals("Expected several segments", true, segmentCount > 2);
+
+        for (long sequence = last; sequence > 0; sequence--) {
+            outboxLog.acknowledge(sequence);
+        }
+        outboxLog.sync();
+
+        assertEquals("Expected only the current segment to be kept", 1, outboxLog.getSegmentCount());
+        assertEquals("Expected nothing pending", 0, outboxLog.getPendingCount());
+        outboxLog.close();
+        assertEquals("Expected nothing to be read back", 0,
+                new OutboxLog(outboxDir, SEGMENT_SIZE).takeUnacknowledgedRecords().size());
+    }
+
+    private static byte[] payload(final String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(final OutboxRecord record) {
+        return new String(record.getPayload(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,90 @@
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.gerrit.plugins.eiffel.messaging.CircuitBreaker.State;
+
+public class RemremEndpointTest {
+    private static final PublishResult OK = new PublishResult("id", 200, null);
+    private static final PublishResult UNAVAILABLE = new PublishResult(null, 503, "Service Unavailable");
+
+    private final AtomicLong clock = new AtomicLong(1000);
+    private RemremEndpoints remremEndpoints;
+
+    @Before
+    public void init() {
+        remremEndpoints = new RemremEndpoints(3, 10000, 1, 8, 500, clock::get);
+    }
+
+    @Test
+    public void testCircuitOpensAfterConsecutiveFailures() {
+        RemremEndpoint endpoint = remremEndpoints.get("https://slow-remrem/publish");
+        for (int i = 0; i < 3; i++) {
+            endpoint.release(endpoint.tryAcquire(), UNAVAILABLE);
+        }
+
+        assertEquals(State.OPEN, endpoint.getCircuitBreaker().getState());
+        assertEquals("Expected requests to be held back", -1, endpoint.tryAcquire());
+        assertEquals("Expected the remaining open time", 10000, endpoint.getRetryDelayMs());
+
+        RemremEndpoint otherEndpoint = remremEndpoints.get("https://remrem/publish");
+        assertTrue("Expected other endpoints to be unaffected", otherEndpoint.tryAcquire() >= 0);
+    }
+
+    @Test
+    public void testHalfOpenCircuitLetsOneTrialThrough() {
+        RemremEndpoint endpoint = remremEndpoints.get("https://remrem/publish");
+        for (int i = 0; i < 3; i++) {
+            endpoint.release(endpoint.tryAcquire(), UNAVAILABLE);
+        }
+        clock.addAndGet(10000);
+
+        long trialStart = endpoint.tryAcquire();
+        assertTrue("Expected a trial request", trialStart >= 0);
+        assertEquals("Expected a single trial request", -1, endpoint.tryAcquire());
+
+        endpoint.release(trialStart, OK);
+        assertEquals(State.CLOSED, endpoint.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void testFailedTrialOpensCircuitAgain() {
+        RemremEndpoint endpoint = remremEndpoints.get("https://remrem/publish");
+        for (int i = 0; i < 3; i++) {
+            endpoint.release(endpoint.tryAcquire(), UNAVAILABLE);
+        }
+        clock.addAndGet(10000);
+
+        endpoint.release(endpoint.tryAcquire(), UNAVAILABLE);
+        assertEquals(State.OPEN, endpoint.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void testConcurrencyLimitDecreasesAndRecovers() {
+        RemremEndpoint endpoint = remremEndpoints.get("https://remrem/publish");
+        AimdConcurrencyLimiter limiter = endpoint.getConcurrencyLimiter();
+        assertEquals(8, limiter.getLimit());
+
+        long start = endpoint.tryAcquire();
+        clock.addAndGet(1000);
+        endpoint.release(start, OK);
+        assertEquals("Expected a slow call to halve the limit", 4, limiter.getLimit());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue("Expected room for request " + i, endpoint.tryAcquire() >= 0);
+        }
+        assertEquals("Expected the limit to be reached", -1, endpoint.tryAcquire());
+
+        for (int i = 0; i < 20; i++) {
+            endpoint.release(clock.get(), OK);
+            endpoint.tryAcquire();
+        }
+        assertTrue("Expected fast calls to raise the limit", limiter.getLimit() > 4);
+    }
+}
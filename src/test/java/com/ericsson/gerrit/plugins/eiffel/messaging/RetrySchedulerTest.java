@@ -0,0 +1,192 @@
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeSubmittedEvent;
+
+public class RetrySchedulerTest {
+    private static final int MAX_ATTEMPTS = 3;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private EiffelEventSender sender;
+    private DeadLetterStore deadLetterStore;
+    private EiffelPluginConfiguration pluginConfig;
+    private final List<Runnable> scheduledRetries = new ArrayList<>();
+    private final List<Long> scheduledDelays = new ArrayList<>();
+    private ScheduledExecutorService executor;
+
+    @Before
+    public void init() throws IOException {
+        sender = mock(EiffelEventSender.class);
+        deadLetterStore = new DeadLetterStore(testFolder.newFolder());
+        pluginConfig = mock(EiffelPluginConfiguration.class);
+        when(pluginConfig.getRemremPublishURL()).thenReturn("https://localhost:8080/publish");
+        when(pluginConfig.getProject()).thenReturn("my-project");
+        executor = mock(ScheduledExecutorService.class);
+        when(executor.schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS))).then(invocation -> {
+            scheduledRetries.add(invocation.getArgument(0));
+            scheduledDelays.add(invocation.getArgument(1));
+            return null;
+        });
+    }
+
+    @Test
+    public void testTransientFailureIsRetried() throws IOException {
+        when(sender.publish(any(), any())).thenThrow(new IOException("Connection reset"))
+                                           .thenReturn(new PublishResult("id", 200, null));
+        RetryScheduler retryScheduler = createRetryScheduler(4);
+        List<PublishResult> results = new ArrayList<>();
+
+        retryScheduler.publish(createEvent(), pluginConfig, results::add);
+        assertEquals("Expected a scheduled retry", 1, retryScheduler.getScheduledCount());
+        runScheduledRetries();
+
+        assertEquals("Expected a single final result", 1, results.size());
+        assertTrue("Expected the event to be published", results.get(0).isPublished());
+        assertEquals("Expected no dead letters", 0, deadLetterStore.size());
+    }
+
+    @Test
+    public void testEventIsMovedToDeadLettersAfterMaxAttempts() throws IOException {
+        when(sender.publish(any(), any())).thenReturn(new PublishResult(null, 503, "Service Unavailable"));
+        RetryScheduler retryScheduler = createRetryScheduler(4);
+
+        retryScheduler.publish(createEvent(), pluginConfig, result -> {
+        });
+        runScheduledRetries();
+
+        verify(sender, times(MAX_ATTEMPTS)).publish(any(), any());
+        assertEquals("Expected the event in the dead letters", 1, deadLetterStore.size());
+        assertEquals("my-project", deadLetterStore.readAll().get(0).get("project").getAsString());
+    }
+
+    @Test
+    public void testRejectedEventIsNotRetried() throws IOException {
+        when(sender.publish(any(), any())).thenReturn(new PublishResult(null, 400, "Bad Request"));
+        RetryScheduler retryScheduler = createRetryScheduler(4);
+
+        retryScheduler.publish(createEvent(), pluginConfig, result -> {
+        });
+
+        assertEquals("Expected no retry", 0, retryScheduler.getScheduledCount());
+        assertEquals("Expected no dead letters", 0, deadLetterStore.size());
+    }
+
+    @Test
+    public void testInFlightLimitDefersEvents() throws IOException {
+        RetryScheduler retryScheduler = createRetryScheduler(1);
+        List<PublishResult> results = new ArrayList<>();
+        when(sender.publish(any(), any())).then(invocation -> {
+            if (results.isEmpty() && scheduledRetries.isEmpty()) {
+                retryScheduler.publish(createEvent(), pluginConfig, results::add);
+            }
+            return new PublishResult("id", 200, null);
+        });
+
+        retryScheduler.publish(createEvent(), pluginConfig, results::add);
+        assertEquals("Expected the nested event to wait for a permit", 1, scheduledRetries.size());
+        runScheduledRetries();
+
+        assertEquals("Expected both events to be published", 2, results.size());
+    }
+
+    @Test
+    public void testLaterEventIsNotHeldBackByRetry() throws IOException {
+        SerializedEiffelEvent firstEvent = createEvent();
+        SerializedEiffelEvent secondEvent = createEvent();
+        when(sender.publish(firstEvent, pluginConfig)).thenThrow(new IOException("Connection reset"))
+                                                      .thenReturn(new PublishResult("id-1", 200, null));
+        when(sender.publish(secondEvent, pluginConfig)).thenReturn(new PublishResult("id-2", 200, null));
+        RetryScheduler retryScheduler = createRetryScheduler(4);
+        List<String> publishedIds = new ArrayList<>();
+
+        retryScheduler.publish(firstEvent, pluginConfig, result -> publishedIds.add(result.getEventId()));
+        retryScheduler.publish(secondEvent, pluginConfig, result -> publishedIds.add(result.getEventId()));
+        runScheduledRetries();
+
+        assertEquals("Ordering covers generation only, the retried event is published last",
+                Arrays.asList("id-2", "id-1"), publishedIds);
+    }
+
+    @Test
+    public void testBackoffDelayIsCapped() {
+        RetryScheduler retryScheduler = createRetryScheduler(1);
+        for (int attempt = 1; attempt < 50; attempt++) {
+            long delay = retryScheduler.getBackoffDelayMs(attempt);
+            long ceiling = Math.min(1000, 100L << Math.min(attempt - 1, 30));
+            assertTrue("Delay out of range: " + delay, delay >= 0 && delay <= ceiling);
+        }
+    }
+
+    @Test
+    public void testStoppedExecutorMovesEventToDeadLetters() throws IOException {
+        when(sender.publish(any(), any())).thenThrow(new IOException("Connection refused"));
+        RetryScheduler retryScheduler = new RetryScheduler(() -> null, sender, deadLetterStore,
+                createEndpoints(1), MAX_ATTEMPTS, 100, 1000);
+
+        retryScheduler.publish(createEvent(), pluginConfig, result -> {
+        });
+
+        assertEquals("Expected the event in the dead letters", 1, deadLetterStore.size());
+    }
+
+    @Test
+    public void testScheduledRetriesAreMovedToDeadLettersOnStop() throws IOException {
+        when(sender.publish(any(), any())).thenThrow(new IOException("Connection reset"));
+        RetryScheduler retryScheduler = createRetryScheduler(4);
+        List<PublishResult> results = new ArrayList<>();
+        retryScheduler.publish(createEvent(), pluginConfig, results::add);
+
+        assertEquals("Expected one event moved", 1, retryScheduler.moveScheduledToDeadLetters());
+        runScheduledRetries();
+
+        verify(sender, times(1)).publish(any(), any());
+        assertEquals("Expected the event in the dead letters", 1, deadLetterStore.size());
+        assertEquals("Expected a single final result", 1, results.size());
+        assertEquals("Expected no retry", 0, retryScheduler.getScheduledCount());
+    }
+
+    private RetryScheduler createRetryScheduler(final int maxInFlight) {
+        return new RetryScheduler(() -> executor, sender, deadLetterStore, createEndpoints(maxInFlight),
+                MAX_ATTEMPTS, 100, 1000);
+    }
+
+    private static RemremEndpoints createEndpoints(final int maxInFlight) {
+        return new RemremEndpoints(5, 30000, 1, maxInFlight, 5000, System::currentTimeMillis);
+    }
+
+    private void runScheduledRetries() {
+        while (!scheduledRetries.isEmpty()) {
+            scheduledRetries.remove(0).run();
+        }
+    }
+
+    private static SerializedEiffelEvent createEvent() {
+        EiffelSourceChangeSubmittedEvent eiffelEvent = new EiffelSourceChangeSubmittedEvent();
+        eiffelEvent.msgParams.meta.type = "EiffelSourceChangeSubmittedEvent";
+        return SerializedEiffelEvent.of(eiffelEvent);
+    }
+}
@@ -0,0 +1,91 @@
+package com.ericsson.gerrit.plugins.eiffel.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics.PublishOutcome;
+import com.ericsson.gerrit.plugins.eiffel.metrics.EiffelMetrics.Stage;
+import com.google.gerrit.extensions.registration.RegistrationHandle;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Counter2;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.metrics.Timer2;
+
+public class EiffelMetricsTest {
+    private static final String URL = "https://remrem.example.com/publish";
+
+    private MetricMaker metricMaker;
+    private Timer1<Object> timer;
+    private Counter2<Object, Object> publishCount;
+    private RegistrationHandle gauge;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void init() {
+        metricMaker = mock(MetricMaker.class);
+        timer = mock(Timer1.class);
+        publishCount = mock(Counter2.class);
+        gauge = mock(RegistrationHandle.class);
+        Timer2<Object, Object> stateTimer = mock(Timer2.class);
+        when(metricMaker.newTimer(anyString(), any(Description.class), any(Field.class))).thenReturn(timer);
+        when(metricMaker.newTimer(anyString(), any(Description.class), any(Field.class), any(Field.class)))
+                .thenReturn(stateTimer);
+        when(metricMaker.newCounter(anyString(), any(Description.class))).thenReturn(mock(Counter0.class));
+        when(metricMaker.newCounter(anyString(), any(Description.class), any(Field.class), any(Field.class)))
+                .thenReturn(publishCount);
+        when(metricMaker.newCallbackMetric(anyString(), any(), any(Description.class), any())).thenReturn(gauge);
+    }
+
+    @Test
+    public void testPublishOutcomeFollowsStatusCode() {
+        assertEquals(PublishOutcome.PUBLISHED, PublishOutcome.of(200));
+        assertEquals(PublishOutcome.PUBLISHED, PublishOutcome.of(207));
+        assertEquals(PublishOutcome.REJECTED, PublishOutcome.of(400));
+        assertEquals(PublishOutcome.FAILED, PublishOutcome.of(503));
+    }
+
+    @Test
+    public void testPublishIsRecordedPerUrlAndOutcome() {
+        EiffelMetrics metrics = new EiffelMetrics(metricMaker);
+
+        metrics.recordPublish(URL, PublishOutcome.REJECTED, System.nanoTime());
+        metrics.recordStage(Stage.GENERATE, System.nanoTime());
+
+        verify(publishCount).increment(URL, PublishOutcome.REJECTED);
+        verify(timer).record(eq(URL), any(Long.class), eq(TimeUnit.NANOSECONDS));
+        verify(timer).record(eq(Stage.GENERATE), any(Long.class), eq(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testQueueGaugesAreRemovedTogether() {
+        EiffelMetrics metrics = new EiffelMetrics(metricMaker);
+
+        metrics.registerQueueGauges(() -> 0, () -> 0L).remove();
+
+        verify(gauge, times(2)).remove();
+    }
+
+    @Test
+    public void testStateCacheGaugesAreRemovedTogether() {
+        EiffelMetrics metrics = new EiffelMetrics(metricMaker);
+
+        metrics.registerStateCacheGauges(() -> 3L, () -> 1L, () -> 2L).remove();
+
+        verify(metricMaker).newCallbackMetric(eq("state/cache_hits"), eq(Long.class), any(Description.class), any());
+        verify(gauge, times(3)).remove();
+    }
+}